@@ -0,0 +1,109 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package HTTPClient;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks for reading a response body with {@link Response#getData()}.
+ *
+ * <p>
+ * Bodies with a Content-Length header are read into an array of the right
+ * size; bodies without are read by repeatedly growing an array.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseBenchmark {
+
+  /**
+   * The size of the response body in bytes.
+   */
+  @Param({ "1024", "65536", "1048576" })
+  public int m_size;
+
+  private byte[] m_body;
+  private NVPair[] m_contentLengthHeaders;
+
+  /**
+   * Create the response body.
+   */
+  @Setup public void setUp() {
+    m_body = new byte[m_size];
+
+    for (int i = 0; i < m_size; ++i) {
+      m_body[i] = (byte) i;
+    }
+
+    m_contentLengthHeaders =
+      new NVPair[] { new NVPair("Content-Length", Integer.toString(m_size)) };
+  }
+
+  /**
+   * Read a body with a known length.
+   *
+   * @return The body.
+   * @throws Exception Should not happen.
+   */
+  @Benchmark public byte[] knownLength() throws Exception {
+    return new Response("HTTP/1.1", 200, "OK",
+                        m_contentLengthHeaders,
+                        null,
+                        new ByteArrayInputStream(m_body),
+                        m_size).getData();
+  }
+
+  /**
+   * Read a body with an unknown length.
+   *
+   * @return The body.
+   * @throws Exception Should not happen.
+   */
+  @Benchmark public byte[] unknownLength() throws Exception {
+    return new Response("HTTP/1.1", 200, "OK",
+                        null,
+                        null,
+                        new ByteArrayInputStream(m_body),
+                        -1).getData();
+  }
+}
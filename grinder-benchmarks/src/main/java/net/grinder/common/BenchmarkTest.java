@@ -0,0 +1,60 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.common;
+
+
+/**
+ * Minimal {@link Test} implementation for the benchmarks.
+ *
+ * @author Philip Aston
+ */
+public final class BenchmarkTest extends AbstractTestSemantics {
+
+  private final int m_number;
+  private final String m_description;
+
+  /**
+   * Constructor.
+   *
+   * @param number The test number.
+   * @param description The test description.
+   */
+  public BenchmarkTest(int number, String description) {
+    m_number = number;
+    m_description = description;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public int getNumber() {
+    return m_number;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String getDescription() {
+    return m_description;
+  }
+}
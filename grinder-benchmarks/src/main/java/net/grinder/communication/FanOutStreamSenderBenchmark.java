@@ -0,0 +1,131 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.communication;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.grinder.messages.agent.DistributeFileMessage;
+import net.grinder.util.FileContents;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmark for broadcasting a {@link DistributeFileMessage} to many
+ * connections, as the console does during file distribution.
+ *
+ * @author Philip Aston
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FanOutStreamSenderBenchmark {
+
+  /**
+   * The number of connections.
+   */
+  @Param({ "10", "100", "400" })
+  public int m_numberOfStreams;
+
+  /**
+   * The size of the distributed file.
+   */
+  @Param({ "65536" })
+  public int m_fileSize;
+
+  private FanOutStreamSender m_sender;
+  private DistributeFileMessage m_message;
+
+  /**
+   * Create the sender and message.
+   *
+   * @throws Exception If the file could not be read.
+   */
+  @Setup public void setUp() throws Exception {
+    m_sender = new FanOutStreamSender(4);
+
+    for (int i = 0; i < m_numberOfStreams; ++i) {
+      m_sender.add(new NullOutputStream());
+    }
+
+    final File file = File.createTempFile("benchmark", ".dat");
+    file.deleteOnExit();
+
+    final byte[] data = new byte[m_fileSize];
+    new Random(0).nextBytes(data);
+
+    final OutputStream out = new FileOutputStream(file);
+
+    try {
+      out.write(data);
+    }
+    finally {
+      out.close();
+    }
+
+    m_message = new DistributeFileMessage(
+      new FileContents(file.getParentFile(), new File(file.getName())));
+  }
+
+  /**
+   * Shut down the sender.
+   */
+  @TearDown public void tearDown() {
+    m_sender.shutdown();
+  }
+
+  /**
+   * Broadcast the message. The next send blocks until every stream has been
+   * written, so the average time covers all the work.
+   *
+   * @throws Exception Should not happen.
+   */
+  @Benchmark public void send() throws Exception {
+    m_sender.send(m_message);
+  }
+
+  private static final class NullOutputStream extends OutputStream {
+    @Override public void write(int b) {
+    }
+
+    @Override public void write(byte[] b, int off, int len) {
+    }
+  }
+}
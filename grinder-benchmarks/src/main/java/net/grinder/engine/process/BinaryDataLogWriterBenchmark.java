@@ -0,0 +1,164 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.engine.process;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.grinder.common.BenchmarkTest;
+import net.grinder.common.Test;
+import net.grinder.statistics.StatisticsIndexMap;
+import net.grinder.statistics.StatisticsServices;
+import net.grinder.statistics.StatisticsServicesImplementation;
+import net.grinder.statistics.StatisticsSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.helpers.NOPLogger;
+
+
+/**
+ * Benchmarks for {@link BinaryDataLogWriter.ThreadWriter#report} with many
+ * worker threads sharing a single {@link BinaryDataLogWriter}, as they do
+ * in a worker process.
+ *
+ * <p>
+ * The data log is written to a temporary file by the background thread.
+ * {@link ThreadDataLoggerBenchmark} covers the single threaded case.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BinaryDataLogWriterBenchmark {
+
+  /**
+   * State shared by all benchmark threads.
+   */
+  @State(Scope.Benchmark)
+  public static class SharedState {
+    private final AtomicInteger m_nextThreadNumber = new AtomicInteger();
+    private final Test m_test = new BenchmarkTest(1, "benchmark");
+
+    private File m_file;
+    private BinaryDataLogWriter m_writer;
+    private StatisticsSet m_statistics;
+
+    /**
+     * Create the writer and some representative statistics.
+     *
+     * @throws Exception If the binary data log could not be created.
+     */
+    @Setup public void setUp() throws Exception {
+      final StatisticsServices statisticsServices =
+        StatisticsServicesImplementation.getInstance();
+
+      m_file = File.createTempFile("data", ".bin");
+
+      m_writer =
+        new BinaryDataLogWriter(
+          m_file,
+          statisticsServices.getDetailStatisticsView().getExpressionViews(),
+          NOPLogger.NOP_LOGGER);
+
+      final StatisticsIndexMap indexMap =
+        statisticsServices.getStatisticsIndexMap();
+
+      m_statistics = statisticsServices.getStatisticsSetFactory().create();
+      m_statistics.addSample(indexMap.getLongSampleIndex("timedTests"), 123);
+    }
+
+    /**
+     * Close and remove the binary data log.
+     */
+    @TearDown public void tearDown() {
+      m_writer.close();
+      m_file.delete();
+    }
+  }
+
+  /**
+   * Per-thread state. Each benchmark thread plays the part of a worker
+   * thread, and so has its own thread writer.
+   */
+  @State(Scope.Thread)
+  public static class WorkerState {
+    private BinaryDataLogWriter.ThreadWriter m_threadWriter;
+    private int m_runNumber;
+
+    /**
+     * Create the thread writer for this benchmark thread.
+     *
+     * @param shared The shared state.
+     */
+    @Setup public void setUp(SharedState shared) {
+      m_threadWriter =
+        shared.m_writer.createThreadWriter(
+          shared.m_nextThreadNumber.getAndIncrement());
+    }
+  }
+
+  /**
+   * Sixteen worker threads.
+   *
+   * @param shared The shared state.
+   * @param worker The per-thread state.
+   */
+  @Benchmark @Threads(16)
+  public void report16(SharedState shared, WorkerState worker) {
+    report(shared, worker);
+  }
+
+  /**
+   * Five hundred worker threads. A large, but not unusual, worker process.
+   *
+   * @param shared The shared state.
+   * @param worker The per-thread state.
+   */
+  @Benchmark @Threads(500)
+  public void report500(SharedState shared, WorkerState worker) {
+    report(shared, worker);
+  }
+
+  private static void report(SharedState shared, WorkerState worker) {
+    worker.m_threadWriter.report(++worker.m_runNumber,
+                                 shared.m_test,
+                                 1000,
+                                 shared.m_statistics);
+  }
+}
@@ -0,0 +1,189 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.engine.process;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.grinder.common.BenchmarkTest;
+import net.grinder.common.GrinderProperties;
+import net.grinder.statistics.StatisticsServices;
+import net.grinder.statistics.StatisticsServicesImplementation;
+import net.grinder.util.StandardTimeAuthority;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.helpers.NOPLogger;
+
+
+/**
+ * Benchmarks for the test dispatch path: {@link TestData#start()} and
+ * {@link TestData#end(boolean)}.
+ *
+ * <p>
+ * The multi-threaded variants share a single {@link TestData} between the
+ * benchmark threads, as a script's {@code Test} is shared between worker
+ * threads, and so measure contention on the test statistics.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TestDataBenchmark {
+
+  /**
+   * State shared by all benchmark threads.
+   */
+  @State(Scope.Benchmark)
+  public static class SharedState {
+    private final PerThreadContextLocator m_threadContextLocator =
+      new PerThreadContextLocator();
+
+    private final AtomicInteger m_nextThreadNumber = new AtomicInteger();
+
+    private StatisticsServices m_statisticsServices;
+    private TestData m_testData;
+
+    /**
+     * Create the test.
+     */
+    @Setup public void setUp() {
+      m_statisticsServices = StatisticsServicesImplementation.getInstance();
+
+      m_testData =
+        new TestData(m_threadContextLocator,
+                     m_statisticsServices.getStatisticsSetFactory(),
+                     new TestStatisticsHelperImplementation(
+                       m_statisticsServices.getStatisticsIndexMap()),
+                     new StandardTimeAuthority(),
+                     TimeUnit.MILLISECONDS,
+                     null,
+                     new BenchmarkTest(1, "benchmark"));
+    }
+
+    /**
+     * Drain the statistics recorded by the worker threads, as the process
+     * report timer would.
+     */
+    @TearDown public void tearDown() {
+      m_testData.collectStatistics();
+    }
+  }
+
+  /**
+   * Per-thread state. Each benchmark thread plays the part of a worker
+   * thread, and so has its own {@link ThreadContext}.
+   */
+  @State(Scope.Thread)
+  public static class WorkerState {
+
+    /**
+     * Create the thread context for this benchmark thread.
+     *
+     * @param shared The shared state.
+     * @throws Exception If the thread context could not be created.
+     */
+    @Setup public void setUp(SharedState shared) throws Exception {
+      // The data log is disabled; ThreadDataLoggerBenchmark covers it.
+      shared.m_threadContextLocator.set(
+        new ThreadContextImplementation(
+          new GrinderProperties(),
+          shared.m_statisticsServices,
+          shared.m_nextThreadNumber.getAndIncrement(),
+          NOPLogger.NOP_LOGGER));
+    }
+  }
+
+  /**
+   * Single worker thread.
+   *
+   * @param shared The shared state.
+   * @param worker The per-thread state.
+   * @throws Exception Should not happen.
+   */
+  @Benchmark @Threads(1)
+  public void dispatch1(SharedState shared, WorkerState worker)
+    throws Exception {
+    dispatch(shared.m_testData);
+  }
+
+  /**
+   * Four worker threads.
+   *
+   * @param shared The shared state.
+   * @param worker The per-thread state.
+   * @throws Exception Should not happen.
+   */
+  @Benchmark @Threads(4)
+  public void dispatch4(SharedState shared, WorkerState worker)
+    throws Exception {
+    dispatch(shared.m_testData);
+  }
+
+  /**
+   * Sixteen worker threads.
+   *
+   * @param shared The shared state.
+   * @param worker The per-thread state.
+   * @throws Exception Should not happen.
+   */
+  @Benchmark @Threads(16)
+  public void dispatch16(SharedState shared, WorkerState worker)
+    throws Exception {
+    dispatch(shared.m_testData);
+  }
+
+  private static void dispatch(TestData testData) throws Exception {
+    testData.start();
+    testData.end(true);
+  }
+
+  private static final class PerThreadContextLocator
+    implements ThreadContextLocator {
+
+    private final ThreadLocal<ThreadContext> m_threadContext =
+      new ThreadLocal<ThreadContext>();
+
+    public ThreadContext get() {
+      return m_threadContext.get();
+    }
+
+    public void set(ThreadContext threadContext) {
+      m_threadContext.set(threadContext);
+    }
+  }
+}
@@ -0,0 +1,156 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.engine.process;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import net.grinder.common.BenchmarkTest;
+import net.grinder.common.Test;
+import net.grinder.statistics.StatisticsIndexMap;
+import net.grinder.statistics.StatisticsServices;
+import net.grinder.statistics.StatisticsServicesImplementation;
+import net.grinder.statistics.StatisticsSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.helpers.NOPLogger;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.helpers.NOPAppender;
+
+
+/**
+ * Benchmarks for {@link ThreadDataLogger#report}, and the
+ * {@link BinaryDataLogWriter} alternative.
+ *
+ * <p>
+ * The text data log is enabled but has an appender that discards events,
+ * so this measures the formatting of the data log line and the creation of
+ * the logging event, but not the I/O. The binary data log is written to a
+ * temporary file by its background thread.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ThreadDataLoggerBenchmark {
+
+  private final Test m_test = new BenchmarkTest(1, "benchmark");
+
+  private ThreadDataLogger m_threadDataLogger;
+  private File m_binaryFile;
+  private BinaryDataLogWriter m_binaryDataLogWriter;
+  private BinaryDataLogWriter.ThreadWriter m_binaryThreadWriter;
+  private StatisticsSet m_statistics;
+  private int m_runNumber;
+
+  /**
+   * Create the loggers and some representative statistics.
+   *
+   * @throws Exception If the binary data log could not be created.
+   */
+  @Setup public void setUp() throws Exception {
+    final LoggerContext loggerContext = new LoggerContext();
+    final Logger dataLogger = loggerContext.getLogger("data");
+    dataLogger.setLevel(Level.INFO);
+    dataLogger.setAdditive(false);
+
+    final NOPAppender<ILoggingEvent> appender = new NOPAppender<ILoggingEvent>();
+    appender.setContext(loggerContext);
+    appender.start();
+    dataLogger.addAppender(appender);
+
+    final StatisticsServices statisticsServices =
+      StatisticsServicesImplementation.getInstance();
+
+    m_threadDataLogger =
+      new ThreadDataLogger(
+        dataLogger,
+        statisticsServices.getDetailStatisticsView().getExpressionViews(),
+        1);
+
+    m_binaryFile = File.createTempFile("data", ".bin");
+
+    m_binaryDataLogWriter =
+      new BinaryDataLogWriter(
+        m_binaryFile,
+        statisticsServices.getDetailStatisticsView().getExpressionViews(),
+        NOPLogger.NOP_LOGGER);
+
+    m_binaryThreadWriter = m_binaryDataLogWriter.createThreadWriter(1);
+
+    final StatisticsIndexMap indexMap =
+      statisticsServices.getStatisticsIndexMap();
+
+    m_statistics = statisticsServices.getStatisticsSetFactory().create();
+    m_statistics.addSample(indexMap.getLongSampleIndex("timedTests"), 123);
+  }
+
+  /**
+   * Close and remove the binary data log.
+   */
+  @TearDown public void tearDown() {
+    m_binaryDataLogWriter.close();
+    m_binaryFile.delete();
+  }
+
+  /**
+   * Several reports in the same run. The common case for a script with
+   * more than one test.
+   */
+  @Benchmark public void reportSameRun() {
+    m_threadDataLogger.report(0, m_test, 1000, m_statistics);
+  }
+
+  /**
+   * A report for a new run each time.
+   */
+  @Benchmark public void reportNewRun() {
+    m_threadDataLogger.report(++m_runNumber, m_test, 1000, m_statistics);
+  }
+
+  /**
+   * A report to the binary data log.
+   */
+  @Benchmark public void reportBinary() {
+    m_binaryThreadWriter.report(++m_runNumber, m_test, 1000, m_statistics);
+  }
+}
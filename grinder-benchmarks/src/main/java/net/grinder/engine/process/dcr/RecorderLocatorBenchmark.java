@@ -0,0 +1,115 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.engine.process.dcr;
+
+import java.util.concurrent.TimeUnit;
+
+import net.grinder.scriptengine.Recorder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks for the {@link RecorderLocator} calls made by woven code.
+ *
+ * <p>
+ * Both instrumented and uninstrumented targets are measured. The latter is
+ * important because woven code for widely used classes is mostly traversed
+ * with references that have no recorders.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecorderLocatorBenchmark {
+
+  // String literals are interned, as RecorderLocator requires.
+  private static final String LOCATION = "benchmark-location";
+
+  private final Object m_instrumented = new Object();
+  private final Object m_uninstrumented = new Object();
+  private final CountingRecorder m_recorder = new CountingRecorder();
+
+  /**
+   * Register the recorder.
+   */
+  @Setup public void setUp() {
+    RecorderLocator.getRecorderRegistry().register(m_instrumented,
+                                                   LOCATION,
+                                                   m_recorder);
+  }
+
+  /**
+   * Remove the recorder.
+   */
+  @TearDown public void tearDown() {
+    RecorderLocator.clearRecorders();
+  }
+
+  /**
+   * Enter and exit for a target with a registered recorder.
+   */
+  @Benchmark public void instrumented() {
+    RecorderLocator.enter(m_instrumented, LOCATION);
+    RecorderLocator.exit(m_instrumented, LOCATION, true);
+  }
+
+  /**
+   * Enter and exit for a target without a registered recorder.
+   */
+  @Benchmark public void uninstrumented() {
+    RecorderLocator.enter(m_uninstrumented, LOCATION);
+    RecorderLocator.exit(m_uninstrumented, LOCATION, true);
+  }
+
+  /**
+   * Trivial recorder. The counts prevent the calls being eliminated.
+   */
+  private static final class CountingRecorder implements Recorder {
+    private volatile int m_starts;
+    private volatile int m_ends;
+
+    public void start() {
+      ++m_starts;
+    }
+
+    public void end(boolean success) {
+      ++m_ends;
+    }
+  }
+}
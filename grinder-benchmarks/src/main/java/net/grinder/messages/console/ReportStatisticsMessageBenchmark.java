@@ -0,0 +1,169 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.messages.console;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import net.grinder.common.BenchmarkTest;
+import net.grinder.communication.MessageCodec;
+import net.grinder.statistics.StatisticsIndexMap;
+import net.grinder.statistics.StatisticsServices;
+import net.grinder.statistics.StatisticsServicesImplementation;
+import net.grinder.statistics.StatisticsSet;
+import net.grinder.statistics.StatisticsSetFactory;
+import net.grinder.statistics.TestStatisticsMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks for the Java serialisation and binary encoding of
+ * {@link ReportStatisticsMessage}s, as sent by each worker process at every
+ * report interval.
+ *
+ * @author Philip Aston
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReportStatisticsMessageBenchmark {
+
+  /**
+   * The number of tests in the report.
+   */
+  @Param({ "10", "100", "1000" })
+  public int m_numberOfTests;
+
+  private ReportStatisticsMessage m_message;
+  private byte[] m_serialised;
+  private MessageCodec<ReportStatisticsMessage> m_codec;
+  private byte[] m_encoded;
+
+  /**
+   * Create the message.
+   *
+   * @throws Exception If the message could not be serialised.
+   */
+  @Setup public void setUp() throws Exception {
+    final StatisticsServices statisticsServices =
+      StatisticsServicesImplementation.getInstance();
+
+    final StatisticsIndexMap.LongSampleIndex timedTestsIndex =
+      statisticsServices.getStatisticsIndexMap()
+      .getLongSampleIndex("timedTests");
+
+    final StatisticsSetFactory factory =
+      statisticsServices.getStatisticsSetFactory();
+
+    final TestStatisticsMap map = new TestStatisticsMap(factory);
+
+    for (int i = 0; i < m_numberOfTests; ++i) {
+      final StatisticsSet statistics = factory.create();
+      statistics.addSample(timedTestsIndex, i);
+      map.put(new BenchmarkTest(i, "test " + i), statistics);
+    }
+
+    m_message = new ReportStatisticsMessage(map);
+    m_serialised = serialise();
+
+    m_codec = ConsoleMessageCodecs.createRegistry(factory)
+      .getCodec(ReportStatisticsMessage.class);
+    m_encoded = encode();
+  }
+
+  /**
+   * Serialise the message.
+   *
+   * @return The serialised form.
+   * @throws Exception Should not happen.
+   */
+  @Benchmark public byte[] serialise() throws Exception {
+    final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+    final ObjectOutputStream objectStream = new ObjectOutputStream(byteStream);
+    objectStream.writeObject(m_message);
+    objectStream.close();
+
+    return byteStream.toByteArray();
+  }
+
+  /**
+   * Deserialise the message.
+   *
+   * @return The message.
+   * @throws Exception Should not happen.
+   */
+  @Benchmark public Object deserialise() throws Exception {
+    final ObjectInputStream objectStream =
+      new ObjectInputStream(new ByteArrayInputStream(m_serialised));
+
+    try {
+      return objectStream.readObject();
+    }
+    finally {
+      objectStream.close();
+    }
+  }
+
+  /**
+   * Encode the message with the binary wire format codec.
+   *
+   * @return The encoded form.
+   * @throws Exception Should not happen.
+   */
+  @Benchmark public byte[] encode() throws Exception {
+    final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+    m_codec.write(m_message, new DataOutputStream(byteStream));
+
+    return byteStream.toByteArray();
+  }
+
+  /**
+   * Decode the message with the binary wire format codec.
+   *
+   * @return The message.
+   * @throws Exception Should not happen.
+   */
+  @Benchmark public Object decode() throws Exception {
+    return m_codec.read(
+      new DataInputStream(new ByteArrayInputStream(m_encoded)));
+  }
+}
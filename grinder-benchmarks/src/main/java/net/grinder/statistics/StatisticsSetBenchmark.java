@@ -0,0 +1,98 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.statistics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks for {@link StatisticsSetImplementation}.
+ *
+ * @author Philip Aston
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StatisticsSetBenchmark {
+
+  private StatisticsIndexMap.LongSampleIndex m_timedTestsIndex;
+  private StatisticsSet m_statistics;
+  private StatisticsSet m_other;
+  private long m_time;
+
+  /**
+   * Create the statistics sets.
+   */
+  @Setup public void setUp() {
+    final StatisticsServices statisticsServices =
+      StatisticsServicesImplementation.getInstance();
+
+    m_timedTestsIndex = statisticsServices.getStatisticsIndexMap()
+                        .getLongSampleIndex("timedTests");
+
+    final StatisticsSetFactory factory =
+      statisticsServices.getStatisticsSetFactory();
+
+    m_statistics = factory.create();
+    m_other = factory.create();
+    m_other.addSample(m_timedTestsIndex, 123);
+  }
+
+  /**
+   * Add a test time. This includes the update of the test time histogram.
+   */
+  @Benchmark public void addSample() {
+    // Vary the value so the histogram bucket changes.
+    m_statistics.addSample(m_timedTestsIndex, ++m_time & 0xFFFF);
+  }
+
+  /**
+   * Take a snapshot.
+   *
+   * @return The snapshot.
+   */
+  @Benchmark public StatisticsSet snapshot() {
+    return m_statistics.snapshot();
+  }
+
+  /**
+   * Add one set to another.
+   */
+  @Benchmark public void add() {
+    m_statistics.add(m_other);
+  }
+}
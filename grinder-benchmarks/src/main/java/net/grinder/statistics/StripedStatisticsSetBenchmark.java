@@ -0,0 +1,173 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.statistics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Measures how adding test times scales with the number of threads, for a
+ * single shared {@link StatisticsSet} and for a {@link StripedStatisticsSet}
+ * created by {@link StatisticsSetFactory#createStriped()}.
+ *
+ * @author Philip Aston
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StripedStatisticsSetBenchmark {
+
+  /**
+   * State shared by all benchmark threads, as a test's statistics are
+   * shared by the worker threads.
+   */
+  @State(Scope.Benchmark)
+  public static class SharedState {
+    private StatisticsIndexMap.LongSampleIndex m_timedTestsIndex;
+    private StatisticsSet m_shared;
+    private StripedStatisticsSet m_striped;
+
+    /**
+     * Create the statistics sets.
+     */
+    @Setup public void setUp() {
+      final StatisticsServices statisticsServices =
+        StatisticsServicesImplementation.getInstance();
+
+      m_timedTestsIndex = statisticsServices.getStatisticsIndexMap()
+                          .getLongSampleIndex("timedTests");
+
+      final StatisticsSetFactory factory =
+        statisticsServices.getStatisticsSetFactory();
+
+      m_shared = factory.create();
+      m_striped = factory.createStriped();
+    }
+  }
+
+  /**
+   * Per-thread state. Like a worker thread, each benchmark thread caches its
+   * stripe.
+   */
+  @State(Scope.Thread)
+  public static class WorkerState {
+    private StatisticsSet m_stripe;
+    private long m_time;
+
+    /**
+     * Look up the stripe for this benchmark thread.
+     *
+     * @param shared The shared state.
+     */
+    @Setup public void setUp(SharedState shared) {
+      m_stripe = shared.m_striped.getStripe();
+    }
+  }
+
+  private static void addSample(SharedState shared,
+                                WorkerState worker,
+                                StatisticsSet statistics) {
+    // Vary the value so the histogram bucket changes.
+    statistics.addSample(shared.m_timedTestsIndex, ++worker.m_time & 0xFFFF);
+  }
+
+  /**
+   * One thread, shared set.
+   *
+   * @param shared The shared state.
+   * @param worker The per-thread state.
+   */
+  @Benchmark @Threads(1)
+  public void shared1(SharedState shared, WorkerState worker) {
+    addSample(shared, worker, shared.m_shared);
+  }
+
+  /**
+   * One thread, striped set.
+   *
+   * @param shared The shared state.
+   * @param worker The per-thread state.
+   */
+  @Benchmark @Threads(1)
+  public void striped1(SharedState shared, WorkerState worker) {
+    addSample(shared, worker, worker.m_stripe);
+  }
+
+  /**
+   * Four threads, shared set.
+   *
+   * @param shared The shared state.
+   * @param worker The per-thread state.
+   */
+  @Benchmark @Threads(4)
+  public void shared4(SharedState shared, WorkerState worker) {
+    addSample(shared, worker, shared.m_shared);
+  }
+
+  /**
+   * Four threads, striped set.
+   *
+   * @param shared The shared state.
+   * @param worker The per-thread state.
+   */
+  @Benchmark @Threads(4)
+  public void striped4(SharedState shared, WorkerState worker) {
+    addSample(shared, worker, worker.m_stripe);
+  }
+
+  /**
+   * Sixty four threads, shared set.
+   *
+   * @param shared The shared state.
+   * @param worker The per-thread state.
+   */
+  @Benchmark @Threads(64)
+  public void shared64(SharedState shared, WorkerState worker) {
+    addSample(shared, worker, shared.m_shared);
+  }
+
+  /**
+   * Sixty four threads, striped set. More threads than stripes.
+   *
+   * @param shared The shared state.
+   * @param worker The per-thread state.
+   */
+  @Benchmark @Threads(64)
+  public void striped64(SharedState shared, WorkerState worker) {
+    addSample(shared, worker, worker.m_stripe);
+  }
+}
@@ -0,0 +1,111 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.statistics;
+
+import java.util.concurrent.TimeUnit;
+
+import net.grinder.common.BenchmarkTest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks for {@link TestStatisticsMap}, as used by the worker process
+ * report timer and the console.
+ *
+ * @author Philip Aston
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TestStatisticsMapBenchmark {
+
+  /**
+   * The number of tests in the map.
+   */
+  @Param({ "10", "100", "1000" })
+  public int m_numberOfTests;
+
+  private StatisticsIndexMap.LongSampleIndex m_timedTestsIndex;
+  private StatisticsSet[] m_testStatistics;
+  private TestStatisticsMap m_map;
+  private TestStatisticsMap m_total;
+
+  /**
+   * Populate the map.
+   */
+  @Setup public void setUp() {
+    final StatisticsServices statisticsServices =
+      StatisticsServicesImplementation.getInstance();
+
+    m_timedTestsIndex = statisticsServices.getStatisticsIndexMap()
+                        .getLongSampleIndex("timedTests");
+
+    final StatisticsSetFactory factory =
+      statisticsServices.getStatisticsSetFactory();
+
+    m_map = new TestStatisticsMap(factory);
+    m_total = new TestStatisticsMap(factory);
+    m_testStatistics = new StatisticsSet[m_numberOfTests];
+
+    for (int i = 0; i < m_numberOfTests; ++i) {
+      m_testStatistics[i] = factory.create();
+      m_testStatistics[i].addSample(m_timedTestsIndex, i);
+      m_map.put(new BenchmarkTest(i, "test " + i), m_testStatistics[i]);
+    }
+  }
+
+  /**
+   * Record a sample against each test, then reset the map. Without the
+   * samples, reset would find nothing to report.
+   *
+   * @return The snapshot.
+   */
+  @Benchmark public TestStatisticsMap reset() {
+    for (int i = 0; i < m_testStatistics.length; ++i) {
+      m_testStatistics[i].addSample(m_timedTestsIndex, i);
+    }
+
+    return m_map.reset();
+  }
+
+  /**
+   * Add a map to a running total, as the console does for each report.
+   */
+  @Benchmark public void add() {
+    m_total.add(m_map);
+  }
+}
@@ -49,6 +49,10 @@
      :id The identity of the distribution request.
      :state One of [:started :sending :finished :error].
      :files The files that have been sent.
+     :per-cent-complete Progress through the distribution.
+     :bytes-sent The number of bytes of file content sent.
+     :bytes-per-second The throughput of the distribution.
+     :file-bytes-per-second The throughput for the last file sent.
      :exception If the state is :error, an exception."
   [^FileDistribution fd]
   (let [cache-state (.getAgentCacheState fd)
@@ -64,6 +68,9 @@
   (assoc last-result
     :state :sending
     :per-cent-complete (.getProgressInCents result)
+    :bytes-sent (.getBytesSent result)
+    :bytes-per-second (.getBytesPerSecond result)
+    :file-bytes-per-second (.getFileBytesPerSecond result)
     :files (conj files (.getFileName result))))
 
 (defn- finished
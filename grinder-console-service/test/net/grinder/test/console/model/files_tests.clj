@@ -31,10 +31,13 @@
 
 
 (defrecord MockResult
-  [progress file]
+  [progress file bytes]
   FileDistributionHandler$Result
   (getProgressInCents [this] progress)
-  (getFileName [this] file))
+  (getFileName [this] file)
+  (getBytesSent [this] bytes)
+  (getBytesPerSecond [this] (* 2 bytes))
+  (getFileBytesPerSecond [this] (* 3 bytes)))
 
 (def results (atom []))
 
@@ -70,17 +73,23 @@
 
   (with-redefs [files/next-id (atom 22)
                 history (atom [])
-                results  (atom [(MockResult. 50 "a")
-                                (MockResult. 100 "b")])]
+                results  (atom [(MockResult. 50 "a" 10)
+                                (MockResult. 100 "b" 30)])]
 
     (let [fd (reify FileDistribution (getHandler [this] (MockHandler.)))
           initial (files/start-distribution fd)]
       (await-for 1000 @#'files/distribution-agent)
       (is (= {:id 23 :state :started :files []} initial))
       (is (= [initial
-              {:id 23 :state :sending :files ["a"] :per-cent-complete 50}
-              {:id 23 :state :sending :files ["a" "b"] :per-cent-complete 100}
-              {:id 23 :state :finished :files ["a" "b"] :per-cent-complete 100}
+              {:id 23 :state :sending :files ["a"] :per-cent-complete 50
+               :bytes-sent 10 :bytes-per-second 20
+               :file-bytes-per-second 30}
+              {:id 23 :state :sending :files ["a" "b"] :per-cent-complete 100
+               :bytes-sent 30 :bytes-per-second 60
+               :file-bytes-per-second 90}
+              {:id 23 :state :finished :files ["a" "b"] :per-cent-complete 100
+               :bytes-sent 30 :bytes-per-second 60
+               :file-bytes-per-second 90}
               ]
              @history)))))
 
@@ -107,7 +107,11 @@
       (is (= [] tests))
       (is (not (nil? totals)))
       (is (= ["Tests" "Errors" "Mean Test Time (ms)"
-              "Test Time Standard Deviation (ms)" "TPS"] columns)))))
+              "Test Time Standard Deviation (ms)" "TPS"
+              "50th Percentile Test Time (ms)"
+              "90th Percentile Test Time (ms)"
+              "99th Percentile Test Time (ms)"
+              "99.9th Percentile Test Time (ms)"] columns)))))
 
 (deftest test-data-uninitialised
   (let [sm (reify SampleModel)]
@@ -138,15 +142,19 @@
                           (make-test 2 "test two")])
 
     (let [{:keys [tests columns status totals]} (recording/data sm sv)]
-      (is (= "[0 0 NaN 0.0 NaN]" (str (doall totals))))
+      (is (= "[0 0 NaN 0.0 NaN NaN NaN NaN NaN]" (str (doall totals))))
       (is (= ["Tests" "Errors" "Mean Test Time (ms)"
-              "Test Time Standard Deviation (ms)" "TPS"] columns))
+              "Test Time Standard Deviation (ms)" "TPS"
+              "50th Percentile Test Time (ms)"
+              "90th Percentile Test Time (ms)"
+              "99th Percentile Test Time (ms)"
+              "99.9th Percentile Test Time (ms)"] columns))
       (is (= 2 (count tests)))
       (let [{:keys [test description statistics]} (first tests)]
         (is (= 1 test))
         (is (= "test one" description))
-        (is (= "[0 0 NaN 0.0 NaN]" (str statistics))))
+        (is (= "[0 0 NaN 0.0 NaN NaN NaN NaN NaN]" (str statistics))))
       (let [{:keys [test description statistics]} (second tests)]
         (is (= 2 test))
         (is (= "test two" description))
-        (is (= "[0 0 NaN 0.0 NaN]" (str statistics))))))))
+        (is (= "[0 0 NaN 0.0 NaN NaN NaN NaN NaN]" (str statistics))))))))
@@ -0,0 +1,107 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder;
+
+import java.io.File;
+
+import net.grinder.common.GrinderException;
+import net.grinder.common.GrinderProperties;
+import net.grinder.engine.relay.RelayImplementation;
+import net.grinder.util.AbstractMainClass;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * This is the entry point of The Grinder relay process.
+ *
+ * <p>A relay stands between the console and a group of agents, so that
+ * very large tests can be arranged as a tree. Agents should be configured
+ * to use the relay's address as their console address.</p>
+ *
+ * @author Philip Aston
+ * @see RelayImplementation
+ */
+public final class Relay extends AbstractMainClass {
+
+  private static final String USAGE =
+    "  java " + Relay.class.getName() + " [alternatePropertiesFilename]" +
+    "\n\n" +
+    "The relay connects to the console (or another relay) given by" +
+    "\ngrinder.consoleHost and grinder.consolePort, and listens for" +
+    "\nagents on grinder.relay.host and grinder.relay.port." +
+    "\n\n";
+
+  /**
+   * The Grinder relay process entry point.
+   *
+   * @param args Command line arguments.
+   */
+  public static void main(String[] args) {
+
+    final Logger logger = LoggerFactory.getLogger("relay");
+
+    try {
+      final Relay relay = new Relay(args, logger);
+      relay.run();
+    }
+    catch (LoggedInitialisationException e) {
+      System.exit(1);
+    }
+    catch (Throwable e) {
+      logger.error(e.getMessage(), e);
+      System.exit(2);
+    }
+
+    System.exit(0);
+  }
+
+  private final GrinderProperties m_properties;
+
+  private Relay(String[] args, Logger logger) throws GrinderException {
+    super(logger, USAGE);
+
+    File propertiesFile = GrinderProperties.DEFAULT_PROPERTIES;
+
+    if (args.length == 1 && !args[0].startsWith("-")) {
+      propertiesFile = new File(args[0]);
+    }
+    else if (args.length > 0) {
+      throw barfUsage();
+    }
+
+    m_properties = new GrinderProperties(propertiesFile);
+  }
+
+  private void run() throws GrinderException {
+    final RelayImplementation relay =
+      new RelayImplementation(m_properties, getLogger());
+
+    try {
+      relay.run();
+    }
+    finally {
+      relay.shutdown();
+    }
+  }
+}
@@ -24,6 +24,7 @@ package net.grinder.common;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.Writer;
 import java.net.Socket;
@@ -114,6 +115,22 @@ public final class Closer {
     }
   }
 
+  /**
+   * Close the resource.
+   *
+   * @param file The resource to close.
+   */
+  public static void close(RandomAccessFile file) {
+    if (file != null) {
+      try {
+        file.close();
+      }
+      catch (IOException e) {
+        UncheckedInterruptedException.ioException(e);
+      }
+    }
+  }
+
   /**
    * Close the resource.
    *
@@ -43,13 +43,28 @@ public interface WorkerProcessReport extends ProcessReport {
    *
    * @return The number of threads that are running.
    */
-  short getNumberOfRunningThreads();
+  int getNumberOfRunningThreads();
 
   /**
    * Get the maximum number of threads.
    *
    * @return The maximum number of threads.
    */
-  short getMaximumNumberOfThreads();
+  int getMaximumNumberOfThreads();
+
+  /**
+   * Get the number of messages waiting to be sent to the console.
+   *
+   * @return The number of queued messages.
+   */
+  int getMessageQueueDepth();
+
+  /**
+   * Get the mean time that messages recently sent to the console spent
+   * waiting in the queue.
+   *
+   * @return The latency, in milliseconds.
+   */
+  long getMessageQueueLatency();
 }
 
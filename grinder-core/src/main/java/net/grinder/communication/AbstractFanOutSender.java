@@ -23,6 +23,9 @@ package net.grinder.communication;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -75,26 +78,91 @@ abstract class AbstractFanOutSender extends AbstractSender {
   protected final void writeAddressedMessage(Address address, Message message)
     throws CommunicationException {
 
+    // Each message is encoded at most once per wire format, however many
+    // resources we send it to. Typically all resources share a format.
+    final Map<WireFormat, byte[]> encodings =
+      new HashMap<WireFormat, byte[]>(2);
+
+    // Resources that relay to the address are sent a RoutedMessage instead.
+    final Map<WireFormat, byte[]> routedEncodings =
+      new HashMap<WireFormat, byte[]>(2);
+
     // We reserve all the resources here and hand off the
     // reservations to WriteMessageToStream instances. This
     // guarantees order of messages to a given resource for this
     // AbstractFanOutSender.
-    for (ResourcePool.Reservation reservation : m_resourcePool.reserveAll()) {
-      final Resource resource = reservation.getResource();
+    final List<? extends ResourcePool.Reservation> reservations =
+      m_resourcePool.reserveAll();
+
+    int dispatched = 0;
+
+    try {
+      for (ResourcePool.Reservation reservation : reservations) {
+        final Resource resource = reservation.getResource();
 
-      if (!address.includes(getAddress(resource))) {
-        reservation.free();
-        continue;
+        final byte[] encoding;
+
+        if (address.includes(getAddress(resource))) {
+          encoding = encode(resourceToWireFormat(resource), message, encodings);
+        }
+        else if (relaysTo(resource, address)) {
+          encoding = encode(resourceToWireFormat(resource),
+                            new RoutedMessage(address, message),
+                            routedEncodings);
+        }
+        else {
+          encoding = null;
+        }
+
+        if (encoding != null) {
+          // We don't need to synchronise access to the stream; access is
+          // protected through the socket set and only we hold the
+          // reservation.
+          m_executor.execute(
+            new InterruptibleRunnableAdapter(
+              new WriteMessageToStream(encoding,
+                                       resourceToOutputStream(resource),
+                                       reservation)));
+        }
+        else {
+          reservation.free();
+        }
+
+        ++dispatched;
       }
+    }
+    finally {
+      // Release anything we didn't get to because of a failure.
+      for (int i = dispatched; i < reservations.size(); ++i) {
+        reservations.get(i).free();
+      }
+    }
+  }
+
+  private static byte[] encode(WireFormat wireFormat,
+                               Message message,
+                               Map<WireFormat, byte[]> encodings)
+    throws CommunicationException {
+
+    final byte[] existing = encodings.get(wireFormat);
+
+    if (existing != null) {
+      return existing;
+    }
 
-      // We don't need to synchronise access to the stream; access is
-      // protected through the socket set and only we hold the reservation.
-      m_executor.execute(
-        new InterruptibleRunnableAdapter(
-          new WriteMessageToStream(message,
-                                   resourceToOutputStream(resource),
-                                   reservation)));
+    final byte[] encoding;
+
+    try {
+      encoding = wireFormat.encode(message);
+    }
+    catch (IOException e) {
+      UncheckedInterruptedException.ioException(e);
+      throw new CommunicationException("Failed to encode message", e);
     }
+
+    encodings.put(wireFormat, encoding);
+
+    return encoding;
   }
 
   /**
@@ -110,6 +178,17 @@ abstract class AbstractFanOutSender extends AbstractSender {
     resourceToOutputStream(ResourcePool.Resource resource)
     throws CommunicationException;
 
+  /**
+   * Return the wire format to use for a resource. Subclasses can override
+   * this; the default implementation uses Java serialisation.
+   *
+   * @param resource The resource.
+   * @return The wire format.
+   */
+  WireFormat resourceToWireFormat(ResourcePool.Resource resource) {
+    return WireFormat.SERIALISED;
+  }
+
   /**
    * Subclasses must implement this to return the address associated with
    * a resource.
@@ -119,6 +198,20 @@ abstract class AbstractFanOutSender extends AbstractSender {
    */
   protected abstract Address getAddress(Resource resource);
 
+  /**
+   * Whether a resource is a relay through which messages for the given
+   * address should be routed. Subclasses can override this; the default
+   * implementation returns {@code false}.
+   *
+   * @param resource The resource.
+   * @param address The address.
+   * @return {@code true} if and only if the resource should be sent a
+   *  {@link RoutedMessage}.
+   */
+  boolean relaysTo(Resource resource, Address address) {
+    return false;
+  }
+
   /**
    * Allow subclasses to access the resource pool.
    *
@@ -160,21 +253,22 @@ abstract class AbstractFanOutSender extends AbstractSender {
   private static final class WriteMessageToStream
     implements InterruptibleRunnable {
 
-    private final Message m_message;
+    private final byte[] m_encoding;
     private final OutputStream m_outputStream;
     private final ResourcePool.Reservation m_reservation;
 
-    public WriteMessageToStream(Message message,
+    public WriteMessageToStream(byte[] encoding,
                                 OutputStream outputStream,
                                 ResourcePool.Reservation reservation) {
-      m_message = message;
+      m_encoding = encoding;
       m_outputStream = outputStream;
       m_reservation = reservation;
     }
 
     public void interruptibleRun() {
       try {
-        writeMessageToStream(m_message, m_outputStream);
+        m_outputStream.write(m_encoding);
+        m_outputStream.flush();
       }
       catch (IOException e) {
         // InterruptedIOExceptions take this path.
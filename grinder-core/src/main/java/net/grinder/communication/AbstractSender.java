@@ -22,8 +22,6 @@
 package net.grinder.communication;
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
 
 import net.grinder.common.UncheckedInterruptedException;
 
@@ -65,31 +63,6 @@ abstract class AbstractSender implements Sender {
   protected abstract void writeMessage(Message message)
     throws CommunicationException, IOException;
 
-  protected static final void writeMessageToStream(Message message,
-                                                   OutputStream stream)
-    throws IOException {
-
-    // I tried the model of using a single ObjectOutputStream for the
-    // lifetime of the Sender and a single ObjectInputStream for each
-    // Reader. However, the corresponding ObjectInputStream would get
-    // occasional EOF's during readObject. Seems like voodoo to me,
-    // but creating a new ObjectOutputStream for every message fixes
-    // this.
-
-    // Dr Heinz M. Kabutz's Java Specialists 2004-05-19 newsletter
-    // (http://www.javaspecialists.co.za) may hold the answer.
-    // ObjectOutputStream's cache based on object identity. The EOF
-    // might be due to this, or at least ObjectOutputStream.reset()
-    // may help. I can't get excited enough about the cost of creating
-    // a new ObjectOutputStream() to try this as the bulk of what we
-    // send are long[]'s so aren't cacheable, and it would break sends
-    // that reuse Messages.
-
-    final ObjectOutputStream objectStream = new ObjectOutputStream(stream);
-    objectStream.writeObject(message);
-    objectStream.flush();
-  }
-
   /**
    * Cleanly shutdown the <code>Sender</code>.
    */
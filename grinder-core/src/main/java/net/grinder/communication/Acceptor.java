@@ -22,15 +22,23 @@
 package net.grinder.communication;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetAddress;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
+import net.grinder.common.Closer;
 import net.grinder.common.UncheckedInterruptedException;
 import net.grinder.util.ListenerSupport;
 import net.grinder.util.TimeAuthority;
@@ -42,11 +50,20 @@ import net.grinder.util.thread.InterruptibleRunnableAdapter;
 /**
  * Active object that accepts connections on a ServerSocket.
  *
+ * <p>
+ * A single thread waits for new connections using a {@link Selector}. Each
+ * accepted connection is handed to a pool of threads which read the
+ * connection handshake, so a slow client cannot hold up others. Accepted
+ * sockets are left in non-blocking mode so that a {@link ServerReceiver} can
+ * register them with its own selector.
+ * </p>
+ *
  * @author Philip Aston
  */
 public final class Acceptor {
 
-  private final ServerSocket m_serverSocket;
+  private final ServerSocketChannel m_serverSocketChannel;
+  private final Selector m_selector;
   private final ExecutorService m_executor;
   private final BlockingQueue<Exception> m_exceptionQueue =
     new ArrayBlockingQueue<Exception>(10);
@@ -68,6 +85,8 @@ public final class Acceptor {
   /** Guarded by m_socketSets. */
   private boolean m_isShutdown = false;
   private final TimeAuthority m_timeAuthority;
+  private final MessageCodecRegistry m_codecRegistry;
+  private final Compression.Totals m_compressionTotals;
 
   /**
    * Constructor.
@@ -75,7 +94,8 @@ public final class Acceptor {
    * @param addressString The TCP address to listen on. Zero-length
    * string => listen on all interfaces.
    * @param port The TCP port to listen to. 0 => use any free port.
-   * @param numberOfThreads Number of acceptor threads.
+   * @param numberOfThreads Number of threads used to read the handshake of
+   * newly accepted connections.
    * @param timeAuthority Knows the time.
    * @throws CommunicationException If server socket could not be
    * bound.
@@ -85,36 +105,108 @@ public final class Acceptor {
                   int numberOfThreads,
                   TimeAuthority timeAuthority)
     throws CommunicationException {
+    this(addressString, port, numberOfThreads, timeAuthority, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param addressString The TCP address to listen on. Zero-length
+   * string => listen on all interfaces.
+   * @param port The TCP port to listen to. 0 => use any free port.
+   * @param numberOfThreads Number of threads used to read the handshake of
+   * newly accepted connections.
+   * @param timeAuthority Knows the time.
+   * @param codecRegistry Codecs to use for clients that offer the binary wire
+   * format. If {@code null}, all clients will use Java serialisation.
+   * @throws CommunicationException If server socket could not be
+   * bound.
+   */
+  public Acceptor(String addressString,
+                  int port,
+                  int numberOfThreads,
+                  TimeAuthority timeAuthority,
+                  MessageCodecRegistry codecRegistry)
+    throws CommunicationException {
 
     m_timeAuthority = timeAuthority;
+    m_codecRegistry = codecRegistry;
+    m_compressionTotals =
+      codecRegistry != null ? new Compression.Totals() : null;
 
-    if (addressString.length() > 0) {
-      try {
-        m_serverSocket =
-          new ServerSocket(port, 50, InetAddress.getByName(addressString));
-      }
-      catch (IOException e) {
-        UncheckedInterruptedException.ioException(e);
-        throw new CommunicationException(
-          "Could not bind to address '" + addressString + ':' + port + '\'', e);
-      }
+    try {
+      m_serverSocketChannel = ServerSocketChannel.open();
+      m_selector = Selector.open();
     }
-    else {
-      try {
-        m_serverSocket = new ServerSocket(port, 50);
+    catch (IOException e) {
+      UncheckedInterruptedException.ioException(e);
+      throw new CommunicationException("Could not open server socket", e);
+    }
+
+    try {
+      // Match the behaviour of java.net.ServerSocket on UNIX platforms.
+      m_serverSocketChannel.socket().setReuseAddress(true);
+
+      if (addressString.length() > 0) {
+        try {
+          m_serverSocketChannel.socket().bind(
+            new InetSocketAddress(InetAddress.getByName(addressString), port),
+            50);
+        }
+        catch (IOException e) {
+          UncheckedInterruptedException.ioException(e);
+          throw new CommunicationException(
+            "Could not bind to address '" + addressString + ':' + port + '\'',
+            e);
+        }
       }
-      catch (IOException e) {
-        UncheckedInterruptedException.ioException(e);
-        throw new CommunicationException(
-          "Could not bind to port '" + port + "' on local interfaces", e);
+      else {
+        try {
+          m_serverSocketChannel.socket().bind(new InetSocketAddress(port), 50);
+        }
+        catch (IOException e) {
+          UncheckedInterruptedException.ioException(e);
+          throw new CommunicationException(
+            "Could not bind to port '" + port + "' on local interfaces", e);
+        }
       }
+
+      m_serverSocketChannel.configureBlocking(false);
+      m_serverSocketChannel.register(m_selector, SelectionKey.OP_ACCEPT);
+    }
+    catch (IOException e) {
+      UncheckedInterruptedException.ioException(e);
+      closeChannels();
+      throw new CommunicationException("Could not listen for connections", e);
+    }
+    catch (CommunicationException e) {
+      closeChannels();
+      throw e;
     }
 
-    m_executor = ExecutorFactory.createThreadPool("Acceptor", numberOfThreads);
+    // One thread to accept connections, the rest to read handshakes.
+    m_executor =
+      ExecutorFactory.createThreadPool("Acceptor", numberOfThreads + 1);
 
-    for (int i = 0; i < numberOfThreads; ++i) {
-      m_executor.submit(
-        new InterruptibleRunnableAdapter(new AcceptorRunnable()));
+    m_executor.submit(
+      new InterruptibleRunnableAdapter(new AcceptorRunnable()));
+  }
+
+  private void closeChannels() {
+    try {
+      m_selector.close();
+    }
+    catch (IOException e) {
+      UncheckedInterruptedException.ioException(e);
+      // Ignore.
+    }
+
+    try {
+      m_serverSocketChannel.close();
+    }
+    catch (IOException e) {
+      UncheckedInterruptedException.ioException(e);
+      // Ignore.
     }
   }
 
@@ -136,13 +228,21 @@ public final class Acceptor {
     }
 
     try {
-      m_serverSocket.close();
+      m_serverSocketChannel.close();
     }
     catch (IOException e) {
       UncheckedInterruptedException.ioException(e);
       throw new CommunicationException("Error closing socket", e);
     }
     finally {
+      try {
+        m_selector.close();
+      }
+      catch (IOException e) {
+        UncheckedInterruptedException.ioException(e);
+        // Ignore.
+      }
+
       // Interrupt the acceptor thread group.
       m_executor.shutdownNow();
 
@@ -175,7 +275,7 @@ public final class Acceptor {
    * @return The port.
    */
   public int getPort() {
-    return m_serverSocket.getLocalPort();
+    return m_serverSocketChannel.socket().getLocalPort();
   }
 
   /**
@@ -206,6 +306,18 @@ public final class Acceptor {
   }
 
 
+  /**
+   * Return statistics for the compression of messages sent and received by
+   * accepted connections. Clients choose whether to use compression.
+   *
+   * @return A snapshot of the statistics, or {@code null} if this acceptor
+   *         only supports Java serialisation.
+   */
+  public CompressionStatistics getCompressionStatistics() {
+    return m_compressionTotals != null ?
+      m_compressionTotals.getStatistics() : null;
+  }
+
   /**
    * The number of connections that have been accepted and are still active.
    * Used by the unit tests.
@@ -339,17 +451,25 @@ public final class Acceptor {
     }
   }
 
-  private void discriminateConnection(Socket localSocket)
+  private void discriminateConnection(SocketChannel channel)
     throws IOException, ShutdownException {
 
     boolean closeSocket = true;
 
     try {
+      // Read the handshake in blocking mode.
+      final Socket localSocket = channel.socket();
+
       final Connector.ConnectDetails connectDetails =
         Connector.read(localSocket.getInputStream());
 
+      final WireFormat wireFormat = negotiateWireFormat(
+        localSocket, connectDetails.getWireFormatVersion());
+
+      channel.configureBlocking(false);
+
       final SocketWrapper socketWrapper =
-          new IdleAwareSocketWrapper(localSocket, m_timeAuthority);
+          new IdleAwareSocketWrapper(localSocket, wireFormat, m_timeAuthority);
       socketWrapper.setAddress(connectDetails.getAddress());
 
       // Possible minor race if the socket is closed between here...
@@ -377,31 +497,71 @@ public final class Acceptor {
     }
     finally {
       if (closeSocket) {
-        try {
-          localSocket.close();
-        }
-        catch (IOException ioException) {
-          UncheckedInterruptedException.ioException(ioException);
-          // Ignore.
-        }
+        Closer.close(channel.socket());
       }
     }
   }
 
+  /**
+   * Choose the wire format for a new connection. If the client has offered
+   * the binary format, reply with the version we will use.
+   */
+  private WireFormat negotiateWireFormat(Socket localSocket,
+                                         int offeredVersion)
+    throws IOException, CommunicationException {
+
+    if (offeredVersion == WireFormat.SERIALISED.getVersion()) {
+      return WireFormat.SERIALISED;
+    }
+
+    final WireFormat result =
+      m_codecRegistry != null ?
+      WireFormat.forVersion(
+        Math.min(offeredVersion, WireFormat.COMPRESSED_BINARY_VERSION),
+        m_codecRegistry,
+        new Compression(m_compressionTotals)) :
+      WireFormat.SERIALISED;
+
+    final OutputStream outputStream = localSocket.getOutputStream();
+    outputStream.write(result.getVersion());
+    outputStream.flush();
+
+    return result;
+  }
+
   private class AcceptorRunnable implements InterruptibleRunnable {
     public void interruptibleRun() {
       try {
         while (true) {
-          final Socket localSocket = m_serverSocket.accept();
-          discriminateConnection(localSocket);
+          m_selector.select();
+
+          if (Thread.currentThread().isInterrupted() || !m_selector.isOpen()) {
+            break;
+          }
+
+          m_selector.selectedKeys().clear();
+
+          while (true) {
+            final SocketChannel channel = m_serverSocketChannel.accept();
+
+            if (channel == null) {
+              break;
+            }
+
+            m_executor.submit(
+              new InterruptibleRunnableAdapter(new HandshakeRunnable(channel)));
+          }
         }
       }
       catch (IOException e) {
         // Treat accept socket errors as fatal - we've probably been
         // shutdown. This includes InterruptedIOExceptions.
       }
-      catch (ShutdownException e) {
-        // Acceptor has been shutdown, exit.
+      catch (RejectedExecutionException e) {
+        // Our executor has been shut down.
+      }
+      catch (ClosedSelectorException e) {
+        // We've been shut down.
       }
       finally {
         // Best effort to ensure our server socket is closed.
@@ -415,6 +575,30 @@ public final class Acceptor {
     }
   }
 
+  private class HandshakeRunnable implements InterruptibleRunnable {
+    private final SocketChannel m_channel;
+
+    public HandshakeRunnable(SocketChannel channel) {
+      m_channel = channel;
+    }
+
+    public void interruptibleRun() {
+      try {
+        discriminateConnection(m_channel);
+      }
+      catch (IOException e) {
+        // The client has gone away. Unlike errors with the server socket,
+        // this doesn't affect anyone else.
+        UncheckedInterruptedException.ioException(e);
+        Closer.close(m_channel.socket());
+      }
+      catch (ShutdownException e) {
+        // Acceptor has been shutdown.
+        Closer.close(m_channel.socket());
+      }
+    }
+  }
+
   /**
    * Indicates the Acceptor has been shut down.
    */
@@ -0,0 +1,58 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.communication;
+
+
+/**
+ * A message that can take the place of an earlier message of the same
+ * kind.
+ *
+ * <p>A full queue with the {@link QueueOverflowPolicy#COALESCE} policy
+ * looks for a queued message that a new {@code CoalescableMessage} can
+ * stand for, most recent first. If it finds one, the queued message is
+ * removed and merged into the new message. Since the merged content is only
+ * ever moved later in the queue, it will not overtake messages that it
+ * depends on.</p>
+ *
+ * @author Philip Aston
+ */
+public interface CoalescableMessage extends Message {
+
+  /**
+   * Whether this message can stand for an earlier message.
+   *
+   * @param earlier The earlier message.
+   * @return {@code true} if and only if {@link #coalesce} will accept
+   *         {@code earlier}.
+   */
+  boolean canCoalesce(Message earlier);
+
+  /**
+   * Merge an earlier message into this one. The earlier message will not
+   * be sent.
+   *
+   * @param earlier
+   *          The earlier message. {@link #canCoalesce} has returned
+   *          {@code true} for it.
+   */
+  void coalesce(Message earlier);
+}
@@ -0,0 +1,248 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.communication;
+
+import java.io.StreamCorruptedException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * Compresses and decompresses frames for the compressed binary wire format.
+ *
+ * <p>Each connection has its own instance, so that connections do not
+ * contend for the {@code Deflater} and {@code Inflater}. The instances
+ * created by a {@link Connector} or {@link Acceptor} add to a shared
+ * {@link Totals}.</p>
+ *
+ * <p>Each frame is compressed independently so that an encoding can be
+ * shared between connections.</p>
+ *
+ * @author Philip Aston
+ */
+final class Compression {
+
+  /**
+   * Frames smaller than this are not worth compressing.
+   */
+  static final int DEFAULT_THRESHOLD = 1024;
+
+  private final int m_threshold;
+  private final Totals m_totals;
+
+  /** Guarded by this. */
+  private final Deflater m_deflater = new Deflater();
+
+  /** Guarded by this. */
+  private final Inflater m_inflater = new Inflater();
+
+  /**
+   * Constructor.
+   */
+  public Compression() {
+    this(new Totals());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param totals Statistics are added to this.
+   */
+  public Compression(Totals totals) {
+    this(DEFAULT_THRESHOLD, totals);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param threshold Data smaller than this will not be compressed.
+   */
+  public Compression(int threshold) {
+    this(threshold, new Totals());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param threshold Data smaller than this will not be compressed.
+   * @param totals Statistics are added to this.
+   */
+  public Compression(int threshold, Totals totals) {
+    m_threshold = threshold;
+    m_totals = totals;
+  }
+
+  /**
+   * Compress data.
+   *
+   * @param data Buffer holding the data.
+   * @param offset Offset of the data in the buffer.
+   * @param length Length of the data.
+   * @return The compressed data, or {@code null} if the data is smaller
+   *         than the threshold or does not compress.
+   */
+  public synchronized byte[] compress(byte[] data, int offset, int length) {
+    if (length < m_threshold) {
+      return null;
+    }
+
+    final long start = System.nanoTime();
+
+    m_deflater.reset();
+    m_deflater.setInput(data, offset, length);
+    m_deflater.finish();
+
+    // Give up if the result would be no smaller.
+    final byte[] buffer = new byte[length];
+    int compressedLength = 0;
+
+    while (!m_deflater.finished() && compressedLength < length) {
+      compressedLength +=
+        m_deflater.deflate(buffer, compressedLength, length - compressedLength);
+    }
+
+    final boolean worthwhile =
+      m_deflater.finished() && compressedLength < length;
+
+    m_totals.compressed(length,
+                        worthwhile ? compressedLength : length,
+                        System.nanoTime() - start);
+
+    if (!worthwhile) {
+      return null;
+    }
+
+    final byte[] result = new byte[compressedLength];
+    System.arraycopy(buffer, 0, result, 0, compressedLength);
+    return result;
+  }
+
+  /**
+   * Decompress data.
+   *
+   * @param data Buffer holding the compressed data.
+   * @param offset Offset of the compressed data in the buffer.
+   * @param length Length of the compressed data.
+   * @param uncompressedLength Length of the uncompressed data.
+   * @return The uncompressed data.
+   * @throws StreamCorruptedException If the data is not valid.
+   */
+  public synchronized byte[] decompress(byte[] data,
+                                        int offset,
+                                        int length,
+                                        int uncompressedLength)
+    throws StreamCorruptedException {
+
+    final long start = System.nanoTime();
+
+    m_inflater.reset();
+    m_inflater.setInput(data, offset, length);
+
+    final byte[] result = new byte[uncompressedLength];
+    int n = 0;
+
+    try {
+      while (n < uncompressedLength) {
+        final int inflated =
+          m_inflater.inflate(result, n, uncompressedLength - n);
+
+        if (inflated == 0 &&
+            (m_inflater.needsInput() || m_inflater.needsDictionary())) {
+          break;
+        }
+
+        n += inflated;
+      }
+
+      if (n == uncompressedLength && !m_inflater.finished()) {
+        // Consume the trailer. Any further output means the length is wrong.
+        n += m_inflater.inflate(new byte[1]);
+      }
+    }
+    catch (DataFormatException e) {
+      throw new StreamCorruptedException(
+        "Invalid compressed data: " + e.getMessage());
+    }
+
+    if (n != uncompressedLength || !m_inflater.finished()) {
+      throw new StreamCorruptedException(
+        "Compressed data has wrong length");
+    }
+
+    m_totals.decompressed(System.nanoTime() - start);
+
+    return result;
+  }
+
+  /**
+   * Return a snapshot of the compression statistics.
+   *
+   * @return The statistics.
+   */
+  public CompressionStatistics getStatistics() {
+    return m_totals.getStatistics();
+  }
+
+  /**
+   * Statistics shared by a number of {@link Compression} instances.
+   */
+  static final class Totals {
+    private final AtomicLong m_compressedCount = new AtomicLong();
+    private final AtomicLong m_uncompressedBytes = new AtomicLong();
+    private final AtomicLong m_compressedBytes = new AtomicLong();
+    private final AtomicLong m_compressionTime = new AtomicLong();
+    private final AtomicLong m_decompressedCount = new AtomicLong();
+    private final AtomicLong m_decompressionTime = new AtomicLong();
+
+    private void compressed(long uncompressedBytes,
+                            long compressedBytes,
+                            long time) {
+      m_compressedCount.incrementAndGet();
+      m_uncompressedBytes.addAndGet(uncompressedBytes);
+      m_compressedBytes.addAndGet(compressedBytes);
+      m_compressionTime.addAndGet(time);
+    }
+
+    private void decompressed(long time) {
+      m_decompressedCount.incrementAndGet();
+      m_decompressionTime.addAndGet(time);
+    }
+
+    /**
+     * Return a snapshot of the statistics. The values are read
+     * individually, so may not be consistent with each other if the
+     * instances are in use.
+     *
+     * @return The statistics.
+     */
+    public CompressionStatistics getStatistics() {
+      return new CompressionStatistics(m_compressedCount.get(),
+                                       m_uncompressedBytes.get(),
+                                       m_compressedBytes.get(),
+                                       m_compressionTime.get(),
+                                       m_decompressedCount.get(),
+                                       m_decompressionTime.get());
+    }
+  }
+}
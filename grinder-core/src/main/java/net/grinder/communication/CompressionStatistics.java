@@ -0,0 +1,160 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.communication;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A snapshot of compression measurements.
+ *
+ * @author Philip Aston
+ * @see Connector#getCompressionStatistics()
+ * @see Acceptor#getCompressionStatistics()
+ */
+public final class CompressionStatistics {
+
+  private final long m_compressedCount;
+  private final long m_uncompressedBytes;
+  private final long m_compressedBytes;
+  private final long m_compressionNanoseconds;
+  private final long m_decompressedCount;
+  private final long m_decompressionNanoseconds;
+
+  /**
+   * Constructor.
+   *
+   * @param compressedCount
+   *          Number of messages large enough to be compressed.
+   * @param uncompressedBytes
+   *          Total size of those messages before compression.
+   * @param compressedBytes
+   *          Total size of those messages as sent. Messages that did not
+   *          compress are counted at their original size.
+   * @param compressionNanoseconds
+   *          Time spent compressing.
+   * @param decompressedCount
+   *          Number of messages decompressed.
+   * @param decompressionNanoseconds
+   *          Time spent decompressing.
+   */
+  public CompressionStatistics(long compressedCount,
+                               long uncompressedBytes,
+                               long compressedBytes,
+                               long compressionNanoseconds,
+                               long decompressedCount,
+                               long decompressionNanoseconds) {
+    m_compressedCount = compressedCount;
+    m_uncompressedBytes = uncompressedBytes;
+    m_compressedBytes = compressedBytes;
+    m_compressionNanoseconds = compressionNanoseconds;
+    m_decompressedCount = decompressedCount;
+    m_decompressionNanoseconds = decompressionNanoseconds;
+  }
+
+  /**
+   * The number of messages that were large enough to be compressed.
+   *
+   * @return The count.
+   */
+  public long getCompressedCount() {
+    return m_compressedCount;
+  }
+
+  /**
+   * The total size of the compressed messages before compression.
+   *
+   * @return The number of bytes.
+   */
+  public long getUncompressedBytes() {
+    return m_uncompressedBytes;
+  }
+
+  /**
+   * The total size of the compressed messages as sent.
+   *
+   * @return The number of bytes.
+   */
+  public long getCompressedBytes() {
+    return m_compressedBytes;
+  }
+
+  /**
+   * The ratio of the size sent to the original size. Smaller is better.
+   *
+   * @return The ratio, or 1 if nothing has been compressed.
+   */
+  public double getRatio() {
+    if (m_uncompressedBytes == 0) {
+      return 1;
+    }
+
+    return (double) m_compressedBytes / m_uncompressedBytes;
+  }
+
+  /**
+   * The time spent compressing.
+   *
+   * @param unit The units of the result.
+   * @return The time.
+   */
+  public long getCompressionTime(TimeUnit unit) {
+    return unit.convert(m_compressionNanoseconds, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * The number of messages that were decompressed.
+   *
+   * @return The count.
+   */
+  public long getDecompressedCount() {
+    return m_decompressedCount;
+  }
+
+  /**
+   * The time spent decompressing.
+   *
+   * @param unit The units of the result.
+   * @return The time.
+   */
+  public long getDecompressionTime(TimeUnit unit) {
+    return unit.convert(m_decompressionNanoseconds, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Return a {@code String} representation of this object.
+   *
+   * @return The string.
+   */
+  @Override public String toString() {
+    return String.format(
+      "compressed=%d, %d->%d bytes (ratio=%.3f), time=%dms, " +
+      "decompressed=%d, time=%dms",
+      m_compressedCount,
+      m_uncompressedBytes,
+      m_compressedBytes,
+      getRatio(),
+      getCompressionTime(TimeUnit.MILLISECONDS),
+      m_decompressedCount,
+      getDecompressionTime(TimeUnit.MILLISECONDS));
+  }
+}
@@ -30,23 +30,37 @@ import java.net.InetAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
 
+import net.grinder.common.Closer;
 import net.grinder.common.UncheckedInterruptedException;
 
 
 /**
  * Connection factory.
  *
+ * <p>The client begins each connection with a handshake that describes the
+ * connection type, the client address, and the highest wire format version
+ * the client supports. If the client offers the binary wire format, the
+ * server replies with a single byte that holds the version it has chosen.
+ * </p>
+ *
  * @author Philip Aston
  */
 public final class Connector {
 
+  /** How long to wait for the server to respond to the handshake. */
+  private static final int HANDSHAKE_TIMEOUT = 60000;
+
   private final String m_hostString;
   private final int m_port;
   private final ConnectionType m_connectionType;
+  private final MessageCodecRegistry m_codecRegistry;
+  private final Compression.Totals m_compressionTotals;
 
   /**
    * Constructor.
    *
+   * <p>Connections made by this connector use Java serialisation.</p>
+   *
    * @param hostString TCP address to connect to.
    * @param port TCP port to connect to.
    * @param connectionType Connection type.
@@ -54,9 +68,57 @@ public final class Connector {
   public Connector(String hostString,
                    int port,
                    ConnectionType connectionType) {
+    this(hostString, port, connectionType, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * <p>Connections made by this connector offer the binary wire format if
+   * {@code codecRegistry} is not {@code null}.</p>
+   *
+   * @param hostString TCP address to connect to.
+   * @param port TCP port to connect to.
+   * @param connectionType Connection type.
+   * @param codecRegistry Codecs to use for the binary wire format. The
+   *  server should use equivalent codecs. If {@code null}, Java serialisation
+   *  will be used.
+   */
+  public Connector(String hostString,
+                   int port,
+                   ConnectionType connectionType,
+                   MessageCodecRegistry codecRegistry) {
+    this(hostString, port, connectionType, codecRegistry, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * <p>Connections made by this connector offer the binary wire format if
+   * {@code codecRegistry} is not {@code null}, and optionally offer to
+   * compress large messages. Compression trades CPU time at both ends for
+   * bandwidth, so is only worth using on slow networks.</p>
+   *
+   * @param hostString TCP address to connect to.
+   * @param port TCP port to connect to.
+   * @param connectionType Connection type.
+   * @param codecRegistry Codecs to use for the binary wire format. The
+   *  server should use equivalent codecs. If {@code null}, Java serialisation
+   *  will be used.
+   * @param compress Whether to offer compression. Ignored if
+   *  {@code codecRegistry} is {@code null}.
+   */
+  public Connector(String hostString,
+                   int port,
+                   ConnectionType connectionType,
+                   MessageCodecRegistry codecRegistry,
+                   boolean compress) {
     m_hostString = hostString;
     m_port = port;
     m_connectionType = connectionType;
+    m_codecRegistry = codecRegistry;
+    m_compressionTotals =
+      compress && codecRegistry != null ? new Compression.Totals() : null;
   }
 
   /**
@@ -72,6 +134,21 @@ public final class Connector {
   }
 
   Socket connect(Address address) throws CommunicationException {
+    return connectSocketWrapper(address).getSocket();
+  }
+
+  /**
+   * Factory method that makes a TCP connection, negotiates the wire format,
+   * and returns a corresponding socket wrapper.
+   *
+   * @param address The client address.
+   * @return A socket wrapper.
+   * @throws CommunicationException If connection could not be
+   * establish.
+   */
+  SocketWrapper connectSocketWrapper(Address address)
+    throws CommunicationException {
+
     final InetAddress inetAddress;
 
     try {
@@ -88,12 +165,53 @@ public final class Connector {
 
       final OutputStream outputStream = socket.getOutputStream();
 
+      final int offeredVersion;
+
+      if (m_codecRegistry == null) {
+        offeredVersion = WireFormat.SERIALISED.getVersion();
+      }
+      else if (m_compressionTotals != null) {
+        offeredVersion = WireFormat.COMPRESSED_BINARY_VERSION;
+      }
+      else {
+        offeredVersion = WireFormat.BINARY_VERSION;
+      }
+
       final ObjectOutputStream objectStream =
         new ObjectOutputStream(outputStream);
       objectStream.writeObject(m_connectionType);
       objectStream.writeObject(address);
+      objectStream.writeInt(offeredVersion);
       objectStream.flush();
-      return socket;
+
+      if (offeredVersion == WireFormat.SERIALISED.getVersion()) {
+        return new SocketWrapper(socket);
+      }
+
+      socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+      final int acceptedVersion = socket.getInputStream().read();
+      socket.setSoTimeout(0);
+
+      if (acceptedVersion == -1) {
+        Closer.close(socket);
+        throw new CommunicationException(
+          "Connection to '" + inetAddress + ':' + m_port +
+          "' closed during handshake");
+      }
+
+      try {
+        return new SocketWrapper(
+          socket,
+          WireFormat.forVersion(acceptedVersion,
+                                m_codecRegistry,
+                                m_compressionTotals != null ?
+                                  new Compression(m_compressionTotals) :
+                                  null));
+      }
+      catch (CommunicationException e) {
+        Closer.close(socket);
+        throw e;
+      }
     }
     catch (IOException e) {
       UncheckedInterruptedException.ioException(e);
@@ -129,6 +247,18 @@ public final class Connector {
       m_hostString.equals(other.m_hostString);
   }
 
+  /**
+   * Return statistics for the compression of messages sent and received by
+   * connections made by this connector.
+   *
+   * @return A snapshot of the statistics, or {@code null} if this connector
+   *         does not offer compression.
+   */
+  public CompressionStatistics getCompressionStatistics() {
+    return m_compressionTotals != null ?
+      m_compressionTotals.getStatistics() : null;
+  }
+
   /**
    * Return a description of the connection address.
    *
@@ -154,10 +284,14 @@ public final class Connector {
   static final class ConnectDetails {
     private final ConnectionType m_connectionType;
     private final Address m_address;
+    private final int m_wireFormatVersion;
 
-    private ConnectDetails(ConnectionType connectionType, Address address) {
+    private ConnectDetails(ConnectionType connectionType,
+                           Address address,
+                           int wireFormatVersion) {
       m_connectionType = connectionType;
       m_address = address;
+      m_wireFormatVersion = wireFormatVersion;
     }
 
     public ConnectionType getConnectionType() {
@@ -167,6 +301,15 @@ public final class Connector {
     public Address getAddress() {
       return m_address;
     }
+
+    /**
+     * The highest wire format version that the client supports.
+     *
+     * @return The version.
+     */
+    public int getWireFormatVersion() {
+      return m_wireFormatVersion;
+    }
   }
 
   /**
@@ -183,7 +326,8 @@ public final class Connector {
       final ConnectionType type =
         (ConnectionType) objectInputStream.readObject();
       final Address address = (Address) objectInputStream.readObject();
-      return new ConnectDetails(type, address);
+      final int wireFormatVersion = objectInputStream.readInt();
+      return new ConnectDetails(type, address, wireFormatVersion);
     }
     catch (IOException e) {
       throw new CommunicationException("Could not read address details", e);
@@ -31,6 +31,10 @@ import net.grinder.util.thread.ExecutorFactory;
 /**
  * Manages the sending of messages to many TCP clients.
  *
+ * <p>Messages sent to an address are also routed to any client that has
+ * relayed messages from a process included in the address. Such clients
+ * are sent a {@link RoutedMessage}.</p>
+ *
  * @author Philip Aston
  */
 public final class FanOutServerSender extends AbstractFanOutSender {
@@ -101,6 +105,29 @@ public final class FanOutServerSender extends AbstractFanOutSender {
     return ((SocketWrapper)resource).getOutputStream();
   }
 
+  /**
+   * Return the wire format negotiated for a socket.
+   *
+   * @param resource The resource.
+   * @return The wire format.
+   */
+  @Override WireFormat resourceToWireFormat(ResourcePool.Resource resource) {
+    return ((SocketWrapper)resource).getWireFormat();
+  }
+
+  /**
+   * Whether a socket belongs to a relay that has forwarded messages from a
+   * process included in the given address.
+   *
+   * @param resource The resource.
+   * @param address The address.
+   * @return {@code true} if and only if messages for the address should be
+   *  routed through the socket.
+   */
+  @Override boolean relaysTo(Resource resource, Address address) {
+    return ((SocketWrapper)resource).relaysTo(address);
+  }
+
   /**
    * Return the address of a socket.
    *
@@ -61,7 +61,27 @@ final class IdleAwareSocketWrapper extends SocketWrapper {
                                 TimeAuthority timeAuthority)
     throws CommunicationException {
 
-    super(socket);
+    this(socket, WireFormat.SERIALISED, timeAuthority);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param socket
+   *          Socket to wrap.
+   * @param wireFormat
+   *          The wire format negotiated for the connection.
+   * @param timeAuthority
+   *          Something that knows the time.
+   * @throws CommunicationException
+   *           If an error occurred.
+   */
+  IdleAwareSocketWrapper(Socket socket,
+                         WireFormat wireFormat,
+                         TimeAuthority timeAuthority)
+    throws CommunicationException {
+
+    super(socket, wireFormat);
 
     m_timeAuthority = timeAuthority;
     m_idleStart = -1;
@@ -77,7 +97,8 @@ final class IdleAwareSocketWrapper extends SocketWrapper {
    * {@code CLOSE_WAIT} state, if repeated calls this method detect that the
    * socket has had no input data for more than inactiveClientTimeOut, the
    * socket will be closed. We expect the caller to clean up using a
-   * {@link ClosedListener}.
+   * {@link ClosedListener}. Sockets that have a channel can detect a closed
+   * peer directly, and are closed immediately.
    * </p>
    *
    * @param inactiveClientTimeOut
@@ -101,6 +122,13 @@ final class IdleAwareSocketWrapper extends SocketWrapper {
         return true;
       }
 
+      if (inputStream instanceof SocketChannelStreams.Input &&
+          ((SocketChannelStreams.Input)inputStream).isEndOfStream()) {
+        // The peer has gone away without telling us.
+        close();
+        return false;
+      }
+
       final long now = m_timeAuthority.getTimeInMilliseconds();
 
       if (m_idleStart == -1) {
@@ -0,0 +1,113 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.communication;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A snapshot of latency measurements.
+ *
+ * @author Philip Aston
+ * @see ServerReceiver#getReceiveLatency()
+ */
+public final class LatencyStatistics {
+
+  private final long m_count;
+  private final long m_totalNanoseconds;
+  private final long m_maximumNanoseconds;
+
+  /**
+   * Constructor.
+   *
+   * @param count Number of samples.
+   * @param totalNanoseconds Sum of the samples.
+   * @param maximumNanoseconds The largest sample.
+   */
+  public LatencyStatistics(long count,
+                           long totalNanoseconds,
+                           long maximumNanoseconds) {
+    m_count = count;
+    m_totalNanoseconds = totalNanoseconds;
+    m_maximumNanoseconds = maximumNanoseconds;
+  }
+
+  /**
+   * The number of samples.
+   *
+   * @return The count.
+   */
+  public long getCount() {
+    return m_count;
+  }
+
+  /**
+   * The mean latency.
+   *
+   * @param unit The units of the result.
+   * @return The mean, or 0 if there are no samples.
+   */
+  public double getMean(TimeUnit unit) {
+    if (m_count == 0) {
+      return 0;
+    }
+
+    return (double) m_totalNanoseconds / m_count /
+           TimeUnit.NANOSECONDS.convert(1, unit);
+  }
+
+  /**
+   * The maximum latency.
+   *
+   * @param unit The units of the result.
+   * @return The maximum.
+   */
+  public long getMaximum(TimeUnit unit) {
+    return unit.convert(m_maximumNanoseconds, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * The latency of the samples taken since an earlier snapshot. The
+   * maximum is that of this snapshot.
+   *
+   * @param earlier The earlier snapshot.
+   * @return The latency of the later samples.
+   */
+  public LatencyStatistics since(LatencyStatistics earlier) {
+    return new LatencyStatistics(
+      m_count - earlier.m_count,
+      m_totalNanoseconds - earlier.m_totalNanoseconds,
+      m_maximumNanoseconds);
+  }
+
+  /**
+   * Return a {@code String} representation of this object.
+   *
+   * @return The string.
+   */
+  @Override public String toString() {
+    return String.format("count=%d, mean=%.3fms, max=%dms",
+                         m_count,
+                         getMean(TimeUnit.MILLISECONDS),
+                         getMaximum(TimeUnit.MILLISECONDS));
+  }
+}
@@ -0,0 +1,80 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.communication;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Several messages sent together.
+ *
+ * <p>{@link QueuedSenderDecorator} coalesces queued messages into a batch so
+ * they can be written with a single call to the stream.
+ * {@link MessageDispatchSender} unpacks batches, so handlers only ever see
+ * the contained messages.</p>
+ *
+ * @author Philip Aston
+ */
+final class MessageBatch implements AddressAwareMessage {
+
+  private static final long serialVersionUID = 1L;
+
+  private final List<Message> m_messages;
+
+  /**
+   * Constructor.
+   *
+   * @param messages The messages.
+   */
+  public MessageBatch(List<Message> messages) {
+    m_messages = Collections.unmodifiableList(
+                   new ArrayList<Message>(messages));
+  }
+
+  /**
+   * The messages, in the order they were sent.
+   *
+   * @return The messages.
+   */
+  public List<Message> getMessages() {
+    return m_messages;
+  }
+
+  /**
+   * Pass the origin address on to the contained messages that want it.
+   *
+   * @param address The address.
+   * @throws CommunicationException
+   *           If the address is not valid for a contained message.
+   */
+  @Override public void setAddress(Address address)
+    throws CommunicationException {
+
+    for (Message message : m_messages) {
+      if (message instanceof AddressAwareMessage) {
+        ((AddressAwareMessage)message).setAddress(address);
+      }
+    }
+  }
+}
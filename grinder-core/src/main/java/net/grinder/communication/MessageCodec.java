@@ -0,0 +1,59 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.communication;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+
+/**
+ * Hand written encoding for a type of {@link Message}.
+ *
+ * <p>Codecs are registered with a {@link MessageCodecRegistry}, and used in
+ * preference to Java serialisation for connections that have negotiated the
+ * binary wire format.</p>
+ *
+ * @param <T> The message type.
+ * @author Philip Aston
+ */
+public interface MessageCodec<T extends Message> {
+
+  /**
+   * Write a message.
+   *
+   * @param message The message.
+   * @param out Where to write the message.
+   * @throws IOException If the message could not be written.
+   */
+  void write(T message, DataOutput out) throws IOException;
+
+  /**
+   * Read a message written by {@link #write}.
+   *
+   * @param in Where to read the message from.
+   * @return The message.
+   * @throws IOException If the message could not be read.
+   */
+  T read(DataInput in) throws IOException;
+}
@@ -0,0 +1,181 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.communication;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * The {@link MessageCodec}s that can be used to encode messages for the
+ * binary wire format.
+ *
+ * <p>Each codec is registered against a message class and a type number
+ * which identifies the encoding on the wire. Both ends of a connection must
+ * register the same codecs against the same numbers. Messages of other
+ * classes are sent using Java serialisation.</p>
+ *
+ * <p>Registration is not thread safe. Register all codecs before passing
+ * the registry to a {@link Connector} or {@link Acceptor}.</p>
+ *
+ * @author Philip Aston
+ */
+public final class MessageCodecRegistry {
+
+  /**
+   * The lowest type number available to {@link #register}. Lower numbers are
+   * reserved for the communication package's own messages.
+   */
+  public static final int FIRST_TYPE = 16;
+
+  private static final int MAXIMUM_TYPE = 255;
+
+  private final Map<Class<?>, Registration> m_byClass =
+    new HashMap<Class<?>, Registration>();
+
+  private final Registration[] m_byType = new Registration[MAXIMUM_TYPE + 1];
+
+  /**
+   * Constructor.
+   */
+  public MessageCodecRegistry() {
+    add(1, KeepAliveMessage.class, new MessageCodec<KeepAliveMessage>() {
+        public void write(KeepAliveMessage message, DataOutput out) { }
+
+        public KeepAliveMessage read(DataInput in) {
+          return new KeepAliveMessage();
+        }
+      });
+
+    add(2,
+        CloseCommunicationMessage.class,
+        new MessageCodec<CloseCommunicationMessage>() {
+          public void write(CloseCommunicationMessage message,
+                            DataOutput out) { }
+
+          public CloseCommunicationMessage read(DataInput in) {
+            return new CloseCommunicationMessage();
+          }
+        });
+  }
+
+  /**
+   * Register a codec.
+   *
+   * @param <T> The message type.
+   * @param type
+   *          Identifies the encoding on the wire. Must be between
+   *          {@link #FIRST_TYPE} and 255, and not already registered.
+   * @param messageClass
+   *          The codec will be used for messages of exactly this class.
+   * @param codec
+   *          The codec.
+   */
+  public <T extends Message> void register(int type,
+                                           Class<T> messageClass,
+                                           MessageCodec<T> codec) {
+    if (type < FIRST_TYPE || type > MAXIMUM_TYPE) {
+      throw new IllegalArgumentException("Invalid message type " + type);
+    }
+
+    add(type, messageClass, codec);
+  }
+
+  private void add(int type, Class<?> messageClass, MessageCodec<?> codec) {
+    if (m_byType[type] != null || m_byClass.containsKey(messageClass)) {
+      throw new IllegalArgumentException(
+        "Message type " + type + " or " + messageClass.getName() +
+        " already registered");
+    }
+
+    final Registration registration = new Registration(type, codec);
+    m_byType[type] = registration;
+    m_byClass.put(messageClass, registration);
+  }
+
+  /**
+   * Look up the codec for a message class.
+   *
+   * @param <T> The message type.
+   * @param messageClass The message class.
+   * @return The codec, or {@code null} if there is no codec for the class.
+   */
+  @SuppressWarnings("unchecked")
+  public <T extends Message> MessageCodec<T> getCodec(Class<T> messageClass) {
+    final Registration registration = m_byClass.get(messageClass);
+
+    return registration != null ?
+      (MessageCodec<T>)registration.m_codec : null;
+  }
+
+  /**
+   * Look up the registration for a message.
+   *
+   * @param message The message.
+   * @return The registration, or {@code null} if there is no codec for the
+   *  message.
+   */
+  Registration get(Message message) {
+    return m_byClass.get(message.getClass());
+  }
+
+  /**
+   * Look up the registration for a type number.
+   *
+   * @param type The type number.
+   * @return The registration, or {@code null} if the type number is unknown.
+   */
+  Registration get(int type) {
+    return type >= 0 && type <= MAXIMUM_TYPE ? m_byType[type] : null;
+  }
+
+  /**
+   * A codec and its type number.
+   */
+  static final class Registration {
+    private final int m_type;
+    private final MessageCodec<Message> m_codec;
+
+    @SuppressWarnings("unchecked")
+    private Registration(int type, MessageCodec<?> codec) {
+      m_type = type;
+      // Safe, add() only pairs codecs with their message class.
+      m_codec = (MessageCodec<Message>)codec;
+    }
+
+    public int getType() {
+      return m_type;
+    }
+
+    public void write(Message message, DataOutput out) throws IOException {
+      m_codec.write(message, out);
+    }
+
+    public Message read(DataInput in) throws IOException {
+      return m_codec.read(in);
+    }
+  }
+}
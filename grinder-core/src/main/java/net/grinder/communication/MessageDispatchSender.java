@@ -89,11 +89,42 @@ public final class MessageDispatchSender
    * Sends a message to each handler until one claims to have handled the
    * message.
    *
+   * <p>Each message in a batch sent by a {@link QueuedSenderDecorator} is
+   * dispatched in turn. A {@link RelayedMessage} is unpacked; its origin
+   * will have been set by the {@link ServerReceiver} that received it.</p>
+   *
    * @param message The message.
    * @throws CommunicationException If one of the handlers failed.
    */
   public void send(final Message message) throws CommunicationException {
 
+    if (message instanceof MessageBatch) {
+      CommunicationException exception = null;
+
+      for (Message batchedMessage : ((MessageBatch)message).getMessages()) {
+        try {
+          send(batchedMessage);
+        }
+        catch (CommunicationException e) {
+          // Carry on; a failure for one message shouldn't lose the others.
+          if (exception == null) {
+            exception = e;
+          }
+        }
+      }
+
+      if (exception != null) {
+        throw exception;
+      }
+
+      return;
+    }
+
+    if (message instanceof RelayedMessage) {
+      send(((RelayedMessage)message).getMessage());
+      return;
+    }
+
     if (message instanceof MessageRequiringResponse) {
       final MessageRequiringResponse messageRequringResponse =
         (MessageRequiringResponse)message;
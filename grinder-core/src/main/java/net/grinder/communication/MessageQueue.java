@@ -23,9 +23,11 @@ package net.grinder.communication;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
 
 import net.grinder.common.UncheckedInterruptedException;
 
@@ -33,32 +35,76 @@ import net.grinder.common.UncheckedInterruptedException;
 /**
  * Thread-safe queue of {@link Message}s.
  *
+ * <p>A queue can be bounded, in which case a {@link QueueOverflowPolicy}
+ * determines what happens to a message that arrives when the queue is
+ * full. Exceptions don't count towards the bound.</p>
+ *
  * @author Philip Aston
  */
 final class MessageQueue {
 
-  private final BlockingQueue<Serializable> m_queue =
-    new LinkedBlockingQueue<Serializable>();
+  private final BlockingDeque<Serializable> m_queue =
+    new LinkedBlockingDeque<Serializable>();
 
   private final boolean m_passExceptions;
 
+  private final QueueOverflowPolicy m_overflowPolicy;
+
+  /** Free space in a bounded queue, or {@code null} if unbounded. */
+  private final Semaphore m_space;
+
   private volatile boolean m_shutdown;
 
   private static final Serializable SHUTDOWN_MESSAGE = new Serializable() { };
 
+  /** Guarded by m_statisticsLock. */
+  private final Object m_statisticsLock = new Object();
+  private int m_maximumDepth;
+  private long m_blocked;
+  private long m_coalesced;
+  private long m_dropped;
+  private long m_latencyCount;
+  private long m_latencyTotal;
+  private long m_latencyMaximum;
+
   /**
-   * Creates a new {@code MessageQueue} instance.
+   * Creates a new, unbounded {@code MessageQueue} instance.
    *
    * @param passExceptions
    *          {@code true} => allow exceptions to be inserted into the queue and
    *          re-thrown to callers of {@link #dequeue}.
    */
   public MessageQueue(boolean passExceptions) {
+    this(passExceptions, 0, QueueOverflowPolicy.BLOCK);
+  }
+
+  /**
+   * Creates a new {@code MessageQueue} instance.
+   *
+   * @param passExceptions
+   *          {@code true} => allow exceptions to be inserted into the queue and
+   *          re-thrown to callers of {@link #dequeue}.
+   * @param capacity
+   *          The maximum number of messages the queue can hold. {@code 0}
+   *          means unbounded.
+   * @param overflowPolicy
+   *          What to do with a new message when the queue is full.
+   */
+  public MessageQueue(boolean passExceptions,
+                      int capacity,
+                      QueueOverflowPolicy overflowPolicy) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Invalid capacity " + capacity);
+    }
+
     m_passExceptions = passExceptions;
+    m_overflowPolicy = overflowPolicy;
+    m_space = capacity > 0 ? new Semaphore(capacity) : null;
   }
 
   /**
-   * Queue the given message.
+   * Queue the given message. If the queue is full, and the overflow policy
+   * doesn't make space, wait until there is space.
    *
    * @param message
    *          A {@link Message}.
@@ -67,10 +113,167 @@ final class MessageQueue {
    * @see #shutdown
    */
   public void queue(Message message) throws ShutdownException {
+    add(message, true);
+  }
+
+  /**
+   * Queue the given message, unless the queue is full and the overflow
+   * policy doesn't make space.
+   *
+   * @param message
+   *          A {@link Message}.
+   * @return {@code true} if the message was queued, {@code false} if the
+   *         caller would have to wait for space.
+   * @throws ShutdownException
+   *           If the queue has been shut down.
+   * @see #shutdown
+   */
+  public boolean offer(Message message) throws ShutdownException {
+    return add(message, false);
+  }
+
+  private boolean add(Message message, boolean block)
+    throws ShutdownException {
 
     checkIfShutdown();
 
-    m_queue.add(message);
+    if (m_space != null && !m_space.tryAcquire() && !makeSpace(message)) {
+      synchronized (m_statisticsLock) {
+        ++m_blocked;
+      }
+
+      if (!block) {
+        return false;
+      }
+
+      try {
+        m_space.acquire();
+      }
+      catch (InterruptedException e) {
+        throw new UncheckedInterruptedException(e);
+      }
+
+      if (m_shutdown) {
+        // Wake the next waiting thread.
+        m_space.release();
+        checkIfShutdown();
+      }
+    }
+
+    m_queue.add(new QueuedMessage(message));
+
+    final int depth = m_queue.size();
+
+    synchronized (m_statisticsLock) {
+      if (depth > m_maximumDepth) {
+        m_maximumDepth = depth;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Called when the queue is full. Apply the overflow policy, and if it
+   * removes a queued message, take its space.
+   *
+   * <p>This is the hot path when a queue is overflowing, so the victim is
+   * found with a single pass from the end of the queue the policy prefers,
+   * and removed by searching from the same end. Neither allocates more than
+   * an iterator.</p>
+   *
+   * @return {@code true} if we have space for a new message.
+   */
+  private boolean makeSpace(Message message) {
+    while (true) {
+      final boolean removed;
+
+      switch (m_overflowPolicy) {
+        case DROP_OLDEST:
+          final QueuedMessage oldest = findDroppable();
+
+          if (oldest == null) {
+            return false;
+          }
+
+          removed = m_queue.removeFirstOccurrence(oldest);
+
+          if (removed) {
+            synchronized (m_statisticsLock) {
+              ++m_dropped;
+            }
+          }
+          break;
+
+        case COALESCE:
+          if (!(message instanceof CoalescableMessage)) {
+            return false;
+          }
+
+          final CoalescableMessage coalescable = (CoalescableMessage)message;
+          final QueuedMessage latest = findCoalescable(coalescable);
+
+          if (latest == null) {
+            return false;
+          }
+
+          removed = m_queue.removeLastOccurrence(latest);
+
+          if (removed) {
+            coalescable.coalesce(latest.m_message);
+
+            synchronized (m_statisticsLock) {
+              ++m_coalesced;
+            }
+          }
+          break;
+
+        default:
+          return false;
+      }
+
+      if (removed) {
+        return true;
+      }
+
+      // A consumer took the victim first, freeing its space.
+      if (m_space.tryAcquire()) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Find the oldest droppable message, searching from the head.
+   */
+  private QueuedMessage findDroppable() {
+    for (Serializable queued : m_queue) {
+      if (queued instanceof QueuedMessage &&
+          ((QueuedMessage)queued).m_message instanceof DroppableMessage) {
+        return (QueuedMessage)queued;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Find the most recent message that {@code message} can coalesce with,
+   * searching from the tail.
+   */
+  private QueuedMessage findCoalescable(CoalescableMessage message) {
+    final Iterator<Serializable> iterator = m_queue.descendingIterator();
+
+    while (iterator.hasNext()) {
+      final Serializable queued = iterator.next();
+
+      if (queued instanceof QueuedMessage &&
+          message.canCoalesce(((QueuedMessage)queued).m_message)) {
+        return (QueuedMessage)queued;
+      }
+    }
+
+    return null;
   }
 
   /**
@@ -138,7 +341,30 @@ final class MessageQueue {
       throw new CommunicationException(e.getMessage(), e);
     }
 
-    return (Message) result;
+    if (result == null) {
+      return null;
+    }
+
+    return dispatch((QueuedMessage) result);
+  }
+
+  private Message dispatch(QueuedMessage queuedMessage) {
+    if (m_space != null) {
+      m_space.release();
+    }
+
+    final long latency = System.nanoTime() - queuedMessage.m_queuedTime;
+
+    synchronized (m_statisticsLock) {
+      ++m_latencyCount;
+      m_latencyTotal += latency;
+
+      if (latency > m_latencyMaximum) {
+        m_latencyMaximum = latency;
+      }
+    }
+
+    return queuedMessage.m_message;
   }
 
   /**
@@ -151,6 +377,11 @@ final class MessageQueue {
     m_queue.clear();
 
     m_queue.offer(SHUTDOWN_MESSAGE);
+
+    if (m_space != null) {
+      // Wake any thread waiting for space. Each wakes the next.
+      m_space.release();
+    }
   }
 
   /**
@@ -192,14 +423,46 @@ final class MessageQueue {
         checkIfShutdown();
       }
 
-      if (c instanceof Message) {
-        result.add((Message)c);
+      if (c instanceof QueuedMessage) {
+        result.add(dispatch((QueuedMessage)c));
       }
     }
 
     return result;
   }
 
+  /**
+   * Return a snapshot of the queue statistics.
+   *
+   * @return The statistics.
+   */
+  public QueueStatistics getStatistics() {
+    synchronized (m_statisticsLock) {
+      return new QueueStatistics(m_queue.size(),
+                                 m_maximumDepth,
+                                 m_blocked,
+                                 m_coalesced,
+                                 m_dropped,
+                                 new LatencyStatistics(m_latencyCount,
+                                                       m_latencyTotal,
+                                                       m_latencyMaximum));
+    }
+  }
+
+  /**
+   * A queued message, and when it was queued.
+   */
+  private static final class QueuedMessage implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Message m_message;
+    private final long m_queuedTime = System.nanoTime();
+
+    public QueuedMessage(Message message) {
+      m_message = message;
+    }
+  }
+
   /**
    * Exception that indicates {@code MessageQueue} has been shut down.
    */
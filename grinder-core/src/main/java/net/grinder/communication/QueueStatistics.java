@@ -0,0 +1,135 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.communication;
+
+
+/**
+ * A snapshot of the state of a message queue.
+ *
+ * @author Philip Aston
+ * @see QueuedSenderDecorator#getQueueStatistics()
+ */
+public final class QueueStatistics {
+
+  private final int m_depth;
+  private final int m_maximumDepth;
+  private final long m_blocked;
+  private final long m_coalesced;
+  private final long m_dropped;
+  private final LatencyStatistics m_latency;
+
+  /**
+   * Constructor.
+   *
+   * @param depth The number of messages in the queue.
+   * @param maximumDepth The largest number of messages there have been in
+   *  the queue.
+   * @param blocked The number of times a message could not be queued until
+   *  there was space.
+   * @param coalesced The number of queued messages merged into later
+   *  messages.
+   * @param dropped The number of queued messages discarded.
+   * @param latency The time between a message being queued and being taken
+   *  from the queue.
+   */
+  public QueueStatistics(int depth,
+                         int maximumDepth,
+                         long blocked,
+                         long coalesced,
+                         long dropped,
+                         LatencyStatistics latency) {
+    m_depth = depth;
+    m_maximumDepth = maximumDepth;
+    m_blocked = blocked;
+    m_coalesced = coalesced;
+    m_dropped = dropped;
+    m_latency = latency;
+  }
+
+  /**
+   * The number of messages in the queue.
+   *
+   * @return The depth.
+   */
+  public int getDepth() {
+    return m_depth;
+  }
+
+  /**
+   * The largest number of messages there have been in the queue.
+   *
+   * @return The maximum depth.
+   */
+  public int getMaximumDepth() {
+    return m_maximumDepth;
+  }
+
+  /**
+   * The number of times a message could not be queued until there was
+   * space.
+   *
+   * @return The count.
+   */
+  public long getBlocked() {
+    return m_blocked;
+  }
+
+  /**
+   * The number of queued messages merged into later messages.
+   *
+   * @return The count.
+   */
+  public long getCoalesced() {
+    return m_coalesced;
+  }
+
+  /**
+   * The number of queued messages discarded.
+   *
+   * @return The count.
+   */
+  public long getDropped() {
+    return m_dropped;
+  }
+
+  /**
+   * The time between messages being queued and being taken from the
+   * queue.
+   *
+   * @return The latency.
+   */
+  public LatencyStatistics getLatency() {
+    return m_latency;
+  }
+
+  /**
+   * Return a {@code String} representation of this object.
+   *
+   * @return The string.
+   */
+  @Override public String toString() {
+    return String.format(
+      "depth=%d, maximum depth=%d, blocked=%d, coalesced=%d, dropped=%d, " +
+      "latency (%s)",
+      m_depth, m_maximumDepth, m_blocked, m_coalesced, m_dropped, m_latency);
+  }
+}
@@ -21,24 +21,76 @@
 
 package net.grinder.communication;
 
+import java.util.List;
+
 
 /**
  * QueuedSender implementation.
  *
+ * <p>Optionally, messages queued between flushes are coalesced into
+ * batches so that the delegate can write several messages with a single
+ * call to the stream. The receiver must dispatch messages with a
+ * {@link MessageDispatchSender}, which unpacks the batches.</p>
+ *
+ * <p>The queue can be bounded. If a message is sent when the queue is full,
+ * and the {@link QueueOverflowPolicy} doesn't make space, the queue is
+ * flushed by the sending thread. The sender is then held up by the
+ * connection, rather than by waiting for the next flush.</p>
+ *
  * @author Philip Aston
  */
 public final class QueuedSenderDecorator implements QueuedSender {
 
   private final Sender m_delegate;
-  private final MessageQueue m_messageQueue = new MessageQueue(false);
+  private final int m_maximumBatchSize;
+  private final MessageQueue m_messageQueue;
 
   /**
-   * Constructor.
+   * Constructor. Each queued message is sent separately.
    *
    * @param delegate Sender to decorate.
    */
   public QueuedSenderDecorator(Sender delegate) {
+    this(delegate, 1);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param delegate Sender to decorate.
+   * @param maximumBatchSize
+   *          The maximum number of queued messages to coalesce into a single
+   *          send. {@code 1} disables coalescing.
+   */
+  public QueuedSenderDecorator(Sender delegate, int maximumBatchSize) {
+    this(delegate, maximumBatchSize, 0, QueueOverflowPolicy.BLOCK);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param delegate Sender to decorate.
+   * @param maximumBatchSize
+   *          The maximum number of queued messages to coalesce into a single
+   *          send. {@code 1} disables coalescing.
+   * @param capacity
+   *          The maximum number of messages to queue. {@code 0} means
+   *          unbounded.
+   * @param overflowPolicy
+   *          What to do when a message is sent and the queue is full.
+   */
+  public QueuedSenderDecorator(Sender delegate,
+                               int maximumBatchSize,
+                               int capacity,
+                               QueueOverflowPolicy overflowPolicy) {
+    if (maximumBatchSize < 1) {
+      throw new IllegalArgumentException(
+        "Invalid maximum batch size " + maximumBatchSize);
+    }
+
     m_delegate = delegate;
+    m_maximumBatchSize = maximumBatchSize;
+    m_messageQueue = new MessageQueue(false, capacity, overflowPolicy);
   }
 
   /**
@@ -48,19 +100,45 @@ public final class QueuedSenderDecorator implements QueuedSender {
    * @throws CommunicationException If an error occurs.
    **/
   public void send(Message message) throws CommunicationException {
-    m_messageQueue.queue(message);
+    while (!m_messageQueue.offer(message)) {
+      flush();
+    }
   }
 
   /**
    * {@inheritDoc}
+   *
+   * <p>Synchronised so that messages are sent in order, whichever thread
+   * flushes.</p>
    */
-  @Override public void flush() throws CommunicationException {
+  @Override public synchronized void flush() throws CommunicationException {
+
+    final List<Message> messages = m_messageQueue.drainMessages();
 
-    for (Message message : m_messageQueue.drainMessages()) {
-      m_delegate.send(message);
+    final int size = messages.size();
+
+    for (int i = 0; i < size; i += m_maximumBatchSize) {
+      final int end = Math.min(i + m_maximumBatchSize, size);
+
+      if (end - i == 1) {
+        m_delegate.send(messages.get(i));
+      }
+      else {
+        m_delegate.send(new MessageBatch(messages.subList(i, end)));
+      }
     }
   }
 
+  /**
+   * Return a snapshot of the queue statistics. The latency is measured from
+   * when a message is queued until it is flushed.
+   *
+   * @return The statistics.
+   */
+  public QueueStatistics getQueueStatistics() {
+    return m_messageQueue.getStatistics();
+  }
+
   /**
    * Cleanly shutdown the <code>Sender</code>.
    *
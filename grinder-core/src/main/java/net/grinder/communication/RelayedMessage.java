@@ -0,0 +1,88 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.communication;
+
+
+/**
+ * A message forwarded on behalf of another process.
+ *
+ * <p>A {@link ServerReceiver} created to relay messages wraps each message
+ * it receives in a {@code RelayedMessage} that records the address of the
+ * connection the message arrived on. When the message is forwarded to
+ * another server, that server tells the original message its origin rather
+ * than the address of the relaying connection.
+ * {@link MessageDispatchSender} unpacks relayed messages.</p>
+ *
+ * @author Philip Aston
+ */
+public final class RelayedMessage implements AddressAwareMessage {
+
+  private static final long serialVersionUID = 1L;
+
+  private final Address m_origin;
+  private final Message m_message;
+
+  /**
+   * Constructor.
+   *
+   * @param origin The address of the process that sent the message.
+   * @param message The message.
+   */
+  public RelayedMessage(Address origin, Message message) {
+    m_origin = origin;
+    m_message = message;
+  }
+
+  /**
+   * The address of the process that sent the message.
+   *
+   * @return The address.
+   */
+  public Address getOrigin() {
+    return m_origin;
+  }
+
+  /**
+   * The message.
+   *
+   * @return The message.
+   */
+  public Message getMessage() {
+    return m_message;
+  }
+
+  /**
+   * Tell the message its origin. The address of the relaying connection is
+   * ignored.
+   *
+   * @param address The address of the relaying connection.
+   * @throws CommunicationException
+   *           If the origin is not valid for the message.
+   */
+  @Override public void setAddress(Address address)
+    throws CommunicationException {
+
+    if (m_message instanceof AddressAwareMessage) {
+      ((AddressAwareMessage)m_message).setAddress(m_origin);
+    }
+  }
+}
@@ -56,6 +56,24 @@ interface ResourcePool {
    */
   Reservation reserveNext();
 
+  /**
+   * Reserve a particular resource for exclusive use by the caller.
+   *
+   * @param resource The resource.
+   * @return The reservation, or {@code null} if the resource is not in the
+   *         pool, has been closed, or is reserved by someone else. It is up to
+   *         the caller to free or close the reservation.
+   */
+  Reservation reserve(Resource resource);
+
+  /**
+   * Returns the resources currently in the pool that have not been closed.
+   * The resources are not reserved.
+   *
+   * @return The resources.
+   */
+  List<Resource> getCurrentResources();
+
   /**
    * Returns a list of reservations for all the current resources. Blocks until
    * all Reservations can be reserved. The Sentinel is not included in the list.
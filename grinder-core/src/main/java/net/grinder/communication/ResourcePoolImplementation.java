@@ -22,7 +22,9 @@
 package net.grinder.communication;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.ListIterator;
 
 import net.grinder.common.UncheckedInterruptedException;
@@ -40,6 +42,10 @@ final class ResourcePoolImplementation implements ResourcePool {
   // Used to signal when a Reservable has been freed.
   private final Object m_reservableFreedMutex = new Object();
 
+  // Incremented whenever a Reservable is freed or closed. Guarded by
+  // m_reservableFreedMutex.
+  private long m_freedCount = 0;
+
   // Guards reserveAll().
   private final Object m_reserveAllMutex = new Object();
 
@@ -51,6 +57,11 @@ final class ResourcePoolImplementation implements ResourcePool {
   private int m_lastReservable = 0;
   private int m_nextPurge = 0;
 
+  // Open resources, so they can be reserved individually. Guarded by
+  // m_reservablesMutex.
+  private final Map<Resource, ResourceWrapper> m_wrappers =
+    new IdentityHashMap<Resource, ResourceWrapper>();
+
   private final ListenerSupport<Listener> m_listeners =
     new ListenerSupport<Listener>();
 
@@ -73,6 +84,7 @@ final class ResourcePoolImplementation implements ResourcePool {
 
     synchronized (m_reservablesMutex) {
       m_reservables.add(resourceWrapper);
+      m_wrappers.put(resource, resourceWrapper);
     }
 
     m_listeners.apply(
@@ -111,6 +123,40 @@ final class ResourcePoolImplementation implements ResourcePool {
     }
   }
 
+  /**
+   * Reserve a particular resource for exclusive use by the caller.
+   *
+   * @param resource The resource.
+   * @return The reservation, or {@code null} if the resource is not in the
+   *         pool, has been closed, or is reserved by someone else. It is up to
+   *         the caller to free or close the reservation.
+   */
+  public Reservation reserve(Resource resource) {
+    final ResourceWrapper resourceWrapper;
+
+    synchronized (m_reservablesMutex) {
+      resourceWrapper = m_wrappers.get(resource);
+    }
+
+    if (resourceWrapper != null && resourceWrapper.reserve()) {
+      return resourceWrapper;
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns the resources currently in the pool that have not been closed.
+   * The resources are not reserved.
+   *
+   * @return The resources.
+   */
+  public List<Resource> getCurrentResources() {
+    synchronized (m_reservablesMutex) {
+      return new ArrayList<Resource>(m_wrappers.keySet());
+    }
+  }
+
   /**
    * Returns a list of all the current resources. Blocks until all
    * Reservations can be reserved. The Sentinel is not included in the
@@ -136,6 +182,12 @@ final class ResourcePoolImplementation implements ResourcePool {
       }
 
       while (reserveList.size() > 0) {
+        final long freedCount;
+
+        synchronized (m_reservableFreedMutex) {
+          freedCount = m_freedCount;
+        }
+
         // Iterate backwards so remove is cheap.
         final ListIterator<Reservable> iterator =
           reserveList.listIterator(reserveList.size());
@@ -159,9 +211,12 @@ final class ResourcePoolImplementation implements ResourcePool {
           // Block until more resources are freed.
           synchronized (m_reservableFreedMutex) {
             try {
-              // Don't block for ever because the outstanding
-              // resources might have already been freed.
-              m_reservableFreedMutex.wait(1000);
+              // Don't wait if something was freed whilst we were looking.
+              if (m_freedCount == freedCount) {
+                // Don't block for ever because the outstanding
+                // resources might have already been freed.
+                m_reservableFreedMutex.wait(1000);
+              }
             }
             catch (InterruptedException e) {
               throw new UncheckedInterruptedException(e);
@@ -318,6 +373,7 @@ final class ResourcePoolImplementation implements ResourcePool {
 
       if (stateChanged) {
         synchronized (m_reservableFreedMutex) {
+          ++m_freedCount;
           m_reservableFreedMutex.notifyAll();
         }
       }
@@ -348,7 +404,12 @@ final class ResourcePoolImplementation implements ResourcePool {
       }
 
       if (stateChanged) {
+        synchronized (m_reservablesMutex) {
+          m_wrappers.remove(m_resource);
+        }
+
         synchronized (m_reservableFreedMutex) {
+          ++m_freedCount;
           m_reservableFreedMutex.notifyAll();
         }
 
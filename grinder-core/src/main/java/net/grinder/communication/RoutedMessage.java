@@ -0,0 +1,73 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.communication;
+
+
+/**
+ * A message sent to a relay, for forwarding to particular processes.
+ *
+ * <p>A {@link FanOutServerSender} that is asked to send a message to an
+ * address that is only reachable through a relay sends the relay a
+ * {@code RoutedMessage} that records the address, so that the relay can
+ * forward the message to the right processes. Messages sent to every
+ * process are not wrapped.</p>
+ *
+ * @author Philip Aston
+ * @see RelayedMessage
+ */
+public final class RoutedMessage implements Message {
+
+  private static final long serialVersionUID = 1L;
+
+  private final Address m_destination;
+  private final Message m_message;
+
+  /**
+   * Constructor.
+   *
+   * @param destination The address of the processes that should receive the
+   *  message.
+   * @param message The message.
+   */
+  public RoutedMessage(Address destination, Message message) {
+    m_destination = destination;
+    m_message = message;
+  }
+
+  /**
+   * The address of the processes that should receive the message.
+   *
+   * @return The address.
+   */
+  public Address getDestination() {
+    return m_destination;
+  }
+
+  /**
+   * The message.
+   *
+   * @return The message.
+   */
+  public Message getMessage() {
+    return m_message;
+  }
+}
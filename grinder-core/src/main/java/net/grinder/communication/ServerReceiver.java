@@ -22,8 +22,18 @@
 package net.grinder.communication;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 import net.grinder.common.UncheckedInterruptedException;
 import net.grinder.communication.ResourcePool.Reservation;
@@ -35,18 +45,71 @@ import net.grinder.util.thread.InterruptibleRunnableAdapter;
 /**
  * Manages the receipt of messages from many clients.
  *
+ * <p>
+ * Each call to {@link #receiveFrom} starts a thread that waits on a
+ * {@link Selector} for any of the accepted connections to become readable.
+ * Readable connections are handed to a pool of worker threads that read,
+ * de-serialise, and queue messages. Idle connections cost nothing until they
+ * present data.
+ * </p>
+ *
+ * <p>
+ * A receiver that relays messages to another server wraps each message in a
+ * {@link RelayedMessage} that records the address of its connection, rather
+ * than setting the address of {@link AddressAwareMessage}s. Batches are
+ * unpacked, so that each message can be handled separately. Messages that
+ * require a response are not wrapped, since the response must be sent from
+ * this process.
+ * </p>
+ *
+ * <p>
+ * The origin of each {@link RelayedMessage} received is recorded against the
+ * connection, so that a {@link FanOutServerSender} can route messages for
+ * that process through the relay.
+ * </p>
+ *
  * @author Philip Aston
  */
 public final class ServerReceiver implements Receiver {
 
   private final MessageQueue m_messageQueue = new MessageQueue(true);
+  private final boolean m_relay;
   private final ExecutorService m_executor =
     ExecutorFactory.createCachedThreadPool("ServerReceiver");
 
+  /** Guarded by this. */
+  private final List<ExecutorService> m_workerExecutors =
+    new ArrayList<ExecutorService>();
+
+  /** Guarded by m_latencyLock. */
+  private final Object m_latencyLock = new Object();
+  private long m_latencyCount;
+  private long m_latencyTotal;
+  private long m_latencyMaximum;
+
+  /**
+   * Constructor.
+   */
+  public ServerReceiver() {
+    this(false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param relay
+   *          {@code true} => wrap received messages in
+   *          {@link RelayedMessage}s so that they can be forwarded to
+   *          another server.
+   */
+  public ServerReceiver(boolean relay) {
+    m_relay = relay;
+  }
+
   /**
    * Registers a new {@link Acceptor} from which the <code>ServerReceiver</code>
-   * should process messages. Actively polls connections of the given types for
-   * messages, de-serialises them, and queues them for retrieval using
+   * should process messages. Waits for connections of the given types to
+   * present data, de-serialises messages, and queues them for retrieval using
    * {@link #waitForMessage()}.
    *
    * <p>
@@ -67,8 +130,8 @@ public final class ServerReceiver implements Receiver {
    *          {@code numberOfThreads} to the number of concurrent streams
    *          you expect to be able to read.
    * @param idleThreadPollDelay
-   *          Time in milliseconds that an idle thread should sleep if there are
-   *          no sockets to process.
+   *          Time in milliseconds that a thread should wait before retrying a
+   *          connection that is in use by a sender.
    * @param inactiveClientTimeOut
    *          How long before we consider a client connection that presents no
    *          data to be inactive.
@@ -98,14 +161,47 @@ public final class ServerReceiver implements Receiver {
     synchronized (this) {
       m_messageQueue.checkIfShutdown();
 
-      for (int i = 0; i < numberOfThreads; ++i) {
-        m_executor.submit(
-          new InterruptibleRunnableAdapter(
-            new ServerReceiverRunnable(
-              new CombinedResourcePool(acceptedSocketSets),
-              idleThreadPollDelay,
-              inactiveClientTimeOut)));
+      final Selector selector;
+
+      try {
+        selector = Selector.open();
+      }
+      catch (IOException e) {
+        UncheckedInterruptedException.ioException(e);
+        throw new CommunicationException("Could not open selector", e);
+      }
+
+      final ExecutorService workers =
+        ExecutorFactory.createThreadPool("ServerReceiver worker",
+                                         numberOfThreads);
+      m_workerExecutors.add(workers);
+
+      final SelectorRunnable selectorRunnable =
+        new SelectorRunnable(selector,
+                             workers,
+                             idleThreadPollDelay,
+                             inactiveClientTimeOut);
+
+      for (final ResourcePool socketSet : acceptedSocketSets) {
+        // Register the listener before looking at the existing resources so
+        // we miss nothing. The selector thread ignores duplicates.
+        socketSet.addListener(new ResourcePool.Listener() {
+            public void resourceAdded(ResourcePool.Resource resource) {
+              selectorRunnable.register(socketSet, resource);
+            }
+
+            public void resourceClosed(ResourcePool.Resource resource) {
+              // Closing the channel cancels its selection key.
+            }
+          });
+
+        for (ResourcePool.Resource resource :
+             socketSet.getCurrentResources()) {
+          selectorRunnable.register(socketSet, resource);
+        }
       }
+
+      m_executor.submit(new InterruptibleRunnableAdapter(selectorRunnable));
     }
   }
 
@@ -137,159 +233,438 @@ public final class ServerReceiver implements Receiver {
     m_messageQueue.shutdown();
 
     m_executor.shutdownNow();
+
+    for (ExecutorService workers : m_workerExecutors) {
+      workers.shutdownNow();
+    }
   }
 
   /**
-   * Obtain reservations from multiple ResourcePools. Delegates reserveNext()
-   * to the next resource pool.
+   * Return statistics for the time between a connection being found to have
+   * data, and the first message read from it being queued. Large values
+   * indicate that there are not enough worker threads.
    *
-   * @author Philip Aston
+   * @return A snapshot of the receive latency since this receiver was
+   *         created.
    */
-  private static final class CombinedResourcePool {
-    private final ResourcePool[] m_resourcePools;
-
-    // Guarded by m_resourcePools.
-    private int m_next;
-
-    CombinedResourcePool(ResourcePool[] resourcePools) {
-      assert resourcePools.length > 0;
-      m_resourcePools = resourcePools;
+  public LatencyStatistics getReceiveLatency() {
+    synchronized (m_latencyLock) {
+      return new LatencyStatistics(m_latencyCount,
+                                   m_latencyTotal,
+                                   m_latencyMaximum);
     }
+  }
 
-    public Reservation reserveNext() {
-      int i = 0;
-      int start;
+  private void recordLatency(long nanoseconds) {
+    synchronized (m_latencyLock) {
+      ++m_latencyCount;
+      m_latencyTotal += nanoseconds;
 
-      synchronized (m_resourcePools) {
-        start = ++m_next;
+      if (nanoseconds > m_latencyMaximum) {
+        m_latencyMaximum = nanoseconds;
       }
+    }
+  }
 
-      while (true) {
-        final Reservation reservation =
-          m_resourcePools[(start + i) % m_resourcePools.length].reserveNext();
+  /**
+   * An accepted connection, and the pool that controls access to it.
+   */
+  private static final class Connection {
+    private final ResourcePool m_socketSet;
+    private final IdleAwareSocketWrapper m_socketWrapper;
 
-        if (!reservation.isSentinel() ||
-            i == m_resourcePools.length - 1) {
-          return reservation;
-        }
+    // Accessed only by the selector thread.
+    private SelectionKey m_key;
 
-        ++i;
-      }
+    Connection(ResourcePool socketSet, IdleAwareSocketWrapper socketWrapper) {
+      m_socketSet = socketSet;
+      m_socketWrapper = socketWrapper;
     }
   }
 
-  private final class ServerReceiverRunnable
-    implements InterruptibleRunnable {
+  /**
+   * Waits for connections to become readable, and dispatches them to the
+   * worker threads.
+   *
+   * <p>
+   * A connection's interest set is cleared whilst it is being processed by a
+   * worker, and restored when the worker has finished. Other threads ask the
+   * selector thread to register and restore connections through
+   * {@link #m_pending}.
+   * </p>
+   */
+  private final class SelectorRunnable implements InterruptibleRunnable {
 
-    private final CombinedResourcePool m_sockets;
+    private final Selector m_selector;
+    private final ExecutorService m_workers;
     private final long m_delay;
     private final long m_inactiveClientTimeOut;
+    private final long m_sweepInterval;
 
-    private ServerReceiverRunnable(CombinedResourcePool sockets,
-                                   long delay,
-                                   long inactiveClientTimeOut) {
-      m_sockets = sockets;
+    private final Queue<Connection> m_pending =
+      new ConcurrentLinkedQueue<Connection>();
+
+    private SelectorRunnable(Selector selector,
+                             ExecutorService workers,
+                             long delay,
+                             long inactiveClientTimeOut) {
+      m_selector = selector;
+      m_workers = workers;
       m_delay = delay;
       m_inactiveClientTimeOut = inactiveClientTimeOut;
+
+      // Check idle connections often enough to close them in roughly
+      // inactiveClientTimeOut.
+      m_sweepInterval = Math.max(inactiveClientTimeOut / 2, 1);
+    }
+
+    public void register(ResourcePool socketSet,
+                         ResourcePool.Resource resource) {
+      m_pending.add(
+        new Connection(socketSet, (IdleAwareSocketWrapper)resource));
+      m_selector.wakeup();
+    }
+
+    public void rearm(Connection connection) {
+      m_pending.add(connection);
+      m_selector.wakeup();
     }
 
     public void interruptibleRun() {
       try {
-        // Did we do some work on the last pass?
-        boolean idle = false;
+        long nextSweep = System.currentTimeMillis() + m_sweepInterval;
 
-        while (true) {
-          final Reservation reservation = m_sockets.reserveNext();
-          boolean holdReservation = false;
+        while (!Thread.currentThread().isInterrupted()) {
+          processPending();
 
-          try {
-            if (reservation.isSentinel()) {
-              if (idle) {
-                Thread.sleep(m_delay);
-              }
-
-              idle = true;
-            }
-            else {
-              final IdleAwareSocketWrapper socketWrapper =
-                (IdleAwareSocketWrapper)reservation.getResource();
+          m_selector.select(
+            Math.max(nextSweep - System.currentTimeMillis(), 1));
 
-              // We don't need to synchronise access to the SocketWrapper
-              // stream; access is protected through the socket set and only we
-              // hold the reservation.
+          final long now = System.nanoTime();
 
-              if (socketWrapper.hasData(m_inactiveClientTimeOut)) {
-                idle = false;
+          for (SelectionKey key : m_selector.selectedKeys()) {
+            dispatch(key, now);
+          }
 
-                final ObjectInputStream objectStream =
-                  new ObjectInputStream(socketWrapper.getInputStream());
+          m_selector.selectedKeys().clear();
 
-                final Message message = (Message)objectStream.readObject();
+          if (System.currentTimeMillis() >= nextSweep) {
+            // Poll the quiet connections so that IdleAwareSocketWrapper can
+            // close those that have been inactive for too long.
+            for (SelectionKey key : m_selector.keys()) {
+              dispatch(key, 0);
+            }
 
-                if (message instanceof CloseCommunicationMessage) {
-                  reservation.close();
-                  continue;
-                }
+            nextSweep = System.currentTimeMillis() + m_sweepInterval;
+          }
+        }
+      }
+      catch (IOException e) {
+        UncheckedInterruptedException.ioException(e);
 
-                if (message instanceof AddressAwareMessage) {
-                  final AddressAwareMessage addressAware =
-                    (AddressAwareMessage)message;
+        try {
+          m_messageQueue.queue(e);
+        }
+        catch (MessageQueue.ShutdownException e2) {
+          // Already shut down.
+        }
+      }
+      catch (ClosedSelectorException e) {
+        // Shut down.
+      }
+      catch (RejectedExecutionException e) {
+        // Shut down.
+      }
+      finally {
+        try {
+          m_selector.close();
+        }
+        catch (IOException e) {
+          UncheckedInterruptedException.ioException(e);
+          // Ignore.
+        }
 
-                  addressAware.setAddress(socketWrapper.getAddress());
-                }
+        // Ensure we're shutdown.
+        shutdown();
+      }
+    }
 
-                if (message instanceof MessageRequiringResponse) {
+    private void processPending() {
+      Connection connection;
 
-                  final MessageRequiringResponse messageRequiringResponse =
-                    (MessageRequiringResponse)message;
+      while ((connection = m_pending.poll()) != null) {
+        if (connection.m_key == null) {
+          final SocketChannel channel =
+            connection.m_socketWrapper.getSocket().getChannel();
 
-                  messageRequiringResponse.setResponder(
-                    new SenderWithReservation(
-                      new StreamSender(socketWrapper.getOutputStream()),
-                      reservation));
+          if (channel.keyFor(m_selector) != null) {
+            // Already registered.
+            continue;
+          }
 
-                  m_messageQueue.queue(message);
+          try {
+            connection.m_key =
+              channel.register(m_selector, SelectionKey.OP_READ, connection);
+          }
+          catch (ClosedChannelException e) {
+            // Connection closed before we got to it.
+            continue;
+          }
 
-                  // Whatever handles the MessageExpectingResponse takes
-                  // responsibility for the reservation.
-                  holdReservation = true;
-                }
-                else {
-                  m_messageQueue.queue(message);
-                }
-              }
-            }
+          // There may be data that arrived before we registered, or that
+          // was read into the stream buffer during the handshake.
+          dispatch(connection.m_key, 0);
+        }
+        else {
+          try {
+            connection.m_key.interestOps(SelectionKey.OP_READ);
           }
-          catch (CommunicationException e) {
-            reservation.close();
-            m_messageQueue.queue(e);
+          catch (CancelledKeyException e) {
+            // Connection closed.
           }
-          catch (IOException e) {
+        }
+      }
+    }
+
+    /**
+     * Hand a connection to a worker, unless it is already being processed.
+     */
+    private void dispatch(SelectionKey key, long readyTime) {
+      try {
+        if (key.interestOps() == 0) {
+          return;
+        }
+
+        key.interestOps(0);
+      }
+      catch (CancelledKeyException e) {
+        return;
+      }
+
+      submit((Connection)key.attachment(), readyTime);
+    }
+
+    private void submit(Connection connection, long readyTime) {
+      m_workers.execute(
+        new InterruptibleRunnableAdapter(
+          new ReadRunnable(this, connection, readyTime)));
+    }
+  }
+
+  /**
+   * Reads and queues the available messages from a connection.
+   */
+  private final class ReadRunnable implements InterruptibleRunnable {
+
+    private final SelectorRunnable m_selectorRunnable;
+    private final Connection m_connection;
+    private long m_readyTime;
+
+    private ReadRunnable(SelectorRunnable selectorRunnable,
+                         Connection connection,
+                         long readyTime) {
+      m_selectorRunnable = selectorRunnable;
+      m_connection = connection;
+      m_readyTime = readyTime;
+    }
+
+    public void interruptibleRun() {
+      final Reservation reservation;
+
+      try {
+        reservation = reserve();
+      }
+      catch (InterruptedException e) {
+        throw new UncheckedInterruptedException(e);
+      }
+
+      if (reservation == null) {
+        // Closed.
+        return;
+      }
+
+      try {
+        readMessages(reservation);
+      }
+      catch (MessageQueue.ShutdownException e) {
+        // We've been shutdown.
+      }
+    }
+
+    private void readMessages(Reservation reservation)
+      throws MessageQueue.ShutdownException {
+
+      final IdleAwareSocketWrapper socketWrapper = m_connection.m_socketWrapper;
+
+      boolean holdReservation = false;
+      boolean readCleanly = false;
+
+      try {
+        // We don't need to synchronise access to the SocketWrapper
+        // stream; access is protected through the socket set and only we
+        // hold the reservation.
+
+        while (socketWrapper.hasData(
+                 m_selectorRunnable.m_inactiveClientTimeOut)) {
+          final Message message =
+            socketWrapper.getWireFormat().read(socketWrapper.getInputStream());
+
+          if (message instanceof CloseCommunicationMessage) {
             reservation.close();
-            UncheckedInterruptedException.ioException(e);
-            m_messageQueue.queue(e);
+            return;
           }
-          catch (ClassNotFoundException e) {
-            reservation.close();
-            m_messageQueue.queue(e);
+
+          recordRelayedAddresses(socketWrapper, message);
+
+          if (m_relay && !(message instanceof MessageRequiringResponse)) {
+            queueRelayed(socketWrapper.getAddress(), message);
+            continue;
           }
-          catch (InterruptedException e) {
-            reservation.close();
-            throw new UncheckedInterruptedException(e);
+
+          if (message instanceof AddressAwareMessage) {
+            final AddressAwareMessage addressAware =
+              (AddressAwareMessage)message;
+
+            addressAware.setAddress(socketWrapper.getAddress());
           }
-          finally {
-            if (!holdReservation) {
-              reservation.free();
-            }
+
+          if (message instanceof MessageRequiringResponse) {
+
+            final MessageRequiringResponse messageRequiringResponse =
+              (MessageRequiringResponse)message;
+
+            messageRequiringResponse.setResponder(
+              new SenderWithReservation(
+                new StreamSender(socketWrapper.getOutputStream(),
+                                 socketWrapper.getWireFormat()),
+                reservation,
+                this));
+
+            // Whatever handles the MessageExpectingResponse takes
+            // responsibility for the reservation, and for resuming reads.
+            holdReservation = true;
+
+            queue(message);
+
+            return;
           }
+
+          queue(message);
         }
+
+        readCleanly = true;
       }
       catch (MessageQueue.ShutdownException e) {
-        // We've been shutdown, exit this thread.
+        throw e;
+      }
+      catch (CommunicationException e) {
+        reservation.close();
+        m_messageQueue.queue(e);
+      }
+      catch (IOException e) {
+        reservation.close();
+        UncheckedInterruptedException.ioException(e);
+        m_messageQueue.queue(e);
+      }
+      catch (ClassNotFoundException e) {
+        reservation.close();
+        m_messageQueue.queue(e);
+      }
+      catch (UncheckedInterruptedException e) {
+        throw e;
+      }
+      catch (RuntimeException e) {
+        // For example, a corrupt message. We can't trust the rest of the
+        // stream.
+        reservation.close();
+        m_messageQueue.queue(e);
       }
       finally {
-        // Ensure we're shutdown.
-        shutdown();
+        if (!holdReservation) {
+          reservation.free();
+
+          // Only listen for more data if the connection is still good.
+          // Rearming a broken connection would have it selected again
+          // immediately.
+          if (readCleanly) {
+            m_selectorRunnable.rearm(m_connection);
+          }
+        }
+      }
+    }
+
+    /**
+     * Reserve our connection, waiting if a sender or responder is using it.
+     *
+     * @return The reservation, or {@code null} if the connection has been
+     *         closed.
+     */
+    private Reservation reserve() throws InterruptedException {
+      while (true) {
+        final Reservation reservation =
+          m_connection.m_socketSet.reserve(m_connection.m_socketWrapper);
+
+        if (reservation != null) {
+          return reservation;
+        }
+
+        if (m_connection.m_socketWrapper.isClosed()) {
+          return null;
+        }
+
+        Thread.sleep(m_selectorRunnable.m_delay);
+      }
+    }
+
+    private void queue(Message message)
+      throws MessageQueue.ShutdownException {
+      if (m_readyTime != 0) {
+        recordLatency(System.nanoTime() - m_readyTime);
+        m_readyTime = 0;
+      }
+
+      m_messageQueue.queue(message);
+    }
+
+    private void recordRelayedAddresses(SocketWrapper socketWrapper,
+                                        Message message) {
+      if (message instanceof MessageBatch) {
+        for (Message batchedMessage : ((MessageBatch)message).getMessages()) {
+          recordRelayedAddresses(socketWrapper, batchedMessage);
+        }
+      }
+      else if (message instanceof RelayedMessage) {
+        socketWrapper.addRelayedAddress(((RelayedMessage)message).getOrigin());
+      }
+    }
+
+    private void queueRelayed(Address origin, Message message)
+      throws MessageQueue.ShutdownException {
+
+      if (message instanceof MessageBatch) {
+        for (Message batchedMessage : ((MessageBatch)message).getMessages()) {
+          queueRelayed(origin, batchedMessage);
+        }
+      }
+      else if (message instanceof RelayedMessage) {
+        // Already relayed by the process that sent it to us.
+        queue(message);
+      }
+      else {
+        queue(new RelayedMessage(origin, message));
+      }
+    }
+
+    /**
+     * Called when a responder has freed our reservation. The client may have
+     * sent more data in the meantime, so check before waiting again.
+     */
+    public void responseSent() {
+      try {
+        m_selectorRunnable.submit(m_connection, 0);
+      }
+      catch (RejectedExecutionException e) {
+        // Shut down.
       }
     }
   }
@@ -309,11 +684,14 @@ public final class ServerReceiver implements Receiver {
   private static final class SenderWithReservation implements Sender {
     private final Sender m_delegateSender;
     private final Reservation m_reservation;
+    private final ReadRunnable m_readRunnable;
 
     private SenderWithReservation(Sender delegateSender,
-                                  Reservation reservation) {
+                                  Reservation reservation,
+                                  ReadRunnable readRunnable) {
       m_delegateSender = delegateSender;
       m_reservation = reservation;
+      m_readRunnable = readRunnable;
     }
 
     public void send(Message message) throws CommunicationException {
@@ -329,6 +707,7 @@ public final class ServerReceiver implements Receiver {
       // We rely on our ResponseSender's single call to send to ensure we don't
       // free the reservation multiple times.
       m_reservation.free();
+      m_readRunnable.responseSent();
     }
   }
 }
@@ -0,0 +1,311 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.communication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+
+/**
+ * Streams for a {@link SocketChannel} that may be in non-blocking mode.
+ *
+ * <p>
+ * The streams that {@link java.net.Socket} provides for a channel refuse to
+ * work once the channel has been made non-blocking so that it can be
+ * registered with a {@link Selector}. These streams present the usual
+ * blocking semantics, waiting on a private selector when the channel is not
+ * ready. Callers are expected to synchronise access, as described for
+ * {@link SocketWrapper}.
+ * </p>
+ *
+ * <p>
+ * Streams borrow a selector from a small shared pool when they have to wait,
+ * and return it afterwards, so the number of selectors, and the file
+ * descriptors that they use, depends on the number of threads waiting at
+ * once rather than on the number of connections. Waits are bounded, so a
+ * stream whose channel is closed by another thread notices promptly.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+final class SocketChannelStreams {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  /** The longest time to wait on a selector before checking the channel. */
+  static final long WAIT_TIME = 500;
+
+  /** The most selectors that are kept open for reuse. */
+  static final int MAXIMUM_IDLE_SELECTORS = 4;
+
+  private static final BlockingQueue<Selector> s_idleSelectors =
+    new ArrayBlockingQueue<Selector>(MAXIMUM_IDLE_SELECTORS);
+
+  private SocketChannelStreams() {
+  }
+
+  private static Selector acquireSelector() throws IOException {
+    final Selector result = s_idleSelectors.poll();
+
+    if (result != null) {
+      return result;
+    }
+
+    return Selector.open();
+  }
+
+  private static void releaseSelector(Selector selector) throws IOException {
+    if (!s_idleSelectors.offer(selector)) {
+      selector.close();
+    }
+  }
+
+  /**
+   * Waits for a channel to become ready for some operations. This is only
+   * needed when a message is split across TCP segments, or the peer is slow
+   * to drain its receive buffer.
+   */
+  private static final class Waiter {
+    private final SelectableChannel m_channel;
+    private final int m_operations;
+
+    // The selector we're waiting on, if any, so that close() can wake it.
+    private volatile Selector m_selector;
+    private volatile boolean m_closed;
+
+    Waiter(SelectableChannel channel, int operations) {
+      m_channel = channel;
+      m_operations = operations;
+    }
+
+    /**
+     * Wait until the channel may be ready, for at most {@link #WAIT_TIME}
+     * milliseconds. The caller should try the operation again, and call
+     * us again if it still can't make progress.
+     *
+     * @throws IOException If the channel or the stream has been closed, or
+     *  the thread was interrupted.
+     */
+    public synchronized void await() throws IOException {
+      if (m_closed || !m_channel.isOpen()) {
+        throw new ClosedChannelException();
+      }
+
+      final Selector selector = acquireSelector();
+      boolean reusable = false;
+
+      try {
+        final SelectionKey key = m_channel.register(selector, m_operations);
+
+        m_selector = selector;
+
+        try {
+          if (!m_closed) {
+            selector.select(WAIT_TIME);
+          }
+        }
+        finally {
+          m_selector = null;
+
+          // Deregister the channel before the selector is reused.
+          key.cancel();
+          selector.selectNow();
+          selector.selectedKeys().clear();
+        }
+
+        reusable = true;
+      }
+      finally {
+        if (reusable) {
+          releaseSelector(selector);
+        }
+        else {
+          selector.close();
+        }
+      }
+
+      if (Thread.currentThread().isInterrupted()) {
+        throw new InterruptedIOException();
+      }
+    }
+
+    public void close() {
+      m_closed = true;
+
+      final Selector selector = m_selector;
+
+      if (selector != null) {
+        selector.wakeup();
+      }
+    }
+  }
+
+  /**
+   * Input stream for a socket channel. Reads are buffered so that
+   * {@link #available()} can find out whether there is data without
+   * blocking.
+   */
+  static final class Input extends InputStream {
+    private final SocketChannel m_channel;
+    private final Waiter m_waiter;
+
+    // Always in "get" mode.
+    private final ByteBuffer m_buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private boolean m_endOfStream;
+
+    Input(SocketChannel channel) {
+      m_channel = channel;
+      m_waiter = new Waiter(channel, SelectionKey.OP_READ);
+      m_buffer.flip();
+    }
+
+    /**
+     * Read whatever is available from the channel into our empty buffer.
+     *
+     * @return The number of bytes read, or -1 at the end of the stream.
+     */
+    private int fill() throws IOException {
+      m_buffer.clear();
+
+      final int n;
+
+      try {
+        n = m_channel.read(m_buffer);
+      }
+      finally {
+        m_buffer.flip();
+      }
+
+      if (n < 0) {
+        m_endOfStream = true;
+      }
+
+      return n;
+    }
+
+    @Override public int read() throws IOException {
+      final byte[] b = new byte[1];
+
+      return read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+    }
+
+    @Override public int read(byte[] b, int offset, int length)
+      throws IOException {
+
+      if (length == 0) {
+        return 0;
+      }
+
+      while (!m_buffer.hasRemaining()) {
+        if (m_endOfStream || fill() < 0) {
+          return -1;
+        }
+
+        if (!m_buffer.hasRemaining()) {
+          m_waiter.await();
+        }
+      }
+
+      final int n = Math.min(length, m_buffer.remaining());
+      m_buffer.get(b, offset, n);
+
+      return n;
+    }
+
+    /**
+     * Return the number of buffered bytes. If there are none, make a single
+     * non-blocking attempt to read more from the channel.
+     *
+     * @return The number of bytes that can be read without blocking.
+     * @throws IOException If an I/O error occurs.
+     */
+    @Override public int available() throws IOException {
+      if (!m_buffer.hasRemaining() &&
+          !m_endOfStream &&
+          !m_channel.isBlocking()) {
+        fill();
+      }
+
+      return m_buffer.remaining();
+    }
+
+    /**
+     * Whether the peer has closed its side of the connection, and all data
+     * has been read.
+     *
+     * @return {@code true} if there is nothing more to read.
+     */
+    boolean isEndOfStream() {
+      return m_endOfStream && !m_buffer.hasRemaining();
+    }
+
+    @Override public void close() throws IOException {
+      m_waiter.close();
+      m_channel.close();
+    }
+  }
+
+  /**
+   * Output stream for a socket channel. Writes are not buffered.
+   */
+  static final class Output extends OutputStream {
+    private final SocketChannel m_channel;
+    private final Waiter m_waiter;
+
+    Output(SocketChannel channel) {
+      m_channel = channel;
+      m_waiter = new Waiter(channel, SelectionKey.OP_WRITE);
+    }
+
+    @Override public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override public void write(byte[] b, int offset, int length)
+      throws IOException {
+
+      final ByteBuffer buffer = ByteBuffer.wrap(b, offset, length);
+
+      while (buffer.hasRemaining()) {
+        if (m_channel.write(buffer) == 0) {
+          m_waiter.await();
+        }
+      }
+    }
+
+    @Override public void close() throws IOException {
+      m_waiter.close();
+      m_channel.close();
+    }
+  }
+}
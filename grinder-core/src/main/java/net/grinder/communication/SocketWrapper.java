@@ -25,6 +25,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.Set;
 
 import net.grinder.common.Closer;
 import net.grinder.util.ListenerSupport;
@@ -49,6 +52,7 @@ class SocketWrapper implements ResourcePool.Resource {
   private final ConnectionIdentity m_connectionIdentity;
   private final InputStream m_inputStream;
   private final OutputStream m_outputStream;
+  private final WireFormat m_wireFormat;
 
   private final ListenerSupport<ClosedListener> m_closedListeners =
     new ListenerSupport<ClosedListener>();
@@ -60,6 +64,9 @@ class SocketWrapper implements ResourcePool.Resource {
 
   private Address m_address;
 
+  /** Guarded by itself. */
+  private final Set<Address> m_relayedAddresses = new HashSet<Address>();
+
   /**
    * Constructor.
    *
@@ -71,11 +78,39 @@ class SocketWrapper implements ResourcePool.Resource {
    *           If an error occurred.
    */
   public SocketWrapper(Socket socket) throws CommunicationException {
+    this(socket, WireFormat.SERIALISED);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param socket
+   *          Socket to wrap. If the caller maintains any references to the
+   *          socket, if should synchronise access to the socket streams as
+   *          described in {@link SocketWrapper}.
+   * @param wireFormat
+   *          The wire format negotiated for the connection.
+   * @throws CommunicationException
+   *           If an error occurred.
+   */
+  SocketWrapper(Socket socket, WireFormat wireFormat)
+    throws CommunicationException {
     m_socket = socket;
+    m_wireFormat = wireFormat;
 
     try {
-      m_inputStream = m_socket.getInputStream();
-      m_outputStream = m_socket.getOutputStream();
+      final SocketChannel channel = m_socket.getChannel();
+
+      if (channel != null) {
+        // The socket's own streams won't work if the channel is put into
+        // non-blocking mode for use with a selector.
+        m_inputStream = new SocketChannelStreams.Input(channel);
+        m_outputStream = new SocketChannelStreams.Output(channel);
+      }
+      else {
+        m_inputStream = m_socket.getInputStream();
+        m_outputStream = m_socket.getOutputStream();
+      }
 
       m_connectionIdentity =
         new ConnectionIdentity(m_socket.getInetAddress(),
@@ -102,11 +137,16 @@ class SocketWrapper implements ResourcePool.Resource {
       // peer has closed the connection. We make an effort to tell the
       // peer.
       synchronized (m_outputStream) {
-        new StreamSender(m_outputStream).shutdown();
+        new StreamSender(m_outputStream, m_wireFormat).shutdown();
       }
 
       Closer.close(m_socket);
 
+      // Release any resources the streams hold, such as the selectors of
+      // non-blocking channels.
+      Closer.close(m_inputStream);
+      Closer.close(m_outputStream);
+
       // Close before informing listeners to prevent recursion.
       m_closedListeners.apply(m_closedInformer);
     }
@@ -121,6 +161,15 @@ class SocketWrapper implements ResourcePool.Resource {
     return m_socket.isClosed();
   }
 
+  /**
+   * Return the wrapped socket.
+   *
+   * @return The socket.
+   */
+  Socket getSocket() {
+    return m_socket;
+  }
+
   public ConnectionIdentity getConnectionIdentity() {
     return m_connectionIdentity;
   }
@@ -145,6 +194,15 @@ class SocketWrapper implements ResourcePool.Resource {
     return m_outputStream;
   }
 
+  /**
+   * Return the wire format that should be used to read and write messages.
+   *
+   * @return The wire format.
+   */
+  WireFormat getWireFormat() {
+    return m_wireFormat;
+  }
+
   /**
    * Socket event notification interface.
    */
@@ -176,4 +234,38 @@ class SocketWrapper implements ResourcePool.Resource {
   public Address getAddress() {
     return m_address;
   }
+
+  /**
+   * Record that messages from the given address have been relayed to us
+   * over this socket.
+   *
+   * @param address The address of the process that sent the message.
+   */
+  void addRelayedAddress(Address address) {
+    if (address != null) {
+      synchronized (m_relayedAddresses) {
+        m_relayedAddresses.add(address);
+      }
+    }
+  }
+
+  /**
+   * Whether the peer relays messages to any process included in the given
+   * address.
+   *
+   * @param address The address.
+   * @return {@code true} if and only if a process that has relayed a message
+   *  to us over this socket is included in {@code address}.
+   */
+  boolean relaysTo(Address address) {
+    synchronized (m_relayedAddresses) {
+      for (Address relayedAddress : m_relayedAddresses) {
+        if (address.includes(relayedAddress)) {
+          return true;
+        }
+      }
+    }
+
+    return false;
+  }
 }
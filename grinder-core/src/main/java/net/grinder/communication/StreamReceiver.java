@@ -23,7 +23,6 @@ package net.grinder.communication;
 
 import java.io.InputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 
 import net.grinder.common.Closer;
 import net.grinder.common.UncheckedInterruptedException;
@@ -38,6 +37,7 @@ public class StreamReceiver implements Receiver {
 
   private final InputStream m_inputStream;
   private final Object m_streamLock;
+  private final WireFormat m_wireFormat;
 
   // Guarded by m_streamLock.
   private boolean m_shutdown = false;
@@ -48,7 +48,17 @@ public class StreamReceiver implements Receiver {
    * @param inputStream The input stream to read from.
    */
   public StreamReceiver(InputStream inputStream) {
-    this(inputStream, inputStream);
+    this(inputStream, WireFormat.SERIALISED);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param inputStream The input stream to read from.
+   * @param wireFormat How to read messages.
+   */
+  StreamReceiver(InputStream inputStream, WireFormat wireFormat) {
+    this(inputStream, inputStream, wireFormat);
   }
 
   /**
@@ -56,10 +66,14 @@ public class StreamReceiver implements Receiver {
    *
    * @param inputStream The input stream to read from.
    * @param streamLock Lock on this object around all stream operations.
+   * @param wireFormat How to read messages.
    */
-  private StreamReceiver(InputStream inputStream, Object streamLock) {
+  private StreamReceiver(InputStream inputStream,
+                         Object streamLock,
+                         WireFormat wireFormat) {
     m_inputStream = inputStream;
     m_streamLock = streamLock;
+    m_wireFormat = wireFormat;
   }
 
   /**
@@ -80,10 +94,7 @@ public class StreamReceiver implements Receiver {
           return null;
         }
 
-        final ObjectInputStream objectStream =
-          new ObjectInputStream(m_inputStream);
-
-        message = (Message)objectStream.readObject();
+        message = m_wireFormat.read(m_inputStream);
 
         if (message instanceof CloseCommunicationMessage) {
           shutdown();
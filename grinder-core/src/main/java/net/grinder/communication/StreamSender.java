@@ -37,6 +37,7 @@ public class StreamSender extends AbstractSender {
 
   private final OutputStream m_outputStream;
   private final Object m_streamLock;
+  private final WireFormat m_wireFormat;
 
   /**
    * Constructor.
@@ -44,7 +45,17 @@ public class StreamSender extends AbstractSender {
    * @param outputStream The output stream to write to.
    */
   public StreamSender(OutputStream outputStream) {
-    this(outputStream, outputStream);
+    this(outputStream, WireFormat.SERIALISED);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param outputStream The output stream to write to.
+   * @param wireFormat How to write messages.
+   */
+  StreamSender(OutputStream outputStream, WireFormat wireFormat) {
+    this(outputStream, outputStream, wireFormat);
   }
 
   /**
@@ -52,10 +63,14 @@ public class StreamSender extends AbstractSender {
    *
    * @param outputStream The output stream to write to.
    * @param streamLock Lock on this object around all stream operations.
+   * @param wireFormat How to write messages.
    */
-  private StreamSender(OutputStream outputStream, Object streamLock) {
+  private StreamSender(OutputStream outputStream,
+                       Object streamLock,
+                       WireFormat wireFormat) {
     m_outputStream = new BufferedOutputStream(outputStream);
     m_streamLock = streamLock;
+    m_wireFormat = wireFormat;
   }
 
   /**
@@ -67,7 +82,7 @@ public class StreamSender extends AbstractSender {
   @Override
   protected final void writeMessage(Message message) throws IOException {
     synchronized (m_streamLock) {
-      writeMessageToStream(message, m_outputStream);
+      m_wireFormat.write(message, m_outputStream);
     }
   }
 
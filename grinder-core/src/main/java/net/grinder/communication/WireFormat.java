@@ -0,0 +1,450 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.communication;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * How messages are written to and read from a stream.
+ *
+ * <p>Socket connections agree on a wire format in the {@link Connector}
+ * handshake. Everything else uses {@link #SERIALISED}.</p>
+ *
+ * @author Philip Aston
+ */
+abstract class WireFormat {
+
+  /**
+   * Each message is written with a new {@code ObjectOutputStream}.
+   */
+  static final WireFormat SERIALISED = new SerialisedWireFormat();
+
+  /**
+   * The version number of the binary wire format. Increment this if the
+   * framing, or the encoding of any registered message, changes.
+   * {@link #COMPRESSED_BINARY_VERSION} follows it.
+   */
+  static final int BINARY_VERSION = 3;
+
+  /**
+   * The version number of the binary wire format with compression. This
+   * must be the highest version, so that a server that does not support
+   * compression can choose {@link #BINARY_VERSION} instead.
+   */
+  static final int COMPRESSED_BINARY_VERSION = BINARY_VERSION + 1;
+
+  /**
+   * The largest frame, compressed or uncompressed, that the binary wire
+   * format will read. Frames are allocated before they are read, so a
+   * corrupt length must not be trusted. Much larger than any message we
+   * send; file distribution, for example, sends files in chunks of at
+   * most {@link net.grinder.util.FileContents#MAXIMUM_CHUNK_SIZE}.
+   */
+  static final int MAXIMUM_FRAME_SIZE = 64 * 1024 * 1024;
+
+  /**
+   * Return the wire format for a negotiated version.
+   *
+   * @param version The version.
+   * @param codecRegistry Codecs to use for the binary format.
+   * @return The wire format.
+   * @throws CommunicationException If the version is not supported.
+   */
+  static WireFormat forVersion(int version,
+                               MessageCodecRegistry codecRegistry)
+    throws CommunicationException {
+    return forVersion(version, codecRegistry, null);
+  }
+
+  /**
+   * Return the wire format for a negotiated version.
+   *
+   * @param version The version.
+   * @param codecRegistry Codecs to use for the binary format.
+   * @param compression Used if the compressed binary format is chosen. If
+   *  {@code null}, the compressed format is not supported.
+   * @return The wire format.
+   * @throws CommunicationException If the version is not supported.
+   */
+  static WireFormat forVersion(int version,
+                               MessageCodecRegistry codecRegistry,
+                               Compression compression)
+    throws CommunicationException {
+
+    if (version == SERIALISED.getVersion()) {
+      return SERIALISED;
+    }
+    else if (version == BINARY_VERSION && codecRegistry != null) {
+      return new BinaryWireFormat(codecRegistry, null);
+    }
+    else if (version == COMPRESSED_BINARY_VERSION &&
+             codecRegistry != null &&
+             compression != null) {
+      return new BinaryWireFormat(codecRegistry, compression);
+    }
+
+    throw new CommunicationException(
+      "Unsupported wire format version " + version);
+  }
+
+  /**
+   * The version number that identifies this format in the handshake.
+   *
+   * @return The version.
+   */
+  abstract int getVersion();
+
+  /**
+   * Write a message to a stream, and flush the stream.
+   *
+   * @param message The message.
+   * @param stream The stream.
+   * @throws IOException If an I/O error occurs.
+   */
+  abstract void write(Message message, OutputStream stream)
+    throws IOException;
+
+  /**
+   * Encode a message. Writing the result to a stream is equivalent to
+   * {@link #write}, so senders that write the same message to many streams
+   * need only encode it once.
+   *
+   * @param message The message.
+   * @return The encoded message. Callers must not modify the array.
+   * @throws IOException If the message could not be encoded.
+   */
+  abstract byte[] encode(Message message) throws IOException;
+
+  /**
+   * Read a message from a stream. Blocks until a complete message is
+   * available.
+   *
+   * @param stream The stream.
+   * @return The message.
+   * @throws IOException If an I/O error occurs.
+   * @throws ClassNotFoundException If the message class could not be loaded.
+   */
+  abstract Message read(InputStream stream)
+    throws IOException, ClassNotFoundException;
+
+  private static final class SerialisedWireFormat extends WireFormat {
+
+    @Override int getVersion() {
+      return 0;
+    }
+
+    @Override void write(Message message, OutputStream stream)
+      throws IOException {
+
+      // I tried the model of using a single ObjectOutputStream for the
+      // lifetime of the Sender and a single ObjectInputStream for each
+      // Reader. However, the corresponding ObjectInputStream would get
+      // occasional EOF's during readObject. Seems like voodoo to me,
+      // but creating a new ObjectOutputStream for every message fixes
+      // this.
+
+      // Dr Heinz M. Kabutz's Java Specialists 2004-05-19 newsletter
+      // (http://www.javaspecialists.co.za) may hold the answer.
+      // ObjectOutputStream's cache based on object identity. The EOF
+      // might be due to this, or at least ObjectOutputStream.reset()
+      // may help. I can't get excited enough about the cost of creating
+      // a new ObjectOutputStream() to try this as the bulk of what we
+      // send are long[]'s so aren't cacheable, and it would break sends
+      // that reuse Messages.
+
+      final ObjectOutputStream objectStream = new ObjectOutputStream(stream);
+      objectStream.writeObject(message);
+      objectStream.flush();
+    }
+
+    @Override byte[] encode(Message message) throws IOException {
+      final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+      write(message, byteStream);
+      return byteStream.toByteArray();
+    }
+
+    @Override Message read(InputStream stream)
+      throws IOException, ClassNotFoundException {
+
+      return (Message)new ObjectInputStream(stream).readObject();
+    }
+  }
+
+  /**
+   * Each message is written as a frame comprising a four byte length, a
+   * one byte type number, and the encoded message. Messages with a codec in
+   * the {@link MessageCodecRegistry} are written by the codec, avoiding the
+   * stream header and class descriptors that Java serialisation would write
+   * for every message. Other messages have type {@code 0} and are written
+   * with Java serialisation. A {@link MessageBatch} has type {@code 3}, and
+   * is written as a count followed by a nested frame for each message.
+   *
+   * <p>If compression has been negotiated, large frames are compressed.
+   * A compressed frame has type {@code 4}, and holds the length of the
+   * original type and encoded message followed by their compressed form.
+   * </p>
+   *
+   * <p>Frames are written with a single call to the stream, and read with a
+   * single call for the header and another for the body.</p>
+   */
+  private static final class BinaryWireFormat extends WireFormat {
+
+    private static final int SERIALISED_TYPE = 0;
+    private static final int BATCH_TYPE = 3;
+    private static final int COMPRESSED_TYPE = 4;
+    private static final int HEADER_SIZE = 4;
+
+    private final MessageCodecRegistry m_codecRegistry;
+    private final Compression m_compression;
+
+    public BinaryWireFormat(MessageCodecRegistry codecRegistry,
+                            Compression compression) {
+      m_codecRegistry = codecRegistry;
+      m_compression = compression;
+    }
+
+    @Override int getVersion() {
+      return m_compression != null ? COMPRESSED_BINARY_VERSION : BINARY_VERSION;
+    }
+
+    /**
+     * Each connection has its own instance. Instances that share a registry
+     * and agree on whether to compress produce interchangeable encodings,
+     * since each frame is compressed independently.
+     */
+    @Override public boolean equals(Object o) {
+      if (o == this) {
+        return true;
+      }
+
+      if (o == null || o.getClass() != BinaryWireFormat.class) {
+        return false;
+      }
+
+      final BinaryWireFormat other = (BinaryWireFormat)o;
+
+      return m_codecRegistry == other.m_codecRegistry &&
+             (m_compression == null) == (other.m_compression == null);
+    }
+
+    @Override public int hashCode() {
+      return System.identityHashCode(m_codecRegistry) ^
+             (m_compression != null ? 1 : 0);
+    }
+
+    @Override void write(Message message, OutputStream stream)
+      throws IOException {
+
+      encodeFrame(message).writeTo(stream);
+      stream.flush();
+    }
+
+    @Override byte[] encode(Message message) throws IOException {
+      return encodeFrame(message).toByteArray();
+    }
+
+    private FrameBuffer encodeFrame(Message message) throws IOException {
+      final FrameBuffer frame = encodeUncompressedFrame(message);
+
+      if (m_compression == null) {
+        return frame;
+      }
+
+      final int length = frame.size() - HEADER_SIZE;
+
+      final byte[] compressed =
+        m_compression.compress(frame.getBuffer(), HEADER_SIZE, length);
+
+      if (compressed == null) {
+        return frame;
+      }
+
+      final FrameBuffer compressedFrame = new FrameBuffer();
+      final DataOutputStream out = new DataOutputStream(compressedFrame);
+      out.writeByte(COMPRESSED_TYPE);
+      out.writeInt(length);
+      out.write(compressed);
+      out.flush();
+
+      return compressedFrame;
+    }
+
+    private FrameBuffer encodeUncompressedFrame(Message message)
+      throws IOException {
+
+      final FrameBuffer frame = new FrameBuffer();
+      final DataOutputStream out = new DataOutputStream(frame);
+
+      if (message instanceof MessageBatch) {
+        final List<Message> messages = ((MessageBatch)message).getMessages();
+
+        out.writeByte(BATCH_TYPE);
+        out.writeInt(messages.size());
+
+        for (Message batchedMessage : messages) {
+          encodeUncompressedFrame(batchedMessage).writeTo(out);
+        }
+
+        out.flush();
+
+        return frame;
+      }
+
+      final MessageCodecRegistry.Registration registration =
+        m_codecRegistry.get(message);
+
+      if (registration != null) {
+        out.writeByte(registration.getType());
+        registration.write(message, out);
+      }
+      else {
+        out.writeByte(SERIALISED_TYPE);
+        final ObjectOutputStream objectStream = new ObjectOutputStream(out);
+        objectStream.writeObject(message);
+        objectStream.flush();
+      }
+
+      out.flush();
+
+      return frame;
+    }
+
+    @Override Message read(InputStream stream)
+      throws IOException, ClassNotFoundException {
+
+      // DataInputStream does not buffer, so won't read beyond the frame.
+      final DataInputStream in = new DataInputStream(stream);
+
+      final int length = in.readInt();
+
+      if (length < 1 || length > MAXIMUM_FRAME_SIZE) {
+        throw new StreamCorruptedException("Invalid frame length " + length);
+      }
+
+      final byte[] body = new byte[length];
+      in.readFully(body);
+
+      return decode(body);
+    }
+
+    private Message decode(byte[] body)
+      throws IOException, ClassNotFoundException {
+
+      final DataInputStream bodyStream =
+        new DataInputStream(new ByteArrayInputStream(body));
+
+      final int type = bodyStream.readUnsignedByte();
+
+      if (type == COMPRESSED_TYPE && m_compression != null) {
+        final int uncompressedLength = bodyStream.readInt();
+
+        // Compression checks that the data inflates to exactly this length.
+        if (uncompressedLength < 1 ||
+            uncompressedLength > MAXIMUM_FRAME_SIZE) {
+          throw new StreamCorruptedException(
+            "Invalid uncompressed length " + uncompressedLength);
+        }
+
+        final int offset = body.length - bodyStream.available();
+
+        return decode(m_compression.decompress(body,
+                                               offset,
+                                               body.length - offset,
+                                               uncompressedLength));
+      }
+
+      if (type == SERIALISED_TYPE) {
+        return (Message)new ObjectInputStream(bodyStream).readObject();
+      }
+
+      if (type == BATCH_TYPE) {
+        final int n = bodyStream.readInt();
+
+        if (n < 0) {
+          throw new StreamCorruptedException("Invalid batch size " + n);
+        }
+
+        final List<Message> messages = new ArrayList<Message>();
+
+        for (int i = 0; i < n; ++i) {
+          messages.add(read(bodyStream));
+        }
+
+        return new MessageBatch(messages);
+      }
+
+      final MessageCodecRegistry.Registration registration =
+        m_codecRegistry.get(type);
+
+      if (registration == null) {
+        throw new StreamCorruptedException("Unknown message type " + type);
+      }
+
+      return registration.read(bodyStream);
+    }
+
+    /**
+     * Accumulates a frame, leaving space for the header.
+     */
+    private static final class FrameBuffer extends ByteArrayOutputStream {
+      public FrameBuffer() {
+        super(256);
+        count = HEADER_SIZE;
+      }
+
+      private byte[] getBuffer() {
+        return buf;
+      }
+
+      private void writeHeader() {
+        final int length = count - HEADER_SIZE;
+        buf[0] = (byte)(length >>> 24);
+        buf[1] = (byte)(length >>> 16);
+        buf[2] = (byte)(length >>> 8);
+        buf[3] = (byte)length;
+      }
+
+      @Override public void writeTo(OutputStream stream) throws IOException {
+        writeHeader();
+        stream.write(buf, 0, count);
+      }
+
+      @Override public byte[] toByteArray() {
+        writeHeader();
+        return super.toByteArray();
+      }
+    }
+  }
+}
@@ -291,7 +291,9 @@ public final class ConsoleFoundation {
         ReportStatisticsMessage.class,
         new AbstractHandler<ReportStatisticsMessage>() {
           public void handle(ReportStatisticsMessage message) {
-            model.addTestReport(message.getStatisticsDelta());
+            model.addTestReport(
+              sampleModelViews.toConsoleTimeUnit(message.getStatisticsDelta(),
+                                                 message.getTimeUnit()));
           }
         });
 
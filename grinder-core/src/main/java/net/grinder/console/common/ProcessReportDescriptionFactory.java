@@ -34,6 +34,7 @@ import net.grinder.common.processidentity.WorkerProcessReport;
  */
 public final class ProcessReportDescriptionFactory {
   private final String m_threadsString;
+  private final String m_queueString;
   private final String m_agentString;
   private final String m_workerString;
   private final String m_stateStartedString;
@@ -50,6 +51,7 @@ public final class ProcessReportDescriptionFactory {
    */
   public ProcessReportDescriptionFactory(Resources resources) {
     m_threadsString = resources.getString("processTable.threads.label");
+    m_queueString = resources.getString("processTable.queue.label");
 
     m_agentString = resources.getString("processTable.agentProcess.label");
     m_workerString = resources.getString("processTable.workerProcess.label");
@@ -121,10 +123,29 @@ public final class ProcessReportDescriptionFactory {
         break;
 
       case RUNNING:
-        state = m_stateRunningString + " (" +
-                workerProcessReport.getNumberOfRunningThreads() + "/" +
-                workerProcessReport.getMaximumNumberOfThreads() + " " +
-                m_threadsString + ")";
+        final StringBuilder running = new StringBuilder();
+        running.append(m_stateRunningString);
+        running.append(" (");
+        running.append(workerProcessReport.getNumberOfRunningThreads());
+        running.append("/");
+        running.append(workerProcessReport.getMaximumNumberOfThreads());
+        running.append(" ");
+        running.append(m_threadsString);
+
+        // Only show the console message queue if it is backing up.
+        if (workerProcessReport.getMessageQueueDepth() > 0 ||
+            workerProcessReport.getMessageQueueLatency() > 0) {
+          running.append(", ");
+          running.append(m_queueString);
+          running.append(" ");
+          running.append(workerProcessReport.getMessageQueueDepth());
+          running.append(", ");
+          running.append(workerProcessReport.getMessageQueueLatency());
+          running.append(" ms");
+        }
+
+        running.append(")");
+        state = running.toString();
         break;
 
       case FINISHED:
@@ -23,14 +23,20 @@ package net.grinder.console.communication;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.util.Timer;
+import java.util.TimerTask;
 
 import javax.annotation.PreDestroy;
 
+import org.slf4j.Logger;
+
 import net.grinder.communication.Acceptor;
 import net.grinder.communication.Address;
 import net.grinder.communication.CommunicationException;
+import net.grinder.communication.CompressionStatistics;
 import net.grinder.communication.ConnectionType;
 import net.grinder.communication.FanOutServerSender;
+import net.grinder.communication.LatencyStatistics;
 import net.grinder.communication.Message;
 import net.grinder.communication.MessageDispatchRegistry;
 import net.grinder.communication.MessageDispatchSender;
@@ -39,6 +45,8 @@ import net.grinder.console.common.DisplayMessageConsoleException;
 import net.grinder.console.common.ErrorHandler;
 import net.grinder.console.common.Resources;
 import net.grinder.console.model.ConsoleProperties;
+import net.grinder.messages.console.ConsoleMessageCodecs;
+import net.grinder.statistics.StatisticsServicesImplementation;
 import net.grinder.util.TimeAuthority;
 import net.grinder.util.thread.BooleanCondition;
 
@@ -46,11 +54,17 @@ import net.grinder.util.thread.BooleanCondition;
 /**
  * Handles communication for the console.
  *
+ * <p>If constructed with a {@link Timer} and a {@link Logger}, it
+ * periodically logs statistics about the messages it receives.</p>
+ *
  * @author Philip Aston
  */
 public final class ConsoleCommunicationImplementation
   implements ConsoleCommunication {
 
+  /** How often statistics are logged, in milliseconds. */
+  static final long STATISTICS_LOG_INTERVAL = 60000;
+
   private final Resources m_resources;
   private final ConsoleProperties m_properties;
   private final ErrorHandler m_errorHandler;
@@ -64,10 +78,13 @@ public final class ConsoleCommunicationImplementation
   private final BooleanCondition m_processing = new BooleanCondition();
   private final BooleanCondition  m_shutdown = new BooleanCondition();
 
-  private Acceptor m_acceptor = null;
-  private ServerReceiver m_receiver = null;
+  // Volatile so that the statistics task sees the current instances.
+  private volatile Acceptor m_acceptor = null;
+  private volatile ServerReceiver m_receiver = null;
   private FanOutServerSender m_sender = null;
 
+  private TimerTask m_statisticsTask = null;
+
   /**
    * Constructor that uses a default idlePollDelay.
    *
@@ -90,6 +107,40 @@ public final class ConsoleCommunicationImplementation
     this(resources, properties, errorHandler, timeAuthority, 500, 30000);
   }
 
+  /**
+   * Constructor that uses a default idlePollDelay, and logs communication
+   * statistics.
+   *
+   * @param resources
+   *          Resources.
+   * @param properties
+   *          Console properties.
+   * @param errorHandler
+   *          Error handler.
+   * @param timeAuthority
+   *          Knows the time
+   * @param timer
+   *          Timer used to schedule the logging of statistics.
+   * @param logger
+   *          Logger.
+   * @throws DisplayMessageConsoleException
+   *           If properties are invalid.
+   */
+  public ConsoleCommunicationImplementation(Resources resources,
+                                            ConsoleProperties properties,
+                                            ErrorHandler errorHandler,
+                                            TimeAuthority timeAuthority,
+                                            Timer timer,
+                                            Logger logger)
+    throws DisplayMessageConsoleException {
+    this(resources, properties, errorHandler, timeAuthority);
+
+    m_statisticsTask = new StatisticsTask(logger);
+    timer.schedule(m_statisticsTask,
+                   STATISTICS_LOG_INTERVAL,
+                   STATISTICS_LOG_INTERVAL);
+  }
+
   /**
    * Constructor.
    *
@@ -173,7 +224,10 @@ public final class ConsoleCommunicationImplementation
       m_acceptor = new Acceptor(m_properties.getConsoleHost(),
                                 m_properties.getConsolePort(),
                                 1,
-                                m_timeAuthority);
+                                m_timeAuthority,
+                                ConsoleMessageCodecs.createRegistry(
+                                  StatisticsServicesImplementation.getInstance()
+                                  .getStatisticsSetFactory()));
     }
     catch (CommunicationException e) {
       m_errorHandler.handleException(
@@ -259,6 +313,11 @@ public final class ConsoleCommunicationImplementation
   public void shutdown() {
     m_shutdown.set(true);
     m_processing.set(false);
+
+    if (m_statisticsTask != null) {
+      m_statisticsTask.cancel();
+    }
+
     reset();
   }
 
@@ -359,4 +418,59 @@ public final class ConsoleCommunicationImplementation
       }
     }
   }
+
+  /**
+   * Logs the receive latency of the current receiver since the last run.
+   */
+  private final class StatisticsTask extends TimerTask {
+    private final Logger m_logger;
+
+    private ServerReceiver m_lastReceiver;
+    private LatencyStatistics m_lastLatency;
+    private CompressionStatistics m_lastCompression;
+
+    public StatisticsTask(Logger logger) {
+      m_logger = logger;
+    }
+
+    public synchronized void run() {
+      final Acceptor acceptor = m_acceptor;
+
+      if (acceptor != null) {
+        final CompressionStatistics compression =
+          acceptor.getCompressionStatistics();
+
+        // Only log if there has been activity since the last time.
+        if (compression != null &&
+            compression.getCompressedCount() +
+            compression.getDecompressedCount() > 0 &&
+            (m_lastCompression == null ||
+             compression.getCompressedCount() !=
+               m_lastCompression.getCompressedCount() ||
+             compression.getDecompressedCount() !=
+               m_lastCompression.getDecompressedCount())) {
+          m_logger.info("Compression: {}", compression);
+        }
+
+        m_lastCompression = compression;
+      }
+
+      final ServerReceiver receiver = m_receiver;
+
+      if (receiver == null) {
+        return;
+      }
+
+      final LatencyStatistics latency = receiver.getReceiveLatency();
+      final LatencyStatistics recentLatency =
+        receiver == m_lastReceiver ? latency.since(m_lastLatency) : latency;
+
+      m_lastReceiver = receiver;
+      m_lastLatency = latency;
+
+      if (recentLatency.getCount() > 0) {
+        m_logger.info("Receive latency: {}", recentLatency);
+      }
+    }
+  }
 }
@@ -22,6 +22,8 @@
 package net.grinder.console.communication;
 
 
+import java.util.List;
+
 import net.grinder.communication.Address;
 import net.grinder.messages.agent.CacheHighWaterMark;
 import net.grinder.util.FileContents;
@@ -51,6 +53,19 @@ public interface DistributionControl {
    */
   void sendFile(Address address, FileContents fileContents);
 
+  /**
+   * Tell the agents matching the given address to fetch a chunk of a file
+   * from their peers.
+   *
+   * @param address
+   *            The address of the agents.
+   * @param fileContents The chunk. Only its description is sent.
+   * @param peers The peer file servers that have the chunk.
+   */
+  void fetchFile(Address address,
+                 FileContents fileContents,
+                 List<String> peers);
+
   /**
    * Inform agent processes of a checkpoint of the cache state. Each agent
    * should maintain this (perhaps persistently), and report it in status
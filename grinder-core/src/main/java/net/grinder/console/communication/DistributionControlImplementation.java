@@ -21,11 +21,14 @@
 
 package net.grinder.console.communication;
 
+import java.util.List;
+
 import net.grinder.communication.Address;
 import net.grinder.messages.agent.CacheHighWaterMark;
 import net.grinder.messages.agent.ClearCacheMessage;
 import net.grinder.messages.agent.DistributeFileMessage;
 import net.grinder.messages.agent.DistributionCacheCheckpointMessage;
+import net.grinder.messages.agent.FetchFileMessage;
 import net.grinder.util.FileContents;
 
 
@@ -73,6 +76,22 @@ public class DistributionControlImplementation
       address, new DistributeFileMessage(fileContents));
   }
 
+  /**
+   * Tell the agents matching the given address to fetch a chunk of a file
+   * from their peers.
+   *
+   * @param address
+   *            The address of the agents.
+   * @param fileContents The chunk. Only its description is sent.
+   * @param peers The peer file servers that have the chunk.
+   */
+  public void fetchFile(Address address,
+                        FileContents fileContents,
+                        List<String> peers) {
+    m_consoleCommunication.sendToAddressedAgents(
+      address, new FetchFileMessage(fileContents, peers));
+  }
+
   /**
    * Inform agent processes of a checkpoint of the cache state. Each agent
    * should maintain this (perhaps persistently), and report it in status
@@ -22,8 +22,10 @@
 
 package net.grinder.console.communication;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
@@ -36,6 +38,7 @@ import net.grinder.common.processidentity.WorkerIdentity;
 import net.grinder.common.processidentity.WorkerProcessReport;
 import net.grinder.console.communication.ProcessControl.Listener;
 import net.grinder.messages.agent.CacheHighWaterMark;
+import net.grinder.messages.agent.ReceivedFile;
 import net.grinder.messages.console.AgentAddress;
 import net.grinder.messages.console.AgentAndCacheReport;
 import net.grinder.util.AllocateLowestNumber;
@@ -306,6 +309,14 @@ final class ProcessStatusImplementation {
     public CacheHighWaterMark getCacheHighWaterMark() {
       return null;
     }
+
+    public String getPeerFileServer() {
+      return null;
+    }
+
+    public List<ReceivedFile> getReceivedFiles() {
+      return Collections.emptyList();
+    }
   }
 
   /**
@@ -23,8 +23,11 @@ package net.grinder.console.distribution;
 
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
+import java.io.File;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
 
@@ -32,6 +35,7 @@ import net.grinder.communication.Address;
 import net.grinder.console.communication.ProcessControl;
 import net.grinder.console.communication.ProcessControl.ProcessReports;
 import net.grinder.messages.agent.CacheHighWaterMark;
+import net.grinder.messages.agent.ReceivedFile;
 import net.grinder.messages.console.AgentAddress;
 import net.grinder.messages.console.AgentAndCacheReport;
 import net.grinder.util.Directory;
@@ -170,6 +174,93 @@ final class AgentCacheStateImplementation implements UpdateableAgentCacheState {
       return new AddressSet(outOfDateAgentAddresses);
     }
 
+    public Address getAddressOfAgentsBetween(long baseTime, long time)
+      throws OutOfDateException {
+      checkValidity();
+
+      final CacheHighWaterMark cacheState =
+        m_validCacheParameters.createHighWaterMark(time);
+
+      final Set<AgentAddress> agentAddresses = new HashSet<AgentAddress>();
+
+      for (AgentAndCacheReport agentReport : m_agentReports) {
+        if (isBetween(agentReport, cacheState, baseTime, time)) {
+          agentAddresses.add(new AgentAddress(agentReport.getAgentIdentity()));
+        }
+      }
+
+      return agentAddresses.isEmpty() ? null : new AddressSet(agentAddresses);
+    }
+
+    public Map<Address, String> getPeerFileServersBetween(long baseTime,
+                                                          long time)
+      throws OutOfDateException {
+      checkValidity();
+
+      final CacheHighWaterMark cacheState =
+        m_validCacheParameters.createHighWaterMark(time);
+
+      final Map<Address, String> result = new LinkedHashMap<Address, String>();
+
+      for (AgentAndCacheReport agentReport : m_agentReports) {
+        final String peerFileServer = agentReport.getPeerFileServer();
+
+        if (peerFileServer != null &&
+            isBetween(agentReport, cacheState, baseTime, time)) {
+          result.put(new AgentAddress(agentReport.getAgentIdentity()),
+                     peerFileServer);
+        }
+      }
+
+      return result;
+    }
+
+    public Map<Address, Long> getReceivedBytesBetween(File file,
+                                                      String digest,
+                                                      long baseTime,
+                                                      long time)
+      throws OutOfDateException {
+      checkValidity();
+
+      final CacheHighWaterMark cacheState =
+        m_validCacheParameters.createHighWaterMark(time);
+
+      final Map<Address, Long> result = new LinkedHashMap<Address, Long>();
+
+      for (AgentAndCacheReport agentReport : m_agentReports) {
+        if (isBetween(agentReport, cacheState, baseTime, time)) {
+          long received = 0;
+
+          if (cacheState.isForSameCache(agentReport.getCacheHighWaterMark())) {
+            for (ReceivedFile receivedFile : agentReport.getReceivedFiles()) {
+              if (receivedFile.getFilename().equals(file) &&
+                  digest.equals(receivedFile.getDigest())) {
+                received = receivedFile.getLength();
+              }
+            }
+          }
+
+          result.put(new AgentAddress(agentReport.getAgentIdentity()),
+                     received);
+        }
+      }
+
+      return result;
+    }
+
+    private boolean isBetween(AgentAndCacheReport agentReport,
+                              CacheHighWaterMark cacheState,
+                              long baseTime,
+                              long time) {
+      final CacheHighWaterMark agentCache =
+        agentReport.getCacheHighWaterMark();
+
+      final long agentTime = cacheState.isForSameCache(agentCache) ?
+        agentCache.getTime() : Long.MIN_VALUE;
+
+      return agentTime >= baseTime && agentTime < time;
+    }
+
     public long getEarliestAgentTime() {
       return m_earliestAgentTime;
     }
@@ -227,19 +318,5 @@ final class AgentCacheStateImplementation implements UpdateableAgentCacheState {
                                                  newOutOfDate);
     }
   }
-
-  private static final class AddressSet implements Address {
-    private static final long serialVersionUID = 1L;
-
-    private final Set<? extends Address> m_addresses;
-
-    public AddressSet(Set<? extends Address> addresses) {
-      m_addresses = addresses;
-    }
-
-    public boolean includes(Address address) {
-      return m_addresses.contains(address);
-    }
-  }
 }
 
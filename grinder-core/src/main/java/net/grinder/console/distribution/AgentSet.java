@@ -21,6 +21,9 @@
 
 package net.grinder.console.distribution;
 
+import java.io.File;
+import java.util.Map;
+
 import net.grinder.communication.Address;
 
 
@@ -36,6 +39,55 @@ interface AgentSet {
   Address getAddressOfOutOfDateAgents(long time)
     throws OutOfDateException;
 
+  /**
+   * Return the address of the agents with cache high water marks in the
+   * range [{@code baseTime}, {@code time}). Agents with caches for
+   * different cache parameters are treated as having the earliest
+   * possible time.
+   *
+   * @param baseTime Start of the range, inclusive.
+   * @param time End of the range, exclusive.
+   * @return The address, or {@code null} if no agents are in the range.
+   * @throws OutOfDateException If the agent set has been invalidated.
+   */
+  Address getAddressOfAgentsBetween(long baseTime, long time)
+    throws OutOfDateException;
+
+  /**
+   * Return the peer file servers of the agents with cache high water marks
+   * in the range [{@code baseTime}, {@code time}). Agents that don't serve
+   * files to their peers are not included.
+   *
+   * @param baseTime Start of the range, inclusive.
+   * @param time End of the range, exclusive.
+   * @return Map of agent address to peer file server address.
+   * @throws OutOfDateException If the agent set has been invalidated.
+   */
+  Map<Address, String> getPeerFileServersBetween(long baseTime, long time)
+    throws OutOfDateException;
+
+  /**
+   * Return how much of a version of a file each of the agents with cache
+   * high water marks in the range [{@code baseTime}, {@code time}) has
+   * received since its cache was last checkpointed. Only agents with caches
+   * for the current cache parameters report what they have received;
+   * other agents will have their caches cleared.
+   *
+   * @param file The file, relative to the distribution directory.
+   * @param digest The digest of the version of the file.
+   * @param baseTime Start of the range, inclusive.
+   * @param time End of the range, exclusive.
+   * @return Map of agent address to the number of bytes received. Every
+   *  agent in the range is included; agents that have received nothing
+   *  map to zero.
+   * @throws OutOfDateException If the agent set has been invalidated.
+   */
+  Map<Address, Long> getReceivedBytesBetween(File file,
+                                             String digest,
+                                             long baseTime,
+                                             long time)
+    throws OutOfDateException;
+
   long getEarliestAgentTime();
 
   /**
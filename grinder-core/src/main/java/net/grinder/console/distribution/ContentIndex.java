@@ -0,0 +1,275 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.console.distribution;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.grinder.common.Closer;
+
+
+/**
+ * Index of the content of the distribution files.
+ *
+ * <p>
+ * Each file is identified by a digest of its content, built from digests of
+ * fixed size blocks. The index records the time at which the current content
+ * first appeared, so a file that has been touched but not changed keeps its
+ * original content time, and need not be sent again. The index also
+ * remembers the previous content of each file, so that agents that have the
+ * previous content can be sent just the blocks that have changed.
+ * </p>
+ *
+ * <p>
+ * Files are only read again if their modification time or length changes.
+ * </p>
+ *
+ * <p>
+ * Package scope.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+final class ContentIndex {
+
+  /** The size of the blocks used to calculate deltas. */
+  static final int BLOCK_SIZE = 64 * 1024;
+
+  private static final String ALGORITHM = "SHA-1";
+
+  /** Keyed by absolute file. Guarded by this. */
+  private final Map<File, Entry> m_entries = new HashMap<File, Entry>();
+
+  /**
+   * Return the entry for a file, reading the file if it has changed.
+   *
+   * @param file
+   *          The file.
+   * @return The entry.
+   * @throws IOException
+   *           If the file could not be read.
+   */
+  public synchronized Entry get(File file) throws IOException {
+    final Entry existing = m_entries.get(file);
+
+    final long lastModified = file.lastModified();
+    final long length = file.length();
+
+    if (existing != null &&
+        existing.getLastModified() == lastModified &&
+        existing.getLength() == length) {
+      return existing;
+    }
+
+    final byte[][] blockDigests = readBlockDigests(file);
+    final String digest = digest(blockDigests, length);
+
+    final Entry entry;
+
+    if (existing == null) {
+      entry = new Entry(digest, blockDigests, length, lastModified,
+                        lastModified, null);
+    }
+    else if (existing.getDigest().equals(digest)) {
+      // Touched, but not changed.
+      entry = new Entry(digest, blockDigests, length, lastModified,
+                        existing.getContentTime(), existing.getPrevious());
+    }
+    else {
+      entry = new Entry(digest, blockDigests, length, lastModified,
+                        lastModified, existing.withoutPrevious());
+    }
+
+    m_entries.put(file, entry);
+
+    return entry;
+  }
+
+  private static MessageDigest createMessageDigest() {
+    try {
+      return MessageDigest.getInstance(ALGORITHM);
+    }
+    catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-1.
+      throw new AssertionError(e);
+    }
+  }
+
+  private static byte[][] readBlockDigests(File file) throws IOException {
+    final MessageDigest messageDigest = createMessageDigest();
+    final List<byte[]> result = new ArrayList<byte[]>();
+    final ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+
+    RandomAccessFile randomAccessFile = null;
+
+    try {
+      randomAccessFile = new RandomAccessFile(file, "r");
+      final FileChannel channel = randomAccessFile.getChannel();
+
+      boolean eof = false;
+
+      while (!eof) {
+        buffer.clear();
+
+        while (buffer.hasRemaining()) {
+          if (channel.read(buffer) == -1) {
+            eof = true;
+            break;
+          }
+        }
+
+        if (buffer.position() > 0) {
+          messageDigest.update(buffer.array(), 0, buffer.position());
+          result.add(messageDigest.digest());
+        }
+      }
+    }
+    finally {
+      Closer.close(randomAccessFile);
+    }
+
+    return result.toArray(new byte[result.size()][]);
+  }
+
+  private static String digest(byte[][] blockDigests, long length) {
+    final MessageDigest messageDigest = createMessageDigest();
+
+    for (byte[] blockDigest : blockDigests) {
+      messageDigest.update(blockDigest);
+    }
+
+    final StringBuilder result = new StringBuilder();
+
+    for (byte b : messageDigest.digest()) {
+      result.append(Character.forDigit((b >> 4) & 0xF, 16));
+      result.append(Character.forDigit(b & 0xF, 16));
+    }
+
+    result.append('-').append(length);
+
+    return result.toString();
+  }
+
+  /**
+   * Index entry for the content of a file.
+   */
+  static final class Entry {
+    private final String m_digest;
+    private final byte[][] m_blockDigests;
+    private final long m_length;
+    private final long m_lastModified;
+    private final long m_contentTime;
+    private final Entry m_previous;
+
+    private Entry(String digest,
+                  byte[][] blockDigests,
+                  long length,
+                  long lastModified,
+                  long contentTime,
+                  Entry previous) {
+      m_digest = digest;
+      m_blockDigests = blockDigests;
+      m_length = length;
+      m_lastModified = lastModified;
+      m_contentTime = contentTime;
+      m_previous = previous;
+    }
+
+    private Entry withoutPrevious() {
+      return new Entry(m_digest, m_blockDigests, m_length, m_lastModified,
+                       m_contentTime, null);
+    }
+
+    /**
+     * The content digest.
+     *
+     * @return The digest.
+     */
+    public String getDigest() {
+      return m_digest;
+    }
+
+    /**
+     * The length of the content.
+     *
+     * @return The length in bytes.
+     */
+    public long getLength() {
+      return m_length;
+    }
+
+    /**
+     * The modification time of the file when it was read.
+     *
+     * @return The time.
+     */
+    public long getLastModified() {
+      return m_lastModified;
+    }
+
+    /**
+     * The modification time of the file when the content first appeared.
+     *
+     * @return The time.
+     */
+    public long getContentTime() {
+      return m_contentTime;
+    }
+
+    /**
+     * The previous content of the file.
+     *
+     * @return The previous entry, or {@code null} if not known.
+     */
+    public Entry getPrevious() {
+      return m_previous;
+    }
+
+    /**
+     * Work out which blocks differ from other content.
+     *
+     * @param base The other content.
+     * @return The offsets of the blocks that differ, in order.
+     */
+    public List<Long> changedBlocks(Entry base) {
+      final List<Long> result = new ArrayList<Long>();
+
+      for (int i = 0; i < m_blockDigests.length; ++i) {
+        if (i >= base.m_blockDigests.length ||
+            !MessageDigest.isEqual(m_blockDigests[i], base.m_blockDigests[i])) {
+          result.add((long) i * BLOCK_SIZE);
+        }
+      }
+
+      return result;
+    }
+  }
+}
@@ -0,0 +1,382 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.console.distribution;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.grinder.common.UncheckedInterruptedException;
+
+
+/**
+ * Watches a directory hierarchy for changes using the file system
+ * notification service introduced in Java 7. We use reflection so that The
+ * Grinder can still be built and run on older platforms.
+ *
+ * <p>
+ * Changes are delivered to a {@link Listener} by a daemon thread as soon as
+ * they are notified, or synchronously by {@link #poll}. The files reported
+ * are those that would be found by a scan: files that have been created or
+ * modified, and directories whose contents have changed. Deleted files are
+ * also reported. If the notification service loses events, the listener is
+ * told to fall back to a scan.
+ * </p>
+ *
+ * <p>
+ * Package scope.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+final class DirectoryWatcher {
+
+  private final Method m_register;
+  private final Object m_kinds;
+  private final Object m_entryCreate;
+  private final Object m_entryModify;
+  private final Object m_overflow;
+  private final Method m_poll;
+  private final Method m_take;
+  private final Method m_close;
+  private final Method m_pollEvents;
+  private final Method m_reset;
+  private final Method m_kind;
+  private final Method m_context;
+  private final Method m_toPath;
+
+  private final FileFilter m_filter;
+  private final Listener m_listener;
+  private final Object m_watchService;
+
+  /** Watch keys to the directories they watch. Guarded by this. */
+  private final Map<Object, File> m_directories = new HashMap<Object, File>();
+
+  /**
+   * Constructor.
+   *
+   * @param root
+   *          The root of the directory hierarchy.
+   * @param filter
+   *          Filter that controls the files and directories that are watched.
+   * @param listener
+   *          Listener to notify of changes.
+   * @throws IOException
+   *           If the hierarchy could not be watched, or if this JVM does not
+   *           support file system notifications.
+   */
+  DirectoryWatcher(File root, FileFilter filter, Listener listener)
+    throws IOException {
+
+    m_filter = filter;
+    m_listener = listener;
+
+    try {
+      final Class<?> pathClass = Class.forName("java.nio.file.Path");
+      final Class<?> watchServiceClass =
+        Class.forName("java.nio.file.WatchService");
+      final Class<?> watchKeyClass = Class.forName("java.nio.file.WatchKey");
+      final Class<?> watchEventClass =
+        Class.forName("java.nio.file.WatchEvent");
+      final Class<?> kindClass = Class.forName("java.nio.file.WatchEvent$Kind");
+      final Class<?> standardKindsClass =
+        Class.forName("java.nio.file.StandardWatchEventKinds");
+
+      m_toPath = File.class.getMethod("toPath");
+
+      m_entryCreate = standardKindsClass.getField("ENTRY_CREATE").get(null);
+      m_entryModify = standardKindsClass.getField("ENTRY_MODIFY").get(null);
+      m_overflow = standardKindsClass.getField("OVERFLOW").get(null);
+
+      m_kinds = Array.newInstance(kindClass, 3);
+      Array.set(m_kinds, 0, m_entryCreate);
+      Array.set(m_kinds, 1, standardKindsClass.getField("ENTRY_DELETE")
+                .get(null));
+      Array.set(m_kinds, 2, m_entryModify);
+
+      m_register =
+        pathClass.getMethod("register", watchServiceClass, m_kinds.getClass());
+      m_poll = watchServiceClass.getMethod("poll");
+      m_take = watchServiceClass.getMethod("take");
+      m_close = watchServiceClass.getMethod("close");
+      m_pollEvents = watchKeyClass.getMethod("pollEvents");
+      m_reset = watchKeyClass.getMethod("reset");
+      m_kind = watchEventClass.getMethod("kind");
+      m_context = watchEventClass.getMethod("context");
+
+      final Object fileSystem =
+        invoke(pathClass.getMethod("getFileSystem"), invoke(m_toPath, root));
+
+      m_watchService =
+        invoke(Class.forName("java.nio.file.FileSystem")
+               .getMethod("newWatchService"),
+               fileSystem);
+    }
+    catch (ClassNotFoundException e) {
+      throw unsupported(e);
+    }
+    catch (NoSuchMethodException e) {
+      throw unsupported(e);
+    }
+    catch (NoSuchFieldException e) {
+      throw unsupported(e);
+    }
+    catch (IllegalAccessException e) {
+      throw unsupported(e);
+    }
+
+    try {
+      synchronized (this) {
+        register(root, null);
+      }
+    }
+    catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  private static IOException unsupported(Throwable e) {
+    return new IOException(
+      "File system notifications are not supported by this JVM", e);
+  }
+
+  /**
+   * Start a daemon thread that delivers changes as they happen.
+   */
+  void start() {
+    final Thread thread = new Thread("Distribution file watcher") {
+        public void run() {
+          try {
+            while (true) {
+              final Object key = invoke(m_take, m_watchService);
+
+              synchronized (DirectoryWatcher.this) {
+                deliver(key);
+              }
+            }
+          }
+          catch (IllegalStateException e) {
+            // The watch service has been closed.
+          }
+          catch (UncheckedInterruptedException e) {
+            // Exit.
+          }
+          catch (IOException e) {
+            // Exit. The next scan will fall back to walking the directory.
+          }
+        }
+      };
+
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Deliver any pending changes. Does not block waiting for more.
+   */
+  synchronized void poll() {
+    try {
+      deliver(invoke(m_poll, m_watchService));
+    }
+    catch (IllegalStateException e) {
+      // The watch service has been closed.
+    }
+    catch (IOException e) {
+      m_listener.eventsLost();
+    }
+  }
+
+  /**
+   * Stop watching. Pending changes are discarded.
+   */
+  void close() {
+    try {
+      invoke(m_close, m_watchService);
+    }
+    catch (IOException e) {
+      UncheckedInterruptedException.ioException(e);
+    }
+  }
+
+  /**
+   * Must be called while holding our lock.
+   */
+  private void deliver(Object firstKey) throws IOException {
+    final Set<File> changes = new HashSet<File>();
+    boolean eventsLost = false;
+
+    for (Object key = firstKey;
+         key != null;
+         key = invoke(m_poll, m_watchService)) {
+      eventsLost |= process(key, changes);
+    }
+
+    if (eventsLost) {
+      // A scan will find the changes too.
+      m_listener.eventsLost();
+    }
+    else if (changes.size() > 0) {
+      m_listener.filesChanged(changes);
+    }
+  }
+
+  /**
+   * Process the events for a key.
+   *
+   * @return {@code true} if events were lost.
+   */
+  private boolean process(Object key, Set<File> changes) throws IOException {
+
+    final File directory = m_directories.get(key);
+    boolean eventsLost = false;
+
+    for (Object event : (List<?>) invoke(m_pollEvents, key)) {
+      final Object kind = invoke(m_kind, event);
+
+      if (kind == m_overflow) {
+        eventsLost = true;
+        continue;
+      }
+
+      if (directory == null) {
+        continue;
+      }
+
+      final File file =
+        new File(directory, invoke(m_context, event).toString());
+
+      if (!m_filter.accept(file)) {
+        continue;
+      }
+
+      changes.add(file);
+
+      if (kind != m_entryModify) {
+        // A scan would find that the directory has changed too.
+        changes.add(directory);
+      }
+
+      if (kind == m_entryCreate && file.isDirectory()) {
+        try {
+          register(file, changes);
+        }
+        catch (IOException e) {
+          eventsLost = true;
+        }
+      }
+    }
+
+    if (!((Boolean) invoke(m_reset, key))) {
+      // The directory is no longer accessible.
+      m_directories.remove(key);
+    }
+
+    return eventsLost;
+  }
+
+  /**
+   * Watch a directory and the directories below it. Must be called while
+   * holding our lock.
+   *
+   * @param directory The directory.
+   * @param changes If not {@code null}, the contents are added to this set.
+   */
+  private void register(File directory, Set<File> changes)
+    throws IOException {
+
+    m_directories.put(
+      invoke(m_register, invoke(m_toPath, directory), m_watchService, m_kinds),
+      directory);
+
+    final File[] children = directory.listFiles(m_filter);
+
+    if (children != null) {
+      for (File child : children) {
+        if (changes != null) {
+          changes.add(child);
+        }
+
+        if (child.isDirectory()) {
+          register(child, changes);
+        }
+      }
+    }
+  }
+
+  private static Object invoke(Method method,
+                               Object target,
+                               Object... arguments)
+    throws IOException {
+
+    try {
+      return method.invoke(target, arguments);
+    }
+    catch (IllegalAccessException e) {
+      throw unsupported(e);
+    }
+    catch (InvocationTargetException e) {
+      final Throwable cause = e.getCause();
+
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      else if (cause instanceof InterruptedException) {
+        throw new UncheckedInterruptedException((InterruptedException) cause);
+      }
+      else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+
+      throw unsupported(cause);
+    }
+  }
+
+  /**
+   * Listener interface.
+   */
+  interface Listener {
+
+    /**
+     * Called with changed files.
+     *
+     * @param files The files that have changed.
+     */
+    void filesChanged(Set<File> files);
+
+    /**
+     * Called when changes may have been missed.
+     */
+    void eventsLost();
+  }
+}
@@ -88,4 +88,13 @@ public interface FileDistribution extends FileChangeWatcher {
    *            filtered out.
    */
   void setFileFilterPattern(Pattern distributionFileFilterPattern);
+
+  /**
+   * Set whether to watch the distribution directory for changes using file
+   * system notifications. If watching is not supported, or fails, we fall
+   * back to scanning the directory.
+   *
+   * @param watch {@code true} => watch for changes.
+   */
+  void setWatchDistributionFiles(boolean watch);
 }
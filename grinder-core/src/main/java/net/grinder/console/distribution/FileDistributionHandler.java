@@ -32,7 +32,7 @@ import net.grinder.util.FileContents.FileContentsException;
 public interface FileDistributionHandler {
 
   /**
-   * Result of sending a file.
+   * Result of sending a file, or a chunk of a file.
    */
   public interface Result {
 
@@ -49,10 +49,33 @@ public interface FileDistributionHandler {
      * @return The file name.
      */
     String getFileName();
+
+    /**
+     * The number of bytes of file content sent so far in this distribution.
+     *
+     * @return The number of bytes.
+     */
+    long getBytesSent();
+
+    /**
+     * The rate at which file content has been sent in this distribution.
+     *
+     * @return The throughput, in bytes per second.
+     */
+    long getBytesPerSecond();
+
+    /**
+     * The rate at which the content of the file just distributed has been
+     * sent.
+     *
+     * @return The throughput, in bytes per second.
+     */
+    long getFileBytesPerSecond();
   }
 
   /**
-   * Send the next file.
+   * Send the next file. Large files are sent a chunk at a time, so
+   * several calls may return the same file name.
    *
    * @return A {@link Result} or <code>null</code> if there are more
    * files to process.
@@ -60,4 +83,13 @@ public interface FileDistributionHandler {
    * sending the file.
    */
   Result sendNextFile() throws FileContentsException;
+
+  /**
+   * Abandon the distribution. Files may be read ahead of calls to
+   * {@link #sendNextFile()}; callers that stop before it returns
+   * <code>null</code> should call this to release the resources used.
+   * Subsequent calls to {@link #sendNextFile()} will return
+   * <code>null</code>.
+   */
+  void cancel();
 }
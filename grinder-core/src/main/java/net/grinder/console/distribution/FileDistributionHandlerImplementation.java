@@ -22,7 +22,19 @@
 package net.grinder.console.distribution;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
+import net.grinder.common.UncheckedInterruptedException;
 import net.grinder.communication.Address;
 import net.grinder.console.communication.DistributionControl;
 import net.grinder.console.distribution.AgentSet.OutOfDateException;
@@ -32,6 +44,32 @@ import net.grinder.util.FileContents;
 /**
  * File Distribution Handler implementation.
  *
+ * <p>Files are sent in chunks of at most {@link #CHUNK_SIZE} bytes, so
+ * the memory used is independent of the size of the files.</p>
+ *
+ * <p>Files are identified by their content, using a {@link ContentIndex}.
+ * A file that has been touched but not changed is not sent again. Agents
+ * that have the previous content of a file are sent only the blocks that
+ * have changed.</p>
+ *
+ * <p>Agents that run a peer file server can fetch chunks of a whole file
+ * from each other. Each chunk is sent to one of these agents, the seed,
+ * and the others are told to fetch it from the seed. The seeds are
+ * chosen in turn, so the console sends each chunk once rather than once
+ * per agent. Agents check fetched chunks against a digest supplied by the
+ * console.</p>
+ *
+ * <p>Agents report how much of each file they have received since their
+ * caches were last checkpointed. If a distribution is interrupted, the next
+ * one sends each agent the rest of a file it has started to receive,
+ * rather than the whole file. Agents whose caches are cleared are told that
+ * they have an empty cache for the current cache parameters, so that they
+ * too can resume.</p>
+ *
+ * <p>Distribution is pipelined. A reader thread indexes the files and reads
+ * the chunks to send ahead of the caller, which encodes and sends them.
+ * At most {@link #READ_AHEAD} chunks are read ahead.</p>
+ *
  * <p>Not thread safe.</p>
  *
  * @author Philip Aston
@@ -39,27 +77,64 @@ import net.grinder.util.FileContents;
 final class FileDistributionHandlerImplementation
   implements FileDistributionHandler {
 
+  /** The maximum number of bytes of a file sent in one message. */
+  static final int CHUNK_SIZE = FileContents.MAXIMUM_CHUNK_SIZE;
+
+  /** The maximum number of chunks read before they are sent. */
+  static final int READ_AHEAD = 4;
+
   private final CacheParameters m_cacheParameters;
   private final File m_directory;
   private final File[] m_files;
   private final long m_latestFileTime;
   private final DistributionControl m_distributionControl;
   private final AgentSet m_agents;
+  private final ContentIndex m_contentIndex;
+  private final int m_chunkSize;
 
-  private int m_fileIndex = 0;
+  private final BlockingQueue<Prepared> m_prepared =
+    new ArrayBlockingQueue<Prepared>(READ_AHEAD);
+
+  private Thread m_reader;
+  private boolean m_finished;
+
+  private long m_startTime;
+  private long m_bytesSent;
+  private long m_fileStartTime;
+  private long m_fileBytesSent;
+
+  FileDistributionHandlerImplementation(
+    CacheParameters cacheParameters,
+    File directory,
+    File[] files,
+    DistributionControl distributionControl,
+    AgentSet agents,
+    ContentIndex contentIndex) {
+    this(cacheParameters,
+         directory,
+         files,
+         distributionControl,
+         agents,
+         contentIndex,
+         CHUNK_SIZE);
+  }
 
   FileDistributionHandlerImplementation(
     CacheParameters cacheParameters,
     File directory,
     File[] files,
     DistributionControl distributionControl,
-    AgentSet agents) {
+    AgentSet agents,
+    ContentIndex contentIndex,
+    int chunkSize) {
 
     m_cacheParameters = cacheParameters;
     m_directory = directory;
     m_files = files;
     m_distributionControl = distributionControl;
     m_agents = agents;
+    m_contentIndex = contentIndex;
+    m_chunkSize = chunkSize;
 
     long latestFileTime = -1;
 
@@ -74,52 +149,677 @@ final class FileDistributionHandlerImplementation
   }
 
   public Result sendNextFile() throws FileContents.FileContentsException {
+    if (m_finished) {
+      return null;
+    }
+
     try {
-      if (m_fileIndex < m_files.length) {
-        if (m_fileIndex == 0) {
-          // Clear any cache that has out of date cache parameters.
-          // We currently we do nothing about cached copies of deleted files.
-          final Address addressAgentsWithInvalidCaches =
-            m_agents.getAddressOfOutOfDateAgents(0);
+      if (m_reader == null) {
+        // Clear any cache that has out of date cache parameters.
+        // We currently we do nothing about cached copies of deleted files.
+        final Address addressAgentsWithInvalidCaches =
+          m_agents.getAddressOfOutOfDateAgents(0);
 
-          m_distributionControl.clearFileCaches(addressAgentsWithInvalidCaches);
-        }
+        m_distributionControl.clearFileCaches(addressAgentsWithInvalidCaches);
+        m_distributionControl.setHighWaterMark(
+          addressAgentsWithInvalidCaches,
+          m_cacheParameters.createHighWaterMark(Long.MIN_VALUE));
 
-        try {
-          final int index = m_fileIndex;
-          final File file = m_files[index];
+        m_startTime = System.currentTimeMillis();
+        m_fileStartTime = m_startTime;
+
+        m_reader = new Thread(new Reader(), "File distribution reader");
+        m_reader.setDaemon(true);
+        m_reader.start();
+      }
 
-          final Address addressAgentsWithoutFile =
-            m_agents.getAddressOfOutOfDateAgents(
-              new File(m_directory, file.getPath()).lastModified());
+      final Prepared prepared = m_prepared.take();
 
-          m_distributionControl.sendFile(addressAgentsWithoutFile,
-                                         new FileContents(m_directory, file));
+      if (prepared.getFile() == null) {
+        m_finished = true;
 
-          return new Result() {
-              public int getProgressInCents() {
-                return ((index + 1) * 100) / m_files.length;
-              }
+        final Throwable failure = prepared.getFailure();
 
-              public String getFileName() {
-                return file.getPath();
-              }
-            };
+        if (failure instanceof RuntimeException) {
+          throw (RuntimeException) failure;
         }
-        finally {
-          ++m_fileIndex;
+        else if (failure instanceof Error) {
+          throw (Error) failure;
         }
-      }
-      else {
+
+        if (prepared.isOutOfDate()) {
+          return null;
+        }
+
         m_distributionControl.setHighWaterMark(
           m_agents.getAddressOfAllAgents(),
           m_cacheParameters.createHighWaterMark(m_latestFileTime));
 
         return null;
       }
+
+      if (prepared.getContents() != null) {
+        m_distributionControl.sendFile(prepared.getAddress(),
+                                       prepared.getContents());
+
+        m_bytesSent += prepared.getLength();
+        m_fileBytesSent += prepared.getLength();
+
+        if (prepared.getFetchAddress() != null) {
+          m_distributionControl.fetchFile(prepared.getFetchAddress(),
+                                          prepared.getContents(),
+                                          prepared.getPeers());
+        }
+      }
+
+      final long now = System.currentTimeMillis();
+      final long bytesSent = m_bytesSent;
+      final long bytesPerSecond = bytesPerSecond(m_bytesSent, m_startTime, now);
+      final long fileBytesPerSecond =
+        bytesPerSecond(m_fileBytesSent, m_fileStartTime, now);
+
+      if (prepared.isLastPiece()) {
+        m_fileStartTime = now;
+        m_fileBytesSent = 0;
+      }
+
+      if (prepared.getException() != null) {
+        throw prepared.getException();
+      }
+
+      final int fileProgress = prepared.getFileProgress();
+      final int index = prepared.getIndex();
+      final String fileName = prepared.getFile().getPath();
+
+      return new Result() {
+          public int getProgressInCents() {
+            return (index * 100 + fileProgress) / m_files.length;
+          }
+
+          public String getFileName() {
+            return fileName;
+          }
+
+          public long getBytesSent() {
+            return bytesSent;
+          }
+
+          public long getBytesPerSecond() {
+            return bytesPerSecond;
+          }
+
+          public long getFileBytesPerSecond() {
+            return fileBytesPerSecond;
+          }
+        };
     }
     catch (OutOfDateException e) {
+      m_finished = true;
       return null;
     }
+    catch (InterruptedException e) {
+      throw new UncheckedInterruptedException(e);
+    }
+    finally {
+      if (m_finished) {
+        cancel();
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void cancel() {
+    m_finished = true;
+
+    if (m_reader != null) {
+      m_reader.interrupt();
+    }
+  }
+
+  private static long bytesPerSecond(long bytes, long start, long end) {
+    return (bytes * 1000) / Math.max(end - start, 1);
+  }
+
+  /**
+   * Indexes the files and reads the pieces to send.
+   */
+  private final class Reader implements Runnable {
+
+    private ContentIndex.Entry m_entry;
+    private List<Piece> m_pieces;
+
+    /**
+     * Whatever happens, the distribution ends with a terminal
+     * {@link Prepared}, so that {@link #sendNextFile()} never waits for a
+     * reader that has died.
+     */
+    public void run() {
+      boolean outOfDate = false;
+      boolean cancelled = false;
+      Throwable failure = null;
+
+      try {
+        for (int i = 0; i < m_files.length; ++i) {
+          readFile(i, m_files[i]);
+        }
+      }
+      catch (OutOfDateException e) {
+        outOfDate = true;
+      }
+      catch (InterruptedException e) {
+        cancelled = true;
+      }
+      catch (UncheckedInterruptedException e) {
+        cancelled = true;
+      }
+      catch (RuntimeException e) {
+        failure = e;
+      }
+      catch (Error e) {
+        failure = e;
+      }
+      finally {
+        final Prepared end = new Prepared(outOfDate, failure);
+
+        if (cancelled) {
+          // The caller has stopped taking pieces, so don't wait for space.
+          m_prepared.offer(end);
+        }
+        else {
+          try {
+            m_prepared.put(end);
+          }
+          catch (InterruptedException e) {
+            // Cancelled.
+          }
+        }
+      }
+    }
+
+    private void readFile(int index, File file)
+      throws OutOfDateException, InterruptedException {
+
+      planPieces(file);
+
+      if (m_pieces.isEmpty()) {
+        m_prepared.put(new Prepared(index, file, null));
+        return;
+      }
+
+      long bytesToSend = 0;
+
+      for (Piece piece : m_pieces) {
+        bytesToSend += piece.getLength();
+      }
+
+      long bytesRead = 0;
+
+      for (int i = 0; i < m_pieces.size(); ++i) {
+        final Piece piece = m_pieces.get(i);
+        final boolean lastPiece = i == m_pieces.size() - 1;
+
+        final FileContents fileContents;
+
+        try {
+          fileContents =
+            new FileContents(m_directory,
+                             file,
+                             piece.getOffset(),
+                             piece.getLength(),
+                             currentDigest(file),
+                             piece.getBaseDigest());
+        }
+        catch (FileContents.FileContentsException e) {
+          // Report the problem, and move on to the next file.
+          m_prepared.put(new Prepared(index, file, e));
+          return;
+        }
+
+        bytesRead += piece.getLength();
+
+        final int fileProgress = lastPiece || bytesToSend == 0 ?
+          100 : (int) ((bytesRead * 100) / bytesToSend);
+
+        m_prepared.put(new Prepared(index,
+                                    file,
+                                    piece,
+                                    fileContents,
+                                    fileProgress,
+                                    lastPiece));
+      }
+    }
+
+    /**
+     * Work out what to send to whom. Agents with a cache that predates the
+     * previous content of the file are sent the whole file. Agents with the
+     * previous content are sent a patch. Other agents are up to date, and
+     * are sent nothing.
+     */
+    private void planPieces(File file) throws OutOfDateException {
+      final File absoluteFile = new File(m_directory, file.getPath());
+
+      m_pieces = new ArrayList<Piece>();
+
+      try {
+        m_entry = m_contentIndex.get(absoluteFile);
+      }
+      catch (IOException e) {
+        UncheckedInterruptedException.ioException(e);
+
+        // Fall back to sending the whole file to any agent that might not
+        // have it. If the file can't be read, FileContents will complain.
+        m_entry = null;
+        addWholeFile(m_agents.getAddressOfOutOfDateAgents(
+                       absoluteFile.lastModified()),
+                     Collections.<Address, String>emptyMap(),
+                     absoluteFile.length(),
+                     Collections.<Address, Long>emptyMap());
+        return;
+      }
+
+      final ContentIndex.Entry previous = m_entry.getPrevious();
+
+      if (previous != null && m_entry.getLength() > ContentIndex.BLOCK_SIZE) {
+        addWholeFile(
+          m_agents.getAddressOfAgentsBetween(Long.MIN_VALUE,
+                                             previous.getContentTime()),
+          m_agents.getPeerFileServersBetween(Long.MIN_VALUE,
+                                             previous.getContentTime()),
+          m_entry.getLength(),
+          m_agents.getReceivedBytesBetween(file,
+                                           m_entry.getDigest(),
+                                           Long.MIN_VALUE,
+                                           previous.getContentTime()));
+
+        final Address patchAddress =
+          m_agents.getAddressOfAgentsBetween(previous.getContentTime(),
+                                             m_entry.getContentTime());
+
+        if (patchAddress != null) {
+          addPatch(patchAddress, previous);
+        }
+      }
+      else {
+        addWholeFile(
+          m_agents.getAddressOfAgentsBetween(Long.MIN_VALUE,
+                                             m_entry.getContentTime()),
+          m_agents.getPeerFileServersBetween(Long.MIN_VALUE,
+                                             m_entry.getContentTime()),
+          m_entry.getLength(),
+          m_agents.getReceivedBytesBetween(file,
+                                           m_entry.getDigest(),
+                                           Long.MIN_VALUE,
+                                           m_entry.getContentTime()));
+      }
+    }
+
+    /**
+     * Plan the pieces of a whole file. Agents that have received part of
+     * the file are sent the rest; agents that have received all of it are
+     * sent nothing.
+     */
+    private void addWholeFile(Address address,
+                              Map<Address, String> peers,
+                              long length,
+                              Map<Address, Long> received) {
+      if (address == null) {
+        return;
+      }
+
+      // Group the agents that can resume by how much they have.
+      final Map<Long, Set<Address>> resuming =
+        new TreeMap<Long, Set<Address>>();
+      final Set<Address> resumingAgents = new HashSet<Address>();
+      boolean othersNeedFile = received.isEmpty();
+
+      for (Map.Entry<Address, Long> agent : received.entrySet()) {
+        final long offset = agent.getValue();
+
+        if (offset == 0) {
+          othersNeedFile = true;
+          continue;
+        }
+
+        resumingAgents.add(agent.getKey());
+
+        if (offset < length) {
+          Set<Address> agents = resuming.get(offset);
+
+          if (agents == null) {
+            agents = new HashSet<Address>();
+            resuming.put(offset, agents);
+          }
+
+          agents.add(agent.getKey());
+        }
+      }
+
+      if (othersNeedFile) {
+        if (resumingAgents.isEmpty()) {
+          addPieces(address, peers, 0, length);
+        }
+        else {
+          final Map<Address, String> otherPeers =
+            new LinkedHashMap<Address, String>(peers);
+          otherPeers.keySet().removeAll(resumingAgents);
+
+          addPieces(new ExcludingAddress(address, resumingAgents),
+                    otherPeers,
+                    0,
+                    length);
+        }
+      }
+
+      for (Map.Entry<Long, Set<Address>> agents : resuming.entrySet()) {
+        addPieces(new AddressSet(agents.getValue()),
+                  Collections.<Address, String>emptyMap(),
+                  agents.getKey(),
+                  length);
+      }
+    }
+
+    /**
+     * Plan the pieces of a whole file from {@code start} to the end. If
+     * there is more than a chunk to send and at least two of the agents
+     * serve files to their peers, the peers take turns to seed the chunks.
+     */
+    private void addPieces(Address address,
+                           Map<Address, String> peers,
+                           long start,
+                           long length) {
+      final List<Address> peerAddresses = new ArrayList<Address>();
+      final List<String> peerServers = new ArrayList<String>();
+
+      if (peers.size() > 1 && length - start > m_chunkSize) {
+        for (Map.Entry<Address, String> peer : peers.entrySet()) {
+          peerAddresses.add(peer.getKey());
+          peerServers.add(peer.getValue());
+        }
+      }
+
+      long offset = start;
+      int chunk = 0;
+
+      do {
+        final int pieceLength = (int) Math.min(m_chunkSize, length - offset);
+
+        if (peerAddresses.isEmpty()) {
+          m_pieces.add(new Piece(address, offset, pieceLength, null));
+        }
+        else {
+          final int seed = chunk % peerAddresses.size();
+
+          final Set<Address> fetchers = new HashSet<Address>(peerAddresses);
+          fetchers.remove(peerAddresses.get(seed));
+
+          m_pieces.add(
+            new Piece(new ExcludingAddress(address, fetchers),
+                      offset,
+                      pieceLength,
+                      null,
+                      new AddressSet(fetchers),
+                      Collections.singletonList(peerServers.get(seed))));
+        }
+
+        offset += pieceLength;
+        ++chunk;
+      }
+      while (offset < length);
+    }
+
+    private void addPatch(Address address, ContentIndex.Entry base) {
+      final long length = m_entry.getLength();
+      final List<Long> changedBlocks = m_entry.changedBlocks(base);
+      final String baseDigest = base.getDigest();
+
+      long end = 0;
+      int i = 0;
+
+      // Merge runs of adjacent blocks.
+      while (i < changedBlocks.size()) {
+        final long start = changedBlocks.get(i);
+        end = start;
+
+        while (i < changedBlocks.size() && changedBlocks.get(i) == end) {
+          end = Math.min(end + ContentIndex.BLOCK_SIZE, length);
+          ++i;
+        }
+
+        for (long offset = start; offset < end; offset += m_chunkSize) {
+          final int pieceLength = (int) Math.min(m_chunkSize, end - offset);
+          m_pieces.add(new Piece(address, offset, pieceLength, baseDigest));
+        }
+      }
+
+      if (end < length) {
+        // The last piece must reach the end of the file, so the agent
+        // truncates the file and records the new digest.
+        m_pieces.add(new Piece(address, length, 0, baseDigest));
+      }
+    }
+
+    /**
+     * The digest of the file, or {@code null} if the file has changed since
+     * we indexed it.
+     */
+    private String currentDigest(File file) {
+      if (m_entry == null) {
+        return null;
+      }
+
+      final File absoluteFile = new File(m_directory, file.getPath());
+
+      if (absoluteFile.lastModified() != m_entry.getLastModified() ||
+          absoluteFile.length() != m_entry.getLength()) {
+        return null;
+      }
+
+      return m_entry.getDigest();
+    }
+  }
+
+  /**
+   * An address that includes the addresses included by another address,
+   * apart from some exceptions.
+   */
+  private static final class ExcludingAddress implements Address {
+    private static final long serialVersionUID = 1L;
+
+    private final Address m_address;
+    private final Set<Address> m_excluded;
+
+    public ExcludingAddress(Address address, Set<Address> excluded) {
+      m_address = address;
+      m_excluded = excluded;
+    }
+
+    public boolean includes(Address address) {
+      return m_address.includes(address) && !m_excluded.contains(address);
+    }
+  }
+
+  /**
+   * Part of a file to send to some agents, and perhaps for other agents to
+   * fetch from their peers.
+   */
+  private static final class Piece {
+    private final Address m_address;
+    private final long m_offset;
+    private final int m_length;
+    private final String m_baseDigest;
+    private final Address m_fetchAddress;
+    private final List<String> m_peers;
+
+    public Piece(Address address,
+                 long offset,
+                 int length,
+                 String baseDigest) {
+      this(address, offset, length, baseDigest, null, null);
+    }
+
+    public Piece(Address address,
+                 long offset,
+                 int length,
+                 String baseDigest,
+                 Address fetchAddress,
+                 List<String> peers) {
+      m_address = address;
+      m_offset = offset;
+      m_length = length;
+      m_baseDigest = baseDigest;
+      m_fetchAddress = fetchAddress;
+      m_peers = peers;
+    }
+
+    public Address getAddress() {
+      return m_address;
+    }
+
+    public long getOffset() {
+      return m_offset;
+    }
+
+    public int getLength() {
+      return m_length;
+    }
+
+    public String getBaseDigest() {
+      return m_baseDigest;
+    }
+
+    public Address getFetchAddress() {
+      return m_fetchAddress;
+    }
+
+    public List<String> getPeers() {
+      return m_peers;
+    }
+  }
+
+  /**
+   * A piece that has been read, ready to send. Also used to report files
+   * that need not be sent, failures, and the end of the distribution.
+   */
+  private static final class Prepared {
+    private final int m_index;
+    private final File m_file;
+    private final Piece m_piece;
+    private final FileContents m_contents;
+    private final int m_fileProgress;
+    private final boolean m_lastPiece;
+    private final FileContents.FileContentsException m_exception;
+    private final boolean m_outOfDate;
+    private final Throwable m_failure;
+
+    /**
+     * Constructor for a piece that has been read.
+     */
+    public Prepared(int index,
+                    File file,
+                    Piece piece,
+                    FileContents contents,
+                    int fileProgress,
+                    boolean lastPiece) {
+      this(index,
+           file,
+           piece,
+           contents,
+           fileProgress,
+           lastPiece,
+           null,
+           false,
+           null);
+    }
+
+    /**
+     * Constructor for a file that will not be sent, perhaps because of a
+     * problem.
+     */
+    public Prepared(int index,
+                    File file,
+                    FileContents.FileContentsException exception) {
+      this(index, file, null, null, 100, true, exception, false, null);
+    }
+
+    /**
+     * Constructor for the end of the distribution.
+     *
+     * @param outOfDate Whether the agent set became out of date.
+     * @param failure An unexpected problem that stopped the reader, or
+     *  {@code null}.
+     */
+    public Prepared(boolean outOfDate, Throwable failure) {
+      this(-1, null, null, null, 100, true, null, outOfDate, failure);
+    }
+
+    private Prepared(int index,
+                     File file,
+                     Piece piece,
+                     FileContents contents,
+                     int fileProgress,
+                     boolean lastPiece,
+                     FileContents.FileContentsException exception,
+                     boolean outOfDate,
+                     Throwable failure) {
+      m_index = index;
+      m_file = file;
+      m_piece = piece;
+      m_contents = contents;
+      m_fileProgress = fileProgress;
+      m_lastPiece = lastPiece;
+      m_exception = exception;
+      m_outOfDate = outOfDate;
+      m_failure = failure;
+    }
+
+    public int getIndex() {
+      return m_index;
+    }
+
+    public File getFile() {
+      return m_file;
+    }
+
+    public Address getAddress() {
+      return m_piece.getAddress();
+    }
+
+    public Address getFetchAddress() {
+      return m_piece.getFetchAddress();
+    }
+
+    public List<String> getPeers() {
+      return m_piece.getPeers();
+    }
+
+    public FileContents getContents() {
+      return m_contents;
+    }
+
+    public int getLength() {
+      return m_piece.getLength();
+    }
+
+    public int getFileProgress() {
+      return m_fileProgress;
+    }
+
+    public boolean isLastPiece() {
+      return m_lastPiece;
+    }
+
+    public FileContents.FileContentsException getException() {
+      return m_exception;
+    }
+
+    public boolean isOutOfDate() {
+      return m_outOfDate;
+    }
+
+    public Throwable getFailure() {
+      return m_failure;
+    }
   }
 }
@@ -24,6 +24,7 @@ package net.grinder.console.distribution;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.regex.Pattern;
@@ -51,9 +52,14 @@ public final class FileDistributionImplementation implements FileDistribution {
 
   private final DistributionControl m_distributionControl;
   private final UpdateableAgentCacheState m_cacheState;
+  private final ContentIndex m_contentIndex = new ContentIndex();
 
   private volatile long m_lastScanTime;
 
+  // Guarded by this.
+  private boolean m_watchFiles;
+  private DirectoryWatcher m_watcher;
+
   /**
    * Constructor.
    *
@@ -93,6 +99,7 @@ public final class FileDistributionImplementation implements FileDistribution {
   public void setDirectory(Directory directory) {
     m_lastScanTime = -1;
     m_cacheState.setDirectory(directory);
+    stopWatching();
   }
 
   /**
@@ -105,6 +112,33 @@ public final class FileDistributionImplementation implements FileDistribution {
   public void setFileFilterPattern(Pattern distributionFileFilterPattern) {
     m_lastScanTime = -1;
     m_cacheState.setFileFilterPattern(distributionFileFilterPattern);
+    stopWatching();
+  }
+
+  /**
+   * Set whether to watch the distribution directory for changes.
+   *
+   * @param watch {@code true} => watch for changes.
+   */
+  public void setWatchDistributionFiles(boolean watch) {
+    synchronized (this) {
+      m_watchFiles = watch;
+    }
+
+    stopWatching();
+  }
+
+  private void stopWatching() {
+    final DirectoryWatcher watcher;
+
+    synchronized (this) {
+      watcher = m_watcher;
+      m_watcher = null;
+    }
+
+    if (watcher != null) {
+      watcher.close();
+    }
   }
 
   /**
@@ -149,7 +183,8 @@ public final class FileDistributionImplementation implements FileDistribution {
         new FixedPatternFileFilter(agents.getEarliestAgentTime(),
                                    cacheParameters.getFileFilterPattern())),
       m_distributionControl,
-      agents);
+      agents,
+      m_contentIndex);
   }
 
   /**
@@ -158,6 +193,12 @@ public final class FileDistributionImplementation implements FileDistribution {
    * are discovered.
    *
    * <p>
+   * If we are watching the directory, only the changes notified since the
+   * last scan are processed. The directory is walked when we start watching,
+   * and if notifications are lost.
+   * </p>
+   *
+   * <p>
    * This method is too coupled to the agent cache. Perhaps this and the file
    * watcher support should be factored out into a separate class.
    * </p>
@@ -169,6 +210,43 @@ public final class FileDistributionImplementation implements FileDistribution {
    */
   public void scanDistributionFiles() {
 
+    final DirectoryWatcher watcher;
+    boolean newWatcher = false;
+
+    synchronized (this) {
+      if (m_watchFiles && m_watcher == null) {
+        final CacheParameters cacheParameters =
+          m_cacheState.getCacheParameters();
+
+        try {
+          // Start watching before we scan, so we don't miss anything.
+          m_watcher =
+            new DirectoryWatcher(
+              cacheParameters.getDirectory().getFile().getAbsoluteFile(),
+              new FixedPatternFileFilter(-1,
+                                         cacheParameters.getFileFilterPattern()),
+              new WatcherListener());
+          m_watcher.start();
+          newWatcher = true;
+        }
+        catch (IOException e) {
+          // Fall back to scanning. We'll try again next time.
+        }
+      }
+
+      watcher = m_watcher;
+    }
+
+    if (watcher != null && !newWatcher) {
+      watcher.poll();
+    }
+    else {
+      scan();
+    }
+  }
+
+  private void scan() {
+
     final long scanTime = m_lastScanTime;
     final CacheParameters cacheParameters = m_cacheState.getCacheParameters();
 
@@ -223,24 +301,40 @@ public final class FileDistributionImplementation implements FileDistribution {
           continue;
         }
 
-        if (laterFile.isFile()) {
-          // Only mark the cache invalid for changes to files,
-          // since we don't distribute directories.
-          m_cacheState.setNewFileTime(laterFile.lastModified());
-        }
-
         changedFiles.add(laterFile);
       }
 
-      final File[] changedFilesArray =
-        changedFiles.toArray(new File[changedFiles.size()]);
+      filesChanged(changedFiles);
+    }
+  }
 
-      m_filesChangedListeners.apply(
-        new Informer<FileChangedListener>() {
-          public void inform(FileChangedListener l) {
-            l.filesChanged(changedFilesArray);
-          }
-        });
+  private void filesChanged(Collection<File> changedFiles) {
+    for (File changedFile : changedFiles) {
+      if (changedFile.isFile()) {
+        // Only mark the cache invalid for changes to files,
+        // since we don't distribute directories.
+        m_cacheState.setNewFileTime(changedFile.lastModified());
+      }
+    }
+
+    final File[] changedFilesArray =
+      changedFiles.toArray(new File[changedFiles.size()]);
+
+    m_filesChangedListeners.apply(
+      new Informer<FileChangedListener>() {
+        public void inform(FileChangedListener l) {
+          l.filesChanged(changedFilesArray);
+        }
+      });
+  }
+
+  private final class WatcherListener implements DirectoryWatcher.Listener {
+    public void filesChanged(Set<File> files) {
+      FileDistributionImplementation.this.filesChanged(files);
+    }
+
+    public void eventsLost() {
+      scan();
     }
   }
 
@@ -34,6 +34,9 @@ public class WireFileDistribution {
                               ConsoleProperties properties,
                               Timer timer) {
 
+    fileDistribution.setWatchDistributionFiles(
+      properties.getWatchDistributionFiles());
+
     timer.schedule(new TimerTask() {
         public void run() {
           fileDistribution.scanDistributionFiles();
@@ -56,6 +59,11 @@ public class WireFileDistribution {
             ConsoleProperties.DISTRIBUTION_FILE_FILTER_EXPRESSION_PROPERTY)) {
             fileDistribution.setFileFilterPattern((Pattern) e.getNewValue());
           }
+          else if (propertyName.equals(
+            ConsoleProperties.WATCH_DISTRIBUTION_FILES_PROPERTY)) {
+            fileDistribution.setWatchDistributionFiles(
+              (Boolean) e.getNewValue());
+          }
         }
       });
   }
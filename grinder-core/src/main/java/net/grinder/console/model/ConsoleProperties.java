@@ -133,6 +133,10 @@ public final class ConsoleProperties {
   public static final String SCAN_DISTRIBUTION_FILES_PERIOD_PROPERTY =
     "grinder.console.scanDistributionFilesPeriod";
 
+  /** Property name. */
+  public static final String WATCH_DISTRIBUTION_FILES_PROPERTY =
+    "grinder.console.watchDistributionFiles";
+
   /** Property name. */
   public static final String LOOK_AND_FEEL_PROPERTY =
     "grinder.console.lookAndFeel";
@@ -185,6 +189,9 @@ public final class ConsoleProperties {
   private final IntProperty m_scanDistributionFilesPeriod =
     new IntProperty(SCAN_DISTRIBUTION_FILES_PERIOD_PROPERTY, 6000);
 
+  private final BooleanProperty m_watchDistributionFiles =
+    new BooleanProperty(WATCH_DISTRIBUTION_FILES_PROPERTY, false);
+
   private final StringProperty m_lookAndFeel =
     new StringProperty(LOOK_AND_FEEL_PROPERTY, null);
 
@@ -825,6 +832,26 @@ public final class ConsoleProperties {
     m_scanDistributionFilesPeriod.set(i);
   }
 
+  /**
+   * Get whether the distribution directory should be watched for changes
+   * using file system notifications, rather than scanned.
+   *
+   * @return {@code true} => watch the distribution directory.
+   */
+  public boolean getWatchDistributionFiles() {
+    return m_watchDistributionFiles.get();
+  }
+
+  /**
+   * Set whether the distribution directory should be watched for changes
+   * using file system notifications, rather than scanned.
+   *
+   * @param b {@code true} => watch the distribution directory.
+   */
+  public void setWatchDistributionFiles(boolean b) {
+    m_watchDistributionFiles.set(b);
+  }
+
   /**
    * Get the name of the Look and Feel. It is up to the UI
    * implementation how this is interpreted.
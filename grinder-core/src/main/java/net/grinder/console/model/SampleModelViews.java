@@ -23,9 +23,11 @@ package net.grinder.console.model;
 
 import java.text.NumberFormat;
 import java.util.EventListener;
+import java.util.concurrent.TimeUnit;
 
 import net.grinder.statistics.ExpressionView;
 import net.grinder.statistics.StatisticsView;
+import net.grinder.statistics.TestStatisticsMap;
 import net.grinder.statistics.TestStatisticsQueries;
 
 
@@ -69,6 +71,29 @@ public interface SampleModelViews {
    */
   void resetStatisticsViews();
 
+  /**
+   * Set the unit in which reported test times are recorded. If the unit
+   * differs from that currently used, the views are rebuilt so that test
+   * times are presented correctly. Registered statistic expressions are
+   * retained.
+   *
+   * @param timeUnit The time unit.
+   */
+  void setTimeUnit(TimeUnit timeUnit);
+
+  /**
+   * Convert reported test statistics to the unit in which the console
+   * records test times. The console adopts the unit of the first report
+   * received after the tests are reset, and converts later reports that
+   * use a different unit.
+   *
+   * @param statistics The reported statistics. Converted in place.
+   * @param timeUnit The unit in which the statistics were recorded.
+   * @return The converted statistics.
+   */
+  TestStatisticsMap toConsoleTimeUnit(TestStatisticsMap statistics,
+                                      TimeUnit timeUnit);
+
   /**
    * Return an object allowing access to common functions of test statistics.
    *
@@ -24,11 +24,16 @@ package net.grinder.console.model;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import net.grinder.statistics.ExpressionView;
 import net.grinder.statistics.StatisticExpressionFactory;
+import net.grinder.statistics.StatisticsIndexMap.LongSampleIndex;
 import net.grinder.statistics.StatisticsServices;
 import net.grinder.statistics.StatisticsView;
+import net.grinder.statistics.TestStatisticsMap;
 import net.grinder.statistics.TestStatisticsQueries;
 import net.grinder.util.ListenerSupport;
 import net.grinder.util.SignificantFigureFormat;
@@ -45,6 +50,13 @@ public class SampleModelViewsImplementation implements SampleModelViews {
     new ListenerSupport<Listener>();
   private final StatisticsServices m_statisticsServices;
   private final ExpressionView m_peakTPSExpressionView;
+  private final LongSampleIndex m_timedTestsIndex;
+
+  /**
+   * The unit adopted from the first report since the tests were reset, or
+   * {@code null}. Guarded by this.
+   */
+  private TimeUnit m_consoleTimeUnit;
 
   // Guarded by this.
   private NumberFormat m_numberFormat;
@@ -55,6 +67,10 @@ public class SampleModelViewsImplementation implements SampleModelViews {
   // Guarded by this.
   private StatisticsView m_cumulativeStatisticsView;
 
+  // Guarded by this.
+  private final List<ExpressionView> m_registeredExpressionViews =
+    new ArrayList<ExpressionView>();
+
   /**
    * Constructor.
    *
@@ -78,8 +94,20 @@ public class SampleModelViewsImplementation implements SampleModelViews {
       statisticExpressionFactory
         .createExpressionView("Peak TPS", model.getPeakTPSExpression());
 
+    m_timedTestsIndex =
+      m_statisticsServices.getStatisticsIndexMap()
+      .getLongSampleIndex("timedTests");
+
     resetStatisticsViews();
 
+    model.addModelListener(new SampleModel.AbstractListener() {
+        @Override public void resetTests() {
+          synchronized (SampleModelViewsImplementation.this) {
+            m_consoleTimeUnit = null;
+          }
+        }
+      });
+
     properties.addPropertyChangeListener(
       ConsoleProperties.SIG_FIG_PROPERTY,
       new PropertyChangeListener() {
@@ -101,6 +129,8 @@ public class SampleModelViewsImplementation implements SampleModelViews {
       m_statisticsServices.getSummaryStatisticsView();
 
     synchronized (this) {
+      m_registeredExpressionViews.clear();
+
       m_intervalStatisticsView = new StatisticsView();
       m_cumulativeStatisticsView = new StatisticsView();
 
@@ -116,6 +146,64 @@ public class SampleModelViewsImplementation implements SampleModelViews {
       });
   }
 
+  /**
+   * Set the unit in which reported test times are recorded.
+   *
+   * @param timeUnit The time unit.
+   */
+  public void setTimeUnit(TimeUnit timeUnit) {
+    final List<ExpressionView> registeredExpressionViews;
+
+    synchronized (this) {
+      if (m_statisticsServices.getTimeUnit() == timeUnit) {
+        return;
+      }
+
+      m_statisticsServices.setTimeUnit(timeUnit);
+
+      registeredExpressionViews =
+        new ArrayList<ExpressionView>(m_registeredExpressionViews);
+    }
+
+    resetStatisticsViews();
+
+    for (ExpressionView expressionView : registeredExpressionViews) {
+      registerStatisticExpression(expressionView);
+    }
+  }
+
+  /**
+   * Convert reported test statistics to the unit in which the console
+   * records test times.
+   *
+   * @param statistics The reported statistics. Converted in place.
+   * @param timeUnit The unit in which the statistics were recorded.
+   * @return The converted statistics.
+   */
+  public TestStatisticsMap toConsoleTimeUnit(TestStatisticsMap statistics,
+                                             TimeUnit timeUnit) {
+    final TimeUnit consoleTimeUnit;
+    final boolean adopted;
+
+    synchronized (this) {
+      adopted = m_consoleTimeUnit == null;
+
+      if (adopted) {
+        m_consoleTimeUnit = timeUnit;
+      }
+
+      consoleTimeUnit = m_consoleTimeUnit;
+    }
+
+    if (adopted) {
+      setTimeUnit(consoleTimeUnit);
+    }
+
+    statistics.convertTimes(m_timedTestsIndex, timeUnit, consoleTimeUnit);
+
+    return statistics;
+  }
+
   /**
    * Returns a NumberFormat which corresponds to the user's preference.
    *
@@ -136,6 +224,7 @@ public class SampleModelViewsImplementation implements SampleModelViews {
     final ExpressionView statisticExpression) {
 
     synchronized (this) {
+      m_registeredExpressionViews.add(statisticExpression);
       m_intervalStatisticsView.add(statisticExpression);
       m_cumulativeStatisticsView.add(statisticExpression);
     }
@@ -1569,7 +1569,14 @@ public final class ConsoleUI implements ConsoleFoundation.UI {
                 }
 
                 progressMonitor.setProgress(result.getProgressInCents());
-                progressMonitor.setNote(result.getFileName());
+                progressMonitor.setNote(
+                  MessageFormat.format(
+                    m_resources.getString("distributionProgress.text"),
+                    new Object[] {
+                      result.getFileName(),
+                      result.getFileBytesPerSecond() / 1024,
+                      result.getBytesPerSecond() / 1024,
+                    }));
               }
               catch (FileContents.FileContentsException e) {
                 // We don't want to put a dialog in the user's face
@@ -1579,6 +1586,7 @@ public final class ConsoleUI implements ConsoleFoundation.UI {
               }
             }
 
+            distributionHandler.cancel();
             progressMonitor.close();
 
             if (onCompletionCallback != null) {
@@ -25,6 +25,7 @@
 package net.grinder.engine.agent;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Timer;
@@ -34,10 +35,12 @@ import net.grinder.common.GrinderBuild;
 import net.grinder.common.GrinderException;
 import net.grinder.common.GrinderProperties;
 import net.grinder.common.GrinderProperties.PersistenceException;
+import net.grinder.common.UncheckedInterruptedException;
 import net.grinder.common.processidentity.ProcessReport;
 import net.grinder.communication.ClientReceiver;
 import net.grinder.communication.ClientSender;
 import net.grinder.communication.CommunicationException;
+import net.grinder.communication.CompressionStatistics;
 import net.grinder.communication.ConnectionType;
 import net.grinder.communication.Connector;
 import net.grinder.communication.FanOutStreamSender;
@@ -87,6 +90,11 @@ public final class AgentImplementation implements Agent {
    */
   private volatile FileStore m_fileStore;
 
+  /**
+   * Worker processes started ahead of the next run.
+   */
+  private final ProcessWorkerPool m_workerPool;
+
   /**
    * Constructor.
    *
@@ -107,6 +115,7 @@ public final class AgentImplementation implements Agent {
 
     m_consoleListener = new ConsoleListener(m_eventSynchronisation, m_logger);
     m_agentIdentity = new AgentIdentityImplementation(getHostName());
+    m_workerPool = new ProcessWorkerPool(m_logger);
   }
 
   /**
@@ -149,7 +158,8 @@ public final class AgentImplementation implements Agent {
 
           if (consoleCommunication == null && connector != null) {
             try {
-              consoleCommunication = new ConsoleCommunication(connector);
+              consoleCommunication =
+                new ConsoleCommunication(connector, properties);
               consoleCommunication.start();
               m_logger.info(
                 "connected to console at {}", connector.getEndpointAsString());
@@ -233,6 +243,10 @@ public final class AgentImplementation implements Agent {
         while (script == null);
 
         if (script != null) {
+          if (consoleCommunication != null) {
+            consoleCommunication.configureWorkerProperties(properties);
+          }
+
           final String jvmArguments =
             properties.getProperty("grinder.jvm.arguments");
 
@@ -248,15 +262,25 @@ public final class AgentImplementation implements Agent {
 
             m_logger.info("Worker process command line: {}", workerCommandLine);
 
+            m_workerPool.configure(
+              properties.getInt("grinder.processPoolSize", 0),
+              workerCommandLine,
+              script,
+              properties,
+              m_fileStore != null ? m_fileStore.getCacheHighWaterMark() : null);
+
             workerFactory =
               new ProcessWorkerFactory(
                 workerCommandLine, m_agentIdentity, m_fanOutStreamSender,
-                consoleCommunication != null, script, properties);
+                consoleCommunication != null, script, properties,
+                m_workerPool);
           }
           else {
             m_logger.info(
               "DEBUG MODE: Spawning threads rather than processes");
 
+            m_workerPool.shutdown();
+
             if (jvmArguments != null) {
               m_logger.warn(
                 "grinder.jvm.arguments ({}) ignored in single process mode",
@@ -327,6 +351,11 @@ public final class AgentImplementation implements Agent {
           }
 
           workerLauncher.shutdown();
+
+          if (consoleCommunication != null) {
+            // Start workers for the next run while we wait for the console.
+            m_workerPool.replenish();
+          }
         }
 
         if (consoleCommunication == null) {
@@ -403,6 +432,12 @@ public final class AgentImplementation implements Agent {
    */
   public void shutdown() {
     m_timer.cancel();
+    m_workerPool.shutdown();
+
+    if (m_fileStore != null) {
+      m_fileStore.shutdown();
+    }
+
     m_fanOutStreamSender.shutdown();
     m_consoleListener.shutdown();
 
@@ -451,8 +486,11 @@ public final class AgentImplementation implements Agent {
     private final Connector m_connector;
     private final TimerTask m_reportRunningTask;
     private final MessagePump m_messagePump;
+    private final WorkerReportAggregator m_workerReportAggregator;
+    private final PeerFileServer m_peerFileServer;
 
-    public ConsoleCommunication(Connector connector)
+    public ConsoleCommunication(Connector connector,
+                                GrinderProperties properties)
         throws CommunicationException, FileStore.FileStoreException {
 
       final ClientReceiver receiver =
@@ -468,9 +506,14 @@ public final class AgentImplementation implements Agent {
             m_logger);
       }
 
-      m_sender.send(
-        new AgentProcessReportMessage(ProcessReport.State.STARTED,
-                                      m_fileStore.getCacheHighWaterMark()));
+      if (properties.getBoolean("grinder.peerFileServer", false)) {
+        m_peerFileServer = createPeerFileServer(properties);
+      }
+      else {
+        m_peerFileServer = null;
+      }
+
+      m_sender.send(createReport(ProcessReport.State.STARTED));
 
       final MessageDispatchSender fileStoreMessageDispatcher =
         new MessageDispatchSender();
@@ -489,13 +532,22 @@ public final class AgentImplementation implements Agent {
       m_messagePump =
         new MessagePump(receiver, fileStoreMessageDispatcher, 1);
 
+      if (properties.getBoolean("grinder.aggregateWorkerReports", false)) {
+        m_workerReportAggregator =
+          new WorkerReportAggregator(
+            m_sender,
+            m_timer,
+            properties.getInt("grinder.reportToConsole.interval", 500),
+            m_logger);
+      }
+      else {
+        m_workerReportAggregator = null;
+      }
+
       m_reportRunningTask = new TimerTask() {
         public void run() {
           try {
-            m_sender.send(
-              new AgentProcessReportMessage(
-                ProcessReport.State.RUNNING,
-                m_fileStore.getCacheHighWaterMark()));
+            m_sender.send(createReport(ProcessReport.State.RUNNING));
           }
           catch (CommunicationException e) {
             cancel();
@@ -505,6 +557,30 @@ public final class AgentImplementation implements Agent {
       };
     }
 
+    private PeerFileServer createPeerFileServer(GrinderProperties properties) {
+      try {
+        return new PeerFileServer(
+          m_fileStore,
+          properties.getProperty("grinder.peerFileServer.host"),
+          properties.getInt("grinder.peerFileServer.port", 0),
+          m_logger);
+      }
+      catch (IOException e) {
+        UncheckedInterruptedException.ioException(e);
+        m_logger.warn("Could not start peer file server, files will be " +
+                      "received from the console", e);
+        return null;
+      }
+    }
+
+    private AgentProcessReportMessage createReport(ProcessReport.State state) {
+      return new AgentProcessReportMessage(
+        state,
+        m_fileStore.getCacheHighWaterMark(),
+        m_peerFileServer != null ? m_peerFileServer.getAddress() : null,
+        m_fileStore.getReceivedFiles());
+    }
+
     public void start() {
       m_messagePump.start();
       m_timer.schedule(m_reportRunningTask, 1000, 1000);
@@ -514,14 +590,21 @@ public final class AgentImplementation implements Agent {
       return m_connector;
     }
 
+    public void configureWorkerProperties(GrinderProperties properties) {
+      if (m_workerReportAggregator != null) {
+        m_workerReportAggregator.configureWorkerProperties(properties);
+      }
+    }
+
     public void shutdown() {
       m_reportRunningTask.cancel();
 
+      if (m_workerReportAggregator != null) {
+        m_workerReportAggregator.shutdown();
+      }
+
       try {
-        m_sender.send(
-          new AgentProcessReportMessage(
-            ProcessReport.State.FINISHED,
-            m_fileStore.getCacheHighWaterMark()));
+        m_sender.send(createReport(ProcessReport.State.FINISHED));
       }
       catch (CommunicationException e) {
         // Ignore - peer has probably shut down.
@@ -529,6 +612,18 @@ public final class AgentImplementation implements Agent {
       finally {
         m_messagePump.shutdown();
       }
+
+      if (m_peerFileServer != null) {
+        m_peerFileServer.shutdown();
+      }
+
+      final CompressionStatistics compressionStatistics =
+        m_connector.getCompressionStatistics();
+
+      if (compressionStatistics != null) {
+        m_logger.info("console connection compression: {}",
+                      compressionStatistics);
+      }
     }
   }
 }
@@ -22,11 +22,23 @@
 package net.grinder.engine.agent;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import org.slf4j.Logger;
 
+import net.grinder.common.Closer;
 import net.grinder.common.UncheckedInterruptedException;
 import net.grinder.communication.CommunicationException;
 import net.grinder.communication.MessageDispatchRegistry;
@@ -36,22 +48,55 @@ import net.grinder.messages.agent.CacheHighWaterMark;
 import net.grinder.messages.agent.ClearCacheMessage;
 import net.grinder.messages.agent.DistributeFileMessage;
 import net.grinder.messages.agent.DistributionCacheCheckpointMessage;
+import net.grinder.messages.agent.FetchFileMessage;
+import net.grinder.messages.agent.ReceivedFile;
 import net.grinder.util.Directory;
 import net.grinder.util.FileContents;
 import net.grinder.util.StreamCopier;
+import net.grinder.util.thread.ExecutorFactory;
 
 
 /**
- * Process {@link ClearCacheMessage}s and {@link DistributeFileMessage}s
- * received from the console.
+ * Process {@link ClearCacheMessage}s, {@link DistributeFileMessage}s, and
+ * {@link FetchFileMessage}s received from the console.
+ *
+ * <p>The store keeps an index of the content digests of the files it holds,
+ * so that it can check that patches apply to the content it has.</p>
+ *
+ * <p>When the console checkpoints the cache, the store saves a manifest of
+ * the cache high water mark and the content digests. A new store for the
+ * same directory restores the manifest, so an agent that restarts reports
+ * the cache it has, and is sent only the files that have changed. The
+ * manifest is removed before the cache is next changed.</p>
+ *
+ * <p>The store also records how much of each file it has received since
+ * the cache was last checkpointed. The agent reports this to the console,
+ * so that a distribution that was interrupted can resume where it left
+ * off. The chunks of a whole file must arrive in order; a chunk that does
+ * not follow the content the store has is ignored, and the cache is marked
+ * out of date.</p>
+ *
+ * <p>A {@link FetchFileMessage} tells the store to fetch a chunk from the
+ * {@link PeerFileServer}s of other agents, rather than receiving it from the
+ * console. If this agent serves its peers, the store indexes the chunks it
+ * receives by their digests, so the server can find them.</p>
+ *
+ * <p>Fetching from a peer can take a while, so it is done by a separate
+ * thread, and the message handlers return straight away. Messages that
+ * arrive while fetches are outstanding are queued behind them, so that
+ * the store is updated in the order the console sent the messages.</p>
  *
  * @author Philip Aston
  */
 final class FileStore {
   private final Logger m_logger;
 
+  private final PeerFileClient m_peerFileClient;
+
   private final File m_readmeFile;
 
+  private final File m_manifestFile;
+
   // Access guarded by self.
   private final Directory m_incomingDirectory;
 
@@ -60,13 +105,48 @@ final class FileStore {
   // Guarded by m_incomingDirectory
   private boolean m_incremental;
 
+  // Content digests, keyed by relative file name. Guarded by
+  // m_incomingDirectory.
+  private final Map<File, String> m_digests = new HashMap<File, String>();
+
+  // Files received since the last checkpoint, keyed by relative file name.
+  // Guarded by m_incomingDirectory.
+  private final Map<File, ReceivedFile> m_received =
+    new HashMap<File, ReceivedFile>();
+
+  // Set when we ignore a patch or fail to fetch a chunk; our cache stays
+  // out of date until the console clears it.
+  private volatile boolean m_missedUpdate;
+
+  // Chunks received since the cache was cleared, keyed by chunk digest.
+  // null unless we serve our peers. Guarded by m_incomingDirectory.
+  private Map<String, Chunk> m_chunks;
+
+  // Whether the manifest file might exist. Guarded by m_incomingDirectory.
+  private boolean m_haveManifest;
+
   private volatile CacheHighWaterMark m_cacheHighWaterMark =
     new OutOfDateCacheHighWaterMark();
 
+  // Applies updates that have to wait for fetches, in order.
+  private final ExecutorService m_updateExecutor =
+    ExecutorFactory.createThreadPool("file store", 1);
+
+  // The number of updates queued for m_updateExecutor. Guarded by
+  // m_pendingUpdatesLock.
+  private final Object m_pendingUpdatesLock = new Object();
+  private int m_pendingUpdates;
+
   public FileStore(File directory, Logger logger) throws FileStoreException {
+    this(directory, logger, new PeerFileClient(logger));
+  }
+
+  FileStore(File directory, Logger logger, PeerFileClient peerFileClient)
+    throws FileStoreException {
 
     final File rootDirectory = directory.getAbsoluteFile();
     m_logger = logger;
+    m_peerFileClient = peerFileClient;
 
     if (rootDirectory.exists()) {
       if (!rootDirectory.isDirectory()) {
@@ -82,6 +162,7 @@ final class FileStore {
     }
 
     m_readmeFile = new File(rootDirectory, "README.txt");
+    m_manifestFile = new File(rootDirectory, "manifest.ser");
 
     try {
       m_incomingDirectory = new Directory(new File(rootDirectory, "incoming"));
@@ -92,9 +173,15 @@ final class FileStore {
     }
 
     m_incremental = false;
+
+    synchronized (m_incomingDirectory) {
+      restoreManifest();
+    }
   }
 
   public Directory getDirectory() throws FileStoreException {
+    waitForUpdates();
+
     try {
       synchronized (m_incomingDirectory) {
         if (m_incomingDirectory.getFile().exists()) {
@@ -116,6 +203,88 @@ final class FileStore {
     return m_cacheHighWaterMark;
   }
 
+  /**
+   * Return the files received since the cache was last checkpointed, and
+   * how much of each has arrived.
+   *
+   * @return The files.
+   */
+  public List<ReceivedFile> getReceivedFiles() {
+    synchronized (m_incomingDirectory) {
+      return new ArrayList<ReceivedFile>(m_received.values());
+    }
+  }
+
+  /**
+   * Start indexing the chunks that we receive, so that they can be served
+   * to our peers with {@link #readChunk}.
+   */
+  void indexChunks() {
+    synchronized (m_incomingDirectory) {
+      if (m_chunks == null) {
+        m_chunks = new HashMap<String, Chunk>();
+      }
+    }
+  }
+
+  /**
+   * Read a chunk that we have received since the cache was last cleared.
+   *
+   * @param chunkDigest The digest of the chunk.
+   * @return The chunk, or {@code null} if we haven't received it, or it has
+   *  since been overwritten.
+   * @throws IOException If the chunk could not be read.
+   */
+  byte[] readChunk(String chunkDigest) throws IOException {
+    synchronized (m_incomingDirectory) {
+      final Chunk chunk = m_chunks != null ? m_chunks.get(chunkDigest) : null;
+
+      if (chunk == null) {
+        return null;
+      }
+
+      final File file = m_incomingDirectory.getFile(chunk.getFilename());
+
+      if (!file.isFile()) {
+        return null;
+      }
+
+      final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+      try {
+        final long fileLength = randomAccessFile.length();
+
+        if (chunk.getOffset() + chunk.getLength() > fileLength) {
+          return null;
+        }
+
+        final byte[] buffer = new byte[chunk.getLength()];
+        randomAccessFile.seek(chunk.getOffset());
+        randomAccessFile.readFully(buffer);
+
+        final FileContents contents =
+          new FileContents(chunk.getFilename(),
+                           chunk.getOffset(),
+                           fileLength,
+                           buffer,
+                           null,
+                           null);
+
+        if (!contents.getChunkDigest().equals(chunkDigest)) {
+          return null;
+        }
+
+        return buffer;
+      }
+      catch (FileContents.FileContentsException e) {
+        return null;
+      }
+      finally {
+        Closer.close(randomAccessFile);
+      }
+    }
+  }
+
   /**
    * Registers message handlers with a dispatcher.
    *
@@ -131,58 +300,388 @@ final class FileStore {
         public void handle(ClearCacheMessage message)
           throws CommunicationException {
 
-          m_logger.info("Clearing file store");
-
-          try {
-            synchronized (m_incomingDirectory) {
-              m_incomingDirectory.deleteContents();
-              m_incremental = false;
-            }
-          }
-          catch (Directory.DirectoryException e) {
-            m_logger.error(e.getMessage());
-            throw new CommunicationException(e.getMessage(), e);
-          }
+          schedule(false, new Update() {
+              public void run() throws CommunicationException {
+                clear();
+              }
+            });
         }
       });
 
     messageDispatcher.set(
       DistributeFileMessage.class,
       new AbstractHandler<DistributeFileMessage>() {
-        public void handle(DistributeFileMessage message)
+        public void handle(final DistributeFileMessage message)
           throws CommunicationException {
-          try {
-            synchronized (m_incomingDirectory) {
-              m_incomingDirectory.create();
 
-              createReadmeFile();
+          schedule(false, new Update() {
+              public void run() throws CommunicationException {
+                update(message.getFileContents());
+              }
+            });
+        }
+      });
 
-              final FileContents fileContents = message.getFileContents();
+    messageDispatcher.set(
+      FetchFileMessage.class,
+      new AbstractHandler<FetchFileMessage>() {
+        public void handle(final FetchFileMessage message)
+          throws CommunicationException {
 
-              m_logger.info("Updating file store: {}", fileContents);
-              fileContents.create(m_incomingDirectory);
-            }
-          }
-          catch (FileContents.FileContentsException e) {
-            m_logger.error(e.getMessage());
-            throw new CommunicationException(e.getMessage(), e);
-          }
-          catch (Directory.DirectoryException e) {
-            m_logger.error(e.getMessage());
-            throw new CommunicationException(e.getMessage(), e);
-          }
+          schedule(true, new Update() {
+              public void run() throws CommunicationException {
+                fetch(message);
+              }
+            });
         }
       });
 
     messageDispatcher.set(
       DistributionCacheCheckpointMessage.class,
       new AbstractHandler<DistributionCacheCheckpointMessage>() {
-        public void handle(DistributionCacheCheckpointMessage message) {
-          m_cacheHighWaterMark = message.getCacheHighWaterMark();
+        public void handle(final DistributionCacheCheckpointMessage message)
+          throws CommunicationException {
+
+          schedule(false, new Update() {
+              public void run() {
+                checkpoint(message.getCacheHighWaterMark());
+              }
+            });
         }
       });
   }
 
+  /**
+   * Wait until the updates queued behind fetches have been applied.
+   */
+  void waitForUpdates() {
+    synchronized (m_pendingUpdatesLock) {
+      while (m_pendingUpdates > 0) {
+        try {
+          m_pendingUpdatesLock.wait();
+        }
+        catch (InterruptedException e) {
+          throw new UncheckedInterruptedException(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Stop applying queued updates.
+   */
+  public void shutdown() {
+    m_updateExecutor.shutdownNow();
+  }
+
+  /**
+   * Apply an update. Called by the message handlers, which are called by
+   * a single thread.
+   *
+   * @param queue If {@code true}, always queue the update. Otherwise, the
+   *  update is applied immediately unless earlier updates are queued.
+   * @param update The update.
+   * @throws CommunicationException If an update that is applied
+   *  immediately fails.
+   */
+  private void schedule(boolean queue, final Update update)
+    throws CommunicationException {
+
+    synchronized (m_pendingUpdatesLock) {
+      if (queue || m_pendingUpdates > 0) {
+        ++m_pendingUpdates;
+
+        m_updateExecutor.execute(new Runnable() {
+            public void run() {
+              try {
+                update.run();
+              }
+              catch (CommunicationException e) {
+                // Already logged.
+              }
+              finally {
+                synchronized (m_pendingUpdatesLock) {
+                  --m_pendingUpdates;
+                  m_pendingUpdatesLock.notifyAll();
+                }
+              }
+            }
+          });
+
+        return;
+      }
+    }
+
+    update.run();
+  }
+
+  private void clear() throws CommunicationException {
+    m_logger.info("Clearing file store");
+
+    try {
+      synchronized (m_incomingDirectory) {
+        removeManifest();
+        m_incomingDirectory.deleteContents();
+        m_digests.clear();
+        m_received.clear();
+
+        if (m_chunks != null) {
+          m_chunks.clear();
+        }
+
+        m_missedUpdate = false;
+        m_incremental = false;
+      }
+    }
+    catch (Directory.DirectoryException e) {
+      m_logger.error(e.getMessage());
+      throw new CommunicationException(e.getMessage(), e);
+    }
+  }
+
+  private void fetch(FetchFileMessage message)
+    throws CommunicationException {
+
+    // Don't hold the lock while we wait for our peers.
+    final FileContents fileContents;
+
+    try {
+      fileContents = m_peerFileClient.fetch(message);
+    }
+    catch (IOException e) {
+      UncheckedInterruptedException.ioException(e);
+
+      // Mark the cache as out of date so that the console clears it
+      // and sends everything next time.
+      m_logger.warn(e.getMessage());
+
+      synchronized (m_incomingDirectory) {
+        removeManifest();
+        m_missedUpdate = true;
+        m_cacheHighWaterMark = new OutOfDateCacheHighWaterMark();
+      }
+
+      return;
+    }
+
+    update(fileContents);
+  }
+
+  private void checkpoint(CacheHighWaterMark cacheHighWaterMark) {
+    synchronized (m_incomingDirectory) {
+      if (!m_missedUpdate) {
+        m_cacheHighWaterMark = cacheHighWaterMark;
+        m_received.clear();
+        saveManifest();
+      }
+    }
+  }
+
+  private void update(FileContents fileContents)
+    throws CommunicationException {
+
+    try {
+      synchronized (m_incomingDirectory) {
+        removeManifest();
+        m_incomingDirectory.create();
+
+        createReadmeFile();
+
+        final File filename = fileContents.getFilename();
+        final String baseDigest = fileContents.getBaseDigest();
+
+        if (baseDigest != null &&
+            !baseDigest.equals(m_digests.get(filename))) {
+          // We don't have the content the patch applies to. Mark the
+          // cache as out of date so that the console clears it and
+          // sends everything next time.
+          m_logger.warn("Ignoring patch for {}: content has changed",
+                        filename);
+          m_missedUpdate = true;
+          m_cacheHighWaterMark = new OutOfDateCacheHighWaterMark();
+          return;
+        }
+
+        final ReceivedFile received = m_received.get(filename);
+
+        if (baseDigest == null &&
+            fileContents.getOffset() > 0 &&
+            (received == null ||
+             received.getLength() < fileContents.getOffset() ||
+             fileContents.getDigest() != null &&
+             !fileContents.getDigest().equals(received.getDigest()))) {
+          // We don't have the start of this version of the file.
+          m_logger.warn("Ignoring {}: missing earlier content", fileContents);
+          m_missedUpdate = true;
+          m_cacheHighWaterMark = new OutOfDateCacheHighWaterMark();
+          return;
+        }
+
+        if (baseDigest == null && fileContents.getOffset() == 0) {
+          m_digests.remove(filename);
+          forgetChunks(filename);
+        }
+
+        // Large files arrive in many chunks; log each file once.
+        if (fileContents.getOffset() == 0) {
+          m_logger.info("Updating file store: {}", fileContents);
+        }
+        else {
+          m_logger.debug("Updating file store: {}", fileContents);
+        }
+
+        fileContents.create(m_incomingDirectory);
+
+        if (baseDigest == null) {
+          final long end = fileContents.getOffset() + fileContents.getLength();
+
+          m_received.put(filename,
+                         new ReceivedFile(
+                           filename,
+                           fileContents.getDigest(),
+                           fileContents.getOffset() == 0 ?
+                             end : Math.max(end, received.getLength())));
+        }
+        else {
+          m_received.remove(filename);
+        }
+
+        if (m_chunks != null &&
+            fileContents.getLength() <= FileContents.MAXIMUM_CHUNK_SIZE) {
+          m_chunks.put(fileContents.getChunkDigest(),
+                       new Chunk(filename,
+                                 fileContents.getOffset(),
+                                 fileContents.getLength()));
+        }
+
+        if (fileContents.isLastChunk()) {
+          if (fileContents.getDigest() != null) {
+            m_digests.put(filename, fileContents.getDigest());
+          }
+          else {
+            m_digests.remove(filename);
+          }
+        }
+      }
+    }
+    catch (FileContents.FileContentsException e) {
+      m_logger.error(e.getMessage());
+      throw new CommunicationException(e.getMessage(), e);
+    }
+    catch (Directory.DirectoryException e) {
+      m_logger.error(e.getMessage());
+      throw new CommunicationException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Forget the chunks of a file that is being replaced. Guarded by
+   * m_incomingDirectory.
+   */
+  private void forgetChunks(File filename) {
+    if (m_chunks != null) {
+      final Iterator<Chunk> iterator = m_chunks.values().iterator();
+
+      while (iterator.hasNext()) {
+        if (iterator.next().getFilename().equals(filename)) {
+          iterator.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Restore the cache state from the manifest, if it describes the files we
+   * have. Guarded by m_incomingDirectory.
+   */
+  private void restoreManifest() {
+    if (!m_manifestFile.exists()) {
+      return;
+    }
+
+    m_haveManifest = true;
+
+    ObjectInputStream in = null;
+
+    try {
+      in = new ObjectInputStream(new FileInputStream(m_manifestFile));
+      final Manifest manifest = (Manifest) in.readObject();
+
+      for (File file : manifest.getDigests().keySet()) {
+        if (!m_incomingDirectory.getFile(file).isFile()) {
+          m_logger.warn("Ignoring file store manifest: {} is missing", file);
+          return;
+        }
+      }
+
+      m_digests.putAll(manifest.getDigests());
+      m_cacheHighWaterMark = manifest.getCacheHighWaterMark();
+
+      m_logger.info("Restored file store manifest");
+    }
+    catch (IOException e) {
+      UncheckedInterruptedException.ioException(e);
+      m_logger.warn("Ignoring unreadable file store manifest", e);
+    }
+    catch (ClassNotFoundException e) {
+      m_logger.warn("Ignoring unreadable file store manifest", e);
+    }
+    catch (ClassCastException e) {
+      m_logger.warn("Ignoring unreadable file store manifest", e);
+    }
+    finally {
+      Closer.close(in);
+    }
+  }
+
+  /**
+   * Record the cache state. Guarded by m_incomingDirectory.
+   */
+  private void saveManifest() {
+    final File temporaryFile =
+      new File(m_manifestFile.getPath() + ".tmp");
+
+    ObjectOutputStream out = null;
+
+    try {
+      out = new ObjectOutputStream(new FileOutputStream(temporaryFile));
+      out.writeObject(new Manifest(m_cacheHighWaterMark,
+                                   new HashMap<File, String>(m_digests)));
+      out.close();
+      out = null;
+
+      // Replace any existing manifest in one step, so that we never leave
+      // a partial manifest.
+      m_manifestFile.delete();
+
+      if (!temporaryFile.renameTo(m_manifestFile)) {
+        throw new IOException("Could not rename " + temporaryFile);
+      }
+
+      m_haveManifest = true;
+    }
+    catch (IOException e) {
+      UncheckedInterruptedException.ioException(e);
+      m_logger.warn("Failed to save file store manifest", e);
+      temporaryFile.delete();
+    }
+    finally {
+      Closer.close(out);
+    }
+  }
+
+  /**
+   * Remove the manifest before changing the cache, so that an agent that
+   * fails part way through a distribution does not restore it. Guarded by
+   * m_incomingDirectory.
+   */
+  private void removeManifest() {
+    if (m_haveManifest) {
+      m_manifestFile.delete();
+      m_haveManifest = false;
+    }
+  }
+
   private void createReadmeFile() throws CommunicationException {
     if (!m_readmeFile.exists()) {
       try {
@@ -214,6 +713,65 @@ final class FileStore {
     }
   }
 
+  /**
+   * Persistent record of the cache state.
+   */
+  private static final class Manifest implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final CacheHighWaterMark m_cacheHighWaterMark;
+    private final HashMap<File, String> m_digests;
+
+    public Manifest(CacheHighWaterMark cacheHighWaterMark,
+                    HashMap<File, String> digests) {
+      m_cacheHighWaterMark = cacheHighWaterMark;
+      m_digests = digests;
+    }
+
+    public CacheHighWaterMark getCacheHighWaterMark() {
+      return m_cacheHighWaterMark;
+    }
+
+    public Map<File, String> getDigests() {
+      return m_digests;
+    }
+  }
+
+  /**
+   * A change to the store.
+   */
+  private interface Update {
+    void run() throws CommunicationException;
+  }
+
+  /**
+   * Where a received chunk is in the store.
+   */
+  private static final class Chunk {
+    private final File m_filename;
+    private final long m_offset;
+    private final int m_length;
+
+    public Chunk(File filename, long offset, int length) {
+      m_filename = filename;
+      m_offset = offset;
+      m_length = length;
+    }
+
+    public File getFilename() {
+      return m_filename;
+    }
+
+    public long getOffset() {
+      return m_offset;
+    }
+
+    public int getLength() {
+      return m_length;
+    }
+  }
+
   private static final class OutOfDateCacheHighWaterMark
     implements CacheHighWaterMark {
 
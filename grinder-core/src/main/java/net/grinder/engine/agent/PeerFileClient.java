@@ -0,0 +1,183 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.agent;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import net.grinder.common.Closer;
+import net.grinder.common.UncheckedInterruptedException;
+import net.grinder.messages.agent.FetchFileMessage;
+import net.grinder.util.FileContents;
+
+import org.slf4j.Logger;
+
+
+/**
+ * Fetches chunks of files from the {@link PeerFileServer}s of other agents.
+ *
+ * <p>A peer might not yet have the chunk when we ask for it, or might be
+ * part way through writing it, so we keep trying until we receive a chunk
+ * that matches the digest supplied by the console, or give up.</p>
+ *
+ * @author Philip Aston
+ */
+class PeerFileClient {
+
+  private static final int DEFAULT_TIMEOUT = 60000;
+  private static final int RETRY_INTERVAL = 200;
+
+  private final Logger m_logger;
+  private final int m_timeout;
+
+  /**
+   * Constructor.
+   *
+   * @param logger Logger.
+   */
+  public PeerFileClient(Logger logger) {
+    this(logger, DEFAULT_TIMEOUT);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param logger Logger.
+   * @param timeout How long to keep trying, in milliseconds.
+   */
+  PeerFileClient(Logger logger, int timeout) {
+    m_logger = logger;
+    m_timeout = timeout;
+  }
+
+  /**
+   * Fetch a chunk.
+   *
+   * @param message Describes the chunk, and the peers that have it.
+   * @return The chunk.
+   * @throws IOException If the chunk could not be fetched.
+   */
+  public FileContents fetch(FetchFileMessage message) throws IOException {
+    final long deadline = System.currentTimeMillis() + m_timeout;
+
+    while (true) {
+      for (String peer : message.getPeers()) {
+        final FileContents result = fetch(message, peer);
+
+        if (result != null) {
+          return result;
+        }
+      }
+
+      if (System.currentTimeMillis() >= deadline) {
+        throw new IOException("Could not fetch " + message.getFilename() +
+                              " at offset " + message.getOffset() +
+                              " from " + message.getPeers());
+      }
+
+      try {
+        Thread.sleep(RETRY_INTERVAL);
+      }
+      catch (InterruptedException e) {
+        throw new UncheckedInterruptedException(e);
+      }
+    }
+  }
+
+  /**
+   * Try to fetch a chunk from a peer.
+   *
+   * @return The chunk, or {@code null} if the peer didn't supply it.
+   */
+  private FileContents fetch(FetchFileMessage message, String peer) {
+    final int colon = peer.lastIndexOf(':');
+
+    if (colon < 0) {
+      m_logger.debug("Ignoring badly formed peer address {}", peer);
+      return null;
+    }
+
+    final Socket socket = new Socket();
+
+    try {
+      socket.connect(
+        new InetSocketAddress(peer.substring(0, colon),
+                              Integer.parseInt(peer.substring(colon + 1))),
+        m_timeout);
+      socket.setSoTimeout(m_timeout);
+
+      final DataOutputStream out =
+        new DataOutputStream(socket.getOutputStream());
+
+      out.writeUTF(message.getChunkDigest());
+      out.flush();
+
+      final DataInputStream in = new DataInputStream(socket.getInputStream());
+
+      final int length = in.readInt();
+
+      if (length != message.getLength()) {
+        // The peer doesn't have the chunk yet.
+        return null;
+      }
+
+      final byte[] buffer = new byte[length];
+      in.readFully(buffer);
+
+      final FileContents result =
+        new FileContents(message.getFilename(),
+                         message.getOffset(),
+                         message.getFileLength(),
+                         buffer,
+                         message.getDigest(),
+                         null);
+
+      if (!result.getChunkDigest().equals(message.getChunkDigest())) {
+        // The peer has a different version, or is part way through
+        // writing the chunk.
+        return null;
+      }
+
+      return result;
+    }
+    catch (IOException e) {
+      UncheckedInterruptedException.ioException(e);
+      m_logger.debug("Failed to fetch from peer " + peer, e);
+      return null;
+    }
+    catch (FileContents.FileContentsException e) {
+      m_logger.debug("Failed to fetch from peer " + peer, e);
+      return null;
+    }
+    catch (IllegalArgumentException e) {
+      // Badly formed port number.
+      m_logger.debug("Failed to fetch from peer " + peer, e);
+      return null;
+    }
+    finally {
+      Closer.close(socket);
+    }
+  }
+}
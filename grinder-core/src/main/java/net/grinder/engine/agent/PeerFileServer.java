@@ -0,0 +1,209 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.agent;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import net.grinder.common.Closer;
+import net.grinder.common.UncheckedInterruptedException;
+import net.grinder.util.FileContents;
+import net.grinder.util.thread.ExecutorFactory;
+
+import org.slf4j.Logger;
+
+
+/**
+ * Serves chunks of the files in an agent's file store to other agents.
+ *
+ * <p>The protocol is simple. The client sends the digest of the chunk it
+ * wants, as supplied by the console. The server replies with the length of
+ * the chunk followed by the bytes, or with -1 if it doesn't have it.</p>
+ *
+ * <p>Only chunks that this agent has received in the current distribution
+ * are served, see {@link FileStore#readChunk}. A client cannot ask for
+ * arbitrary files from the store.</p>
+ *
+ * <p>The server binds to the address it advertises, and serves a limited
+ * number of connections at a time. Connections that are idle for too long
+ * are closed.</p>
+ *
+ * @author Philip Aston
+ */
+final class PeerFileServer {
+
+  /** The number of connections served at once. */
+  static final int MAXIMUM_THREADS = 4;
+
+  /** The number of connections that can wait to be served. */
+  static final int MAXIMUM_PENDING = 16;
+
+  /** How long we wait for a client to send its request. */
+  static final int SOCKET_TIMEOUT = 10000;
+
+  private final FileStore m_fileStore;
+  private final Logger m_logger;
+  private final ServerSocket m_serverSocket;
+  private final String m_address;
+  private final Semaphore m_permits =
+    new Semaphore(MAXIMUM_THREADS + MAXIMUM_PENDING);
+  private final ExecutorService m_acceptor =
+    ExecutorFactory.createThreadPool("peer file server acceptor", 1);
+  private final ExecutorService m_executor =
+    ExecutorFactory.createThreadPool("peer file server", MAXIMUM_THREADS);
+
+  /**
+   * Constructor.
+   *
+   * @param fileStore The file store to serve.
+   * @param host The host name or IP address to listen on. If {@code null}
+   *  or empty, listen on the local host address.
+   * @param port The port to listen on, or 0 to choose a free port.
+   * @param logger Logger.
+   * @throws IOException If the server could not be started.
+   */
+  public PeerFileServer(FileStore fileStore,
+                        String host,
+                        int port,
+                        Logger logger) throws IOException {
+    m_fileStore = fileStore;
+    m_logger = logger;
+
+    final InetAddress address =
+      host == null || host.length() == 0 ?
+        InetAddress.getLocalHost() : InetAddress.getByName(host);
+
+    m_serverSocket = new ServerSocket();
+    m_serverSocket.bind(new InetSocketAddress(address, port));
+
+    m_address =
+      (host == null || host.length() == 0 ? address.getHostAddress() : host) +
+      ":" + m_serverSocket.getLocalPort();
+
+    m_fileStore.indexChunks();
+
+    m_acceptor.execute(new Runnable() {
+        public void run() {
+          accept();
+        }
+      });
+
+    m_logger.info("Serving files to peers on {}", m_address);
+  }
+
+  /**
+   * The address that peers should use, in the form
+   * <em>host</em>:<em>port</em>.
+   *
+   * @return The address.
+   */
+  public String getAddress() {
+    return m_address;
+  }
+
+  /**
+   * Shut down the server.
+   */
+  public void shutdown() {
+    try {
+      m_serverSocket.close();
+    }
+    catch (IOException e) {
+      UncheckedInterruptedException.ioException(e);
+      // Ignore.
+    }
+
+    m_acceptor.shutdownNow();
+    m_executor.shutdownNow();
+  }
+
+  private void accept() {
+    while (!m_serverSocket.isClosed()) {
+      final Socket socket;
+
+      try {
+        socket = m_serverSocket.accept();
+      }
+      catch (IOException e) {
+        UncheckedInterruptedException.ioException(e);
+        // Shut down.
+        return;
+      }
+
+      if (!m_permits.tryAcquire()) {
+        m_logger.debug("Too many peer connections, closing {}", socket);
+        Closer.close(socket);
+        continue;
+      }
+
+      try {
+        m_executor.execute(new Runnable() {
+            public void run() {
+              try {
+                socket.setSoTimeout(SOCKET_TIMEOUT);
+                serve(socket);
+              }
+              catch (IOException e) {
+                UncheckedInterruptedException.ioException(e);
+                m_logger.debug("Failed to serve peer", e);
+              }
+              finally {
+                Closer.close(socket);
+                m_permits.release();
+              }
+            }
+          });
+      }
+      catch (RejectedExecutionException e) {
+        // Shut down.
+        Closer.close(socket);
+        return;
+      }
+    }
+  }
+
+  private void serve(Socket socket) throws IOException {
+    final DataInputStream in = new DataInputStream(socket.getInputStream());
+    final DataOutputStream out =
+      new DataOutputStream(socket.getOutputStream());
+
+    final byte[] buffer = m_fileStore.readChunk(in.readUTF());
+
+    if (buffer == null || buffer.length > FileContents.MAXIMUM_CHUNK_SIZE) {
+      out.writeInt(-1);
+    }
+    else {
+      out.writeInt(buffer.length);
+      out.write(buffer);
+    }
+
+    out.flush();
+  }
+}
@@ -22,6 +22,7 @@
 
 package net.grinder.engine.agent;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -43,8 +44,16 @@ import net.grinder.util.StreamCopier;
  */
 final class ProcessWorker implements Worker {
 
-  private final WorkerIdentity m_workerIdentity;
+  /**
+   * The most output that is kept for an unattached worker. Anything more is
+   * discarded.
+   */
+  static final int UNATTACHED_OUTPUT_LIMIT = 64 * 1024;
+
   private final Process m_process;
+  private WorkerIdentity m_workerIdentity;
+  private final DeferredOutputStream m_stdout = new DeferredOutputStream();
+  private final DeferredOutputStream m_stderr = new DeferredOutputStream();
   private final Redirector m_stdoutRedirector;
   private final Redirector m_stderrRedirector;
 
@@ -65,7 +74,22 @@ final class ProcessWorker implements Worker {
                        OutputStream errorStream)
     throws EngineException {
 
-    m_workerIdentity = workerIdentity;
+    this(commandLine);
+
+    attach(workerIdentity, outputStream, errorStream);
+  }
+
+  /**
+   * Constructor for a worker that is started before it is needed. The
+   * worker has no identity until {@link #attach} is called. Its output is
+   * read from the start, so that the worker can't block on a full pipe, and
+   * the first {@link #UNATTACHED_OUTPUT_LIMIT} bytes of each stream are
+   * kept until then.
+   *
+   * @param commandLine Command line arguments and working directory.
+   * @throws EngineException If an error occurs.
+   */
+  public ProcessWorker(CommandLine commandLine) throws EngineException {
 
     final ProcessBuilder processBuilder =
       new ProcessBuilder(commandLine.getCommandList());
@@ -82,15 +106,49 @@ final class ProcessWorker implements Worker {
 
     m_stdoutRedirector =
       new Redirector(m_process.getInputStream(),
-                     outputStream,
+                     m_stdout,
                      m_process.toString());
 
     m_stderrRedirector =
       new Redirector(m_process.getErrorStream(),
-                     errorStream,
+                     m_stderr,
                      m_process.toString());
   }
 
+  /**
+   * Give the worker its identity, and redirect its output.
+   *
+   * @param workerIdentity The process identity.
+   * @param outputStream Output stream to which child process stdout
+   * should be redirected. Will not be closed by this class.
+   * @param errorStream Output stream to which child process stderr
+   * should be redirected. Will not be closed by this class.
+   */
+  public void attach(WorkerIdentity workerIdentity,
+                     OutputStream outputStream,
+                     OutputStream errorStream) {
+
+    m_workerIdentity = workerIdentity;
+
+    m_stdout.setDelegate(outputStream);
+    m_stderr.setDelegate(errorStream);
+  }
+
+  /**
+   * Whether the process is still running.
+   *
+   * @return {@code true} if and only if the process has not exited.
+   */
+  public boolean isRunning() {
+    try {
+      m_process.exitValue();
+      return false;
+    }
+    catch (IllegalThreadStateException e) {
+      return true;
+    }
+  }
+
   /**
    * Return the worker name.
    *
@@ -184,4 +242,57 @@ final class ProcessWorker implements Worker {
       }
     }
   }
+
+  /**
+   * Holds output until the worker is attached, then passes it on.
+   */
+  private static final class DeferredOutputStream extends OutputStream {
+
+    // Guarded by this.
+    private final ByteArrayOutputStream m_pending =
+      new ByteArrayOutputStream();
+
+    // Guarded by this.
+    private OutputStream m_delegate;
+
+    public synchronized void setDelegate(OutputStream delegate) {
+      try {
+        m_pending.writeTo(delegate);
+        delegate.flush();
+      }
+      catch (IOException e) {
+        UncheckedInterruptedException.ioException(e);
+        // Ignore, as we would for a failure to copy the output.
+      }
+
+      m_pending.reset();
+      m_delegate = delegate;
+    }
+
+    @Override public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override public synchronized void write(byte[] b, int offset, int length)
+      throws IOException {
+
+      if (m_delegate != null) {
+        m_delegate.write(b, offset, length);
+      }
+      else {
+        m_pending.write(
+          b,
+          offset,
+          Math.max(
+            0,
+            Math.min(length, UNATTACHED_OUTPUT_LIMIT - m_pending.size())));
+      }
+    }
+
+    @Override public synchronized void flush() throws IOException {
+      if (m_delegate != null) {
+        m_delegate.flush();
+      }
+    }
+  }
 }
@@ -38,6 +38,7 @@ import net.grinder.engine.common.ScriptLocation;
 final class ProcessWorkerFactory extends AbstractWorkerFactory {
 
   private final WorkerProcessCommandLine m_commandLine;
+  private final ProcessWorkerPool m_pool;
 
   public ProcessWorkerFactory(WorkerProcessCommandLine commandLine,
                               AgentIdentityImplementation agentIdentity,
@@ -45,6 +46,35 @@ final class ProcessWorkerFactory extends AbstractWorkerFactory {
                               boolean reportToConsole,
                               ScriptLocation script,
                               GrinderProperties properties) {
+    this(commandLine,
+         agentIdentity,
+         fanOutStreamSender,
+         reportToConsole,
+         script,
+         properties,
+         null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param commandLine The worker process command line.
+   * @param agentIdentity The agent identity.
+   * @param fanOutStreamSender Used to send messages to the workers.
+   * @param reportToConsole Whether the workers should report to the console.
+   * @param script The script to run.
+   * @param properties The properties.
+   * @param pool Workers are taken from this pool if possible. It must have
+   *  been configured with the same command line, script, and properties.
+   *  May be {@code null}.
+   */
+  public ProcessWorkerFactory(WorkerProcessCommandLine commandLine,
+                              AgentIdentityImplementation agentIdentity,
+                              FanOutStreamSender fanOutStreamSender,
+                              boolean reportToConsole,
+                              ScriptLocation script,
+                              GrinderProperties properties,
+                              ProcessWorkerPool pool) {
     super(agentIdentity,
           fanOutStreamSender,
           reportToConsole,
@@ -52,6 +82,7 @@ final class ProcessWorkerFactory extends AbstractWorkerFactory {
           properties);
 
     m_commandLine = commandLine;
+    m_pool = pool;
   }
 
   @Override
@@ -60,6 +91,13 @@ final class ProcessWorkerFactory extends AbstractWorkerFactory {
                                 OutputStream errorStream)
     throws EngineException {
 
+    final ProcessWorker pooledWorker = m_pool != null ? m_pool.take() : null;
+
+    if (pooledWorker != null) {
+      pooledWorker.attach(workerIdentity, outputStream, errorStream);
+      return pooledWorker;
+    }
+
     return new ProcessWorker(workerIdentity,
                              m_commandLine,
                              outputStream,
@@ -0,0 +1,202 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.agent;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import net.grinder.common.GrinderProperties;
+import net.grinder.communication.CommunicationException;
+import net.grinder.communication.StreamSender;
+import net.grinder.engine.common.EngineException;
+import net.grinder.engine.common.ScriptLocation;
+import net.grinder.engine.messages.PrepareWorkerMessage;
+import net.grinder.messages.agent.CacheHighWaterMark;
+
+import org.slf4j.Logger;
+
+
+/**
+ * Pool of worker processes that are started before they are needed, so
+ * that the cost of starting a JVM and setting up the script engines is not
+ * paid at the start of a run.
+ *
+ * <p>Idle workers are only used for a run with the same command line,
+ * script, and properties as the one they were started for, and only if the
+ * file store has not changed since. They are discarded when the
+ * configuration or the file store changes.</p>
+ *
+ * @author Philip Aston
+ */
+final class ProcessWorkerPool {
+
+  private final Logger m_logger;
+
+  // Guarded by this.
+  private final List<ProcessWorker> m_idleWorkers =
+    new LinkedList<ProcessWorker>();
+  private int m_size;
+  private CommandLine m_commandLine;
+  private ScriptLocation m_script;
+  private GrinderProperties m_properties;
+  private CacheHighWaterMark m_cacheHighWaterMark;
+
+  /**
+   * Constructor.
+   *
+   * @param logger Logger.
+   */
+  public ProcessWorkerPool(Logger logger) {
+    m_logger = logger;
+  }
+
+  /**
+   * Set the configuration for workers taken from the pool. Idle workers
+   * that were started for a different configuration, or before the file
+   * store last changed, are destroyed.
+   *
+   * @param size The number of workers to keep ready. {@code 0} disables
+   *  the pool.
+   * @param commandLine The worker process command line.
+   * @param script The script the workers will run.
+   * @param properties The properties the workers will use.
+   * @param cacheHighWaterMark The state of the file store, or {@code null}
+   *  if there is no file store.
+   */
+  public synchronized void configure(int size,
+                                     CommandLine commandLine,
+                                     ScriptLocation script,
+                                     GrinderProperties properties,
+                                     CacheHighWaterMark cacheHighWaterMark) {
+
+    if (m_commandLine == null ||
+        !m_commandLine.getCommandList().equals(commandLine.getCommandList()) ||
+        !m_commandLine.getWorkingDirectory().equals(
+          commandLine.getWorkingDirectory()) ||
+        !m_script.equals(script) ||
+        !m_properties.equals(properties)) {
+
+      if (m_idleWorkers.size() > 0) {
+        m_logger.info("worker configuration changed, discarding {} " +
+                      "prepared worker processes", m_idleWorkers.size());
+      }
+
+      discard(0);
+    }
+    else if (!isSameCacheState(m_cacheHighWaterMark, cacheHighWaterMark)) {
+      // The workers may have loaded files that have since been replaced.
+      if (m_idleWorkers.size() > 0) {
+        m_logger.info("file store changed, discarding {} " +
+                      "prepared worker processes", m_idleWorkers.size());
+      }
+
+      discard(0);
+    }
+
+    m_size = size;
+    m_commandLine = commandLine;
+    m_script = script;
+    // Copy the properties so later changes are noticed.
+    m_properties = (GrinderProperties)properties.clone();
+    m_cacheHighWaterMark = cacheHighWaterMark;
+
+    discard(size);
+  }
+
+  /**
+   * Take a worker from the pool.
+   *
+   * @return A running worker, or {@code null} if the pool is empty.
+   */
+  public synchronized ProcessWorker take() {
+    while (m_idleWorkers.size() > 0) {
+      final ProcessWorker worker = m_idleWorkers.remove(0);
+
+      if (worker.isRunning()) {
+        return worker;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Start workers until the pool is full.
+   */
+  public synchronized void replenish() {
+    while (m_idleWorkers.size() < m_size) {
+      final ProcessWorker worker;
+
+      try {
+        worker = new ProcessWorker(m_commandLine);
+      }
+      catch (EngineException e) {
+        m_logger.warn("failed to start worker process", e);
+        return;
+      }
+
+      try {
+        new StreamSender(worker.getCommunicationStream()).send(
+          new PrepareWorkerMessage(m_script, m_properties));
+      }
+      catch (CommunicationException e) {
+        worker.destroy();
+        m_logger.warn("failed to prepare worker process", e);
+        return;
+      }
+
+      m_idleWorkers.add(worker);
+    }
+  }
+
+  /**
+   * Destroy the idle workers.
+   */
+  public synchronized void shutdown() {
+    m_size = 0;
+    discard(0);
+  }
+
+  /**
+   * Package scope for unit tests.
+   *
+   * @return The number of idle workers.
+   */
+  synchronized int getNumberOfIdleWorkers() {
+    return m_idleWorkers.size();
+  }
+
+  private static boolean isSameCacheState(CacheHighWaterMark a,
+                                          CacheHighWaterMark b) {
+    if (a == null || b == null) {
+      return a == b;
+    }
+
+    return a.isForSameCache(b) && a.getTime() == b.getTime();
+  }
+
+  private void discard(int keep) {
+    while (m_idleWorkers.size() > keep) {
+      m_idleWorkers.remove(m_idleWorkers.size() - 1).destroy();
+    }
+  }
+}
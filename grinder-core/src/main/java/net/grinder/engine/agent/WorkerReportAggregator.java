@@ -0,0 +1,162 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.agent;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.slf4j.Logger;
+
+import net.grinder.common.GrinderProperties;
+import net.grinder.communication.Acceptor;
+import net.grinder.communication.CommunicationException;
+import net.grinder.communication.ConnectionType;
+import net.grinder.communication.MessagePump;
+import net.grinder.communication.Sender;
+import net.grinder.communication.ServerReceiver;
+import net.grinder.engine.common.StatisticsReportAggregator;
+import net.grinder.messages.console.ConsoleMessageCodecs;
+import net.grinder.statistics.StatisticsServicesImplementation;
+import net.grinder.util.StandardTimeAuthority;
+
+
+/**
+ * Stands in for the console for the agent's workers.
+ *
+ * <p>Workers connect to a local port instead of the console. Their
+ * statistics reports are merged, and a single combined report is sent to
+ * the console each interval. Everything else, including the worker process
+ * reports and barrier messages, is relayed to the console straight away on
+ * behalf of the worker.</p>
+ *
+ * @author Philip Aston
+ */
+final class WorkerReportAggregator {
+
+  private static final String LOCAL_HOST = "127.0.0.1";
+
+  private final StatisticsReportAggregator m_aggregator;
+  private final Logger m_logger;
+  private final Acceptor m_acceptor;
+  private final MessagePump m_messagePump;
+  private final TimerTask m_reportTask;
+
+  /**
+   * Constructor.
+   *
+   * @param consoleSender Sender to the console.
+   * @param timer Timer used to schedule the combined reports.
+   * @param reportInterval How often to report, in milliseconds.
+   * @param logger Logger.
+   * @throws CommunicationException If the local port could not be opened.
+   */
+  public WorkerReportAggregator(Sender consoleSender,
+                                Timer timer,
+                                long reportInterval,
+                                Logger logger)
+    throws CommunicationException {
+
+    m_aggregator = new StatisticsReportAggregator(consoleSender);
+    m_logger = logger;
+
+    m_acceptor = new Acceptor(LOCAL_HOST,
+                              0,
+                              1,
+                              new StandardTimeAuthority(),
+                              ConsoleMessageCodecs.createRegistry(
+                                StatisticsServicesImplementation.getInstance()
+                                .getStatisticsSetFactory()));
+
+    final ServerReceiver receiver = new ServerReceiver(true);
+
+    try {
+      receiver.receiveFrom(m_acceptor,
+                           new ConnectionType[] { ConnectionType.WORKER },
+                           2,
+                           500,
+                           30000);
+    }
+    catch (CommunicationException e) {
+      m_acceptor.shutdown();
+      throw e;
+    }
+
+    m_messagePump = new MessagePump(receiver, m_aggregator, 1);
+
+    m_reportTask = new TimerTask() {
+        public void run() {
+          try {
+            report();
+          }
+          catch (CommunicationException e) {
+            cancel();
+            m_logger.error("Failed to report to console", e);
+          }
+        }
+      };
+
+    m_messagePump.start();
+    timer.schedule(m_reportTask, reportInterval, reportInterval);
+  }
+
+  /**
+   * Point worker processes at us, rather than the console.
+   *
+   * @param properties The properties that will be sent to the workers.
+   */
+  public void configureWorkerProperties(GrinderProperties properties) {
+    properties.setProperty(GrinderProperties.CONSOLE_HOST, LOCAL_HOST);
+    properties.setInt(GrinderProperties.CONSOLE_PORT, m_acceptor.getPort());
+    properties.setBoolean("grinder.consoleCompression", false);
+  }
+
+  /**
+   * Send the statistics received since the last report to the console.
+   *
+   * @throws CommunicationException If the report could not be sent.
+   */
+  void report() throws CommunicationException {
+    m_aggregator.report();
+  }
+
+  /**
+   * Stop listening to the workers, and send any outstanding report.
+   */
+  public void shutdown() {
+    m_reportTask.cancel();
+    m_messagePump.shutdown();
+
+    try {
+      m_acceptor.shutdown();
+    }
+    catch (CommunicationException e) {
+      m_logger.error("Failed to shut down worker port", e);
+    }
+
+    try {
+      report();
+    }
+    catch (CommunicationException e) {
+      // Ignore - the console has probably shut down.
+    }
+  }
+}
@@ -25,6 +25,8 @@ import net.grinder.common.GrinderProperties;
 import net.grinder.communication.CommunicationDefaults;
 import net.grinder.communication.ConnectionType;
 import net.grinder.communication.Connector;
+import net.grinder.messages.console.ConsoleMessageCodecs;
+import net.grinder.statistics.StatisticsServicesImplementation;
 
 
 /**
@@ -48,6 +50,11 @@ public class ConnectorFactory {
   /**
    * Factory method.
    *
+   * <p>The connector will offer the console the binary wire format, using
+   * the {@link ConsoleMessageCodecs}. If the {@code grinder.consoleCompression}
+   * property is {@code true}, the connector will also offer to compress large
+   * messages.</p>
+   *
    * @param properties Properties.
    * @return A connector which can be used to contact the console.
    */
@@ -57,6 +64,10 @@ public class ConnectorFactory {
                              CommunicationDefaults.CONSOLE_HOST),
       properties.getInt(GrinderProperties.CONSOLE_PORT,
                         CommunicationDefaults.CONSOLE_PORT),
-      m_connectionType);
+      m_connectionType,
+      ConsoleMessageCodecs.createRegistry(
+        StatisticsServicesImplementation.getInstance()
+        .getStatisticsSetFactory()),
+      properties.getBoolean("grinder.consoleCompression", false));
   }
 }
@@ -0,0 +1,129 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.common;
+
+import java.util.concurrent.TimeUnit;
+
+import net.grinder.communication.CommunicationException;
+import net.grinder.communication.Message;
+import net.grinder.communication.RelayedMessage;
+import net.grinder.communication.Sender;
+import net.grinder.messages.console.ReportStatisticsMessage;
+import net.grinder.statistics.StatisticsServicesImplementation;
+import net.grinder.statistics.StatisticsSetFactory;
+import net.grinder.statistics.TestStatisticsMap;
+
+
+/**
+ * Sender that merges the statistics reports relayed on behalf of other
+ * processes, and passes everything else straight on.
+ *
+ * <p>The merged statistics are sent as a single report when
+ * {@link #report()} is called.</p>
+ *
+ * @author Philip Aston
+ */
+public final class StatisticsReportAggregator implements Sender {
+
+  private final Sender m_sender;
+  private final StatisticsSetFactory m_statisticsSetFactory;
+
+  /** Guarded by this. */
+  private TestStatisticsMap m_statistics;
+  private TimeUnit m_timeUnit;
+
+  /**
+   * Constructor.
+   *
+   * @param sender Sender to pass messages on to.
+   */
+  public StatisticsReportAggregator(Sender sender) {
+    m_sender = sender;
+    m_statisticsSetFactory =
+      StatisticsServicesImplementation.getInstance().getStatisticsSetFactory();
+    m_statistics = new TestStatisticsMap(m_statisticsSetFactory);
+  }
+
+  /**
+   * Merge relayed statistics reports, and pass on other messages.
+   *
+   * @param message The message.
+   * @throws CommunicationException If the message could not be passed on.
+   */
+  public void send(Message message) throws CommunicationException {
+    if (message instanceof RelayedMessage) {
+      final Message relayed = ((RelayedMessage)message).getMessage();
+
+      if (relayed instanceof ReportStatisticsMessage) {
+        add((ReportStatisticsMessage)relayed);
+        return;
+      }
+    }
+
+    m_sender.send(message);
+  }
+
+  /**
+   * Send the statistics merged since the last report.
+   *
+   * @throws CommunicationException If the report could not be sent.
+   */
+  public void report() throws CommunicationException {
+    final TestStatisticsMap statistics;
+    final TimeUnit timeUnit;
+
+    synchronized (this) {
+      if (m_statistics.size() == 0) {
+        return;
+      }
+
+      statistics = m_statistics;
+      timeUnit = m_timeUnit;
+      m_statistics = new TestStatisticsMap(m_statisticsSetFactory);
+    }
+
+    m_sender.send(new ReportStatisticsMessage(statistics, timeUnit));
+  }
+
+  private void add(ReportStatisticsMessage message)
+    throws CommunicationException {
+
+    synchronized (this) {
+      if (m_statistics.size() == 0 || message.getTimeUnit() == m_timeUnit) {
+        m_timeUnit = message.getTimeUnit();
+        m_statistics.add(message.getStatisticsDelta());
+        return;
+      }
+    }
+
+    // The reports don't agree on the time unit. Unlikely, but we can't
+    // combine them.
+    report();
+    add(message);
+  }
+
+  /**
+   * Does nothing. The sender we pass messages on to belongs to our owner.
+   */
+  public void shutdown() {
+  }
+}
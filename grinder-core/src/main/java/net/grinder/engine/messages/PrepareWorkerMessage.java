@@ -0,0 +1,72 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.messages;
+
+import net.grinder.common.GrinderProperties;
+import net.grinder.communication.Message;
+import net.grinder.engine.common.ScriptLocation;
+
+
+/**
+ * Message used by the agent to prepare a worker process that has been
+ * started ahead of time. The process sets up its script engines, then
+ * waits for an {@link InitialiseGrinderMessage}.
+ *
+ * @author Philip Aston
+ */
+public final class PrepareWorkerMessage implements Message {
+
+  private static final long serialVersionUID = 1L;
+
+  private final ScriptLocation m_script;
+  private final GrinderProperties m_properties;
+
+  /**
+   * Constructor.
+   *
+   * @param script The script that the process is expected to run.
+   * @param properties The properties that the process is expected to use.
+   */
+  public PrepareWorkerMessage(ScriptLocation script,
+                              GrinderProperties properties) {
+    m_script = script;
+    m_properties = properties;
+  }
+
+  /**
+   * Accessor.
+   *
+   * @return The script file to prepare for.
+   */
+  public ScriptLocation getScript() {
+    return m_script;
+  }
+
+  /**
+   * Accessor.
+   *
+   * @return Properties from the agent.
+   */
+  public GrinderProperties getProperties() {
+    return m_properties;
+  }
+}
@@ -0,0 +1,104 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.process;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.grinder.util.TimeAuthority;
+
+
+/**
+ * Schedule of intended run start times for an open workload model.
+ *
+ * <p>
+ * Arrivals are spaced evenly to achieve a target rate, and are shared between
+ * all of the worker threads in a process. Each thread claims the next arrival
+ * before it starts a run. If the threads cannot keep up, arrivals fall behind
+ * the schedule but are not discarded, so the recorded times include the time
+ * each run spent waiting to start.
+ * </p>
+ *
+ * <p>
+ * Package scope.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+final class ArrivalSchedule {
+
+  private final TimeAuthority m_timeAuthority;
+  private final long m_interval;
+  private final AtomicLong m_startTime = new AtomicLong(-1);
+  private final AtomicLong m_arrivals = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param timeAuthority Time authority.
+   * @param arrivalsPerSecond Target arrival rate.
+   */
+  ArrivalSchedule(TimeAuthority timeAuthority, double arrivalsPerSecond) {
+    if (!(arrivalsPerSecond > 0)) {
+      throw new IllegalArgumentException(
+        "Arrival rate must be positive: " + arrivalsPerSecond);
+    }
+
+    m_timeAuthority = timeAuthority;
+    m_interval = Math.max(1, Math.round(1e9 / arrivalsPerSecond));
+  }
+
+  /**
+   * The time between successive arrivals.
+   *
+   * @return The interval, in nanoseconds.
+   */
+  long getInterval() {
+    return m_interval;
+  }
+
+  /**
+   * Claim the next arrival. The schedule starts from the time of the first
+   * call.
+   *
+   * @return The intended start time of the arrival, in nanoseconds since the
+   *         Epoch.
+   */
+  long nextArrival() {
+    if (m_startTime.get() == -1) {
+      m_startTime.compareAndSet(-1, m_timeAuthority.getTimeInNanoseconds());
+    }
+
+    return m_startTime.get() + m_arrivals.getAndIncrement() * m_interval;
+  }
+
+  /**
+   * Whether an arrival started late. An arrival is late if it started after
+   * the time intended for the following arrival.
+   *
+   * @param intendedStartTime The intended start time.
+   * @param actualStartTime The actual start time.
+   * @return {@code true} if and only if the arrival was late.
+   */
+  boolean isLate(long intendedStartTime, long actualStartTime) {
+    return actualStartTime - intendedStartTime > m_interval;
+  }
+}
@@ -0,0 +1,224 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.engine.process;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+
+import net.grinder.common.GrinderException;
+import net.grinder.util.AbstractMainClass;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Converts a data log written by {@link BinaryDataLogWriter} to the text
+ * format written by {@link ThreadDataLogger}, so that existing analysis
+ * tools can process it.
+ *
+ * @author Philip Aston
+ */
+public final class BinaryDataLogConverter extends AbstractMainClass {
+
+  private static final String USAGE =
+    "  java " + BinaryDataLogConverter.class.getName() +
+    " <binary data log> [<output file>]" +
+    "\n" +
+    "\nWrites to the standard output if no output file is given.";
+
+  private static final String SEPARATOR = ", ";
+
+  /**
+   * Entry point.
+   *
+   * @param args Command line arguments.
+   */
+  public static void main(String[] args) {
+    final Logger logger = LoggerFactory.getLogger("BinaryDataLogConverter");
+
+    try {
+      new BinaryDataLogConverter(args, logger).run();
+    }
+    catch (LoggedInitialisationException e) {
+      System.exit(1);
+    }
+    catch (Throwable e) {
+      logger.error("Conversion failed", e);
+      System.exit(2);
+    }
+
+    System.exit(0);
+  }
+
+  private final InputStream m_in;
+  private final Writer m_out;
+
+  private BinaryDataLogConverter(String[] arguments, Logger logger)
+    throws GrinderException {
+
+    super(logger, USAGE);
+
+    if (arguments.length < 1 || arguments.length > 2) {
+      throw barfUsage();
+    }
+
+    try {
+      m_in = new FileInputStream(arguments[0]);
+
+      if (arguments.length == 2) {
+        m_out = new FileWriter(arguments[1]);
+      }
+      else {
+        m_out = new OutputStreamWriter(System.out);
+      }
+    }
+    catch (IOException e) {
+      throw barfError(e.getMessage());
+    }
+  }
+
+  private void run() throws IOException {
+    try {
+      convert(m_in, m_out);
+    }
+    finally {
+      m_in.close();
+      m_out.close();
+    }
+  }
+
+  /**
+   * Convert a binary data log.
+   *
+   * @param in Source of the binary data log.
+   * @param out Where to write the text data log. Flushed, but not closed.
+   * @return The number of records converted.
+   * @throws IOException If the binary data log could not be read, or
+   * the text data log could not be written.
+   */
+  static long convert(InputStream in, Writer out) throws IOException {
+    final DataInputStream dataIn =
+      new DataInputStream(new BufferedInputStream(in));
+
+    if (dataIn.readInt() != BinaryDataLogWriter.MAGIC) {
+      throw new IOException("Not a binary data log");
+    }
+
+    final int version = dataIn.readInt();
+
+    if (version != BinaryDataLogWriter.VERSION) {
+      throw new IOException("Unsupported binary data log version " + version);
+    }
+
+    final BufferedWriter writer = new BufferedWriter(out);
+    final StringBuilder line =
+      new StringBuilder("Thread, Run, Test, Start time (ms since Epoch)");
+
+    final boolean[] isDouble = new boolean[dataIn.readInt()];
+
+    for (int i = 0; i < isDouble.length; ++i) {
+      line.append(SEPARATOR);
+      line.append(dataIn.readUTF());
+      isDouble[i] = dataIn.readBoolean();
+    }
+
+    writer.write(line.toString());
+    writer.newLine();
+
+    final byte[] recordBytes =
+      new byte[BinaryDataLogWriter.FIXED_RECORD_SIZE + 8 * isDouble.length];
+    final ByteBuffer record = ByteBuffer.wrap(recordBytes);
+
+    long records = 0;
+
+    while (readRecord(dataIn, recordBytes)) {
+      record.clear();
+      line.setLength(0);
+
+      line.append(record.getInt());
+      line.append(SEPARATOR);
+      line.append(record.getInt());
+      line.append(SEPARATOR);
+      line.append(record.getInt());
+      line.append(SEPARATOR);
+      line.append(record.getLong());
+
+      for (int i = 0; i < isDouble.length; ++i) {
+        line.append(SEPARATOR);
+
+        if (isDouble[i]) {
+          line.append(record.getDouble());
+        }
+        else {
+          line.append(record.getLong());
+        }
+      }
+
+      writer.write(line.toString());
+      writer.newLine();
+      ++records;
+    }
+
+    writer.flush();
+
+    return records;
+  }
+
+  /**
+   * Read a complete record.
+   *
+   * @return {@code false} if there are no more records.
+   * @throws EOFException If the log ends part way through a record.
+   */
+  private static boolean readRecord(InputStream in, byte[] record)
+    throws IOException {
+
+    int n = 0;
+
+    while (n < record.length) {
+      final int count = in.read(record, n, record.length - n);
+
+      if (count < 0) {
+        if (n == 0) {
+          return false;
+        }
+
+        throw new EOFException("Binary data log ends with a partial record");
+      }
+
+      n += count;
+    }
+
+    return true;
+  }
+}
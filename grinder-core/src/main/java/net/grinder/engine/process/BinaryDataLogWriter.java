@@ -0,0 +1,489 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.engine.process;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.grinder.common.Test;
+import net.grinder.common.UncheckedInterruptedException;
+import net.grinder.statistics.ExpressionView;
+import net.grinder.statistics.StatisticExpression;
+import net.grinder.statistics.StatisticsSet;
+
+import org.slf4j.Logger;
+
+
+/**
+ * Writes the data log as fixed width binary records, an alternative to
+ * formatting a line of text for each test through logback.
+ *
+ * <p>
+ * Worker threads encode records into a private buffer. When it is full,
+ * they copy the batch of records into the current buffer of a small ring
+ * of direct buffers, so the lock that guards the ring is taken once per
+ * batch rather than once per record. Full buffers are written to the file
+ * by a background thread. If nothing has been written for a while, the
+ * background thread also collects the records waiting in the private
+ * buffers, and writes out a partly filled buffer. If the background thread
+ * falls behind, worker threads block until it returns a buffer to the
+ * ring.
+ * </p>
+ *
+ * <p>
+ * The file starts with a header: the {@link #MAGIC} number and
+ * {@link #VERSION} as ints, the number of expressions as an int, then the
+ * display name (in {@link java.io.DataOutput#writeUTF} format) and a
+ * boolean that is {@code true} for double valued expressions, for each
+ * expression. Each record is the thread number, run number and test number
+ * as ints, the time as a long, then each expression value as a long or a
+ * double. All values are big-endian. The records from each thread are in
+ * the order that they were reported, and are interleaved in batches with
+ * those from other threads.
+ * </p>
+ *
+ * <p>
+ * {@link BinaryDataLogConverter} converts the file to the text format.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+final class BinaryDataLogWriter {
+
+  static final int MAGIC = 0x47524444;
+  static final int VERSION = 1;
+
+  /** Bytes used by the thread, run and test numbers and the time. */
+  static final int FIXED_RECORD_SIZE = 4 + 4 + 4 + 8;
+
+  private static final int BUFFER_SIZE = 256 * 1024;
+  private static final int THREAD_BUFFER_SIZE = 8 * 1024;
+  private static final int NUMBER_OF_BUFFERS = 4;
+  private static final long FLUSH_INTERVAL_MILLISECONDS = 1000;
+
+  private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+  private final Logger m_logger;
+  private final FileChannel m_channel;
+  private final StatisticExpression[] m_expressions;
+  private final int m_recordSize;
+  private final Thread m_writerThread;
+
+  private final List<ThreadWriter> m_threadWriters =
+    new CopyOnWriteArrayList<ThreadWriter>();
+
+  private final BlockingQueue<ByteBuffer> m_freeBuffers =
+    new ArrayBlockingQueue<ByteBuffer>(NUMBER_OF_BUFFERS);
+
+  // Includes room for END.
+  private final BlockingQueue<ByteBuffer> m_fullBuffers =
+    new ArrayBlockingQueue<ByteBuffer>(NUMBER_OF_BUFFERS + 1);
+
+  private final Lock m_lock = new ReentrantLock();
+
+  // Guarded by m_lock.
+  private ByteBuffer m_currentBuffer;
+
+  // Guarded by m_lock.
+  private boolean m_closed;
+
+  /**
+   * Constructor. Creates the file, writes the header, and starts the
+   * background thread.
+   *
+   * @param file The file. Any existing file is replaced.
+   * @param expressionViews The data log expressions.
+   * @param logger Logger to which write failures are reported.
+   * @throws IOException If the file could not be created.
+   */
+  BinaryDataLogWriter(File file,
+                      ExpressionView[] expressionViews,
+                      Logger logger)
+    throws IOException {
+
+    m_logger = logger;
+    m_expressions = new StatisticExpression[expressionViews.length];
+
+    final ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+    final DataOutputStream header = new DataOutputStream(headerBytes);
+    header.writeInt(MAGIC);
+    header.writeInt(VERSION);
+    header.writeInt(expressionViews.length);
+
+    for (int i = 0; i < expressionViews.length; ++i) {
+      m_expressions[i] = expressionViews[i].getExpression();
+      header.writeUTF(expressionViews[i].getDisplayName());
+      header.writeBoolean(m_expressions[i].isDouble());
+    }
+
+    header.close();
+
+    m_recordSize = FIXED_RECORD_SIZE + 8 * m_expressions.length;
+
+    m_channel = new FileOutputStream(file).getChannel();
+
+    final ByteBuffer headerBuffer = ByteBuffer.wrap(headerBytes.toByteArray());
+
+    try {
+      while (headerBuffer.hasRemaining()) {
+        m_channel.write(headerBuffer);
+      }
+    }
+    catch (IOException e) {
+      m_channel.close();
+      throw e;
+    }
+
+    for (int i = 0; i < NUMBER_OF_BUFFERS - 1; ++i) {
+      m_freeBuffers.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+    }
+
+    m_currentBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    m_writerThread = new Thread(new Writer(), "binary data log writer");
+    m_writerThread.setDaemon(true);
+    m_writerThread.start();
+  }
+
+  /**
+   * Create a writer for a worker thread. The result should only be used by
+   * that thread.
+   *
+   * @param threadNumber The worker thread number.
+   * @return The thread writer.
+   */
+  ThreadWriter createThreadWriter(int threadNumber) {
+    final ThreadWriter result = new ThreadWriter(threadNumber);
+    m_threadWriters.add(result);
+    return result;
+  }
+
+  /**
+   * Write out any buffered records, stop the background thread, and close
+   * the file. Records reported after this is called are discarded.
+   */
+  void close() {
+    for (ThreadWriter threadWriter : m_threadWriters) {
+      threadWriter.flush(true);
+    }
+
+    m_lock.lock();
+
+    try {
+      if (m_closed) {
+        return;
+      }
+
+      m_closed = true;
+
+      if (m_currentBuffer.position() > 0) {
+        m_fullBuffers.add(m_currentBuffer);
+      }
+
+      m_currentBuffer = null;
+      m_fullBuffers.add(END);
+    }
+    finally {
+      m_lock.unlock();
+    }
+
+    try {
+      m_writerThread.join();
+    }
+    catch (InterruptedException e) {
+      throw new UncheckedInterruptedException(e);
+    }
+  }
+
+  /**
+   * Copy records to the current buffer.
+   *
+   * @param records The records.
+   * @param wait If {@code true}, wait for the lock and for a free buffer if
+   *  the current buffer is full. Otherwise, give up if either would block.
+   *  The background thread must not wait, since it frees the buffers.
+   * @return {@code true} if the records were consumed, {@code false} if
+   *  they were not.
+   */
+  private boolean append(ByteBuffer records, boolean wait) {
+    boolean interrupted = false;
+
+    if (wait) {
+      m_lock.lock();
+    }
+    else if (!m_lock.tryLock()) {
+      return false;
+    }
+
+    try {
+      if (m_closed) {
+        return true;
+      }
+
+      if (m_currentBuffer.remaining() < records.remaining()) {
+        if (!wait) {
+          final ByteBuffer free = m_freeBuffers.poll();
+
+          if (free == null) {
+            return false;
+          }
+
+          m_fullBuffers.add(m_currentBuffer);
+          m_currentBuffer = free;
+        }
+        else {
+          m_fullBuffers.add(m_currentBuffer);
+
+          // Worker threads are interrupted at shut down. We mustn't lose
+          // the records, so wait regardless.
+          while (true) {
+            try {
+              m_currentBuffer = m_freeBuffers.take();
+              break;
+            }
+            catch (InterruptedException e) {
+              interrupted = true;
+            }
+          }
+        }
+      }
+
+      m_currentBuffer.put(records);
+      return true;
+    }
+    finally {
+      m_lock.unlock();
+
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Swap out the current buffer if it has records and there is a free
+   * buffer to replace it.
+   *
+   * @return The swapped out buffer, or {@code null}.
+   */
+  private ByteBuffer swapPartialBuffer() {
+    m_lock.lock();
+
+    try {
+      if (m_closed || m_currentBuffer.position() == 0) {
+        return null;
+      }
+
+      final ByteBuffer replacement = m_freeBuffers.poll();
+
+      if (replacement == null) {
+        // Everything else is waiting to be written.
+        return null;
+      }
+
+      final ByteBuffer result = m_currentBuffer;
+      m_currentBuffer = replacement;
+      return result;
+    }
+    finally {
+      m_lock.unlock();
+    }
+  }
+
+  /**
+   * Per-thread writer.
+   *
+   * <p>The lock allows the background thread to collect the records. Only
+   * the background thread and {@link BinaryDataLogWriter#close} compete
+   * with the worker thread for it.</p>
+   */
+  final class ThreadWriter {
+    private final int m_threadNumber;
+    private final Lock m_recordsLock = new ReentrantLock();
+
+    // Guarded by m_recordsLock.
+    private final ByteBuffer m_records =
+      ByteBuffer.allocate(
+        Math.max(THREAD_BUFFER_SIZE / m_recordSize, 1) * m_recordSize);
+
+    private ThreadWriter(int threadNumber) {
+      m_threadNumber = threadNumber;
+    }
+
+    /**
+     * Record the result of a test.
+     *
+     * @param runNumber The run number.
+     * @param test The test.
+     * @param timeSinceExecutionStart The start time of the test.
+     * @param statistics The test statistics.
+     */
+    public void report(int runNumber,
+                       Test test,
+                       long timeSinceExecutionStart,
+                       StatisticsSet statistics) {
+      m_recordsLock.lock();
+
+      try {
+        if (m_records.remaining() < m_recordSize) {
+          appendRecords(true);
+        }
+
+        m_records.putInt(m_threadNumber);
+        m_records.putInt(runNumber);
+        m_records.putInt(test.getNumber());
+        m_records.putLong(timeSinceExecutionStart);
+
+        for (StatisticExpression expression : m_expressions) {
+          if (expression.isDouble()) {
+            m_records.putDouble(expression.getDoubleValue(statistics));
+          }
+          else {
+            m_records.putLong(expression.getLongValue(statistics));
+          }
+        }
+      }
+      finally {
+        m_recordsLock.unlock();
+      }
+    }
+
+    /**
+     * Copy the records reported so far to the current buffer.
+     *
+     * @param wait If {@code true}, wait for the worker thread and for a free
+     *  buffer. Otherwise, give up if either would block. The background
+     *  thread must not wait, since the worker thread may be waiting for it.
+     */
+    private void flush(boolean wait) {
+      if (wait) {
+        m_recordsLock.lock();
+      }
+      else if (!m_recordsLock.tryLock()) {
+        return;
+      }
+
+      try {
+        appendRecords(wait);
+      }
+      finally {
+        m_recordsLock.unlock();
+      }
+    }
+
+    private void appendRecords(boolean wait) {
+      if (m_records.position() == 0) {
+        return;
+      }
+
+      m_records.flip();
+
+      if (append(m_records, wait)) {
+        m_records.clear();
+      }
+      else {
+        // Keep the records for next time.
+        m_records.position(m_records.limit());
+        m_records.limit(m_records.capacity());
+      }
+    }
+  }
+
+  private final class Writer implements Runnable {
+    private boolean m_failed;
+
+    public void run() {
+      try {
+        while (true) {
+          ByteBuffer buffer =
+            m_fullBuffers.poll(FLUSH_INTERVAL_MILLISECONDS,
+                               TimeUnit.MILLISECONDS);
+
+          if (buffer == null) {
+            for (ThreadWriter threadWriter : m_threadWriters) {
+              threadWriter.flush(false);
+            }
+
+            buffer = swapPartialBuffer();
+
+            if (buffer == null) {
+              continue;
+            }
+          }
+
+          if (buffer == END) {
+            break;
+          }
+
+          write(buffer);
+
+          buffer.clear();
+          m_freeBuffers.add(buffer);
+        }
+      }
+      catch (InterruptedException e) {
+        m_logger.error("Binary data log writer interrupted", e);
+      }
+      finally {
+        try {
+          m_channel.close();
+        }
+        catch (IOException e) {
+          m_logger.error("Failed to close binary data log", e);
+        }
+      }
+    }
+
+    private void write(ByteBuffer buffer) {
+      if (m_failed) {
+        // Keep recycling buffers so worker threads don't block.
+        return;
+      }
+
+      buffer.flip();
+
+      try {
+        while (buffer.hasRemaining()) {
+          m_channel.write(buffer);
+        }
+      }
+      catch (IOException e) {
+        m_failed = true;
+        m_logger.error("Failed to write binary data log, " +
+                       "discarding further records", e);
+      }
+    }
+  }
+}
@@ -29,31 +29,42 @@ import net.grinder.statistics.StatisticsSet;
  * The data logger provides this additional information for use by custom
  * appender configurations in the first SLF4J argument.
  *
+ * <p>To avoid allocation, each worker thread reuses a single instance for
+ * all of its data log events. The values are only valid for the duration of
+ * the logging call; appenders that process events asynchronously must copy
+ * the values they need.</p>
+ *
  * @author Philip Aston
  */
 public final class DataLogArguments {
 
   private final int m_threadNumber;
-  private final int m_runNumber;
-  private final Test m_test;
-  private final long m_timeSinceExecutionStart;
-  private final StatisticsSet m_statistics;
+  private int m_runNumber;
+  private Test m_test;
+  private long m_timeSinceExecutionStart;
+  private StatisticsSet m_statistics;
 
   /**
    * Constructor.
    *
    * @param threadNumber Worker thread number.
+   */
+  DataLogArguments(int threadNumber) {
+    m_threadNumber = threadNumber;
+  }
+
+  /**
+   * Update the arguments for a new data log event.
+   *
    * @param runNumber Run number.
    * @param test The test.
-   * @param statistics
-   * @param timeSinceExecutionStart
+   * @param timeSinceExecutionStart Time since the worker process started.
+   * @param statistics The statistics for the test execution.
    */
-  DataLogArguments(int threadNumber,
-                   int runNumber,
-                   Test test,
-                   long timeSinceExecutionStart,
-                   StatisticsSet statistics) {
-    m_threadNumber = threadNumber;
+  void set(int runNumber,
+           Test test,
+           long timeSinceExecutionStart,
+           StatisticsSet statistics) {
     m_runNumber = runNumber;
     m_test = test;
     m_timeSinceExecutionStart = timeSinceExecutionStart;
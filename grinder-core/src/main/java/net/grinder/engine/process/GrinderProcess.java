@@ -24,6 +24,8 @@
 
 package net.grinder.engine.process;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.UnknownHostException;
@@ -34,6 +36,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
 
 import net.grinder.common.GrinderBuild;
 import net.grinder.common.GrinderException;
@@ -46,16 +49,21 @@ import net.grinder.common.processidentity.WorkerIdentity;
 import net.grinder.communication.ClientSender;
 import net.grinder.communication.CommunicationException;
 import net.grinder.communication.ConnectionType;
+import net.grinder.communication.LatencyStatistics;
 import net.grinder.communication.Message;
 import net.grinder.communication.MessageDispatchSender;
 import net.grinder.communication.MessagePump;
+import net.grinder.communication.QueueOverflowPolicy;
+import net.grinder.communication.QueueStatistics;
 import net.grinder.communication.QueuedSender;
 import net.grinder.communication.QueuedSenderDecorator;
 import net.grinder.communication.Receiver;
 import net.grinder.engine.common.ConnectorFactory;
 import net.grinder.engine.common.EngineException;
+import net.grinder.engine.common.ScriptLocation;
 import net.grinder.engine.communication.ConsoleListener;
 import net.grinder.engine.messages.InitialiseGrinderMessage;
+import net.grinder.engine.messages.PrepareWorkerMessage;
 import net.grinder.engine.process.dcr.DCRContextImplementation;
 import net.grinder.messages.console.RegisterTestsMessage;
 import net.grinder.messages.console.ReportStatisticsMessage;
@@ -111,9 +119,19 @@ final class GrinderProcess {
   private final Logger m_logger;
   private final Logger m_dataLogger;
   private final boolean m_reportTimesToConsole;
+  private final TimeUnit m_timeUnit;
+  private final File m_binaryDataLogFile;
+  private final ArrivalSchedule m_arrivalSchedule;
+  private final WorkerThreadFactory m_workerThreadFactory;
   private final QueuedSender m_consoleSender;
+  private final QueuedSenderDecorator m_consoleQueue;
+
+  /** The queue latency at the last report to the console. */
+  private volatile LatencyStatistics m_lastConsoleQueueLatency =
+    new LatencyStatistics(0, 0, 0);
   private final Sleeper m_sleeper;
   private final InitialiseGrinderMessage m_initialisationMessage;
+  private final PreparedScriptEngines m_preparedScriptEngines;
   private final ConsoleListener m_consoleListener;
   private final StatisticsServices m_statisticsServices;
   private final TestStatisticsMap m_accumulatedStatistics;
@@ -136,6 +154,9 @@ final class GrinderProcess {
   // Guarded by m_eventSynchronisation.
   private ThreadStarter m_threadStarter = m_invalidThreadStarter;
 
+  // Set before the worker threads are started.
+  private BinaryDataLogWriter m_binaryDataLogWriter;
+
   private boolean m_shutdownTriggered;
   private boolean m_communicationShutdown;
 
@@ -150,8 +171,21 @@ final class GrinderProcess {
   public GrinderProcess(Receiver agentReceiver)
     throws GrinderException {
 
-    m_initialisationMessage =
-      (InitialiseGrinderMessage)agentReceiver.waitForMessage();
+    final Message firstMessage = agentReceiver.waitForMessage();
+
+    if (firstMessage instanceof PrepareWorkerMessage) {
+      // We've been started ahead of time. Do the work that doesn't depend
+      // on our identity while we wait to be put to use.
+      m_preparedScriptEngines =
+        PreparedScriptEngines.prepare((PrepareWorkerMessage)firstMessage);
+
+      m_initialisationMessage =
+        (InitialiseGrinderMessage)agentReceiver.waitForMessage();
+    }
+    else {
+      m_preparedScriptEngines = null;
+      m_initialisationMessage = (InitialiseGrinderMessage)firstMessage;
+    }
 
     if (m_initialisationMessage == null) {
       throw new EngineException("No control stream from agent");
@@ -172,6 +206,11 @@ final class GrinderProcess {
     m_reportTimesToConsole =
       properties.getBoolean("grinder.reportTimesToConsole", true);
 
+    m_timeUnit = parseTimeUnit(properties);
+
+    m_binaryDataLogFile =
+      parseBinaryDataLogFile(properties, logDirectory, workerName);
+
     configureLogging(workerName, logDirectory);
 
     m_logger = LoggerFactory.getLogger("worker." + workerName);
@@ -187,17 +226,22 @@ final class GrinderProcess {
     final BarrierGroups barrierGroups;
 
     if (m_initialisationMessage.getReportToConsole()) {
-      m_consoleSender =
+      m_consoleQueue =
         new QueuedSenderDecorator(
           ClientSender.connect(
             new ConnectorFactory(ConnectionType.WORKER).create(properties),
-            new WorkerAddress(workerIdentity)));
+            new WorkerAddress(workerIdentity)),
+          properties.getInt("grinder.reportToConsole.batchSize", 64),
+          properties.getInt("grinder.reportToConsole.queueCapacity", 0),
+          parseQueueOverflowPolicy(properties));
+      m_consoleSender = m_consoleQueue;
 
       barrierGroups =
         new ClientBarrierGroups(m_consoleSender,
                                 messageDispatcher);
     }
     else {
+      m_consoleQueue = null;
       m_consoleSender = new NullQueuedSender();
       barrierGroups = new LocalBarrierGroups();
     }
@@ -220,6 +264,12 @@ final class GrinderProcess {
     };
 
     m_statisticsServices = StatisticsServicesImplementation.getInstance();
+    m_statisticsServices.setTimeUnit(m_timeUnit);
+
+    if (m_timeUnit != TimeUnit.MILLISECONDS) {
+      m_logger.info("test times are recorded in {}",
+                    m_timeUnit.toString().toLowerCase());
+    }
 
     m_accumulatedStatistics =
       new TestStatisticsMap(m_statisticsServices.getStatisticsSetFactory());
@@ -232,7 +282,8 @@ final class GrinderProcess {
                        m_threadContexts,
                        m_statisticsServices.getStatisticsSetFactory(),
                        m_testStatisticsHelper,
-                       m_times.getTimeAuthority());
+                       m_times.getTimeAuthority(),
+                       m_timeUnit);
 
     final Logger externalLogger =
       new ExternalLogger(m_logger, m_threadContexts);
@@ -248,6 +299,28 @@ final class GrinderProcess {
                                          m_statisticsServices,
                                          m_consoleSender);
 
+    final double arrivalRate = properties.getDouble("grinder.arrivalRate", 0);
+
+    if (arrivalRate > 0) {
+      m_arrivalSchedule =
+        new ArrivalSchedule(m_times.getTimeAuthority(), arrivalRate);
+
+      m_logger.info("runs will be started at {} per second", arrivalRate);
+
+      scriptStatistics.registerSummaryExpression("Late Starts", "lateStarts");
+    }
+    else {
+      m_arrivalSchedule = null;
+    }
+
+    m_workerThreadFactory =
+      new WorkerThreadFactory(
+        properties.getBoolean("grinder.virtualThreads", false));
+
+    if (m_workerThreadFactory.isVirtual()) {
+      m_logger.info("worker threads are virtual threads");
+    }
+
     final ThreadStopper threadStopper = new ThreadStopper() {
       public boolean stopThread(int threadNumber) {
         return m_threadContexts.shutdown(threadNumber);
@@ -298,6 +371,63 @@ final class GrinderProcess {
     m_messagePump = new MessagePump(agentReceiver, messageDispatcher, 1);
   }
 
+  private static TimeUnit parseTimeUnit(GrinderProperties properties)
+    throws EngineException {
+
+    final String value =
+      properties.getProperty("grinder.timeUnit", "milliseconds").trim();
+
+    for (TimeUnit timeUnit : new TimeUnit[] { TimeUnit.MILLISECONDS,
+                                              TimeUnit.MICROSECONDS,
+                                              TimeUnit.NANOSECONDS, }) {
+      if (timeUnit.toString().equalsIgnoreCase(value)) {
+        return timeUnit;
+      }
+    }
+
+    throw new EngineException(
+      "Invalid value for grinder.timeUnit: '" + value + "'. Expected " +
+      "'milliseconds', 'microseconds', or 'nanoseconds'.");
+  }
+
+  private static QueueOverflowPolicy parseQueueOverflowPolicy(
+    GrinderProperties properties) throws EngineException {
+
+    final String value =
+      properties.getProperty("grinder.reportToConsole.queuePolicy", "block")
+      .trim();
+
+    for (QueueOverflowPolicy policy : QueueOverflowPolicy.values()) {
+      if (policy.name().replace('_', '-').equalsIgnoreCase(value)) {
+        return policy;
+      }
+    }
+
+    throw new EngineException(
+      "Invalid value for grinder.reportToConsole.queuePolicy: '" + value +
+      "'. Expected 'block', 'coalesce', or 'drop-oldest'.");
+  }
+
+  private static File parseBinaryDataLogFile(GrinderProperties properties,
+                                             String logDirectory,
+                                             String workerName)
+    throws EngineException {
+
+    final String value =
+      properties.getProperty("grinder.dataLogFormat", "text").trim();
+
+    if ("text".equalsIgnoreCase(value)) {
+      return null;
+    }
+    else if ("binary".equalsIgnoreCase(value)) {
+      return new File(logDirectory, workerName + "-data.bin");
+    }
+
+    throw new EngineException(
+      "Invalid value for grinder.dataLogFormat: '" + value + "'. Expected " +
+      "'text' or 'binary'.");
+  }
+
   private static void configureLogging(String workerName, String logDirectory)
     throws EngineException {
 
@@ -336,11 +466,17 @@ final class GrinderProcess {
     final GrinderProperties properties =
       m_initialisationMessage.getProperties();
 
+    final boolean prepared =
+      m_preparedScriptEngines != null &&
+      m_preparedScriptEngines.matches(m_initialisationMessage);
+
     final ScriptEngineContainer scriptEngineContainer =
-      new ScriptEngineContainer(properties,
-                                m_logger,
-                                DCRContextImplementation.create(m_logger),
-                                m_initialisationMessage.getScript());
+      prepared ?
+        m_preparedScriptEngines.getContainer(m_logger) :
+        new ScriptEngineContainer(properties,
+                                  m_logger,
+                                  DCRContextImplementation.create(m_logger),
+                                  m_initialisationMessage.getScript());
 
     final WorkerIdentity workerIdentity =
       m_initialisationMessage.getWorkerIdentity();
@@ -358,14 +494,19 @@ final class GrinderProcess {
 
     m_logger.info(numbers.toString());
 
-    final short numberOfThreads =
-      properties.getShort("grinder.threads", (short)1);
+    if (prepared) {
+      m_logger.info("using script engines prepared before the run");
+    }
+
+    final int numberOfThreads = properties.getInt("grinder.threads", 1);
     final int reportToConsoleInterval =
       properties.getInt("grinder.reportToConsole.interval", 500);
     final int duration = properties.getInt("grinder.duration", 0);
 
     final Instrumenter instrumenter =
-      scriptEngineContainer.createInstrumenter();
+      prepared ?
+        m_preparedScriptEngines.getInstrumenter() :
+        scriptEngineContainer.createInstrumenter();
 
     m_testRegistryImplementation.setInstrumenter(instrumenter);
 
@@ -402,10 +543,25 @@ final class GrinderProcess {
       dataLogHeader.append(detailExpressionViews[i].getDisplayName());
     }
 
-    m_dataLogger.info(dataLogHeader.toString());
+    if (m_binaryDataLogFile != null) {
+      try {
+        m_binaryDataLogWriter =
+          new BinaryDataLogWriter(m_binaryDataLogFile,
+                                  detailExpressionViews,
+                                  m_logger);
+      }
+      catch (IOException e) {
+        throw new EngineException("Failed to create binary data log", e);
+      }
+
+      m_logger.info("writing binary data log to {}", m_binaryDataLogFile);
+    }
+    else {
+      m_dataLogger.info(dataLogHeader.toString());
+    }
 
     sendStatusMessage(ProcessReport.State.STARTED,
-                      (short)0,
+                      0,
                       numberOfThreads);
 
     final ThreadSynchronisation threadSynchronisation =
@@ -504,17 +660,26 @@ final class GrinderProcess {
 
     scriptEngine.shutdown();
 
+    if (m_binaryDataLogWriter != null) {
+      m_binaryDataLogWriter.close();
+    }
+
     // Final report to the console.
     reportTimerTask.run();
 
     if (!m_communicationShutdown) {
       sendStatusMessage(ProcessReport.State.FINISHED,
-                        (short)0,
-                        (short)0);
+                        0,
+                        0);
     }
 
     m_consoleSender.shutdown();
 
+    if (m_consoleQueue != null) {
+      m_logger.info("console message queue: {}",
+                    m_consoleQueue.getQueueStatistics());
+    }
+
     final long elapsedTime = m_times.getElapsedTime();
     m_logger.info("elapsed time is {} ms", elapsedTime);
 
@@ -560,7 +725,7 @@ final class GrinderProcess {
       if (!m_communicationShutdown) {
         try {
           final TestStatisticsMap sample =
-            m_testRegistryImplementation.getTestStatisticsMap().reset();
+            m_testRegistryImplementation.resetTestStatistics();
           m_accumulatedStatistics.add(sample);
 
           // We look up the new tests after we've taken the sample to
@@ -577,7 +742,8 @@ final class GrinderProcess {
               m_testStatisticsHelper.removeTestTimeFromSample(sample);
             }
 
-            m_consoleSender.send(new ReportStatisticsMessage(sample));
+            m_consoleSender.send(new ReportStatisticsMessage(sample,
+                                                             m_timeUnit));
           }
 
           sendStatusMessage(ProcessReport.State.RUNNING,
@@ -594,14 +760,37 @@ final class GrinderProcess {
   }
 
   private void sendStatusMessage(State finished,
-                                 short numberOfThreads,
-                                 short totalNumberOfThreads)
+                                 int numberOfThreads,
+                                 int totalNumberOfThreads)
     throws CommunicationException {
 
+    final int queueDepth;
+    final long queueLatency;
+
+    if (m_consoleQueue != null) {
+      // Report the queue latency since the last report, so the console sees
+      // the queue backing up while the run is going.
+      final QueueStatistics queueStatistics =
+        m_consoleQueue.getQueueStatistics();
+      final LatencyStatistics latency = queueStatistics.getLatency();
+
+      queueDepth = queueStatistics.getDepth();
+      queueLatency =
+        Math.round(latency.since(m_lastConsoleQueueLatency)
+                   .getMean(TimeUnit.MILLISECONDS));
+      m_lastConsoleQueueLatency = latency;
+    }
+    else {
+      queueDepth = 0;
+      queueLatency = 0;
+    }
+
     m_consoleSender.send(new WorkerProcessReportMessage(
                            finished,
                            numberOfThreads,
-                           totalNumberOfThreads));
+                           totalNumberOfThreads,
+                           queueDepth,
+                           queueLatency));
 
     m_consoleSender.flush();
   }
@@ -626,9 +815,9 @@ final class GrinderProcess {
     private final BooleanCondition m_started = new BooleanCondition();
     private final Condition m_threadEventCondition;
 
-    private short m_numberCreated = 0;
-    private short m_numberAwaitingStart = 0;
-    private short m_numberFinished = 0;
+    private int m_numberCreated = 0;
+    private int m_numberAwaitingStart = 0;
+    private int m_numberFinished = 0;
 
     ThreadSynchronisation(Condition condition) {
       m_threadEventCondition = condition;
@@ -638,9 +827,9 @@ final class GrinderProcess {
      * The number of worker threads that have been created but not run to
      * completion.
      */
-    public short getNumberOfRunningThreads() {
+    public int getNumberOfRunningThreads() {
       synchronized (m_threadEventCondition) {
-        return (short)(m_numberCreated - m_numberFinished);
+        return m_numberCreated - m_numberFinished;
       }
     }
 
@@ -657,7 +846,7 @@ final class GrinderProcess {
     /**
      * The number of worker threads that have been created.
      */
-    public short getTotalNumberOfThreads() {
+    public int getTotalNumberOfThreads() {
       synchronized (m_threadEventCondition) {
         return m_numberCreated;
       }
@@ -756,7 +945,8 @@ final class GrinderProcess {
           m_initialisationMessage.getProperties(),
           m_statisticsServices,
           threadNumber,
-          m_dataLogger);
+          m_dataLogger,
+          m_binaryDataLogWriter);
 
 
       final WorkerRunnableFactory workerRunnableFactory;
@@ -780,11 +970,10 @@ final class GrinderProcess {
                             m_threadLifeCycleCallbacks,
                             m_initialisationMessage.getProperties(),
                             m_sleeper,
-                            workerRunnableFactory);
+                            workerRunnableFactory,
+                            m_arrivalSchedule);
 
-      final Thread t = new Thread(runnable, "thread " + threadNumber);
-      t.setDaemon(true);
-      t.start();
+      m_workerThreadFactory.create(runnable, "thread " + threadNumber).start();
 
       return threadNumber;
     }
@@ -938,4 +1127,85 @@ final class GrinderProcess {
 
     public void shutdown() { }
   }
+
+  /**
+   * Script engines set up by a worker process that was started before it
+   * was needed.
+   */
+  private static final class PreparedScriptEngines {
+    private final ScriptLocation m_script;
+    private final GrinderProperties m_properties;
+    private final RebindableLogger m_logger;
+    private final ScriptEngineContainer m_container;
+    private final Instrumenter m_instrumenter;
+
+    /**
+     * Set up the script engines for a prepare message.
+     *
+     * @param message The message.
+     * @return The prepared script engines, or {@code null} if they could
+     *  not be set up. The failure is logged, and the work is repeated by
+     *  {@link #run()}, which reports any problem properly.
+     */
+    public static PreparedScriptEngines prepare(PrepareWorkerMessage message) {
+      // Logging is not yet configured for the worker. The script engines
+      // keep the logger they are given, so give them one that can be
+      // pointed at the worker logger when the run starts.
+      final RebindableLogger logger =
+        new RebindableLogger(LoggerFactory.getLogger(GrinderProcess.class));
+
+      try {
+        final ScriptEngineContainer container =
+          new ScriptEngineContainer(message.getProperties(),
+                                    logger,
+                                    DCRContextImplementation.create(logger),
+                                    message.getScript());
+
+        return new PreparedScriptEngines(message.getScript(),
+                                         message.getProperties(),
+                                         logger,
+                                         container,
+                                         container.createInstrumenter());
+      }
+      catch (EngineException e) {
+        logger.warn("Failed to prepare script engines, they will be set up " +
+                    "when the worker process is started",
+                    e);
+        return null;
+      }
+    }
+
+    private PreparedScriptEngines(ScriptLocation script,
+                                  GrinderProperties properties,
+                                  RebindableLogger logger,
+                                  ScriptEngineContainer container,
+                                  Instrumenter instrumenter) {
+      m_script = script;
+      m_properties = properties;
+      m_logger = logger;
+      m_container = container;
+      m_instrumenter = instrumenter;
+    }
+
+    public boolean matches(InitialiseGrinderMessage message) {
+      return m_script.equals(message.getScript()) &&
+             m_properties.equals(message.getProperties());
+    }
+
+    /**
+     * Return the container, having directed its logging to the worker
+     * logger.
+     *
+     * @param logger The worker logger.
+     * @return The container.
+     */
+    public ScriptEngineContainer getContainer(Logger logger) {
+      m_logger.setDelegate(logger);
+      return m_container;
+    }
+
+    public Instrumenter getInstrumenter() {
+      return m_instrumenter;
+    }
+  }
 }
@@ -46,9 +46,14 @@ class GrinderThread implements Runnable {
   private final Sleeper m_sleeper;
   private final ThreadContext m_context;
   private final WorkerRunnableFactory m_workerRunnableFactory;
+  private final ArrivalSchedule m_arrivalSchedule;
 
   /**
    * The constructor.
+   *
+   * @param arrivalSchedule
+   *          If not {@code null}, runs are started according to the schedule
+   *          rather than as soon as the previous run completes.
    */
   public GrinderThread(Logger logger,
                        ThreadContext context,
@@ -56,7 +61,8 @@ class GrinderThread implements Runnable {
                        ProcessLifeCycleListener processLifeCycle,
                        GrinderProperties properties,
                        Sleeper sleeper,
-                       WorkerRunnableFactory workerRunnableFactory)
+                       WorkerRunnableFactory workerRunnableFactory,
+                       ArrivalSchedule arrivalSchedule)
     throws EngineException {
 
     m_logger = logger;
@@ -66,6 +72,7 @@ class GrinderThread implements Runnable {
     m_properties = properties;
     m_sleeper = sleeper;
     m_workerRunnableFactory = workerRunnableFactory;
+    m_arrivalSchedule = arrivalSchedule;
 
     // Dispatch the process context callback in the main thread.
     m_processLifeCycle.threadCreated(m_context);
@@ -110,6 +117,24 @@ class GrinderThread implements Runnable {
            numberOfRuns == 0 || currentRun < numberOfRuns;
            currentRun++) {
 
+        if (m_arrivalSchedule != null) {
+          final long intendedStartTime = m_arrivalSchedule.nextArrival();
+
+          try {
+            m_sleeper.sleepUntil(intendedStartTime);
+          }
+          catch (Sleeper.ShutdownException e) {
+            m_logger.info(m_context.getLogMarker(), "shut down");
+            break;
+          }
+
+          final long actualStartTime = m_sleeper.getTimeInNanoseconds();
+
+          m_context.setStartCorrection(
+            Math.max(0, actualStartTime - intendedStartTime),
+            m_arrivalSchedule.isLate(intendedStartTime, actualStartTime));
+        }
+
         m_context.setCurrentRunNumber(currentRun);
 
         m_context.fireBeginRunEvent();
@@ -0,0 +1,268 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.process;
+
+import org.slf4j.Logger;
+import org.slf4j.helpers.MarkerIgnoringBase;
+
+
+/**
+ * {@link Logger} that delegates to another {@code Logger}, which can be
+ * changed. Used for components that are created before logging is
+ * configured for the worker process.
+ *
+ * @author Philip Aston
+ */
+final class RebindableLogger extends MarkerIgnoringBase {
+
+  private volatile Logger m_delegate;
+
+  public RebindableLogger(Logger delegate) {
+    m_delegate = delegate;
+  }
+
+  /**
+   * Change the {@code Logger} to which calls are delegated.
+   *
+   * @param delegate The new delegate.
+   */
+  public void setDelegate(Logger delegate) {
+    m_delegate = delegate;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public String getName() {
+    return m_delegate.getName();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public boolean isTraceEnabled() {
+    return m_delegate.isTraceEnabled();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void trace(String msg) {
+    m_delegate.trace(msg);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void trace(String format, Object arg) {
+    m_delegate.trace(format, arg);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void trace(String format, Object arg1, Object arg2) {
+    m_delegate.trace(format, arg1, arg2);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void trace(String format, Object[] argArray) {
+    m_delegate.trace(format, argArray);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void trace(String msg, Throwable t) {
+    m_delegate.trace(msg, t);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public boolean isDebugEnabled() {
+    return m_delegate.isDebugEnabled();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void debug(String msg) {
+    m_delegate.debug(msg);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void debug(String format, Object arg) {
+    m_delegate.debug(format, arg);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void debug(String format, Object arg1, Object arg2) {
+    m_delegate.debug(format, arg1, arg2);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void debug(String format, Object[] argArray) {
+    m_delegate.debug(format, argArray);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void debug(String msg, Throwable t) {
+    m_delegate.debug(msg, t);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public boolean isInfoEnabled() {
+    return m_delegate.isInfoEnabled();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void info(String msg) {
+    m_delegate.info(msg);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void info(String format, Object arg) {
+    m_delegate.info(format, arg);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void info(String format, Object arg1, Object arg2) {
+    m_delegate.info(format, arg1, arg2);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void info(String format, Object[] argArray) {
+    m_delegate.info(format, argArray);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void info(String msg, Throwable t) {
+    m_delegate.info(msg, t);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public boolean isWarnEnabled() {
+    return m_delegate.isWarnEnabled();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void warn(String msg) {
+    m_delegate.warn(msg);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void warn(String format, Object arg) {
+    m_delegate.warn(format, arg);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void warn(String format, Object arg1, Object arg2) {
+    m_delegate.warn(format, arg1, arg2);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void warn(String format, Object[] argArray) {
+    m_delegate.warn(format, argArray);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void warn(String msg, Throwable t) {
+    m_delegate.warn(msg, t);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public boolean isErrorEnabled() {
+    return m_delegate.isErrorEnabled();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void error(String msg) {
+    m_delegate.error(msg);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void error(String format, Object arg) {
+    m_delegate.error(format, arg);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void error(String format, Object arg1, Object arg2) {
+    m_delegate.error(format, arg1, arg2);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void error(String format, Object[] argArray) {
+    m_delegate.error(format, argArray);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void error(String msg, Throwable t) {
+    m_delegate.error(msg, t);
+  }
+}
@@ -38,6 +38,13 @@ import net.grinder.statistics.StatisticsIndexMap.LongIndex;
  * statistics set, until freeze is called after which it is a wrapper around
  * a read-only statistics set.
  *
+ * <p>Each worker thread reuses a single instance for each test, so that
+ * dispatching a test does not allocate. {@link #reset} makes the instance
+ * mutable again, ready for the next dispatch. An instance that has been
+ * handed to the script as the statistics for the last test is never
+ * reused, since the script might hold on to it; see
+ * {@link #setHeldByScript}.</p>
+ *
  * @author Philip Aston
  */
 final class StatisticsForTestImplementation implements StatisticsForTest {
@@ -45,17 +52,14 @@ final class StatisticsForTestImplementation implements StatisticsForTest {
   private final TestStatisticsHelper m_testStatisticsHelper;
   private final Test m_test;
 
-  /* Class invariant:
-   *    if  m_dispatchContext != null:
-   *        m_mutableStatistics != null
-   *        m_immutableStatistics == m_mutableStatistics
-   *    else:
-   *        m_mutableStatistics == null
-   *        m_immutableStatistics != null
-   */
-  private final ImmutableStatisticsSet m_immutableStatistics;
-  private DispatchContext m_dispatchContext;
-  private StatisticsSet m_statistics;
+  private final DispatchContext m_dispatchContext;
+  private final StatisticsSet m_statistics;
+
+  // true => disassociated from the dispatch context, and read-only.
+  private boolean m_frozen;
+
+  // true => the script might have a reference, so we can't be reused.
+  private boolean m_heldByScript;
 
   public StatisticsForTestImplementation(
     DispatchContext dispatchContext,
@@ -66,17 +70,41 @@ final class StatisticsForTestImplementation implements StatisticsForTest {
     m_test = dispatchContext.getTest();
     m_dispatchContext = dispatchContext;
     m_statistics = statistics;
-    m_immutableStatistics = m_statistics;
   }
 
   public void freeze() {
     // Disassociate this object from the dispatcher.
-    m_dispatchContext = null;
-    m_statistics = null;
+    m_frozen = true;
+  }
+
+  /**
+   * Record that this object has been handed to the script.
+   */
+  public void setHeldByScript() {
+    m_heldByScript = true;
+  }
+
+  /**
+   * Whether this object can be {@link #reset} and reused.
+   *
+   * @return {@code true} if and only if the script has not been given this
+   * object.
+   */
+  public boolean isReusable() {
+    return !m_heldByScript;
+  }
+
+  /**
+   * Reset the statistics and reassociate this object with the dispatcher,
+   * ready for reuse.
+   */
+  public void reset() {
+    m_statistics.reset();
+    m_frozen = false;
   }
 
   private StatisticsSet getStatisticsChecked() throws InvalidContextException {
-    if (m_statistics == null) {
+    if (m_frozen) {
       throw new InvalidContextException(
         "Statistics for test invocation have been reported and cannot be " +
         "updated. Perhaps you should have called setDelayReports(true)?");
@@ -86,11 +114,11 @@ final class StatisticsForTestImplementation implements StatisticsForTest {
   }
 
   public StatisticsSet getStatistics() {
-    return m_statistics;
+    return m_frozen ? null : m_statistics;
   }
 
   private ImmutableStatisticsSet getImmutableStatistics() {
-    return m_immutableStatistics;
+    return m_statistics;
   }
 
   public Test getTest() {
@@ -140,7 +168,7 @@ final class StatisticsForTestImplementation implements StatisticsForTest {
   }
 
   public long getTime() {
-    if (m_dispatchContext != null) {
+    if (!m_frozen) {
       return m_dispatchContext.getElapsedTime();
     }
     else {
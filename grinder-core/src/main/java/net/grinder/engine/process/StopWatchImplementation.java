@@ -27,6 +27,10 @@ import net.grinder.util.TimeAuthority;
 /**
  * Implementation of {@link StopWatch}.
  *
+ * <p>
+ * Times are measured with {@link TimeAuthority#getTimeInNanoseconds()}.
+ * </p>
+ *
  * @author Philip Aston
  */
 final class StopWatchImplementation implements StopWatch {
@@ -45,7 +49,7 @@ final class StopWatchImplementation implements StopWatch {
       throw new StopWatchRunningException("Already running");
     }
 
-    m_startTime = m_timeAuthority.getTimeInMilliseconds();
+    m_startTime = m_timeAuthority.getTimeInNanoseconds();
   }
 
   public void stop() {
@@ -53,7 +57,7 @@ final class StopWatchImplementation implements StopWatch {
       throw new StopWatchNotRunningException("Not running");
     }
 
-    m_time = m_time + m_timeAuthority.getTimeInMilliseconds() - m_startTime;
+    m_time = m_time + m_timeAuthority.getTimeInNanoseconds() - m_startTime;
     m_startTime = -1;
   }
 
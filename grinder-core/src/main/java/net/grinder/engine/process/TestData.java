@@ -22,6 +22,8 @@
 
 package net.grinder.engine.process;
 
+import java.util.concurrent.TimeUnit;
+
 import net.grinder.common.Test;
 import net.grinder.common.UncheckedGrinderException;
 import net.grinder.engine.common.EngineException;
@@ -35,6 +37,7 @@ import net.grinder.scriptengine.Instrumenter;
 import net.grinder.scriptengine.Recorder;
 import net.grinder.statistics.StatisticsSet;
 import net.grinder.statistics.StatisticsSetFactory;
+import net.grinder.statistics.StripedStatisticsSet;
 import net.grinder.util.TimeAuthority;
 
 import org.slf4j.Marker;
@@ -54,6 +57,7 @@ final class TestData implements RegisteredTest, Recorder {
   private final StatisticsSetFactory m_statisticsSetFactory;
   private final TestStatisticsHelper m_testStatisticsHelper;
   private final TimeAuthority m_timeAuthority;
+  private final TimeUnit m_timeUnit;
   private final Instrumenter m_instrumenter;
   private final ThreadContextLocator m_threadContextLocator;
   private final Test m_test;
@@ -65,6 +69,13 @@ final class TestData implements RegisteredTest, Recorder {
    */
   private final StatisticsSet m_testStatistics;
 
+  /**
+   * Statistics recorded by worker threads that haven't yet been added to
+   * {@link #m_testStatistics}. Striped to avoid lock contention between
+   * worker threads.
+   */
+  private final StripedStatisticsSet m_threadStatistics;
+
   private final RecorderHolderThreadLocal m_recorderHolderTL =
     new RecorderHolderThreadLocal();
 
@@ -72,15 +83,18 @@ final class TestData implements RegisteredTest, Recorder {
            StatisticsSetFactory statisticsSetFactory,
            TestStatisticsHelper testStatisticsHelper,
            TimeAuthority timeAuthority,
+           TimeUnit timeUnit,
            Instrumenter instrumenter,
            Test testDefinition) {
     m_statisticsSetFactory = statisticsSetFactory;
     m_testStatisticsHelper = testStatisticsHelper;
     m_timeAuthority = timeAuthority;
+    m_timeUnit = timeUnit;
     m_instrumenter = instrumenter;
     m_threadContextLocator = threadContextLocator;
     m_test = testDefinition;
     m_testStatistics = m_statisticsSetFactory.create();
+    m_threadStatistics = m_statisticsSetFactory.createStriped();
 
     m_logMarker = MarkerFactory.getMarker("test-" + testDefinition.getNumber());
   }
@@ -97,6 +111,15 @@ final class TestData implements RegisteredTest, Recorder {
     return m_testStatistics;
   }
 
+  /**
+   * Add the statistics recorded by worker threads since the last call to
+   * {@link #getTestStatistics()}. Should be called before the test
+   * statistics are read.
+   */
+  void collectStatistics() {
+    m_threadStatistics.drainTo(m_testStatistics);
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -146,7 +169,8 @@ final class TestData implements RegisteredTest, Recorder {
         }
 
         final TestRecorder recorder =
-          new TestRecorder(threadContext.getDispatchResultReporter(),
+          new TestRecorder(threadContext,
+                           threadContext.getDispatchResultReporter(),
                            new StopWatchImplementation(m_timeAuthority));
 
         return new RecorderHolder(threadContext, recorder);
@@ -218,6 +242,9 @@ final class TestData implements RegisteredTest, Recorder {
    * time is valid. m_statisticsForTest is null.</li>
    * </ul>
    *
+   * The start time and dispatch time are held in nanoseconds, and converted
+   * to the configured time unit when the elapsed time is calculated.
+   *
    * {@link ThreadContextImplementation#getDispatchContext()} takes care to only
    * return references to Dispatchers that are <em>dispatching</em> or
    * <em>complete</em>.
@@ -225,18 +252,33 @@ final class TestData implements RegisteredTest, Recorder {
   private final class TestRecorder
     implements DispatchContext, Recorder {
 
+    private final ThreadContext m_threadContext;
     private final DispatchResultReporter m_resultReporter;
     private final StopWatch m_pauseTimer;
+    private final StatisticsSet m_threadStatisticsStripe;
+
+    // Reused for each dispatch to avoid allocation, until the script is
+    // given it.
+    private StatisticsForTestImplementation m_reusableStatisticsForTest;
 
     private long m_startTime = -1;
     private long m_dispatchTime = -1;
     private StatisticsForTestImplementation m_statisticsForTest;
 
-    public TestRecorder(DispatchResultReporter resultReporter,
-                           StopWatch pauseTimer) {
+    public TestRecorder(ThreadContext threadContext,
+                        DispatchResultReporter resultReporter,
+                        StopWatch pauseTimer) {
 
+      m_threadContext = threadContext;
       m_resultReporter = resultReporter;
       m_pauseTimer = pauseTimer;
+      m_threadStatisticsStripe = m_threadStatistics.getStripe();
+      m_reusableStatisticsForTest = createStatisticsForTest();
+    }
+
+    private StatisticsForTestImplementation createStatisticsForTest() {
+      return new StatisticsForTestImplementation(
+        this, m_testStatisticsHelper, m_statisticsSetFactory.create());
     }
 
     public void start() throws DispatchStateException {
@@ -246,20 +288,41 @@ final class TestData implements RegisteredTest, Recorder {
 
       m_pauseTimer.reset();
 
-      m_statisticsForTest = new StatisticsForTestImplementation(
-        this,
-        m_testStatisticsHelper,
-        m_statisticsSetFactory.create());
+      if (m_reusableStatisticsForTest.isReusable()) {
+        m_reusableStatisticsForTest.reset();
+      }
+      else {
+        // The script might still refer to the last one, which must stay
+        // frozen.
+        m_reusableStatisticsForTest = createStatisticsForTest();
+      }
+
+      m_statisticsForTest = m_reusableStatisticsForTest;
 
       // Make it more likely that the timed section has a "clear run".
       Thread.yield();
 
-      m_startTime = m_timeAuthority.getTimeInMilliseconds();
+      m_startTime = m_timeAuthority.getTimeInNanoseconds();
+
+      // If the run started later than its arrival schedule intended, the
+      // first test is charged with the lateness. This accounts for time
+      // spent waiting for a free worker thread, but not for any work the
+      // script did before dispatching the test.
+      final long startCorrection = m_threadContext.takeStartCorrection();
+
+      if (startCorrection > 0) {
+        m_startTime -= startCorrection;
+
+        if (m_threadContext.isLateStart()) {
+          m_testStatisticsHelper.recordLateStart(
+            m_statisticsForTest.getStatistics());
+        }
+      }
     }
 
     public void end(boolean success) {
       m_dispatchTime =
-        Math.max(m_timeAuthority.getTimeInMilliseconds() - m_startTime, 0);
+        Math.max(m_timeAuthority.getTimeInNanoseconds() - m_startTime, 0);
 
       if (m_pauseTimer.isRunning()) {
         m_pauseTimer.stop();
@@ -286,15 +349,17 @@ final class TestData implements RegisteredTest, Recorder {
 
       m_testStatisticsHelper.recordTest(statistics, getElapsedTime());
 
-      m_resultReporter.report(getTest(), m_startTime, statistics);
+      m_resultReporter.report(getTest(),
+                              TimeUnit.NANOSECONDS.toMillis(m_startTime),
+                              statistics);
 
       if (m_testStatisticsHelper.getSuccess(statistics)) {
-        getTestStatistics().add(statistics);
+        m_threadStatisticsStripe.add(statistics);
       }
       else {
         // If an error, we consider other information to be unreliable,
         // so do not aggregate it.
-        m_testStatisticsHelper.incrementErrors(getTestStatistics());
+        m_testStatisticsHelper.incrementErrors(m_threadStatisticsStripe);
       }
 
       // Disassociate ourselves from m_statisticsForTest;
@@ -325,13 +390,15 @@ final class TestData implements RegisteredTest, Recorder {
       final long unadjustedTime;
 
       if (m_dispatchTime == -1) {
-        unadjustedTime = m_timeAuthority.getTimeInMilliseconds() - m_startTime;
+        unadjustedTime = m_timeAuthority.getTimeInNanoseconds() - m_startTime;
       }
       else {
         unadjustedTime = m_dispatchTime;
       }
 
-      return Math.max(unadjustedTime - m_pauseTimer.getTime(), 0);
+      return m_timeUnit.convert(
+        Math.max(unadjustedTime - m_pauseTimer.getTime(), 0),
+        TimeUnit.NANOSECONDS);
     }
 
     public StatisticsForTest getStatisticsForTest() {
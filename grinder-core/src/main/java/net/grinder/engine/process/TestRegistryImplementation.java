@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 import net.grinder.common.Test;
 import net.grinder.script.TestRegistry;
@@ -45,6 +46,7 @@ final class TestRegistryImplementation implements TestRegistry {
   private final StatisticsSetFactory m_statisticsSetFactory;
   private final TestStatisticsHelper m_testStatisticsHelper;
   private final TimeAuthority m_timeAuthority;
+  private final TimeUnit m_timeUnit;
 
   /**
    * A map of Tests to Statistics for passing elsewhere.
@@ -72,11 +74,13 @@ final class TestRegistryImplementation implements TestRegistry {
   TestRegistryImplementation(ThreadContextLocator threadContextLocator,
                              StatisticsSetFactory statisticsSetFactory,
                              TestStatisticsHelper testStatisticsHelper,
-                             TimeAuthority timeAuthority) {
+                             TimeAuthority timeAuthority,
+                             TimeUnit timeUnit) {
     m_threadContextLocator = threadContextLocator;
     m_statisticsSetFactory = statisticsSetFactory;
     m_testStatisticsHelper = testStatisticsHelper;
     m_timeAuthority = timeAuthority;
+    m_timeUnit = timeUnit;
     m_testStatisticsMap = new TestStatisticsMap(m_statisticsSetFactory);
   }
 
@@ -107,6 +111,7 @@ final class TestRegistryImplementation implements TestRegistry {
                                  m_statisticsSetFactory,
                                  m_testStatisticsHelper,
                                  m_timeAuthority,
+                                 m_timeUnit,
                                  m_instrumenter,
                                  test);
 
@@ -134,6 +139,27 @@ final class TestRegistryImplementation implements TestRegistry {
     return m_testStatisticsMap;
   }
 
+  /**
+   * Collect the statistics recorded by the worker threads, then reset the
+   * test statistics map.
+   *
+   * @return A snapshot of the test statistics map before the reset.
+   * @see TestStatisticsMap#reset()
+   */
+  TestStatisticsMap resetTestStatistics() {
+    final Collection<TestData> testData;
+
+    synchronized (this) {
+      testData = new ArrayList<TestData>(m_testMap.values());
+    }
+
+    for (TestData t : testData) {
+      t.collectStatistics();
+    }
+
+    return m_testStatisticsMap.reset();
+  }
+
   /**
    * Return any tests registered since the last time
    * <code>getNewTests</code> was called.
@@ -47,4 +47,6 @@ interface TestStatisticsHelper {
   StatisticsIndexMap getStatisticsIndexMap();
 
   void incrementErrors(StatisticsSet testStatistics);
+
+  void recordLateStart(StatisticsSet statistics);
 }
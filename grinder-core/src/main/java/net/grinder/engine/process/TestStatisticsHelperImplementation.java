@@ -39,6 +39,7 @@ final class TestStatisticsHelperImplementation
   private final StatisticsIndexMap m_statisticsIndexMap;
   private final StatisticsIndexMap.LongIndex m_errorsIndex;
   private final StatisticsIndexMap.LongIndex m_untimedTestsIndex;
+  private final StatisticsIndexMap.LongIndex m_lateStartsIndex;
   private final StatisticsIndexMap.LongSampleIndex m_timedTestsIndex;
 
   public TestStatisticsHelperImplementation(StatisticsIndexMap indexMap) {
@@ -46,6 +47,7 @@ final class TestStatisticsHelperImplementation
     m_statisticsIndexMap = indexMap;
     m_errorsIndex = indexMap.getLongIndex("errors");
     m_untimedTestsIndex = indexMap.getLongIndex("untimedTests");
+    m_lateStartsIndex = indexMap.getLongIndex("lateStarts");
     m_timedTestsIndex = indexMap.getLongSampleIndex("timedTests");
   }
 
@@ -92,4 +94,8 @@ final class TestStatisticsHelperImplementation
   public void incrementErrors(StatisticsSet testStatistics) {
     testStatistics.addValue(m_errorsIndex, 1);
   }
+
+  public void recordLateStart(StatisticsSet statistics) {
+    statistics.addValue(m_lateStartsIndex, 1);
+  }
 }
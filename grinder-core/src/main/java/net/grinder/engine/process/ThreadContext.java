@@ -78,5 +78,33 @@ interface ThreadContext extends PluginThreadContext {
   void setCurrentRunNumber(int run);
 
   Marker getLogMarker();
+
+  /**
+   * Record how late the current run started with respect to its arrival
+   * schedule. The next test dispatched by the thread has this lateness
+   * added to its time, so that time spent waiting for a free worker thread
+   * is accounted for. Time the script spends before the first test is not
+   * charged.
+   *
+   * @param lateness How late the run started, in nanoseconds.
+   * @param late Whether the run started so late that it missed the
+   *        following arrival.
+   */
+  void setStartCorrection(long lateness, boolean late);
+
+  /**
+   * Return and clear the start correction.
+   *
+   * @return The start correction in nanoseconds, or 0 if there is none.
+   */
+  long takeStartCorrection();
+
+  /**
+   * Whether the run for the start correction most recently returned by
+   * {@link #takeStartCorrection()} started late.
+   *
+   * @return {@code true} if the run started late.
+   */
+  boolean isLateStart();
 }
 
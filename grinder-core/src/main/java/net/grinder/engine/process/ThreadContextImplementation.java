@@ -74,6 +74,9 @@ final class ThreadContextImplementation implements ThreadContext {
 
   private Marker m_testMarker;
 
+  private long m_startCorrection;
+  private boolean m_lateStart;
+
   private volatile boolean m_shutdown;
   private boolean m_shutdownReported;
 
@@ -82,13 +85,43 @@ final class ThreadContextImplementation implements ThreadContext {
                                      int threadNumber,
                                      Logger dataLogger)
     throws EngineException {
+    this(properties, statisticsServices, threadNumber, dataLogger, null);
+  }
+
+  public ThreadContextImplementation(GrinderProperties properties,
+                                     StatisticsServices statisticsServices,
+                                     int threadNumber,
+                                     Logger dataLogger,
+                                     BinaryDataLogWriter binaryDataLogWriter)
+    throws EngineException {
 
     m_threadNumber = threadNumber;
     m_threadMarker = MarkerFactory.getMarker("thread-" + threadNumber);
 
     // Undocumented property. Added so Tom Barnes can investigate overhead
     // of data logging.
-    if (properties.getBoolean("grinder.logData", true)) {
+    if (!properties.getBoolean("grinder.logData", true)) {
+      m_dispatchResultReporter = new DispatchResultReporter() {
+        public void report(Test test,
+                           long startTime,
+                           StatisticsSet statistics) {
+          // Null reporter.
+        }
+      };
+    }
+    else if (binaryDataLogWriter != null) {
+      final BinaryDataLogWriter.ThreadWriter threadWriter =
+        binaryDataLogWriter.createThreadWriter(m_threadNumber);
+
+      m_dispatchResultReporter = new DispatchResultReporter() {
+        public void report(Test test,
+                           long startTime,
+                           StatisticsSet statistics) {
+          threadWriter.report(getRunNumber(), test, startTime, statistics);
+        }
+      };
+    }
+    else {
       final ThreadDataLogger threadDataLogger =
         new ThreadDataLogger(
           dataLogger,
@@ -106,15 +139,6 @@ final class ThreadContextImplementation implements ThreadContext {
         }
       };
     }
-    else {
-      m_dispatchResultReporter = new DispatchResultReporter() {
-        public void report(Test test,
-                           long startTime,
-                           StatisticsSet statistics) {
-          // Null reporter.
-        }
-      };
-    }
 
     registerThreadLifeCycleListener(
       new SkeletonThreadLifeCycleListener() {
@@ -130,6 +154,24 @@ final class ThreadContextImplementation implements ThreadContext {
     return m_runNumber;
   }
 
+  @Override
+  public void setStartCorrection(long lateness, boolean late) {
+    m_startCorrection = lateness;
+    m_lateStart = late;
+  }
+
+  @Override
+  public long takeStartCorrection() {
+    final long result = m_startCorrection;
+    m_startCorrection = 0;
+    return result;
+  }
+
+  @Override
+  public boolean isLateStart() {
+    return m_lateStart;
+  }
+
   @Override
   public void setCurrentRunNumber(int run) {
     if (m_runMarker != null) {
@@ -286,7 +328,23 @@ final class ThreadContextImplementation implements ThreadContext {
   }
 
   public StatisticsForTest getStatisticsForLastTest() {
-    return m_statisticsForLastTest;
+    return heldByScript(m_statisticsForLastTest);
+  }
+
+  /**
+   * The script can hold on to the statistics for the last test, so they must
+   * not be reused. The statistics for the current test are only valid until
+   * the test is reported, so these are not marked; plug-ins such as the
+   * HTTP plug-in use them for every request.
+   */
+  private static StatisticsForTest heldByScript(
+    StatisticsForTest statisticsForTest) {
+
+    if (statisticsForTest instanceof StatisticsForTestImplementation) {
+      ((StatisticsForTestImplementation)statisticsForTest).setHeldByScript();
+    }
+
+    return statisticsForTest;
   }
 
   public void setDelayReports(boolean b) {
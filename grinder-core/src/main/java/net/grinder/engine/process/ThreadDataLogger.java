@@ -32,6 +32,11 @@ import org.slf4j.Logger;
 /**
  * Writes lines to the data log on behalf of a particular thread.
  *
+ * <p>Returns without allocating if the data log is disabled. Otherwise,
+ * each line allocates its {@code String} and the logging event, since the
+ * SLF4J API requires a {@code String} message. The binary data log, see
+ * {@link BinaryDataLogWriter}, does not allocate.</p>
+ *
  * @author Philip Aston
  */
 class ThreadDataLogger {
@@ -39,7 +44,7 @@ class ThreadDataLogger {
 
   private final Logger m_dataLog;
   private final ExpressionView[] m_expressionViews;
-  private final int m_threadNumber;
+  private final DataLogArguments m_arguments;
 
   private final StringBuilder m_buffer = new StringBuilder();
   private final int m_bufferAfterThreadIDIndex;
@@ -52,7 +57,7 @@ class ThreadDataLogger {
                           int threadNumber) {
     m_dataLog = dataLog;
     m_expressionViews = expressionViews;
-    m_threadNumber = threadNumber;
+    m_arguments = new DataLogArguments(threadNumber);
 
     m_buffer.append(threadNumber);
     m_buffer.append(SEPARATOR);
@@ -64,6 +69,10 @@ class ThreadDataLogger {
                      long timeSinceExecutionStart,
                      StatisticsSet statistics) {
 
+    if (!m_dataLog.isInfoEnabled()) {
+      return;
+    }
+
     if (runNumber == m_lastRunNumber && m_lastRunNumber != -1) {
       m_buffer.setLength(m_bufferAfterRunNumberIndex);
     }
@@ -94,11 +103,8 @@ class ThreadDataLogger {
       }
     }
 
-    m_dataLog.info(m_buffer.toString(),
-                   new DataLogArguments(m_threadNumber,
-                                        runNumber,
-                                        test,
-                                        timeSinceExecutionStart,
-                                        statistics));
+    m_arguments.set(runNumber, test, timeSinceExecutionStart, statistics);
+
+    m_dataLog.info(m_buffer.toString(), m_arguments);
   }
 }
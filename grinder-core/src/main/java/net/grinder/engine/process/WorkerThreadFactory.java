@@ -0,0 +1,128 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.process;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import net.grinder.engine.common.EngineException;
+
+
+/**
+ * Creates the threads that run {@link GrinderThread}s.
+ *
+ * <p>
+ * By default, each worker thread is a platform daemon thread. Optionally,
+ * worker threads can be virtual threads, which are much cheaper to create and
+ * to park, allowing a single process to simulate many thousands of mostly
+ * idle users. Virtual threads require Java 21 or later; we use reflection so
+ * that The Grinder can still be built and run on older platforms.
+ * </p>
+ *
+ * <p>
+ * Package scope.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+final class WorkerThreadFactory {
+
+  private final Method m_ofVirtual;
+  private final Method m_name;
+  private final Method m_unstarted;
+
+  /**
+   * Constructor.
+   *
+   * @param useVirtualThreads
+   *          {@code true} => create virtual threads, {@code false} => create
+   *          platform threads.
+   * @throws EngineException
+   *           If virtual threads were requested, but are not supported by
+   *           this JVM.
+   */
+  WorkerThreadFactory(boolean useVirtualThreads) throws EngineException {
+    if (useVirtualThreads) {
+      try {
+        m_ofVirtual = Thread.class.getMethod("ofVirtual");
+
+        final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+        m_name = builderClass.getMethod("name", String.class);
+        m_unstarted = builderClass.getMethod("unstarted", Runnable.class);
+      }
+      catch (NoSuchMethodException e) {
+        throw new EngineException(
+          "Virtual threads are not supported by this JVM", e);
+      }
+      catch (ClassNotFoundException e) {
+        throw new EngineException(
+          "Virtual threads are not supported by this JVM", e);
+      }
+    }
+    else {
+      m_ofVirtual = null;
+      m_name = null;
+      m_unstarted = null;
+    }
+  }
+
+  /**
+   * Whether this factory creates virtual threads.
+   *
+   * @return {@code true} => virtual threads.
+   */
+  boolean isVirtual() {
+    return m_ofVirtual != null;
+  }
+
+  /**
+   * Create a new, unstarted, daemon thread.
+   *
+   * @param runnable
+   *          What the thread should run.
+   * @param name
+   *          The thread name.
+   * @return The thread.
+   * @throws EngineException
+   *           If the thread could not be created.
+   */
+  Thread create(Runnable runnable, String name) throws EngineException {
+    if (m_ofVirtual == null) {
+      final Thread t = new Thread(runnable, name);
+      t.setDaemon(true);
+      return t;
+    }
+
+    // Virtual threads are always daemon threads.
+    try {
+      final Object builder = m_name.invoke(m_ofVirtual.invoke(null), name);
+      return (Thread) m_unstarted.invoke(builder, runnable);
+    }
+    catch (IllegalAccessException e) {
+      throw new EngineException("Failed to create virtual thread", e);
+    }
+    catch (InvocationTargetException e) {
+      throw new EngineException("Failed to create virtual thread",
+                                e.getCause());
+    }
+  }
+}
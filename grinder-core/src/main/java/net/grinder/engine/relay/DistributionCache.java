@@ -0,0 +1,404 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.relay;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.grinder.common.Closer;
+import net.grinder.common.UncheckedInterruptedException;
+import net.grinder.common.processidentity.ProcessReport;
+import net.grinder.communication.CommunicationException;
+import net.grinder.communication.Message;
+import net.grinder.communication.Sender;
+import net.grinder.messages.agent.CacheHighWaterMark;
+import net.grinder.messages.agent.ClearCacheMessage;
+import net.grinder.messages.agent.DistributeFileMessage;
+import net.grinder.messages.agent.DistributionCacheCheckpointMessage;
+import net.grinder.messages.agent.FetchFileMessage;
+import net.grinder.messages.console.AgentProcessReportMessage;
+import net.grinder.util.Directory;
+import net.grinder.util.FileContents;
+
+import org.slf4j.Logger;
+
+
+/**
+ * The relay's copy of the files the console has distributed.
+ *
+ * <p>The cache watches the distribution messages the console sends through
+ * the relay. Once it has seen the console clear an agent cache, it holds
+ * every file sent since, and the latest cache checkpoint. An agent that
+ * reports an older checkpoint can
+ * then be brought up to date by the relay without involving the console.
+ * Only agents that have just connected are updated, since clearing the cache
+ * of an agent that is running workers could pull files out from under
+ * them.</p>
+ *
+ * <p>Each chunk is written to its own file in the cache directory, and
+ * only a small record of it is kept in memory. Replaying the cache reads
+ * the chunks back one at a time, so the relay's memory use doesn't depend
+ * on the size of the distribution. Chunk files are never changed, so a
+ * replay can run while the console sends more files; chunk files that are
+ * no longer needed are deleted once no replay is using them.</p>
+ *
+ * <p>Patches are kept after the version of the file they apply to, so that
+ * replaying the chunks in order rebuilds the latest version. When the
+ * console resumes an interrupted distribution, it sends agents the rest of
+ * a file; chunks of the version the cache holds are added if they follow
+ * on from what it has, and ignored if it already has them.</p>
+ *
+ * <p>Until the cache has seen a clear, it cannot know that it holds every
+ * file, and agents are left to the console. The same applies after the
+ * console tells agents to fetch chunks from each other, since those chunks
+ * don't pass through the relay, or if the cache fails to store a
+ * chunk.</p>
+ *
+ * @author Philip Aston
+ */
+final class DistributionCache {
+
+  private final Directory m_directory;
+  private final Logger m_logger;
+
+  /** The chunks of each file, in order. Guarded by this. */
+  private final Map<String, List<Chunk>> m_files =
+    new LinkedHashMap<String, List<Chunk>>();
+
+  /** Chunks that are no longer needed. Guarded by this. */
+  private final List<Chunk> m_discarded = new ArrayList<Chunk>();
+
+  /** Guarded by this. */
+  private boolean m_complete = false;
+  private CacheHighWaterMark m_highWaterMark;
+  private int m_replays;
+  private long m_nextChunk;
+
+  /**
+   * Constructor.
+   *
+   * @param directory Where chunks are stored. Any existing content is
+   *  deleted.
+   * @param logger Logger.
+   * @throws Directory.DirectoryException If the directory could not be
+   *  created or cleared.
+   */
+  public DistributionCache(Directory directory, Logger logger)
+    throws Directory.DirectoryException {
+
+    m_directory = directory;
+    m_logger = logger;
+
+    m_directory.create();
+    m_directory.deleteContents();
+  }
+
+  /**
+   * Record a message sent by the console.
+   *
+   * @param message The message.
+   */
+  public synchronized void observe(Message message) {
+    if (message instanceof ClearCacheMessage) {
+      discardAll();
+      m_complete = true;
+    }
+    else if (message instanceof DistributeFileMessage) {
+      if (m_complete) {
+        final DistributeFileMessage distributeFileMessage =
+          (DistributeFileMessage)message;
+
+        final FileContents fileContents =
+          distributeFileMessage.getFileContents();
+
+        final String filename = fileContents.getFilename().getPath();
+
+        final List<Chunk> chunks;
+
+        if (fileContents.getBaseDigest() != null) {
+          // A patch. Keep it to replay after the version it applies to,
+          // unless we already hold the patched version in full.
+          final List<Chunk> existing = m_files.get(filename);
+
+          if (existing != null &&
+              !isVersion(existing, fileContents.getDigest())) {
+            chunks = existing;
+          }
+          else {
+            chunks = null;
+          }
+        }
+        else if (fileContents.getOffset() == 0) {
+          // A new version of the file. Remove first so that the replay order
+          // reflects the latest version.
+          final List<Chunk> existing = m_files.remove(filename);
+
+          if (existing != null) {
+            discard(existing);
+          }
+
+          chunks = new ArrayList<Chunk>(1);
+          m_files.put(filename, chunks);
+        }
+        else {
+          final List<Chunk> existing = m_files.get(filename);
+          final long held = existing != null ?
+            heldLength(existing, fileContents.getDigest()) : -1;
+
+          if (held == fileContents.getOffset()) {
+            chunks = existing;
+          }
+          else if (fileContents.getOffset() < held) {
+            // Resent to an agent that is resuming. We have it already.
+            chunks = null;
+          }
+          else {
+            // We've missed the start of this version of the file.
+            discardAll();
+            m_complete = false;
+            chunks = null;
+          }
+        }
+
+        if (chunks != null) {
+          try {
+            chunks.add(store(distributeFileMessage));
+          }
+          catch (IOException e) {
+            UncheckedInterruptedException.ioException(e);
+            m_logger.warn("Failed to cache " + fileContents +
+                          ", leaving agents to the console", e);
+            discardAll();
+            m_complete = false;
+          }
+        }
+      }
+    }
+    else if (message instanceof FetchFileMessage) {
+      discardAll();
+      m_complete = false;
+    }
+    else if (message instanceof DistributionCacheCheckpointMessage) {
+      if (m_complete) {
+        m_highWaterMark =
+          ((DistributionCacheCheckpointMessage)message)
+          .getCacheHighWaterMark();
+      }
+    }
+  }
+
+  private static boolean isVersion(List<Chunk> chunks, String digest) {
+    if (digest == null || chunks.isEmpty()) {
+      return false;
+    }
+
+    final Chunk first = chunks.get(0);
+
+    return first.m_baseDigest == null && digest.equals(first.m_digest);
+  }
+
+  /**
+   * How much of a version of a file we hold, or -1 if we hold a different
+   * version.
+   */
+  private static long heldLength(List<Chunk> chunks, String digest) {
+    final Chunk first = chunks.get(0);
+
+    if (digest != null && !digest.equals(first.m_digest)) {
+      return -1;
+    }
+
+    long result = 0;
+
+    for (Chunk chunk : chunks) {
+      if (chunk.m_baseDigest == null) {
+        result = Math.max(result, chunk.m_end);
+      }
+    }
+
+    return result;
+  }
+
+  private Chunk store(DistributeFileMessage message) throws IOException {
+    final File file = m_directory.getFile(new File(m_nextChunk++ + ".chunk"));
+
+    ObjectOutputStream out = null;
+
+    try {
+      out = new ObjectOutputStream(new FileOutputStream(file));
+      out.writeObject(message);
+      out.close();
+      out = null;
+    }
+    catch (IOException e) {
+      Closer.close(out);
+      file.delete();
+      throw e;
+    }
+
+    final FileContents fileContents = message.getFileContents();
+
+    return new Chunk(file,
+                     fileContents.getDigest(),
+                     fileContents.getBaseDigest(),
+                     fileContents.getOffset() + fileContents.getLength());
+  }
+
+  private void discardAll() {
+    for (List<Chunk> chunks : m_files.values()) {
+      discard(chunks);
+    }
+
+    m_files.clear();
+    m_highWaterMark = null;
+  }
+
+  /** Guarded by this. */
+  private void discard(List<Chunk> chunks) {
+    m_discarded.addAll(chunks);
+
+    if (m_replays == 0) {
+      deleteDiscarded();
+    }
+  }
+
+  /** Guarded by this. */
+  private void deleteDiscarded() {
+    for (Chunk chunk : m_discarded) {
+      chunk.m_file.delete();
+    }
+
+    m_discarded.clear();
+  }
+
+  /**
+   * Bring an agent's cache up to date. The agent is sent a
+   * {@link ClearCacheMessage}, every cached chunk, and finally the cache
+   * checkpoint.
+   *
+   * <p>Does nothing if the agent is up to date, has not just connected, or
+   * if the cache doesn't know enough to help.</p>
+   *
+   * @param report The agent's latest report.
+   * @param sender Sends messages to the agent.
+   * @return The cache checkpoint sent to the agent, or {@code null} if the
+   *  agent was not sent anything.
+   * @throws CommunicationException If a message could not be sent, or a
+   *  chunk could not be read back.
+   */
+  public CacheHighWaterMark update(AgentProcessReportMessage report,
+                                   Sender sender)
+    throws CommunicationException {
+
+    final CacheHighWaterMark highWaterMark;
+    final List<Chunk> chunks = new ArrayList<Chunk>();
+
+    synchronized (this) {
+      if (m_highWaterMark == null ||
+          report.getState() != ProcessReport.State.STARTED) {
+        return null;
+      }
+
+      final CacheHighWaterMark agentHighWaterMark =
+        report.getCacheHighWaterMark();
+
+      if (agentHighWaterMark != null &&
+          m_highWaterMark.isForSameCache(agentHighWaterMark) &&
+          agentHighWaterMark.getTime() >= m_highWaterMark.getTime()) {
+        return null;
+      }
+
+      highWaterMark = m_highWaterMark;
+
+      for (List<Chunk> fileChunks : m_files.values()) {
+        chunks.addAll(fileChunks);
+      }
+
+      ++m_replays;
+    }
+
+    try {
+      sender.send(new ClearCacheMessage());
+
+      for (Chunk chunk : chunks) {
+        sender.send(chunk.load());
+      }
+    }
+    finally {
+      synchronized (this) {
+        if (--m_replays == 0) {
+          deleteDiscarded();
+        }
+      }
+    }
+
+    sender.send(new DistributionCacheCheckpointMessage(highWaterMark));
+
+    return highWaterMark;
+  }
+
+  /**
+   * A cached chunk.
+   */
+  private static final class Chunk {
+    private final File m_file;
+    private final String m_digest;
+    private final String m_baseDigest;
+    private final long m_end;
+
+    public Chunk(File file, String digest, String baseDigest, long end) {
+      m_file = file;
+      m_digest = digest;
+      m_baseDigest = baseDigest;
+      m_end = end;
+    }
+
+    public DistributeFileMessage load() throws CommunicationException {
+      ObjectInputStream in = null;
+
+      try {
+        in = new ObjectInputStream(new FileInputStream(m_file));
+        return (DistributeFileMessage) in.readObject();
+      }
+      catch (IOException e) {
+        UncheckedInterruptedException.ioException(e);
+        throw new CommunicationException(
+          "Failed to read cached chunk " + m_file, e);
+      }
+      catch (ClassNotFoundException e) {
+        throw new CommunicationException(
+          "Failed to read cached chunk " + m_file, e);
+      }
+      finally {
+        Closer.close(in);
+      }
+    }
+  }
+}
@@ -0,0 +1,329 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.relay;
+
+import java.io.File;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+
+import net.grinder.common.GrinderProperties;
+import net.grinder.common.UncheckedInterruptedException;
+import net.grinder.communication.Acceptor;
+import net.grinder.communication.Address;
+import net.grinder.communication.ClientReceiver;
+import net.grinder.communication.ClientSender;
+import net.grinder.communication.CommunicationDefaults;
+import net.grinder.communication.CommunicationException;
+import net.grinder.communication.ConnectionType;
+import net.grinder.communication.Connector;
+import net.grinder.communication.FanOutServerSender;
+import net.grinder.communication.Message;
+import net.grinder.communication.MessagePump;
+import net.grinder.communication.RelayedMessage;
+import net.grinder.communication.RoutedMessage;
+import net.grinder.communication.Sender;
+import net.grinder.communication.ServerReceiver;
+import net.grinder.engine.common.ConnectorFactory;
+import net.grinder.engine.common.EngineException;
+import net.grinder.engine.common.StatisticsReportAggregator;
+import net.grinder.messages.agent.CacheHighWaterMark;
+import net.grinder.messages.console.AgentProcessReportMessage;
+import net.grinder.messages.console.ConsoleMessageCodecs;
+import net.grinder.statistics.StatisticsServicesImplementation;
+import net.grinder.util.Directory;
+import net.grinder.util.StandardTimeAuthority;
+
+import org.slf4j.Logger;
+
+
+/**
+ * A relay stands in for the console for a group of agents.
+ *
+ * <p>Agents and their workers connect to the relay as if it were the
+ * console, and the relay makes a single connection to the console. Relays
+ * can connect to other relays, so that a large test forms a tree rather than
+ * a star.</p>
+ *
+ * <p>Going up the tree, statistics reports are merged and sent once each
+ * interval. Everything else, including process reports and barrier
+ * messages, is relayed on behalf of the process that sent it. Going down,
+ * messages for every agent are sent once to each relay, and messages for
+ * particular agents only to the relays that lead to them. The relay keeps a
+ * {@link DistributionCache} so that agents that connect late can be sent
+ * the distributed files without troubling the console.</p>
+ *
+ * @author Philip Aston
+ */
+public final class RelayImplementation {
+
+  private final Logger m_logger;
+  private final Timer m_timer = new Timer("Relay timer", true);
+  private final Acceptor m_acceptor;
+  private final FanOutServerSender m_agentSender;
+  private final StatisticsReportAggregator m_aggregator;
+  private final DistributionCache m_distributionCache;
+  private final MessagePump m_processMessagePump;
+  private final MessagePump m_consoleMessagePump;
+  private final TimerTask m_reportTask;
+  private final CountDownLatch m_consoleClosed = new CountDownLatch(1);
+
+  /**
+   * Constructor.
+   *
+   * <p>Connects to the console, and starts listening for agents and
+   * workers.</p>
+   *
+   * @param properties Properties. The console (or parent relay) address is
+   *  read from {@code grinder.consoleHost} and {@code grinder.consolePort}.
+   *  The relay listens on {@code grinder.relay.host} and
+   *  {@code grinder.relay.port}. Distributed files are cached in
+   *  {@code grinder.relay.cacheDirectory}.
+   * @param logger Logger.
+   * @throws CommunicationException If the relay could not connect to the
+   *  console, or could not listen for agents.
+   * @throws EngineException If the cache directory could not be created.
+   */
+  public RelayImplementation(GrinderProperties properties, Logger logger)
+    throws CommunicationException, EngineException {
+
+    m_logger = logger;
+
+    final int port = properties.getInt("grinder.relay.port",
+                                       CommunicationDefaults.CONSOLE_PORT);
+
+    final File cacheDirectory =
+      new File(properties.getProperty("grinder.relay.cacheDirectory",
+                                      "./relay-" + port + "-file-cache"));
+
+    try {
+      m_distributionCache =
+        new DistributionCache(new Directory(cacheDirectory), logger);
+    }
+    catch (Directory.DirectoryException e) {
+      throw new EngineException(
+        "Could not create cache directory '" + cacheDirectory + "'", e);
+    }
+
+    final Connector connector =
+      new ConnectorFactory(ConnectionType.AGENT).create(properties);
+
+    final ClientReceiver consoleReceiver =
+      ClientReceiver.connect(connector, null);
+
+    final ServerReceiver processReceiver = new ServerReceiver(true);
+
+    try {
+      m_acceptor =
+        new Acceptor(
+          properties.getProperty("grinder.relay.host",
+                                 CommunicationDefaults.CONSOLE_HOST),
+          port,
+          1,
+          new StandardTimeAuthority(),
+          ConsoleMessageCodecs.createRegistry(
+            StatisticsServicesImplementation.getInstance()
+            .getStatisticsSetFactory()));
+
+      try {
+        processReceiver.receiveFrom(m_acceptor,
+                                    new ConnectionType[] {
+                                      ConnectionType.AGENT,
+                                      ConnectionType.WORKER,
+                                    },
+                                    5,
+                                    500,
+                                    30000);
+
+        m_agentSender =
+          new FanOutServerSender(m_acceptor, ConnectionType.AGENT, 3);
+      }
+      catch (CommunicationException e) {
+        m_acceptor.shutdown();
+        throw e;
+      }
+    }
+    catch (CommunicationException e) {
+      consoleReceiver.shutdown();
+      throw e;
+    }
+
+    m_aggregator =
+      new StatisticsReportAggregator(ClientSender.connect(consoleReceiver));
+
+    m_processMessagePump =
+      new MessagePump(processReceiver, new ProcessMessageHandler(), 1);
+
+    m_consoleMessagePump =
+      new MessagePump(consoleReceiver, new ConsoleMessageHandler(), 1);
+
+    m_reportTask = new TimerTask() {
+        public void run() {
+          try {
+            m_aggregator.report();
+          }
+          catch (CommunicationException e) {
+            cancel();
+            m_logger.error("Failed to report to console", e);
+          }
+        }
+      };
+
+    final int reportInterval =
+      properties.getInt("grinder.reportToConsole.interval", 500);
+
+    m_processMessagePump.start();
+    m_consoleMessagePump.start();
+    m_timer.schedule(m_reportTask, reportInterval, reportInterval);
+
+    m_logger.info("relaying between {} and port {}",
+                  connector.getEndpointAsString(),
+                  m_acceptor.getPort());
+  }
+
+  /**
+   * The port on which the relay listens for agents and workers.
+   *
+   * @return The port.
+   */
+  public int getPort() {
+    return m_acceptor.getPort();
+  }
+
+  /**
+   * Wait until the console closes the connection.
+   */
+  public void run() {
+    try {
+      m_consoleClosed.await();
+    }
+    catch (InterruptedException e) {
+      throw new UncheckedInterruptedException(e);
+    }
+
+    m_logger.info("console connection closed");
+  }
+
+  /**
+   * Disconnect the agents and workers, send any outstanding report, and
+   * close the console connection.
+   */
+  public void shutdown() {
+    m_reportTask.cancel();
+    m_timer.cancel();
+
+    m_processMessagePump.shutdown();
+
+    try {
+      m_acceptor.shutdown();
+    }
+    catch (CommunicationException e) {
+      m_logger.error("Failed to shut down relay port", e);
+    }
+
+    m_agentSender.shutdown();
+
+    try {
+      m_aggregator.report();
+    }
+    catch (CommunicationException e) {
+      // Ignore - the console has probably shut down.
+    }
+
+    m_consoleMessagePump.shutdown();
+  }
+
+  /**
+   * Handles messages from the agents and workers.
+   */
+  private final class ProcessMessageHandler implements Sender {
+
+    public void send(Message message) throws CommunicationException {
+      if (message instanceof RelayedMessage) {
+        final RelayedMessage relayedMessage = (RelayedMessage)message;
+
+        if (relayedMessage.getMessage() instanceof AgentProcessReportMessage) {
+          final AgentProcessReportMessage report =
+            (AgentProcessReportMessage)relayedMessage.getMessage();
+
+          final Address origin = relayedMessage.getOrigin();
+
+          final CacheHighWaterMark checkpoint =
+            m_distributionCache.update(report, new Sender() {
+                public void send(Message update)
+                  throws CommunicationException {
+                  m_agentSender.send(origin, update);
+                }
+
+                public void shutdown() {
+                }
+              });
+
+          if (checkpoint != null) {
+            // Report the cache state the agent will have once it has
+            // processed the update, so the console and any relays above us
+            // don't send it the files again.
+            m_aggregator.send(
+              new RelayedMessage(
+                origin,
+                new AgentProcessReportMessage(
+                  report.getState(),
+                  checkpoint,
+                  report.getPeerFileServer())));
+
+            return;
+          }
+        }
+      }
+
+      m_aggregator.send(message);
+    }
+
+    public void shutdown() {
+      // The console connection is closed by the console message pump.
+    }
+  }
+
+  /**
+   * Handles messages from the console.
+   */
+  private final class ConsoleMessageHandler implements Sender {
+
+    public void send(Message message) throws CommunicationException {
+      if (message instanceof RoutedMessage) {
+        final RoutedMessage routedMessage = (RoutedMessage)message;
+
+        m_distributionCache.observe(routedMessage.getMessage());
+        m_agentSender.send(routedMessage.getDestination(),
+                           routedMessage.getMessage());
+      }
+      else {
+        m_distributionCache.observe(message);
+        m_agentSender.send(message);
+      }
+    }
+
+    public void shutdown() {
+      m_consoleClosed.countDown();
+    }
+  }
+}
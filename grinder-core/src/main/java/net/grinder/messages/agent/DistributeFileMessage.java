@@ -26,8 +26,8 @@ import net.grinder.util.FileContents;
 
 
 /**
- * Message used to distribute a file from the console to the agent
- * processes.
+ * Message used to distribute a file, or a chunk of a file, from the
+ * console to the agent processes.
  *
  * @author Philip Aston
  */
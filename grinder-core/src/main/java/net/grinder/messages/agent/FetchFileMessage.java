@@ -0,0 +1,133 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.messages.agent;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.grinder.communication.Message;
+import net.grinder.util.FileContents;
+
+
+/**
+ * Message used to tell an agent to fetch a chunk of a file from other
+ * agents, rather than receiving it from the console. The console remains
+ * the authority on the content; the message carries a digest that the
+ * agent uses to check the chunk.
+ *
+ * @author Philip Aston
+ */
+public final class FetchFileMessage implements Message {
+
+  private static final long serialVersionUID = 1L;
+
+  private final File m_filename;
+  private final long m_offset;
+  private final int m_length;
+  private final long m_fileLength;
+  private final String m_digest;
+  private final String m_chunkDigest;
+  private final List<String> m_peers;
+
+  /**
+   * Constructor.
+   *
+   * @param fileContents The chunk to fetch. Only the description of the
+   *  chunk is sent, not the data.
+   * @param peers The addresses of the peer file servers that have the chunk,
+   *  in the form <em>host</em>:<em>port</em>.
+   */
+  public FetchFileMessage(FileContents fileContents, List<String> peers) {
+    m_filename = fileContents.getFilename();
+    m_offset = fileContents.getOffset();
+    m_length = fileContents.getLength();
+    m_fileLength = fileContents.getFileLength();
+    m_digest = fileContents.getDigest();
+    m_chunkDigest = fileContents.getChunkDigest();
+    m_peers = new ArrayList<String>(peers);
+  }
+
+  /**
+   * Return the file name, relative to the distribution directory.
+   *
+   * @return The file name.
+   */
+  public File getFilename() {
+    return m_filename;
+  }
+
+  /**
+   * Return the position of the chunk in the file.
+   *
+   * @return The offset in bytes.
+   */
+  public long getOffset() {
+    return m_offset;
+  }
+
+  /**
+   * Return the length of the chunk.
+   *
+   * @return The length in bytes.
+   */
+  public int getLength() {
+    return m_length;
+  }
+
+  /**
+   * Return the length of the whole file.
+   *
+   * @return The length in bytes.
+   */
+  public long getFileLength() {
+    return m_fileLength;
+  }
+
+  /**
+   * Return the digest of the content of the whole file.
+   *
+   * @return The digest, or <code>null</code> if not known.
+   */
+  public String getDigest() {
+    return m_digest;
+  }
+
+  /**
+   * Return the digest of the chunk, see {@link FileContents#getChunkDigest}.
+   *
+   * @return The digest.
+   */
+  public String getChunkDigest() {
+    return m_chunkDigest;
+  }
+
+  /**
+   * Return the addresses of the peer file servers that have the chunk.
+   *
+   * @return The addresses.
+   */
+  public List<String> getPeers() {
+    return Collections.unmodifiableList(m_peers);
+  }
+}
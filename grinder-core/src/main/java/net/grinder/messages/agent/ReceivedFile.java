@@ -0,0 +1,91 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.messages.agent;
+
+import java.io.File;
+import java.io.Serializable;
+
+
+/**
+ * How much of a version of a file an agent has received since its cache was
+ * last checkpointed. Agents report these so that the console can resume a
+ * distribution that was interrupted, rather than sending the files again
+ * from the start.
+ *
+ * @author Philip Aston
+ */
+public final class ReceivedFile implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final File m_filename;
+  private final String m_digest;
+  private final long m_length;
+
+  /**
+   * Constructor.
+   *
+   * @param filename The file name, relative to the distribution directory.
+   * @param digest The digest of the content of the whole file, or
+   *  <code>null</code> if not known.
+   * @param length The number of bytes received from the start of the file.
+   */
+  public ReceivedFile(File filename, String digest, long length) {
+    m_filename = filename;
+    m_digest = digest;
+    m_length = length;
+  }
+
+  /**
+   * Return the file name, relative to the distribution directory.
+   *
+   * @return The file name.
+   */
+  public File getFilename() {
+    return m_filename;
+  }
+
+  /**
+   * Return the digest of the content of the whole file.
+   *
+   * @return The digest, or <code>null</code> if not known.
+   */
+  public String getDigest() {
+    return m_digest;
+  }
+
+  /**
+   * Return the number of bytes received from the start of the file.
+   *
+   * @return The length in bytes.
+   */
+  public long getLength() {
+    return m_length;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public String toString() {
+    return "ReceivedFile(" + m_filename + ", " + m_length + " bytes)";
+  }
+}
@@ -21,8 +21,11 @@
 
 package net.grinder.messages.console;
 
+import java.util.List;
+
 import net.grinder.common.processidentity.AgentProcessReport;
 import net.grinder.messages.agent.CacheHighWaterMark;
+import net.grinder.messages.agent.ReceivedFile;
 
 
 /**
@@ -38,5 +41,21 @@ public interface AgentAndCacheReport extends AgentProcessReport {
    * @return The cache status.
    */
   CacheHighWaterMark getCacheHighWaterMark();
+
+  /**
+   * Accessor for the address of the agent's peer file server.
+   *
+   * @return The address, in the form <em>host</em>:<em>port</em>, or
+   *         <code>null</code> if the agent does not serve files to its peers.
+   */
+  String getPeerFileServer();
+
+  /**
+   * Accessor for the files the agent has received, in whole or in part,
+   * since its cache was last checkpointed.
+   *
+   * @return The files.
+   */
+  List<ReceivedFile> getReceivedFiles();
 }
 
@@ -21,11 +21,16 @@
 
 package net.grinder.messages.console;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import net.grinder.common.processidentity.AgentIdentity;
 import net.grinder.communication.Address;
 import net.grinder.communication.AddressAwareMessage;
 import net.grinder.communication.CommunicationException;
 import net.grinder.messages.agent.CacheHighWaterMark;
+import net.grinder.messages.agent.ReceivedFile;
 
 
 /**
@@ -36,10 +41,12 @@ import net.grinder.messages.agent.CacheHighWaterMark;
 public final class AgentProcessReportMessage
   implements AddressAwareMessage, AgentAndCacheReport {
 
-  private static final long serialVersionUID = 5L;
+  private static final long serialVersionUID = 7L;
 
   private final State m_state;
   private final CacheHighWaterMark m_cacheHighWaterMark;
+  private final String m_peerFileServer;
+  private final List<ReceivedFile> m_receivedFiles;
 
   private transient AgentAddress m_processAddress;
 
@@ -54,8 +61,52 @@ public final class AgentProcessReportMessage
    */
   public AgentProcessReportMessage(State state,
                                    CacheHighWaterMark cacheHighWaterMark) {
+    this(state, cacheHighWaterMark, null);
+  }
+
+  /**
+   * Creates a new {@code AgentProcessReportMessage} instance.
+   *
+   * @param state
+   *          The process state. See
+   *          {@link net.grinder.common.processidentity.ProcessReport}.
+   * @param cacheHighWaterMark
+   *          The current cache status.
+   * @param peerFileServer
+   *          The address of the agent's peer file server, or
+   *          {@code null}.
+   */
+  public AgentProcessReportMessage(State state,
+                                   CacheHighWaterMark cacheHighWaterMark,
+                                   String peerFileServer) {
+    this(state,
+         cacheHighWaterMark,
+         peerFileServer,
+         Collections.<ReceivedFile>emptyList());
+  }
+
+  /**
+   * Creates a new {@code AgentProcessReportMessage} instance.
+   *
+   * @param state
+   *          The process state. See
+   *          {@link net.grinder.common.processidentity.ProcessReport}.
+   * @param cacheHighWaterMark
+   *          The current cache status.
+   * @param peerFileServer
+   *          The address of the agent's peer file server, or
+   *          {@code null}.
+   * @param receivedFiles
+   *          The files received since the cache was last checkpointed.
+   */
+  public AgentProcessReportMessage(State state,
+                                   CacheHighWaterMark cacheHighWaterMark,
+                                   String peerFileServer,
+                                   List<ReceivedFile> receivedFiles) {
     m_state = state;
     m_cacheHighWaterMark = cacheHighWaterMark;
+    m_peerFileServer = peerFileServer;
+    m_receivedFiles = new ArrayList<ReceivedFile>(receivedFiles);
   }
 
   /**
@@ -107,4 +158,22 @@ public final class AgentProcessReportMessage
   public CacheHighWaterMark getCacheHighWaterMark() {
     return m_cacheHighWaterMark;
   }
+
+  /**
+   * Accessor for the address of the agent's peer file server.
+   *
+   * @return The address, or {@code null}.
+   */
+  public String getPeerFileServer() {
+    return m_peerFileServer;
+  }
+
+  /**
+   * Accessor for the files received since the cache was last checkpointed.
+   *
+   * @return The files.
+   */
+  public List<ReceivedFile> getReceivedFiles() {
+    return Collections.unmodifiableList(m_receivedFiles);
+  }
 }
@@ -0,0 +1,131 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.messages.console;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import net.grinder.common.processidentity.WorkerProcessReport;
+import net.grinder.communication.MessageCodec;
+import net.grinder.communication.MessageCodecRegistry;
+import net.grinder.statistics.StatisticsSetFactory;
+import net.grinder.statistics.TestStatisticsMap;
+
+
+/**
+ * Binary wire format codecs for the messages that worker processes send to
+ * the console many times a second.
+ *
+ * <p>If you change the type numbers or the encodings, increment the binary
+ * wire format version in the communication package.</p>
+ *
+ * @author Philip Aston
+ */
+public final class ConsoleMessageCodecs {
+
+  private ConsoleMessageCodecs() {
+  }
+
+  /**
+   * Create a registry containing the console message codecs.
+   *
+   * @param statisticsSetFactory
+   *          Factory used to create the statistics of received
+   *          {@link ReportStatisticsMessage}s.
+   * @return The registry.
+   */
+  public static MessageCodecRegistry createRegistry(
+    final StatisticsSetFactory statisticsSetFactory) {
+
+    final MessageCodecRegistry result = new MessageCodecRegistry();
+
+    result.register(
+      MessageCodecRegistry.FIRST_TYPE,
+      ReportStatisticsMessage.class,
+      new MessageCodec<ReportStatisticsMessage>() {
+        public void write(ReportStatisticsMessage message, DataOutput out)
+          throws IOException {
+          out.writeByte(message.getTimeUnit().ordinal());
+          message.getStatisticsDelta().write(out);
+        }
+
+        public ReportStatisticsMessage read(DataInput in)
+          throws IOException {
+          final TimeUnit timeUnit = readEnum(in, TimeUnit.values());
+
+          final TestStatisticsMap statisticsDelta =
+            new TestStatisticsMap(statisticsSetFactory);
+          statisticsDelta.read(in);
+
+          return new ReportStatisticsMessage(statisticsDelta, timeUnit);
+        }
+      });
+
+    result.register(
+      MessageCodecRegistry.FIRST_TYPE + 1,
+      WorkerProcessReportMessage.class,
+      new MessageCodec<WorkerProcessReportMessage>() {
+        public void write(WorkerProcessReportMessage message, DataOutput out)
+          throws IOException {
+          out.writeByte(message.getState().ordinal());
+          out.writeInt(message.getNumberOfRunningThreads());
+          out.writeInt(message.getMaximumNumberOfThreads());
+          out.writeInt(message.getMessageQueueDepth());
+          out.writeLong(message.getMessageQueueLatency());
+        }
+
+        public WorkerProcessReportMessage read(DataInput in)
+          throws IOException {
+          final WorkerProcessReport.State state =
+            readEnum(in, WorkerProcessReport.State.values());
+          final int runningThreads = in.readInt();
+          final int totalThreads = in.readInt();
+          final int messageQueueDepth = in.readInt();
+          final long messageQueueLatency = in.readLong();
+
+          return new WorkerProcessReportMessage(state,
+                                                runningThreads,
+                                                totalThreads,
+                                                messageQueueDepth,
+                                                messageQueueLatency);
+        }
+      });
+
+    return result;
+  }
+
+  private static <E extends Enum<E>> E readEnum(DataInput in, E[] values)
+    throws IOException {
+
+    final int ordinal = in.readUnsignedByte();
+
+    if (ordinal >= values.length) {
+      throw new IOException("Invalid ordinal " + ordinal + " for " +
+                            values[0].getDeclaringClass().getName());
+    }
+
+    return values[ordinal];
+  }
+}
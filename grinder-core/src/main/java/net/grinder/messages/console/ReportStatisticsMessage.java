@@ -21,6 +21,10 @@
 
 package net.grinder.messages.console;
 
+import java.util.concurrent.TimeUnit;
+
+import net.grinder.communication.CoalescableMessage;
+import net.grinder.communication.DroppableMessage;
 import net.grinder.communication.Message;
 import net.grinder.statistics.TestStatisticsMap;
 
@@ -28,21 +32,40 @@ import net.grinder.statistics.TestStatisticsMap;
 /**
  * Message used to report test statistics to the console.
  *
+ * <p>A report can stand for an earlier report with the same time unit,
+ * by adding the earlier statistics to its own. A queued report can also
+ * be dropped if the queue is full, losing its statistics.</p>
+ *
  * @author Philip Aston
  */
-public final class ReportStatisticsMessage implements Message {
+public final class ReportStatisticsMessage
+  implements CoalescableMessage, DroppableMessage {
 
-  private static final long serialVersionUID = 5659643598627115683L;
+  private static final long serialVersionUID = 2L;
 
   private final TestStatisticsMap m_statisticsDelta;
 
+  private final TimeUnit m_timeUnit;
+
   /**
-   * Constructor.
+   * Constructor for statistics with test times recorded in milliseconds.
    *
    * @param statisticsDelta The test statistics.
    */
   public ReportStatisticsMessage(TestStatisticsMap statisticsDelta) {
+    this(statisticsDelta, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param statisticsDelta The test statistics.
+   * @param timeUnit The unit in which test times were recorded.
+   */
+  public ReportStatisticsMessage(TestStatisticsMap statisticsDelta,
+                                 TimeUnit timeUnit) {
     m_statisticsDelta = statisticsDelta;
+    m_timeUnit = timeUnit;
   }
 
   /**
@@ -53,4 +76,29 @@ public final class ReportStatisticsMessage implements Message {
   public TestStatisticsMap getStatisticsDelta() {
     return m_statisticsDelta;
   }
+
+  /**
+   * Get the unit in which test times were recorded.
+   *
+   * @return The time unit.
+   */
+  public TimeUnit getTimeUnit() {
+    return m_timeUnit;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public boolean canCoalesce(Message earlier) {
+    return earlier instanceof ReportStatisticsMessage &&
+           ((ReportStatisticsMessage)earlier).getTimeUnit() == m_timeUnit;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void coalesce(Message earlier) {
+    m_statisticsDelta.add(
+      ((ReportStatisticsMessage)earlier).getStatisticsDelta());
+  }
 }
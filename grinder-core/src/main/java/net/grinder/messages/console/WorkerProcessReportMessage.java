@@ -26,23 +26,29 @@ import net.grinder.common.processidentity.WorkerIdentity;
 import net.grinder.common.processidentity.WorkerProcessReport;
 import net.grinder.communication.Address;
 import net.grinder.communication.AddressAwareMessage;
+import net.grinder.communication.CoalescableMessage;
 import net.grinder.communication.CommunicationException;
+import net.grinder.communication.Message;
 
 
 /**
  * Message for informing the console of worker process status.
  *
+ * <p>A report supersedes any earlier report.</p>
+ *
  * @author Dirk Feufel
  * @author Philip Aston
  */
 public final class WorkerProcessReportMessage
-  implements AddressAwareMessage, WorkerProcessReport {
+  implements AddressAwareMessage, CoalescableMessage, WorkerProcessReport {
 
-  private static final long serialVersionUID = 3L;
+  private static final long serialVersionUID = 5L;
 
   private final State m_state;
-  private final short m_totalNumberOfThreads;
-  private final short m_numberOfRunningThreads;
+  private final int m_totalNumberOfThreads;
+  private final int m_numberOfRunningThreads;
+  private final int m_messageQueueDepth;
+  private final long m_messageQueueLatency;
 
   private transient WorkerAddress m_processAddress;
 
@@ -58,11 +64,37 @@ public final class WorkerProcessReportMessage
    *          The number of threads that are still running.
    */
   public WorkerProcessReportMessage(State finished,
-                                    short runningThreads,
-                                    short totalThreads) {
+                                    int runningThreads,
+                                    int totalThreads) {
+    this(finished, runningThreads, totalThreads, 0, 0);
+  }
+
+  /**
+   * Creates a new <code>WorkerProcessReportMessage</code> instance.
+   *
+   * @param finished
+   *          The process state. See
+   *          {@link net.grinder.common.processidentity.ProcessReport}.
+   * @param totalThreads
+   *          The total number of threads.
+   * @param runningThreads
+   *          The number of threads that are still running.
+   * @param messageQueueDepth
+   *          The number of messages waiting to be sent to the console.
+   * @param messageQueueLatency
+   *          The mean time, in milliseconds, that messages recently sent to
+   *          the console spent waiting in the queue.
+   */
+  public WorkerProcessReportMessage(State finished,
+                                    int runningThreads,
+                                    int totalThreads,
+                                    int messageQueueDepth,
+                                    long messageQueueLatency) {
     m_state = finished;
     m_numberOfRunningThreads = runningThreads;
     m_totalNumberOfThreads = totalThreads;
+    m_messageQueueDepth = messageQueueDepth;
+    m_messageQueueLatency = messageQueueLatency;
   }
 
   /**
@@ -111,7 +143,7 @@ public final class WorkerProcessReportMessage
    *
    * @return The number of running threads.
    */
-  public short getNumberOfRunningThreads() {
+  public int getNumberOfRunningThreads() {
     return m_numberOfRunningThreads;
   }
 
@@ -120,7 +152,40 @@ public final class WorkerProcessReportMessage
    *
    * @return The maximum number of threads for the process.
    */
-  public short getMaximumNumberOfThreads() {
+  public int getMaximumNumberOfThreads() {
     return m_totalNumberOfThreads;
   }
+
+  /**
+   * Accessor for the number of messages waiting to be sent to the console.
+   *
+   * @return The number of queued messages.
+   */
+  public int getMessageQueueDepth() {
+    return m_messageQueueDepth;
+  }
+
+  /**
+   * Accessor for the mean time that messages recently sent to the console
+   * spent waiting in the queue.
+   *
+   * @return The latency, in milliseconds.
+   */
+  public long getMessageQueueLatency() {
+    return m_messageQueueLatency;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public boolean canCoalesce(Message earlier) {
+    return earlier instanceof WorkerProcessReportMessage;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void coalesce(Message earlier) {
+    // The earlier report is out of date.
+  }
 }
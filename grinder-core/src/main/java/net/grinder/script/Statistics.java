@@ -62,7 +62,10 @@ import net.grinder.common.GrinderException;
  * <td><em>timedTests</em></td>
  * <td>sample&nbsp;long</td>
  * <td>Sample statistic that records successful tests.
- * A test is considered successful if it is not marked as an error.</td>
+ * A test is considered successful if it is not marked as an error.
+ * <br/>The test times are also recorded in a histogram, so percentiles can be
+ * calculated with expressions such as <code>(percentile 99 timedTests)</code>.
+ * </td>
  * </tr>
  *
  * <tr>
@@ -92,6 +95,15 @@ import net.grinder.common.GrinderException;
  * </tr>
  *
  * <tr>
+ * <td><em>lateStarts</em></td>
+ * <td>basic&nbsp;long</td>
+ * <td>The number of runs that started late. Only used when the
+ * <code>grinder.arrivalRate</code> property is set. A run is late if it starts
+ * after the time scheduled for the following run. The late start is
+ * recorded against the first test of the run.</td>
+ * </tr>
+ *
+ * <tr>
  * <td><em>period</em></td>
  * <td>basic&nbsp;long</td>
  * <td>The sampling period duration, in milliseconds. <br/>This statistic is
@@ -163,6 +175,13 @@ import net.grinder.common.GrinderException;
  * </tr>
  *
  * <tr>
+ * <td><em>lateStarts</em></td>
+ * <td>basic&nbsp;long</td>
+ * <td><code>1</code> if the test was the first test of a run that started
+ * late, otherwise <code>0</code>.</td>
+ * </tr>
+ *
+ * <tr>
  * <td><em>period</em></td>
  * <td>basic&nbsp;long</td>
  * <td>Not relevant.</td>
@@ -697,6 +716,11 @@ public interface Statistics  {
      * test was an error and the time will not be added to <em>timedTests</em>.
      * </p>
      *
+     * <p>
+     * The time is in milliseconds, unless the <code>grinder.timeUnit</code>
+     * property specifies microseconds or nanoseconds.
+     * </p>
+     *
      * @return The elapsed time for the test.
      */
     long getTime();
@@ -21,62 +21,50 @@
 
 package net.grinder.statistics;
 
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 
 /**
  * Provides references to commonly used {@link StatisticsView}s.
  *
+ * <p>
+ * The <em>timedTests</em> statistic can be recorded in milliseconds,
+ * microseconds, or nanoseconds. A pair of views is maintained for each unit.
+ * The summary views always present test times in milliseconds; the detail
+ * views present the raw value, and label it with the unit if it is not
+ * milliseconds.
+ * </p>
+ *
  * @author Philip Aston
  */
 final class CommonStatisticsViews {
-  private final StatisticsView m_detailStatisticsView = new StatisticsView();
 
-  private final StatisticsView m_summaryStatisticsView =
-    new StatisticsView();
+  private static final TimeUnit[] SUPPORTED_TIME_UNITS = {
+    TimeUnit.MILLISECONDS,
+    TimeUnit.MICROSECONDS,
+    TimeUnit.NANOSECONDS,
+  };
+
+  private final Map<TimeUnit, StatisticsView> m_detailStatisticsViews =
+    new EnumMap<TimeUnit, StatisticsView>(TimeUnit.class);
+
+  private final Map<TimeUnit, StatisticsView> m_summaryStatisticsViews =
+    new EnumMap<TimeUnit, StatisticsView>(TimeUnit.class);
 
   private final StatisticExpression m_tpsExpression;
 
   CommonStatisticsViews(StatisticExpressionFactory expressionFactory) {
     try {
-      final ExpressionView[] detailExpressionViews = {
-        expressionFactory.createExpressionView(
-          "Test time",
-          "(sum timedTests)",
-          false),
-        expressionFactory.createExpressionView(
-          "Errors",
-          "errors",
-          false),
-      };
-
-      for (int i = 0; i < detailExpressionViews.length; ++i) {
-        m_detailStatisticsView.add(detailExpressionViews[i]);
-      }
-
       m_tpsExpression = expressionFactory.createExpression(
         "(* 1000 (/ (+ (count timedTests) untimedTests) period))");
 
-      final ExpressionView[] summaryExpressionViews = {
-        expressionFactory.createExpressionView(
-          "Tests",
-          "(+ (count timedTests) untimedTests)",
-          true),
-        expressionFactory.createExpressionView(
-          "Errors",
-          "errors",
-          true),
-        expressionFactory.createExpressionView(
-          "Mean Test Time (ms)",
-          "(/ (sum timedTests) (count timedTests))",
-          false),
-        expressionFactory.createExpressionView(
-          "Test Time Standard Deviation (ms)",
-          "(sqrt (variance timedTests))",
-          false),
-        expressionFactory.createExpressionView("TPS", m_tpsExpression),
-      };
-
-      for (int i = 0; i < summaryExpressionViews.length; ++i) {
-        m_summaryStatisticsView.add(summaryExpressionViews[i]);
+      for (TimeUnit timeUnit : SUPPORTED_TIME_UNITS) {
+        m_detailStatisticsViews.put(
+          timeUnit, createDetailView(expressionFactory, timeUnit));
+        m_summaryStatisticsViews.put(
+          timeUnit, createSummaryView(expressionFactory, timeUnit));
       }
     }
     catch (StatisticsException e) {
@@ -84,22 +72,171 @@ final class CommonStatisticsViews {
     }
   }
 
+  private static StatisticsView createDetailView(
+    StatisticExpressionFactory expressionFactory,
+    TimeUnit timeUnit) throws StatisticsException {
+
+    final String testTimeName;
+
+    if (timeUnit == TimeUnit.MILLISECONDS) {
+      testTimeName = "Test time";
+    }
+    else {
+      testTimeName = "Test time (" + getAbbreviation(timeUnit) + ")";
+    }
+
+    final ExpressionView[] detailExpressionViews = {
+      expressionFactory.createExpressionView(
+        testTimeName,
+        "(sum timedTests)",
+        false),
+      expressionFactory.createExpressionView(
+        "Errors",
+        "errors",
+        false),
+    };
+
+    final StatisticsView result = new StatisticsView();
+
+    for (int i = 0; i < detailExpressionViews.length; ++i) {
+      result.add(detailExpressionViews[i]);
+    }
+
+    return result;
+  }
+
+  private StatisticsView createSummaryView(
+    StatisticExpressionFactory expressionFactory,
+    TimeUnit timeUnit) throws StatisticsException {
+
+    final long unitsPerMillisecond =
+      timeUnit.convert(1, TimeUnit.MILLISECONDS);
+
+    final ExpressionView[] summaryExpressionViews = {
+      expressionFactory.createExpressionView(
+        "Tests",
+        "(+ (count timedTests) untimedTests)",
+        true),
+      expressionFactory.createExpressionView(
+        "Errors",
+        "errors",
+        true),
+      expressionFactory.createExpressionView(
+        "Mean Test Time (ms)",
+        toMilliseconds("(/ (sum timedTests) (count timedTests))",
+                       unitsPerMillisecond),
+        false),
+      expressionFactory.createExpressionView(
+        "Test Time Standard Deviation (ms)",
+        toMilliseconds("(sqrt (variance timedTests))", unitsPerMillisecond),
+        false),
+      expressionFactory.createExpressionView("TPS", m_tpsExpression),
+      expressionFactory.createExpressionView(
+        "50th Percentile Test Time (ms)",
+        toMilliseconds("(percentile 50 timedTests)", unitsPerMillisecond),
+        false),
+      expressionFactory.createExpressionView(
+        "90th Percentile Test Time (ms)",
+        toMilliseconds("(percentile 90 timedTests)", unitsPerMillisecond),
+        false),
+      expressionFactory.createExpressionView(
+        "99th Percentile Test Time (ms)",
+        toMilliseconds("(percentile 99 timedTests)", unitsPerMillisecond),
+        false),
+      expressionFactory.createExpressionView(
+        "99.9th Percentile Test Time (ms)",
+        toMilliseconds("(percentile 99.9 timedTests)", unitsPerMillisecond),
+        false),
+    };
+
+    final StatisticsView result = new StatisticsView();
+
+    for (int i = 0; i < summaryExpressionViews.length; ++i) {
+      result.add(summaryExpressionViews[i]);
+    }
+
+    return result;
+  }
+
+  private static String toMilliseconds(String expression,
+                                       long unitsPerMillisecond) {
+    if (unitsPerMillisecond == 1) {
+      return expression;
+    }
+
+    return "(/ " + expression + " " + unitsPerMillisecond + ")";
+  }
+
   /**
-   * Get the detail {@link StatisticsView}.
+   * Return the abbreviation used to label values of the given unit.
+   *
+   * @param timeUnit The time unit.
+   * @return The abbreviation.
+   */
+  static String getAbbreviation(TimeUnit timeUnit) {
+    switch (timeUnit) {
+      case NANOSECONDS: return "ns";
+      case MICROSECONDS: return "us";
+      case MILLISECONDS: return "ms";
+      default: return timeUnit.toString().toLowerCase();
+    }
+  }
+
+  /**
+   * Check whether the <em>timedTests</em> statistic can be recorded in the
+   * given unit.
+   *
+   * @param timeUnit The time unit.
+   * @return {@code true} if and only if the unit is supported.
+   */
+  static boolean isSupported(TimeUnit timeUnit) {
+    for (TimeUnit supported : SUPPORTED_TIME_UNITS) {
+      if (supported == timeUnit) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Get the detail {@link StatisticsView} for statistics recorded in
+   * milliseconds.
    *
    * @return The {@link StatisticsView}.
    */
   public StatisticsView getDetailStatisticsView() {
-    return m_detailStatisticsView;
+    return getDetailStatisticsView(TimeUnit.MILLISECONDS);
   }
 
   /**
-   * Get the summary {@link StatisticsView}.
+   * Get the detail {@link StatisticsView}.
+   *
+   * @param timeUnit The unit in which <em>timedTests</em> is recorded.
+   * @return The {@link StatisticsView}.
+   */
+  public StatisticsView getDetailStatisticsView(TimeUnit timeUnit) {
+    return m_detailStatisticsViews.get(timeUnit);
+  }
+
+  /**
+   * Get the summary {@link StatisticsView} for statistics recorded in
+   * milliseconds.
    *
    * @return The {@link StatisticsView}.
    */
   public StatisticsView getSummaryStatisticsView() {
-    return m_summaryStatisticsView;
+    return getSummaryStatisticsView(TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Get the summary {@link StatisticsView}.
+   *
+   * @param timeUnit The unit in which <em>timedTests</em> is recorded.
+   * @return The {@link StatisticsView}.
+   */
+  public StatisticsView getSummaryStatisticsView(TimeUnit timeUnit) {
+    return m_summaryStatisticsViews.get(timeUnit);
   }
 
   public StatisticExpression getTPSExpression() {
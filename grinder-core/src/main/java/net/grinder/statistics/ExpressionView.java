@@ -48,6 +48,13 @@ package net.grinder.statistics;
  * (count timedTests))</code>
  * represents the mean test time in milliseconds.
  *
+ * <p>
+ * Percentiles of histogram statistics (see {@link StatisticsIndexMap}) can be
+ * obtained with <code>percentile</code>, which takes the required percentile
+ * and the histogram name. For example, <code>(percentile 99 timedTests)</code>
+ * is the 99th percentile test time in milliseconds.
+ * </p>
+ *
  * @author Philip Aston
  */
 public final class ExpressionView {
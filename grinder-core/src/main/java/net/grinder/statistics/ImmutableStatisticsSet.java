@@ -88,6 +88,17 @@ public interface ImmutableStatisticsSet {
    */
   double getVariance(StatisticsIndexMap.SampleIndex index);
 
+  /**
+   * Get an estimate of a percentile of the samples recorded in the histogram
+   * specified by <code>index</code>.
+   *
+   * @param index The index.
+   * @param percentile The percentile, between 0 and 100.
+   * @return The estimated value.
+   */
+  long getPercentile(StatisticsIndexMap.HistogramIndex index,
+                     double percentile);
+
   /**
    * Return whether all the statistics are zero. This allows us to optimise
    * cases where there's no information to be processed.
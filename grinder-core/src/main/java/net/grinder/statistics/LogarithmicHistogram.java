@@ -0,0 +1,174 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.statistics;
+
+
+/**
+ * Bucket arithmetic for histogram statistics.
+ *
+ * <p>
+ * Values are assigned to buckets on a log-linear scale. Each power of two is
+ * split into {@link #SUB_BUCKETS} equally sized buckets, so the width of a
+ * bucket is never more than 1/{@value #SUB_BUCKETS} of its lower bound. Small
+ * values have a bucket to themselves. Negative values are recorded as zero, and
+ * values greater than {@link #MAXIMUM_VALUE} are recorded in the top bucket.
+ * </p>
+ *
+ * <p>
+ * The number of buckets is fixed, so a histogram occupies a fixed number of
+ * slots in a {@link StatisticsSet}, and histograms can be merged by adding
+ * the bucket counts together.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+final class LogarithmicHistogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+
+  /**
+   * The number of buckets each power of two is split into.
+   */
+  static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private static final int MAXIMUM_EXPONENT = 43;
+
+  /**
+   * The largest value that can be recorded accurately.
+   */
+  static final long MAXIMUM_VALUE = (1L << (MAXIMUM_EXPONENT + 1)) - 1;
+
+  /**
+   * The number of buckets in a histogram.
+   */
+  static final int NUMBER_OF_BUCKETS =
+    (MAXIMUM_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+  private LogarithmicHistogram() {
+  }
+
+  /**
+   * Find the bucket for a value.
+   *
+   * @param value The value.
+   * @return The bucket number, between 0 and
+   *  <code>NUMBER_OF_BUCKETS - 1</code>.
+   */
+  static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return value < 0 ? 0 : (int)value;
+    }
+
+    final long v = Math.min(value, MAXIMUM_VALUE);
+
+    final int exponent = 63 - Long.numberOfLeadingZeros(v);
+    final int shift = exponent - SUB_BUCKET_BITS;
+
+    return (shift + 1) * SUB_BUCKETS + (int)(v >>> shift) - SUB_BUCKETS;
+  }
+
+  /**
+   * The smallest value that falls in a bucket.
+   *
+   * @param bucket The bucket number.
+   * @return The lower bound.
+   */
+  static long lowerBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+
+    final int shift = bucket / SUB_BUCKETS - 1;
+
+    return (long)(bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+  }
+
+  /**
+   * The largest value that falls in a bucket.
+   *
+   * @param bucket The bucket number.
+   * @return The upper bound.
+   */
+  static long upperBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+
+    return lowerBound(bucket) + (1L << (bucket / SUB_BUCKETS - 1)) - 1;
+  }
+
+  /**
+   * The value that is reported for samples that fall in a bucket. This is
+   * the mid-point of the bucket, which bounds the relative error to half the
+   * bucket width.
+   *
+   * @param bucket The bucket number.
+   * @return The representative value.
+   */
+  static long representativeValue(int bucket) {
+    final long lower = lowerBound(bucket);
+    return lower + (upperBound(bucket) - lower) / 2;
+  }
+
+  /**
+   * Estimate a percentile of the samples recorded in a histogram.
+   *
+   * <p>The result is the mid-point of the bucket that contains the sample of
+   * the requested rank.</p>
+   *
+   * @param data Array holding the histogram buckets.
+   * @param firstBucket Index of the first bucket in <code>data</code>.
+   * @param numberOfBuckets The number of buckets.
+   * @param percentile The percentile. Clamped to between 0 and 100.
+   * @return The estimated value, or <code>0</code> if the histogram is empty.
+   */
+  static long percentile(long[] data,
+                         int firstBucket,
+                         int numberOfBuckets,
+                         double percentile) {
+    long total = 0;
+
+    for (int i = 0; i < numberOfBuckets; ++i) {
+      total += data[firstBucket + i];
+    }
+
+    if (total == 0) {
+      return 0;
+    }
+
+    final double clamped = Math.min(Math.max(percentile, 0), 100);
+    final long rank = Math.max(1, (long)Math.ceil(clamped * total / 100));
+
+    long cumulative = 0;
+
+    for (int i = 0; i < numberOfBuckets; ++i) {
+      cumulative += data[firstBucket + i];
+
+      if (cumulative >= rank) {
+        return representativeValue(i);
+      }
+    }
+
+    // Unreachable.
+    return representativeValue(numberOfBuckets - 1);
+  }
+}
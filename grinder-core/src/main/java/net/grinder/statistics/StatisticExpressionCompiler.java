@@ -0,0 +1,715 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.statistics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.grinder.statistics.StatisticsIndexMap.DoubleIndex;
+import net.grinder.statistics.StatisticsIndexMap.HistogramIndex;
+import net.grinder.statistics.StatisticsIndexMap.LongIndex;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+
+/**
+ * Compiles parsed expressions to bytecode.
+ *
+ * <p>
+ * {@link StatisticExpressionFactoryImplementation} parses an expression into
+ * a tree of objects, and evaluating the expression walks the tree, making
+ * a synchronised call on the {@link StatisticsSet} for each statistic. Each
+ * compiled expression is instead a generated class that reads the arrays of
+ * a {@link StatisticsSetImplementation} directly, with the indices and
+ * constants inlined. The arrays are read under a single lock.
+ * </p>
+ *
+ * <p>
+ * The code is generated from the parsed tree. Each node of the tree is
+ * {@link Compilable}, and describes itself with the {@link Node} factory
+ * methods of this class.
+ * </p>
+ *
+ * <p>
+ * Compiled expressions give exactly the same results as the interpreted
+ * expressions, including the conversions between <code>long</code> and
+ * <code>double</code> values, and delegate to them for other
+ * {@link StatisticsSet} implementations.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+final class StatisticExpressionCompiler {
+
+  private static final String GENERATED_PACKAGE =
+    "net/grinder/statistics/generated/";
+
+  private static final String SUPER_CLASS =
+    Type.getInternalName(CompiledExpression.class);
+
+  private static final String EVALUATE_DESCRIPTOR = "([J[D[J)";
+
+  private static final int LONG_DATA = 1;
+  private static final int DOUBLE_DATA = 2;
+  private static final int TRANSIENT_LONG_DATA = 3;
+
+  // Guarded by this.
+  private final Map<String, CompiledExpression> m_cache =
+    new HashMap<String, CompiledExpression>();
+
+  // Guarded by this.
+  private GeneratedClassLoader m_classLoader;
+
+  // Guarded by this.
+  private int m_nextClassNumber;
+
+  /**
+   * Compile an expression.
+   *
+   * @param expression
+   *          The expression string. Used as the key for the cache of
+   *          generated classes.
+   * @param interpreted
+   *          The result of parsing <code>expression</code> with
+   *          {@link StatisticExpressionFactoryImplementation}.
+   * @return The compiled expression, or <code>interpreted</code> if the
+   *         expression can't be compiled.
+   */
+  StatisticExpression compile(String expression,
+                              StatisticExpression interpreted) {
+
+    final CompiledExpression compiled;
+
+    try {
+      compiled = getCompiledExpression(expression, interpreted);
+    }
+    catch (SecurityException e) {
+      // Not allowed to create a class loader.
+      return interpreted;
+    }
+    catch (NotCompilableException e) {
+      return interpreted;
+    }
+
+    return new CompiledStatisticExpression(compiled, interpreted);
+  }
+
+  private synchronized CompiledExpression getCompiledExpression(
+    String expression, StatisticExpression interpreted) {
+
+    final CompiledExpression existing = m_cache.get(expression);
+
+    if (existing != null) {
+      return existing;
+    }
+
+    final Node node = toNode(interpreted);
+
+    if (m_classLoader == null) {
+      m_classLoader = new GeneratedClassLoader();
+    }
+
+    final String className =
+      GENERATED_PACKAGE + "Expression" + m_nextClassNumber++;
+
+    final CompiledExpression result;
+
+    try {
+      result = (CompiledExpression)
+        m_classLoader.define(className.replace('/', '.'),
+                             generate(className, node))
+        .newInstance();
+    }
+    catch (InstantiationException e) {
+      throw new AssertionError(e);
+    }
+    catch (IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+
+    m_cache.put(expression, result);
+
+    return result;
+  }
+
+  /**
+   * Accessor for the unit tests.
+   */
+  synchronized int getNumberOfCompiledClasses() {
+    return m_nextClassNumber;
+  }
+
+  private static byte[] generate(String className, Node node) {
+    final ClassWriter classWriter =
+      new ClassWriter(ClassWriter.COMPUTE_MAXS);
+
+    classWriter.visit(Opcodes.V1_5,
+                      Opcodes.ACC_PUBLIC |
+                      Opcodes.ACC_FINAL |
+                      Opcodes.ACC_SUPER,
+                      className,
+                      null,
+                      SUPER_CLASS,
+                      null);
+
+    final MethodVisitor constructor =
+      classWriter.visitMethod(Opcodes.ACC_PUBLIC,
+                              "<init>",
+                              "()V",
+                              null,
+                              null);
+    constructor.visitCode();
+    constructor.visitVarInsn(Opcodes.ALOAD, 0);
+    constructor.visitMethodInsn(Opcodes.INVOKESPECIAL,
+                                SUPER_CLASS,
+                                "<init>",
+                                "()V");
+    constructor.visitInsn(Opcodes.RETURN);
+    constructor.visitMaxs(0, 0);
+    constructor.visitEnd();
+
+    final MethodVisitor isDouble =
+      classWriter.visitMethod(Opcodes.ACC_PUBLIC,
+                              "isDouble",
+                              "()Z",
+                              null,
+                              null);
+    isDouble.visitCode();
+    isDouble.visitInsn(node.isDouble() ? Opcodes.ICONST_1 : Opcodes.ICONST_0);
+    isDouble.visitInsn(Opcodes.IRETURN);
+    isDouble.visitMaxs(0, 0);
+    isDouble.visitEnd();
+
+    final MethodVisitor getLongValue =
+      classWriter.visitMethod(Opcodes.ACC_PUBLIC,
+                              "getLongValue",
+                              EVALUATE_DESCRIPTOR + "J",
+                              null,
+                              null);
+    getLongValue.visitCode();
+    node.emit(getLongValue, false);
+    getLongValue.visitInsn(Opcodes.LRETURN);
+    getLongValue.visitMaxs(0, 0);
+    getLongValue.visitEnd();
+
+    final MethodVisitor getDoubleValue =
+      classWriter.visitMethod(Opcodes.ACC_PUBLIC,
+                              "getDoubleValue",
+                              EVALUATE_DESCRIPTOR + "D",
+                              null,
+                              null);
+    getDoubleValue.visitCode();
+    node.emit(getDoubleValue, true);
+    getDoubleValue.visitInsn(Opcodes.DRETURN);
+    getDoubleValue.visitMaxs(0, 0);
+    getDoubleValue.visitEnd();
+
+    classWriter.visitEnd();
+
+    return classWriter.toByteArray();
+  }
+
+  /**
+   * Obtain the node for an expression.
+   *
+   * @param expression The expression.
+   * @return The node.
+   * @throws NotCompilableException If the expression is not
+   *  {@link Compilable}.
+   */
+  static Node toNode(StatisticExpression expression) {
+    if (expression instanceof Compilable) {
+      return ((Compilable) expression).toNode();
+    }
+
+    throw new NotCompilableException();
+  }
+
+  /**
+   * Obtain the nodes for some expressions.
+   *
+   * @param expressions The expressions.
+   * @return The nodes.
+   * @throws NotCompilableException If an expression is not
+   *  {@link Compilable}.
+   */
+  static Node[] toNodes(StatisticExpression[] expressions) {
+    final Node[] result = new Node[expressions.length];
+
+    for (int i = 0; i < expressions.length; ++i) {
+      result[i] = toNode(expressions[i]);
+    }
+
+    return result;
+  }
+
+  static Node constant(long value) {
+    return new LongConstant(value);
+  }
+
+  static Node constant(double value) {
+    return new DoubleConstant(value);
+  }
+
+  static Node primitive(LongIndex index) {
+    return new LongPrimitive(index);
+  }
+
+  static Node primitive(DoubleIndex index) {
+    return new DoublePrimitive(index);
+  }
+
+  static Node sum(Node initialValue, Node[] operands) {
+    return new Fold(initialValue, operands, Opcodes.LADD, Opcodes.DADD);
+  }
+
+  static Node minus(Node firstOperand, Node[] otherOperands) {
+    return new Fold(firstOperand, otherOperands, Opcodes.LSUB, Opcodes.DSUB);
+  }
+
+  static Node product(Node initialValue, Node[] operands) {
+    return new Fold(initialValue, operands, Opcodes.LMUL, Opcodes.DMUL);
+  }
+
+  static Node negation(Node operand) {
+    return new Negation(operand);
+  }
+
+  static Node division(Node numerator, Node denominator) {
+    return new Division(numerator, denominator);
+  }
+
+  static Node squareRoot(Node operand) {
+    return new SquareRoot(operand);
+  }
+
+  static Node percentile(LongIndex countIndex,
+                         HistogramIndex histogramIndex,
+                         double percentile) {
+    return new Percentile(countIndex,
+                          histogramIndex.getFirstBucket(),
+                          histogramIndex.getNumberOfBuckets(),
+                          percentile);
+  }
+
+  private static void pushInt(MethodVisitor methodVisitor, int value) {
+    if (value >= -1 && value <= 5) {
+      methodVisitor.visitInsn(Opcodes.ICONST_0 + value);
+    }
+    else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+      methodVisitor.visitIntInsn(Opcodes.BIPUSH, value);
+    }
+    else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+      methodVisitor.visitIntInsn(Opcodes.SIPUSH, value);
+    }
+    else {
+      methodVisitor.visitLdcInsn(value);
+    }
+  }
+
+  /**
+   * Implemented by parsed expressions that can be compiled.
+   */
+  interface Compilable {
+
+    /**
+     * Describe the expression for the compiler.
+     *
+     * @return The node.
+     * @throws NotCompilableException If the expression has an operand
+     *  that can't be compiled.
+     */
+    Node toNode();
+  }
+
+  /**
+   * Thrown if an expression tree includes an expression that wasn't created
+   * by {@link StatisticExpressionFactoryImplementation}.
+   */
+  static final class NotCompilableException extends RuntimeException {
+  }
+
+  /**
+   * A node of the expression tree, created with the factory methods of
+   * {@link StatisticExpressionCompiler}.
+   */
+  abstract static class Node {
+
+    abstract boolean isDouble();
+
+    /**
+     * Emit code that pushes the value of the node.
+     *
+     * @param methodVisitor Where to emit the code.
+     */
+    protected abstract void emit(MethodVisitor methodVisitor);
+
+    /**
+     * Emit code that pushes the value of the node, converted to the
+     * requested type in the same way as the interpreted expressions.
+     *
+     * @param methodVisitor Where to emit the code.
+     * @param asDouble <code>true</code> for a <code>double</code> value,
+     * <code>false</code> for a <code>long</code>.
+     */
+    final void emit(MethodVisitor methodVisitor, boolean asDouble) {
+      emit(methodVisitor);
+
+      if (isDouble() && !asDouble) {
+        methodVisitor.visitInsn(Opcodes.D2L);
+      }
+      else if (!isDouble() && asDouble) {
+        methodVisitor.visitInsn(Opcodes.L2D);
+      }
+    }
+  }
+
+  private static final class LongConstant extends Node {
+    private final long m_value;
+
+    LongConstant(long value) {
+      m_value = value;
+    }
+
+    boolean isDouble() {
+      return false;
+    }
+
+    protected void emit(MethodVisitor methodVisitor) {
+      methodVisitor.visitLdcInsn(m_value);
+    }
+  }
+
+  private static final class DoubleConstant extends Node {
+    private final double m_value;
+
+    DoubleConstant(double value) {
+      m_value = value;
+    }
+
+    boolean isDouble() {
+      return true;
+    }
+
+    protected void emit(MethodVisitor methodVisitor) {
+      methodVisitor.visitLdcInsn(m_value);
+    }
+  }
+
+  private static final class LongPrimitive extends Node {
+    private final LongIndex m_index;
+
+    LongPrimitive(LongIndex index) {
+      m_index = index;
+    }
+
+    boolean isDouble() {
+      return false;
+    }
+
+    protected void emit(MethodVisitor methodVisitor) {
+      methodVisitor.visitVarInsn(
+        Opcodes.ALOAD, m_index.isTransient() ? TRANSIENT_LONG_DATA : LONG_DATA);
+      pushInt(methodVisitor, m_index.getValue());
+      methodVisitor.visitInsn(Opcodes.LALOAD);
+    }
+  }
+
+  private static final class DoublePrimitive extends Node {
+    private final DoubleIndex m_index;
+
+    DoublePrimitive(DoubleIndex index) {
+      m_index = index;
+    }
+
+    boolean isDouble() {
+      return true;
+    }
+
+    protected void emit(MethodVisitor methodVisitor) {
+      methodVisitor.visitVarInsn(Opcodes.ALOAD, DOUBLE_DATA);
+      pushInt(methodVisitor, m_index.getValue());
+      methodVisitor.visitInsn(Opcodes.DALOAD);
+    }
+  }
+
+  /**
+   * Sums, differences, and products. As for the interpreted expressions,
+   * the type of the result depends only on the operands, not on the initial
+   * value.
+   */
+  private static final class Fold extends Node {
+    private final Node m_initialValue;
+    private final Node[] m_operands;
+    private final int m_longOpcode;
+    private final int m_doubleOpcode;
+    private final boolean m_isDouble;
+
+    Fold(Node initialValue,
+         Node[] operands,
+         int longOpcode,
+         int doubleOpcode) {
+      m_initialValue = initialValue;
+      m_operands = operands;
+      m_longOpcode = longOpcode;
+      m_doubleOpcode = doubleOpcode;
+
+      boolean isDouble = false;
+
+      for (Node operand : operands) {
+        isDouble |= operand.isDouble();
+      }
+
+      m_isDouble = isDouble;
+    }
+
+    boolean isDouble() {
+      return m_isDouble;
+    }
+
+    protected void emit(MethodVisitor methodVisitor) {
+      m_initialValue.emit(methodVisitor, m_isDouble);
+
+      for (Node operand : m_operands) {
+        operand.emit(methodVisitor, m_isDouble);
+        methodVisitor.visitInsn(m_isDouble ? m_doubleOpcode : m_longOpcode);
+      }
+    }
+  }
+
+  private static final class Negation extends Node {
+    private final Node m_operand;
+
+    Negation(Node operand) {
+      m_operand = operand;
+    }
+
+    boolean isDouble() {
+      return m_operand.isDouble();
+    }
+
+    protected void emit(MethodVisitor methodVisitor) {
+      m_operand.emit(methodVisitor);
+      methodVisitor.visitInsn(isDouble() ? Opcodes.DNEG : Opcodes.LNEG);
+    }
+  }
+
+  private static final class Division extends Node {
+    private final Node m_numerator;
+    private final Node m_denominator;
+
+    Division(Node numerator, Node denominator) {
+      m_numerator = numerator;
+      m_denominator = denominator;
+    }
+
+    boolean isDouble() {
+      return true;
+    }
+
+    protected void emit(MethodVisitor methodVisitor) {
+      m_numerator.emit(methodVisitor, true);
+      m_denominator.emit(methodVisitor, true);
+      methodVisitor.visitInsn(Opcodes.DDIV);
+    }
+  }
+
+  private static final class SquareRoot extends Node {
+    private final Node m_operand;
+
+    SquareRoot(Node operand) {
+      m_operand = operand;
+    }
+
+    boolean isDouble() {
+      return true;
+    }
+
+    protected void emit(MethodVisitor methodVisitor) {
+      m_operand.emit(methodVisitor, true);
+      methodVisitor.visitMethodInsn(Opcodes.INVOKESTATIC,
+                                    "java/lang/Math",
+                                    "sqrt",
+                                    "(D)D");
+    }
+  }
+
+  /**
+   * Like the mean, the percentile is undefined if there are no samples.
+   */
+  private static final class Percentile extends Node {
+    private final LongIndex m_countIndex;
+    private final int m_firstBucket;
+    private final int m_numberOfBuckets;
+    private final double m_percentile;
+
+    Percentile(LongIndex countIndex,
+               int firstBucket,
+               int numberOfBuckets,
+               double percentile) {
+      m_countIndex = countIndex;
+      m_firstBucket = firstBucket;
+      m_numberOfBuckets = numberOfBuckets;
+      m_percentile = percentile;
+    }
+
+    boolean isDouble() {
+      return true;
+    }
+
+    protected void emit(MethodVisitor methodVisitor) {
+      final Label haveSamples = new Label();
+      final Label end = new Label();
+
+      new LongPrimitive(m_countIndex).emit(methodVisitor);
+      methodVisitor.visitInsn(Opcodes.LCONST_0);
+      methodVisitor.visitInsn(Opcodes.LCMP);
+      methodVisitor.visitJumpInsn(Opcodes.IFNE, haveSamples);
+      methodVisitor.visitLdcInsn(Double.NaN);
+      methodVisitor.visitJumpInsn(Opcodes.GOTO, end);
+
+      methodVisitor.visitLabel(haveSamples);
+      methodVisitor.visitVarInsn(Opcodes.ALOAD, LONG_DATA);
+      pushInt(methodVisitor, m_firstBucket);
+      pushInt(methodVisitor, m_numberOfBuckets);
+      methodVisitor.visitLdcInsn(m_percentile);
+      methodVisitor.visitMethodInsn(Opcodes.INVOKESTATIC,
+                                    SUPER_CLASS,
+                                    "percentile",
+                                    "([JIID)J");
+      methodVisitor.visitInsn(Opcodes.L2D);
+
+      methodVisitor.visitLabel(end);
+    }
+  }
+
+  /**
+   * Base class for the generated classes.
+   *
+   * <p>
+   * The generated classes are defined by their own class loader, so they
+   * can only access public classes and members of this package, and
+   * the protected members of their super class.
+   * </p>
+   */
+  public abstract static class CompiledExpression {
+
+    /**
+     * Evaluate the expression as a <code>long</code>.
+     *
+     * @param longData The long values.
+     * @param doubleData The double values.
+     * @param transientLongData The transient long values.
+     * @return The value.
+     */
+    public abstract long getLongValue(long[] longData,
+                                      double[] doubleData,
+                                      long[] transientLongData);
+
+    /**
+     * Evaluate the expression as a <code>double</code>.
+     *
+     * @param longData The long values.
+     * @param doubleData The double values.
+     * @param transientLongData The transient long values.
+     * @return The value.
+     */
+    public abstract double getDoubleValue(long[] longData,
+                                          double[] doubleData,
+                                          long[] transientLongData);
+
+    /**
+     * Whether the expression is naturally a <code>double</code>.
+     *
+     * @return <code>true</code> if the expression is a <code>double</code>.
+     */
+    public abstract boolean isDouble();
+
+    /**
+     * Support for generated percentile expressions.
+     *
+     * @see LogarithmicHistogram#percentile
+     */
+    protected static long percentile(long[] data,
+                                     int firstBucket,
+                                     int numberOfBuckets,
+                                     double percentile) {
+      return LogarithmicHistogram.percentile(data,
+                                             firstBucket,
+                                             numberOfBuckets,
+                                             percentile);
+    }
+  }
+
+  /**
+   * Adapts a {@link CompiledExpression} to {@link StatisticExpression}.
+   */
+  private static final class CompiledStatisticExpression
+    implements StatisticExpression {
+
+    private final CompiledExpression m_compiled;
+    private final StatisticExpression m_interpreted;
+
+    CompiledStatisticExpression(CompiledExpression compiled,
+                                StatisticExpression interpreted) {
+      m_compiled = compiled;
+      m_interpreted = interpreted;
+    }
+
+    public double getDoubleValue(StatisticsSet statisticsSet) {
+      if (statisticsSet instanceof StatisticsSetImplementation) {
+        return ((StatisticsSetImplementation) statisticsSet)
+               .getDoubleValue(m_compiled);
+      }
+
+      return m_interpreted.getDoubleValue(statisticsSet);
+    }
+
+    public long getLongValue(StatisticsSet statisticsSet) {
+      if (statisticsSet instanceof StatisticsSetImplementation) {
+        return ((StatisticsSetImplementation) statisticsSet)
+               .getLongValue(m_compiled);
+      }
+
+      return m_interpreted.getLongValue(statisticsSet);
+    }
+
+    public boolean isDouble() {
+      return m_compiled.isDouble();
+    }
+  }
+
+  private static final class GeneratedClassLoader extends ClassLoader {
+    GeneratedClassLoader() {
+      super(CompiledExpression.class.getClassLoader());
+    }
+
+    Class<?> define(String name, byte[] bytes) {
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+}
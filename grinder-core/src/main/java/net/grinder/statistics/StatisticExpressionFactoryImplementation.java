@@ -24,8 +24,11 @@ package net.grinder.statistics;
 import java.util.ArrayList;
 import java.util.List;
 
+import net.grinder.statistics.StatisticExpressionCompiler.Compilable;
+import net.grinder.statistics.StatisticExpressionCompiler.Node;
 import net.grinder.statistics.StatisticsIndexMap.DoubleIndex;
 import net.grinder.statistics.StatisticsIndexMap.DoubleSampleIndex;
+import net.grinder.statistics.StatisticsIndexMap.HistogramIndex;
 import net.grinder.statistics.StatisticsIndexMap.LongIndex;
 import net.grinder.statistics.StatisticsIndexMap.LongSampleIndex;
 
@@ -39,10 +42,12 @@ final class StatisticExpressionFactoryImplementation
   implements StatisticExpressionFactory {
 
   private final StatisticsIndexMap m_indexMap;
+  private final StatisticExpressionCompiler m_compiler;
 
   StatisticExpressionFactoryImplementation(
     StatisticsIndexMap statisticsIndexMap) {
     m_indexMap = statisticsIndexMap;
+    m_compiler = new StatisticExpressionCompiler();
   }
 
   /**
@@ -87,7 +92,8 @@ final class StatisticExpressionFactoryImplementation
   }
 
   /**
-   * Parse an expression.
+   * Parse an expression. The parsed expression is compiled to bytecode, see
+   * {@link StatisticExpressionCompiler}.
    *
    * @param expression The expression.
    * @return The parsed expression.
@@ -104,7 +110,7 @@ final class StatisticExpressionFactoryImplementation
       throw parseContext.createParseException("Additional characters found");
     }
 
-    return result;
+    return m_compiler.compile(expression, result);
   }
 
   private StatisticExpression readExpression(ParseContext parseContext)
@@ -150,6 +156,9 @@ final class StatisticExpressionFactoryImplementation
       else if ("sqrt".equals(operation)) {
         result = createSquareRoot(readExpression(parseContext));
       }
+      else if ("percentile".equals(operation)) {
+        result = createPercentile(parseContext);
+      }
       else {
         throw parseContext.createParseException(
           "Unknown operation '" + operation + "'");
@@ -201,6 +210,10 @@ final class StatisticExpressionFactoryImplementation
         public long getValue(StatisticsSet statisticsSet) {
           return value;
         }
+
+        public Node toNode() {
+          return StatisticExpressionCompiler.constant(value);
+        }
       };
   }
 
@@ -215,6 +228,10 @@ final class StatisticExpressionFactoryImplementation
         public double getValue(StatisticsSet statisticsSet) {
           return value;
         }
+
+        public Node toNode() {
+          return StatisticExpressionCompiler.constant(value);
+        }
       };
   }
 
@@ -258,6 +275,10 @@ final class StatisticExpressionFactoryImplementation
           StatisticsSet statisticsSet) {
           return result + operand.getLongValue(statisticsSet);
         }
+
+        public Node createNode(Node initialValue, Node[] nodes) {
+          return StatisticExpressionCompiler.sum(initialValue, nodes);
+        }
       }
       .getExpression();
   }
@@ -275,6 +296,11 @@ final class StatisticExpressionFactoryImplementation
         protected double getValue(StatisticsSet statisticsSet) {
           return -operand.getDoubleValue(statisticsSet);
         }
+
+        public Node toNode() {
+          return StatisticExpressionCompiler.negation(
+            StatisticExpressionCompiler.toNode(operand));
+        }
       };
     }
     else {
@@ -282,6 +308,11 @@ final class StatisticExpressionFactoryImplementation
         protected long getValue(StatisticsSet statisticsSet) {
           return -operand.getLongValue(statisticsSet);
         }
+
+        public Node toNode() {
+          return StatisticExpressionCompiler.negation(
+            StatisticExpressionCompiler.toNode(operand));
+        }
       };
     }
   }
@@ -310,6 +341,10 @@ final class StatisticExpressionFactoryImplementation
                                   StatisticsSet statisticsSet) {
         return result - operand.getLongValue(statisticsSet);
       }
+
+      public Node createNode(Node initialValue, Node[] nodes) {
+        return StatisticExpressionCompiler.minus(initialValue, nodes);
+      }
     }
     .getExpression();
   }
@@ -336,6 +371,10 @@ final class StatisticExpressionFactoryImplementation
           StatisticsSet statisticsSet) {
           return result * operand.getLongValue(statisticsSet);
         }
+
+        public Node createNode(Node initialValue, Node[] nodes) {
+          return StatisticExpressionCompiler.product(initialValue, nodes);
+        }
       }
       .getExpression();
   }
@@ -357,6 +396,12 @@ final class StatisticExpressionFactoryImplementation
             numerator.getDoubleValue(statisticsSet) /
             denominator.getDoubleValue(statisticsSet);
         }
+
+        public Node toNode() {
+          return StatisticExpressionCompiler.division(
+            StatisticExpressionCompiler.toNode(numerator),
+            StatisticExpressionCompiler.toNode(denominator));
+        }
       };
   }
 
@@ -478,6 +523,60 @@ final class StatisticExpressionFactoryImplementation
     return result;
   }
 
+  /**
+   * Create an accessor for a percentile of a histogram.
+   *
+   * @param parseContext The parse context.
+   * @return The resulting expression.
+   * @throws ParseException If the parse failed.
+   */
+  private StatisticExpression createPercentile(ParseContext parseContext)
+    throws ParseContext.ParseException {
+
+    final String percentileToken = parseContext.readToken();
+    final double percentile;
+
+    try {
+      percentile = Double.parseDouble(percentileToken);
+    }
+    catch (NumberFormatException e) {
+      throw parseContext.createParseException(
+        "Expected a percentile, found '" + percentileToken + "'");
+    }
+
+    if (percentile < 0 || percentile > 100) {
+      throw parseContext.createParseException(
+        "Percentile '" + percentileToken + "' is not between 0 and 100");
+    }
+
+    final String token = parseContext.readToken();
+
+    final HistogramIndex histogramIndex = m_indexMap.getHistogramIndex(token);
+
+    if (histogramIndex == null) {
+      throw parseContext.createParseException(
+        "Can't apply percentile to unknown histogram index '" + token + "'");
+    }
+
+    final LongSampleIndex sampleIndex = m_indexMap.getLongSampleIndex(token);
+
+    // Like the mean, the percentile is undefined if there are no samples.
+    return new DoubleStatistic() {
+      public double getValue(StatisticsSet statisticsSet) {
+        if (statisticsSet.getCount(sampleIndex) == 0) {
+          return Double.NaN;
+        }
+
+        return statisticsSet.getPercentile(histogramIndex, percentile);
+      }
+
+      public Node toNode() {
+        return StatisticExpressionCompiler.percentile(
+          sampleIndex.getCountIndex(), histogramIndex, percentile);
+      }
+    };
+  }
+
   /**
    * Create a square root.
    *
@@ -491,6 +590,11 @@ final class StatisticExpressionFactoryImplementation
         public double getValue(StatisticsSet statisticsSet) {
           return Math.sqrt(operand.getDoubleValue(statisticsSet));
         }
+
+        public Node toNode() {
+          return StatisticExpressionCompiler.squareRoot(
+            StatisticExpressionCompiler.toNode(operand));
+        }
       };
   }
 
@@ -578,7 +682,7 @@ final class StatisticExpressionFactoryImplementation
   }
 
   private abstract static class DoubleStatistic
-    implements StatisticExpression {
+    implements StatisticExpression, Compilable {
     public final double getDoubleValue(StatisticsSet statisticsSet) {
       return getValue(statisticsSet);
     }
@@ -606,6 +710,10 @@ final class StatisticExpressionFactoryImplementation
       return statisticsSet.getValue(m_index);
     }
 
+    public final Node toNode() {
+      return StatisticExpressionCompiler.primitive(m_index);
+    }
+
     protected final void setValue(StatisticsSet statisticsSet, double value) {
       statisticsSet.setValue(m_index, value);
     }
@@ -631,7 +739,8 @@ final class StatisticExpressionFactoryImplementation
     }
   }
 
-  private abstract static class LongStatistic implements StatisticExpression {
+  private abstract static class LongStatistic
+    implements StatisticExpression, Compilable {
 
     public final double getDoubleValue(StatisticsSet statisticsSet) {
       return getValue(statisticsSet);
@@ -660,6 +769,10 @@ final class StatisticExpressionFactoryImplementation
       return statisticsSet.getValue(m_index);
     }
 
+    public final Node toNode() {
+      return StatisticExpressionCompiler.primitive(m_index);
+    }
+
     protected final void setValue(StatisticsSet statisticsSet, long value) {
       statisticsSet.setValue(m_index, value);
     }
@@ -717,6 +830,10 @@ final class StatisticExpressionFactoryImplementation
 
               return result;
             }
+
+            public Node toNode() {
+              return createNode(initialValue, operands);
+            }
           };
       }
       else {
@@ -731,6 +848,10 @@ final class StatisticExpressionFactoryImplementation
 
               return result;
             }
+
+            public Node toNode() {
+              return createNode(initialValue, operands);
+            }
           };
       }
     }
@@ -743,6 +864,14 @@ final class StatisticExpressionFactoryImplementation
       doLongOperation(long result, StatisticExpression operand,
                       StatisticsSet statisticsSet);
 
+    protected abstract Node createNode(Node initialValue, Node[] operands);
+
+    private Node createNode(StatisticExpression initialValue,
+                            StatisticExpression[] operands) {
+      return createNode(StatisticExpressionCompiler.toNode(initialValue),
+                        StatisticExpressionCompiler.toNodes(operands));
+    }
+
     final StatisticExpression getExpression() {
       return m_expression;
     }
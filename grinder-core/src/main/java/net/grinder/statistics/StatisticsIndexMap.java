@@ -26,7 +26,8 @@ package net.grinder.statistics;
 import static java.util.Arrays.asList;
 
 import java.io.Serializable;
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -58,6 +59,18 @@ import java.util.Map;
  * (e.g. <em>count()</em>), see {@link ExpressionView}.
  * </p>
  *
+ * <h4>Histogram Statistics</h4>
+ *
+ * <p>
+ * A long sample statistic can have an associated <em>histogram</em> of the
+ * same name, see {@link #getHistogramIndex}. Each sample added to the sample
+ * statistic is also counted in a logarithmically sized bucket of the
+ * histogram. Histograms have a fixed size, and are merged along with the other
+ * statistics, so they can be used to calculate accurate percentiles for any
+ * number of samples. Percentiles can be queried using the <em>percentile()</em>
+ * expression function, see {@link ExpressionView}.
+ * </p>
+ *
  * @author Philip Aston
  */
 public final class StatisticsIndexMap implements Serializable {
@@ -74,12 +87,24 @@ public final class StatisticsIndexMap implements Serializable {
     new HashMap<String, DoubleSampleIndex>();
   private final Map<String, LongSampleIndex> m_longSampleMap =
     new HashMap<String, LongSampleIndex>();
+  private final Map<String, HistogramIndex> m_histogramMap =
+    new HashMap<String, HistogramIndex>();
+  private final List<HistogramIndex> m_histograms =
+    new ArrayList<HistogramIndex>();
+
+  // Array views of the sample indices for StatisticsSetImplementation, which
+  // uses them on the test dispatch path and must not allocate. Rebuilt
+  // lazily whenever the sample indices change.
+  private transient volatile SampleIndicies m_sampleIndicies;
 
   // These are bigger than m_doubleMap.size() and m_longMap.size()
   // as the sample indicies also use slots.
   private final int m_numberOfDoubles;
   private final int m_numberOfLongs;
 
+  // Histogram buckets are allocated after all the other long slots.
+  private final int m_numberOfNonHistogramLongs;
+
   /**
    * Special slot for the HTTP plugin so it doesn't steal "user"
    * indicies. Use with {@link #getLongIndex(String)}.
@@ -131,6 +156,7 @@ public final class StatisticsIndexMap implements Serializable {
     // of TestStatisticsMap.
     this(asList("errors",
                 "untimedTests",
+                "lateStarts",
                 HTTP_PLUGIN_RESPONSE_STATUS_KEY,
                 HTTP_PLUGIN_RESPONSE_LENGTH_KEY,
                 HTTP_PLUGIN_RESPONSE_ERRORS_KEY,
@@ -149,6 +175,7 @@ public final class StatisticsIndexMap implements Serializable {
                 "userDouble3",
                 "userDouble4"),
          asList("period"),
+         asList("timedTests"),
          asList("timedTests"));
   }
 
@@ -168,6 +195,33 @@ public final class StatisticsIndexMap implements Serializable {
                      List<String> doubleNames,
                      List<String> transientLongNames,
                      List<String> longSampleNames) {
+    this(longNames,
+         doubleNames,
+         transientLongNames,
+         longSampleNames,
+         Collections.<String>emptyList());
+  }
+
+  /**
+   * Open constructor for use by unit tests.
+   *
+   * @param longNames
+   *          Names of long statistics.
+   * @param doubleNames
+   *          Names of double statistics.
+   * @param transientLongNames
+   *          Names of transient long statistics.
+   * @param longSampleNames
+   *          Names of long sample statistics.
+   * @param histogramNames
+   *          Names of long sample statistics that should also have a
+   *          histogram.
+   */
+  StatisticsIndexMap(List<String> longNames,
+                     List<String> doubleNames,
+                     List<String> transientLongNames,
+                     List<String> longSampleNames,
+                     List<String> histogramNames) {
     int nextLongIndex = 0;
     int nextTransientLongIndex = 0;
 
@@ -181,11 +235,29 @@ public final class StatisticsIndexMap implements Serializable {
       m_doubleMap.put(doubleName, new DoubleIndex(nextDoubleIndex++));
     }
 
+    // Each long sample uses two long slots. Histogram buckets are allocated
+    // after them.
+    int nextHistogramIndex = nextLongIndex + 2 * longSampleNames.size();
+
     for (String longSampleName : longSampleNames) {
+      final HistogramIndex histogramIndex;
+
+      if (histogramNames.contains(longSampleName)) {
+        histogramIndex = new HistogramIndex(nextHistogramIndex);
+        nextHistogramIndex += LogarithmicHistogram.NUMBER_OF_BUCKETS;
+
+        m_histogramMap.put(longSampleName, histogramIndex);
+        m_histograms.add(histogramIndex);
+      }
+      else {
+        histogramIndex = null;
+      }
+
       createLongSampleIndex(longSampleName,
                             new LongIndex(nextLongIndex++),
                             new LongIndex(nextLongIndex++),
-                            new DoubleIndex(nextDoubleIndex++));
+                            new DoubleIndex(nextDoubleIndex++),
+                            histogramIndex);
     }
 
     for (String transientLongName : transientLongNames) {
@@ -194,7 +266,8 @@ public final class StatisticsIndexMap implements Serializable {
     }
 
     m_numberOfDoubles = nextDoubleIndex;
-    m_numberOfLongs = nextLongIndex;
+    m_numberOfNonHistogramLongs = nextLongIndex;
+    m_numberOfLongs = nextHistogramIndex;
   }
 
   int getNumberOfDoubles() {
@@ -209,12 +282,69 @@ public final class StatisticsIndexMap implements Serializable {
     return m_transientLongMap.size();
   }
 
-  Collection<DoubleSampleIndex> getDoubleSampleIndicies() {
-    return m_doubleSampleMap.values();
+  int getNumberOfNonHistogramLongs() {
+    return m_numberOfNonHistogramLongs;
   }
 
-  Collection<LongSampleIndex> getLongSampleIndicies() {
-    return m_longSampleMap.values();
+  List<HistogramIndex> getHistogramIndicies() {
+    return m_histograms;
+  }
+
+  DoubleSampleIndex[] getDoubleSampleIndicies() {
+    return getSampleIndicies().m_doubleSampleIndicies;
+  }
+
+  LongSampleIndex[] getLongSampleIndicies() {
+    return getSampleIndicies().m_longSampleIndicies;
+  }
+
+  /**
+   * Identify the double slots that hold sample variances.
+   *
+   * @return An array with an element for each double slot. An element is
+   *         {@code true} if and only if the slot holds a sample variance.
+   *         Callers must not modify the array.
+   */
+  boolean[] getVarianceIndicies() {
+    return getSampleIndicies().m_isVarianceIndex;
+  }
+
+  private SampleIndicies getSampleIndicies() {
+    final SampleIndicies existing = m_sampleIndicies;
+
+    if (existing != null) {
+      return existing;
+    }
+
+    final SampleIndicies result = new SampleIndicies();
+    m_sampleIndicies = result;
+    return result;
+  }
+
+  private final class SampleIndicies {
+    private final LongSampleIndex[] m_longSampleIndicies;
+    private final DoubleSampleIndex[] m_doubleSampleIndicies;
+    private final boolean[] m_isVarianceIndex;
+
+    public SampleIndicies() {
+      m_longSampleIndicies =
+        m_longSampleMap.values().toArray(
+          new LongSampleIndex[m_longSampleMap.size()]);
+
+      m_doubleSampleIndicies =
+        m_doubleSampleMap.values().toArray(
+          new DoubleSampleIndex[m_doubleSampleMap.size()]);
+
+      m_isVarianceIndex = new boolean[m_numberOfDoubles];
+
+      for (SampleIndex index : m_longSampleIndicies) {
+        m_isVarianceIndex[index.getVarianceIndex().getValue()] = true;
+      }
+
+      for (SampleIndex index : m_doubleSampleIndicies) {
+        m_isVarianceIndex[index.getVarianceIndex().getValue()] = true;
+      }
+    }
   }
 
   /**
@@ -268,6 +398,17 @@ public final class StatisticsIndexMap implements Serializable {
     return m_longSampleMap.get(statisticName);
   }
 
+  /**
+   * Obtain the index object for the named histogram statistic.
+   *
+   * @param statisticName The statistic name.
+   * @return The index object, or <code>null</code> if there is no such
+   * histogram statistic.
+   */
+  public HistogramIndex getHistogramIndex(String statisticName) {
+    return m_histogramMap.get(statisticName);
+  }
+
   /**
    * Factory for {@link LongSampleIndex}s.
    *
@@ -278,16 +419,19 @@ public final class StatisticsIndexMap implements Serializable {
    * @param sumIndex Index to hold sum.
    * @param countIndex Index to hold count.
    * @param varianceIndex Index to hold variance.
+   * @param histogramIndex Index to hold histogram, or <code>null</code>.
    * @return The new index.
    */
   private LongSampleIndex createLongSampleIndex(String statisticName,
                                                 LongIndex sumIndex,
                                                 LongIndex countIndex,
-                                                DoubleIndex varianceIndex) {
+                                                DoubleIndex varianceIndex,
+                                                HistogramIndex histogramIndex) {
     final LongSampleIndex result =
-      new LongSampleIndex(sumIndex, countIndex, varianceIndex);
+      new LongSampleIndex(sumIndex, countIndex, varianceIndex, histogramIndex);
 
     m_longSampleMap.put(statisticName, result);
+    m_sampleIndicies = null;
 
     return result;
   }
@@ -314,6 +458,7 @@ public final class StatisticsIndexMap implements Serializable {
       new DoubleSampleIndex(sumIndex, countIndex, varianceIndex);
 
     m_doubleSampleMap.put(statisticName, result);
+    m_sampleIndicies = null;
 
     return result;
   }
@@ -325,6 +470,7 @@ public final class StatisticsIndexMap implements Serializable {
    */
   void removeDoubleSampleIndex(String statisticName) {
     m_doubleSampleMap.remove(statisticName);
+    m_sampleIndicies = null;
   }
 
   /**
@@ -450,12 +596,15 @@ public final class StatisticsIndexMap implements Serializable {
    */
   public static final class LongSampleIndex extends SampleIndex {
     private final LongIndex m_sumIndex;
+    private final HistogramIndex m_histogramIndex;
 
     private LongSampleIndex(LongIndex sumIndex,
                             LongIndex countIndex,
-                            DoubleIndex varianceIndex) {
+                            DoubleIndex varianceIndex,
+                            HistogramIndex histogramIndex) {
       super(countIndex, varianceIndex);
       m_sumIndex = sumIndex;
+      m_histogramIndex = histogramIndex;
     }
 
     /**
@@ -470,5 +619,51 @@ public final class StatisticsIndexMap implements Serializable {
     LongIndex getSumIndex() {
       return m_sumIndex;
     }
+
+    /**
+     * Get the index object for our histogram.
+     *
+     * <p>Package scope to prevent direct write access. External clients should
+     * use the {@link StatisticsSet} or {@link StatisticExpression} interfaces.
+     * </p>
+     *
+     * @return The index object, or <code>null</code> if this sample statistic
+     * has no histogram.
+     */
+    HistogramIndex getHistogramIndex() {
+      return m_histogramIndex;
+    }
+  }
+
+  /**
+   * Class of objects that represent histogram statistics.
+   *
+   * <p>A histogram occupies a fixed range of long slots, one per bucket. See
+   * {@link LogarithmicHistogram}.</p>
+   */
+  public static final class HistogramIndex {
+    private final int m_firstBucket;
+
+    private HistogramIndex(int firstBucket) {
+      m_firstBucket = firstBucket;
+    }
+
+    /**
+     * The long slot that holds the count of the first bucket.
+     *
+     * @return The slot.
+     */
+    int getFirstBucket() {
+      return m_firstBucket;
+    }
+
+    /**
+     * The number of buckets.
+     *
+     * @return The number of buckets.
+     */
+    int getNumberOfBuckets() {
+      return LogarithmicHistogram.NUMBER_OF_BUCKETS;
+    }
   }
 }
@@ -21,6 +21,8 @@
 
 package net.grinder.statistics;
 
+import java.util.concurrent.TimeUnit;
+
 
 /**
  * Statistics services.
@@ -30,6 +32,27 @@ package net.grinder.statistics;
  */
 public interface StatisticsServices {
 
+  /**
+   * Return the unit in which the <em>timedTests</em> statistic is recorded.
+   * The default is {@link TimeUnit#MILLISECONDS}.
+   *
+   * @return The time unit.
+   */
+  TimeUnit getTimeUnit();
+
+  /**
+   * Set the unit in which the <em>timedTests</em> statistic is recorded.
+   * This determines the views returned by
+   * {@link #getDetailStatisticsView()} and {@link #getSummaryStatisticsView()},
+   * and the {@link TestStatisticsQueries} returned by
+   * {@link #getTestStatisticsQueries()}.
+   *
+   * @param timeUnit The time unit. Milliseconds, microseconds, and
+   * nanoseconds are supported.
+   * @throws IllegalArgumentException If the time unit is not supported.
+   */
+  void setTimeUnit(TimeUnit timeUnit);
+
   /**
    * Get the common detail {@link StatisticsView}.
    *
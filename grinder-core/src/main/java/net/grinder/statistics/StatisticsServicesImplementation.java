@@ -21,6 +21,10 @@
 
 package net.grinder.statistics;
 
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Singleton that is the point of entry for {@link StatisticsServices}.
  *
@@ -57,7 +61,10 @@ public final class StatisticsServicesImplementation
   private final StatisticExpressionFactory m_statisticExpressionFactory;
   private final StatisticsSetFactory m_statisticsSetFactory;
   private final StatisticsIndexMap m_statisticsIndexMap;
-  private final TestStatisticsQueries m_testStatisticsQueries;
+  private final Map<TimeUnit, TestStatisticsQueries> m_testStatisticsQueries =
+    new EnumMap<TimeUnit, TestStatisticsQueries>(TimeUnit.class);
+
+  private volatile TimeUnit m_timeUnit = TimeUnit.MILLISECONDS;
 
   StatisticsServicesImplementation(
     CommonStatisticsViews commonStatisticsViews,
@@ -70,21 +77,46 @@ public final class StatisticsServicesImplementation
     m_statisticExpressionFactory = statisticExpressionFactory;
     m_statisticsSetFactory = statisticsSetFactory;
     m_statisticsIndexMap = statisticsIndexMap;
-    m_testStatisticsQueries = testStatisticsQueries;
+    m_testStatisticsQueries.put(TimeUnit.MILLISECONDS, testStatisticsQueries);
+    m_testStatisticsQueries.put(
+      TimeUnit.MICROSECONDS,
+      new TestStatisticsQueries(statisticsIndexMap, TimeUnit.MICROSECONDS));
+    m_testStatisticsQueries.put(
+      TimeUnit.NANOSECONDS,
+      new TestStatisticsQueries(statisticsIndexMap, TimeUnit.NANOSECONDS));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public TimeUnit getTimeUnit() {
+    return m_timeUnit;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void setTimeUnit(TimeUnit timeUnit) {
+    if (!CommonStatisticsViews.isSupported(timeUnit)) {
+      throw new IllegalArgumentException(
+        "Unsupported time unit '" + timeUnit + "'");
+    }
+
+    m_timeUnit = timeUnit;
   }
 
   /**
    * {@inheritDoc}
    */
   @Override public StatisticsView getDetailStatisticsView() {
-    return m_commonStatisticsViews.getDetailStatisticsView();
+    return m_commonStatisticsViews.getDetailStatisticsView(m_timeUnit);
   }
 
   /**
    * {@inheritDoc}
    */
   @Override public StatisticsView getSummaryStatisticsView() {
-    return m_commonStatisticsViews.getSummaryStatisticsView();
+    return m_commonStatisticsViews.getSummaryStatisticsView(m_timeUnit);
   }
 
   /**
@@ -112,7 +144,7 @@ public final class StatisticsServicesImplementation
    * {@inheritDoc}
    */
   @Override public TestStatisticsQueries getTestStatisticsQueries() {
-    return m_testStatisticsQueries;
+    return m_testStatisticsQueries.get(m_timeUnit);
   }
 
   /**
@@ -21,9 +21,9 @@
 
 package net.grinder.statistics;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectOutput;
 
 import net.grinder.util.Serialiser;
 
@@ -35,6 +35,14 @@ import net.grinder.util.Serialiser;
  */
 public final class StatisticsSetFactory {
 
+  /**
+   * The most stripes {@link #createStriped()} will use. Each stripe is a
+   * full statistics set, and there is a striped set for each test.
+   * {@code StripedStatisticsSetBenchmark}, in the benchmarks module,
+   * measures how the stripes scale with the number of threads.
+   */
+  static final int MAXIMUM_NUMBER_OF_STRIPES = 16;
+
   private final Serialiser m_serialiser = new Serialiser();
   private final StatisticsIndexMap m_statisticsIndexMap;
 
@@ -51,13 +59,28 @@ public final class StatisticsSetFactory {
     return new StatisticsSetImplementation(m_statisticsIndexMap);
   }
 
-  void writeStatisticsExternal(ObjectOutput out,
+  /**
+   * Factory method.
+   *
+   * <p>The number of stripes is chosen to suit the number of available
+   * processors, up to {@link #MAXIMUM_NUMBER_OF_STRIPES}.</p>
+   *
+   * @return A new <code>StripedStatisticsSet</code>.
+   */
+  public StripedStatisticsSet createStriped() {
+    return new StripedStatisticsSet(
+      this,
+      Math.min(2 * Runtime.getRuntime().availableProcessors(),
+               MAXIMUM_NUMBER_OF_STRIPES));
+  }
+
+  void writeStatisticsExternal(DataOutput out,
                                StatisticsSetImplementation statistics)
     throws IOException {
     statistics.writeExternal(out, m_serialiser);
   }
 
-  StatisticsSet readStatisticsExternal(ObjectInput in) throws IOException {
+  StatisticsSet readStatisticsExternal(DataInput in) throws IOException {
     return new StatisticsSetImplementation(m_statisticsIndexMap,
                                            in,
                                            m_serialiser);
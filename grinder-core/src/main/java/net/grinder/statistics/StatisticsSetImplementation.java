@@ -21,13 +21,14 @@
 
 package net.grinder.statistics;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectOutput;
 import java.util.Arrays;
 
 import net.grinder.statistics.StatisticsIndexMap.DoubleIndex;
 import net.grinder.statistics.StatisticsIndexMap.DoubleSampleIndex;
+import net.grinder.statistics.StatisticsIndexMap.HistogramIndex;
 import net.grinder.statistics.StatisticsIndexMap.LongIndex;
 import net.grinder.statistics.StatisticsIndexMap.LongSampleIndex;
 import net.grinder.statistics.StatisticsIndexMap.SampleIndex;
@@ -124,6 +125,32 @@ final class StatisticsSetImplementation implements StatisticsSet {
     return result;
   }
 
+  /**
+   * Evaluate a compiled expression against our values.
+   *
+   * @param expression The expression.
+   * @return The value.
+   */
+  synchronized long getLongValue(
+    StatisticExpressionCompiler.CompiledExpression expression) {
+    return expression.getLongValue(m_longData,
+                                   m_doubleData,
+                                   m_transientLongData);
+  }
+
+  /**
+   * Evaluate a compiled expression against our values.
+   *
+   * @param expression The expression.
+   * @return The value.
+   */
+  synchronized double getDoubleValue(
+    StatisticExpressionCompiler.CompiledExpression expression) {
+    return expression.getDoubleValue(m_longData,
+                                     m_doubleData,
+                                     m_transientLongData);
+  }
+
   /**
    * Return the value specified by <code>index</code>.
    *
@@ -236,6 +263,14 @@ final class StatisticsSetImplementation implements StatisticsSet {
 
     m_longData[index.getSumIndex().getValue()] += value;
     ++m_longData[index.getCountIndex().getValue()];
+
+    final HistogramIndex histogramIndex = index.getHistogramIndex();
+
+    if (histogramIndex != null) {
+      ++m_longData[histogramIndex.getFirstBucket() +
+                   LogarithmicHistogram.bucket(value)];
+    }
+
     m_zero = false;
   }
 
@@ -268,6 +303,17 @@ final class StatisticsSetImplementation implements StatisticsSet {
     setValue(index.getSumIndex(), 0);
     setValue(index.getCountIndex(), 0);
     setValue(index.getVarianceIndex(), 0);
+
+    final HistogramIndex histogramIndex = index.getHistogramIndex();
+
+    if (histogramIndex != null) {
+      final int first = histogramIndex.getFirstBucket();
+
+      Arrays.fill(m_longData,
+                  first,
+                  first + histogramIndex.getNumberOfBuckets(),
+                  0);
+    }
   }
 
   /**
@@ -281,6 +327,40 @@ final class StatisticsSetImplementation implements StatisticsSet {
     setValue(index.getVarianceIndex(), 0);
   }
 
+  /**
+   * Rescale the sample statistic specified by <code>index</code>, as if each
+   * sample had been multiplied by <code>factor</code>. Histogram samples are
+   * moved to the bucket that holds their scaled representative value.
+   *
+   * @param index The index.
+   * @param factor The scale factor.
+   */
+  synchronized void scale(LongSampleIndex index, double factor) {
+    final int sum = index.getSumIndex().getValue();
+    m_longData[sum] = Math.round(m_longData[sum] * factor);
+
+    m_doubleData[index.getVarianceIndex().getValue()] *= factor * factor;
+
+    final HistogramIndex histogramIndex = index.getHistogramIndex();
+
+    if (histogramIndex != null) {
+      final int first = histogramIndex.getFirstBucket();
+      final long[] buckets = new long[histogramIndex.getNumberOfBuckets()];
+
+      for (int i = 0; i < buckets.length; ++i) {
+        final long count = m_longData[first + i];
+
+        if (count != 0) {
+          buckets[LogarithmicHistogram.bucket(
+            Math.round(LogarithmicHistogram.representativeValue(i) * factor))]
+            += count;
+        }
+      }
+
+      System.arraycopy(buckets, 0, m_longData, first, buckets.length);
+    }
+  }
+
   /**
    * Calculate the variance resulting from adding the sample value
    * <code>newValue</code> to the a population with original attributes (
@@ -381,6 +461,25 @@ final class StatisticsSetImplementation implements StatisticsSet {
     return getValue(index.getVarianceIndex());
   }
 
+  /**
+   * Get an estimate of a percentile of the samples recorded in the histogram
+   * specified by <code>index</code>.
+   *
+   * <p>The result is the mid-point of the histogram bucket that contains the
+   * sample of the requested rank.</p>
+   *
+   * @param index The index.
+   * @param percentile The percentile, between 0 and 100.
+   * @return The estimated value, or <code>0</code> if the histogram is empty.
+   */
+  public synchronized long getPercentile(HistogramIndex index,
+                                         double percentile) {
+    return LogarithmicHistogram.percentile(m_longData,
+                                           index.getFirstBucket(),
+                                           index.getNumberOfBuckets(),
+                                           percentile);
+  }
+
   /**
    * Add the values of another <code>StatisticsSet</code> to ours. Assumes we
    * don't need to synchronise access to operand.
@@ -402,8 +501,6 @@ final class StatisticsSetImplementation implements StatisticsSet {
     final StatisticsSetImplementation operandImplementation =
       (StatisticsSetImplementation)operand;
 
-    final boolean[] isVarianceIndex = new boolean[m_doubleData.length];
-
     for (LongSampleIndex index : m_statisticsIndexMap.getLongSampleIndicies()) {
       final LongIndex sumIndex = index.getSumIndex();
       final LongIndex countIndex = index.getCountIndex();
@@ -416,8 +513,6 @@ final class StatisticsSetImplementation implements StatisticsSet {
                           operand.getValue(sumIndex),
                           operand.getValue(countIndex),
                           operand.getValue(varianceIndex)));
-
-      isVarianceIndex[varianceIndex.getValue()] = true;
     }
 
     for (DoubleSampleIndex index :
@@ -434,8 +529,6 @@ final class StatisticsSetImplementation implements StatisticsSet {
                                  operand.getValue(sumIndex),
                                  operand.getValue(countIndex),
                                  operand.getValue(varianceIndex)));
-
-      isVarianceIndex[varianceIndex.getValue()] = true;
     }
 
     final long[] longData = operandImplementation.m_longData;
@@ -445,6 +538,8 @@ final class StatisticsSetImplementation implements StatisticsSet {
     }
 
     final double[] doubleData = operandImplementation.m_doubleData;
+    final boolean[] isVarianceIndex =
+      m_statisticsIndexMap.getVarianceIndicies();
 
     for (int i = 0; i < doubleData.length; i++) {
       if (!isVarianceIndex[i]) {
@@ -615,15 +710,44 @@ final class StatisticsSetImplementation implements StatisticsSet {
    * @param out Handle to the output stream.
    * @param serialiser <code>Serialiser</code> helper object.
    * @exception IOException If an error occurs.
-   * @see #StatisticsSetImplementation(StatisticsIndexMap, ObjectInput,
+   * @see #StatisticsSetImplementation(StatisticsIndexMap, DataInput,
    * Serialiser)
    */
-  synchronized void writeExternal(ObjectOutput out, Serialiser serialiser)
+  synchronized void writeExternal(DataOutput out, Serialiser serialiser)
     throws IOException {
-    for (int i = 0; i < m_longData.length; i++) {
+    final int numberOfNonHistogramLongs =
+      m_statisticsIndexMap.getNumberOfNonHistogramLongs();
+
+    for (int i = 0; i < numberOfNonHistogramLongs; i++) {
       serialiser.writeLong(out, m_longData[i]);
     }
 
+    // Histograms are sparse, so we only write the occupied buckets.
+    for (HistogramIndex index : m_statisticsIndexMap.getHistogramIndicies()) {
+      final int first = index.getFirstBucket();
+      final int numberOfBuckets = index.getNumberOfBuckets();
+
+      int occupied = 0;
+
+      for (int i = 0; i < numberOfBuckets; ++i) {
+        if (m_longData[first + i] != 0) {
+          ++occupied;
+        }
+      }
+
+      serialiser.writeLong(out, occupied);
+
+      for (int i = 0; i < numberOfBuckets && occupied > 0; ++i) {
+        final long count = m_longData[first + i];
+
+        if (count != 0) {
+          serialiser.writeLong(out, i);
+          serialiser.writeLong(out, count);
+          --occupied;
+        }
+      }
+    }
+
     for (int i = 0; i < m_doubleData.length; i++) {
       serialiser.writeDouble(out, m_doubleData[i]);
     }
@@ -641,18 +765,37 @@ final class StatisticsSetImplementation implements StatisticsSet {
    * @param in Handle to the input stream.
    * @param serialiser <code>Serialiser</code> helper object.
    * @exception IOException If an error occurs.
-   * @see #writeExternal(ObjectOutput, Serialiser)
+   * @see #writeExternal(DataOutput, Serialiser)
    */
   StatisticsSetImplementation(StatisticsIndexMap statisticsIndexMap,
-                              ObjectInput in, Serialiser serialiser)
+                              DataInput in, Serialiser serialiser)
     throws IOException {
     this(statisticsIndexMap);
 
-    for (int i = 0; i < m_longData.length; i++) {
+    final int numberOfNonHistogramLongs =
+      m_statisticsIndexMap.getNumberOfNonHistogramLongs();
+
+    for (int i = 0; i < numberOfNonHistogramLongs; i++) {
       m_longData[i] = serialiser.readLong(in);
       m_zero &= m_longData[i] == 0;
     }
 
+    for (HistogramIndex index : m_statisticsIndexMap.getHistogramIndicies()) {
+      final int first = index.getFirstBucket();
+      final long occupied = serialiser.readLong(in);
+
+      for (long i = 0; i < occupied; ++i) {
+        final long bucket = serialiser.readLong(in);
+
+        if (bucket < 0 || bucket >= index.getNumberOfBuckets()) {
+          throw new IOException("Invalid histogram bucket " + bucket);
+        }
+
+        m_longData[first + (int)bucket] = serialiser.readLong(in);
+        m_zero = false;
+      }
+    }
+
     for (int i = 0; i < m_doubleData.length; i++) {
       m_doubleData[i] = serialiser.readDouble(in);
       m_zero &= m_doubleData[i] == 0;
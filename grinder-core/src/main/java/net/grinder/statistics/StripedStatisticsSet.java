@@ -0,0 +1,145 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.statistics;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Accumulates statistics from many threads with little lock contention.
+ *
+ * <p>
+ * Rather than having all threads add their results to a single
+ * {@link StatisticsSet}, each thread is assigned one of a fixed number of
+ * stripes according to its thread ID. Threads only contend with other
+ * threads that share their stripe. The stripes are periodically drained into
+ * a single set by {@link #drainTo}. The variance and histogram statistics
+ * combine exactly, so no accuracy is lost.
+ * </p>
+ *
+ * <p>
+ * Stripes are created lazily, so the memory cost is proportional to the
+ * number of stripes that are actually used.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+public final class StripedStatisticsSet {
+
+  private final StatisticsSetFactory m_statisticsSetFactory;
+  private final AtomicReferenceArray<StatisticsSet> m_stripes;
+  private final int m_mask;
+
+  /**
+   * Constructor.
+   *
+   * @param statisticsSetFactory
+   *          Factory used to create the stripes.
+   * @param numberOfStripes
+   *          The number of stripes. Rounded up to a power of two.
+   */
+  StripedStatisticsSet(StatisticsSetFactory statisticsSetFactory,
+                       int numberOfStripes) {
+    if (numberOfStripes < 1) {
+      throw new IllegalArgumentException("Must have at least one stripe");
+    }
+
+    final int size = numberOfStripes == 1 ?
+        1 : Integer.highestOneBit(numberOfStripes - 1) << 1;
+
+    m_statisticsSetFactory = statisticsSetFactory;
+    m_stripes = new AtomicReferenceArray<StatisticsSet>(size);
+    m_mask = size - 1;
+  }
+
+  /**
+   * The number of stripes.
+   *
+   * @return The number of stripes.
+   */
+  public int getNumberOfStripes() {
+    return m_stripes.length();
+  }
+
+  /**
+   * For unit tests.
+   */
+  int getNumberOfCreatedStripes() {
+    int result = 0;
+
+    for (int i = 0; i < m_stripes.length(); ++i) {
+      if (m_stripes.get(i) != null) {
+        ++result;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Return the stripe for the calling thread. Callers should add to the
+   * stripe, and should not reset it. The stripe is thread safe, but
+   * performs best if a thread only adds to its own stripe.
+   *
+   * <p>
+   * The stripe assigned to a thread does not change, so the result can be
+   * cached by the thread.
+   * </p>
+   *
+   * @return The stripe.
+   */
+  public StatisticsSet getStripe() {
+    final int i = (int) Thread.currentThread().getId() & m_mask;
+
+    final StatisticsSet existing = m_stripes.get(i);
+
+    if (existing != null) {
+      return existing;
+    }
+
+    m_stripes.compareAndSet(i, null, m_statisticsSetFactory.create());
+
+    return m_stripes.get(i);
+  }
+
+  /**
+   * Add the values accumulated in each stripe to {@code target}, and reset
+   * the stripes.
+   *
+   * @param target
+   *          The statistics set to add to.
+   */
+  public void drainTo(StatisticsSet target) {
+    for (int i = 0; i < m_stripes.length(); ++i) {
+      final StatisticsSet stripe = m_stripes.get(i);
+
+      if (stripe != null) {
+        synchronized (stripe) {
+          if (!stripe.isZero()) {
+            target.add(stripe);
+            stripe.reset();
+          }
+        }
+      }
+    }
+  }
+}
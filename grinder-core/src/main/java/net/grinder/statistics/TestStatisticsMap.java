@@ -21,6 +21,8 @@
 
 package net.grinder.statistics;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
@@ -28,9 +30,12 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
 
 import net.grinder.common.AbstractTestSemantics;
 import net.grinder.common.Test;
+import net.grinder.statistics.StatisticsIndexMap.LongSampleIndex;
+import net.grinder.util.Serialiser;
 
 
 /**
@@ -47,7 +52,7 @@ public final class TestStatisticsMap implements java.io.Externalizable {
   // The serialVersionUID should be incremented whenever the default
   // statistic indices are changed in StatisticsIndexMap, or
   // when the StatisticsSet externalisation methods are changed.
-  private static final long serialVersionUID = 4L;
+  private static final long serialVersionUID = 7L;
 
   private final transient StatisticsSetFactory m_statisticsSetFactory;
 
@@ -163,6 +168,32 @@ public final class TestStatisticsMap implements java.io.Externalizable {
     return result;
   }
 
+  /**
+   * Convert a sample statistic that records times to a different unit.
+   *
+   * @param index The sample statistic.
+   * @param from The unit in which the statistic is recorded.
+   * @param to The unit to convert to.
+   */
+  public void convertTimes(final LongSampleIndex index,
+                           TimeUnit from,
+                           TimeUnit to) {
+    if (from == to) {
+      return;
+    }
+
+    final double factor = (double) from.toNanos(1) / to.toNanos(1);
+
+    new ForEach() {
+      public void next(Test test, StatisticsSet statistics) {
+        // Its a class invariant that our StatisticsSets are all
+        // StatisticsSetImplementations.
+        ((StatisticsSetImplementation)statistics).scale(index, factor);
+      }
+    }
+    .iterate();
+  }
+
   /**
    * Add up all the non-composite statistics.
    *
@@ -289,12 +320,31 @@ public final class TestStatisticsMap implements java.io.Externalizable {
    * @exception IOException If an I/O error occurs.
    */
   public void writeExternal(ObjectOutput out) throws IOException {
+    write(out);
+  }
+
+  /**
+   * Write this map to a {@code DataOutput}, using the same encoding as
+   * {@link #writeExternal}.
+   *
+   * @param out Handle to the output stream.
+   * @exception IOException If an I/O error occurs.
+   */
+  public void write(DataOutput out) throws IOException {
+
+    final Serialiser serialiser = new Serialiser();
 
     synchronized (this) {
-      out.writeInt(m_data.size());
+      serialiser.writeLong(out, m_data.size());
+
+      // Tests are in number order, so we write the difference from the
+      // previous test number. For typical scripts this takes one byte.
+      long previousNumber = 0;
 
       for (Entry<Test, StatisticsSet> entry : m_data.entrySet()) {
-        out.writeInt(entry.getKey().getNumber());
+        final int number = entry.getKey().getNumber();
+        serialiser.writeLong(out, number - previousNumber);
+        previousNumber = number;
 
         // Its a class invariant that our StatisticsSets are all
         // StatisticsSetImplementations.
@@ -312,13 +362,30 @@ public final class TestStatisticsMap implements java.io.Externalizable {
    * @exception IOException If an I/O error occurs.
    */
   public void readExternal(ObjectInput in) throws IOException {
+    read(in);
+  }
 
-    final int n = in.readInt();
+  /**
+   * Read values written by {@link #write}. No synchronisation, assume
+   * that we're being read into a new instance.
+   *
+   * @param in Handle to the input stream.
+   * @exception IOException If an I/O error occurs.
+   */
+  public void read(DataInput in) throws IOException {
+
+    final Serialiser serialiser = new Serialiser();
+
+    final long n = serialiser.readLong(in);
 
     m_data.clear();
 
-    for (int i = 0; i < n; i++) {
-      m_data.put(new LightweightTest(in.readInt()),
+    long number = 0;
+
+    for (long i = 0; i < n; i++) {
+      number += serialiser.readLong(in);
+
+      m_data.put(new LightweightTest((int)number),
                  m_statisticsSetFactory.readStatisticsExternal(in));
     }
   }
@@ -21,6 +21,8 @@
 
 package net.grinder.statistics;
 
+import java.util.concurrent.TimeUnit;
+
 
 /**
  * Common queries against the standard statistics.
@@ -32,6 +34,7 @@ public final class TestStatisticsQueries {
   private final StatisticsIndexMap.LongIndex m_errorsIndex;
   private final StatisticsIndexMap.LongIndex m_untimedTestsIndex;
   private final StatisticsIndexMap.LongSampleIndex m_timedTestsIndex;
+  private final double m_unitsPerMillisecond;
 
   /**
    * Constructor.
@@ -39,6 +42,18 @@ public final class TestStatisticsQueries {
    * @param statisticsIndexMap The index map to use.
    */
   TestStatisticsQueries(StatisticsIndexMap statisticsIndexMap) {
+    this(statisticsIndexMap, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param statisticsIndexMap The index map to use.
+   * @param timeUnit The unit in which <em>timedTests</em> is recorded.
+   */
+  TestStatisticsQueries(StatisticsIndexMap statisticsIndexMap,
+                        TimeUnit timeUnit) {
+    m_unitsPerMillisecond = timeUnit.convert(1, TimeUnit.MILLISECONDS);
     m_errorsIndex = statisticsIndexMap.getLongIndex("errors");
     m_untimedTestsIndex = statisticsIndexMap.getLongIndex("untimedTests");
     m_timedTestsIndex = statisticsIndexMap.getLongSampleIndex("timedTests");
@@ -70,7 +85,8 @@ public final class TestStatisticsQueries {
 
   /**
    * Return the value obtained by dividing the <em>timedTests</em> sample
-   * statistics <em>total</em> attribute by its <em>count</em> attribute.
+   * statistics <em>total</em> attribute by its <em>count</em> attribute,
+   * converted to milliseconds.
    *
    * @param statistics The statistics to query.
    * @return a <code>double</code> value
@@ -80,6 +96,7 @@ public final class TestStatisticsQueries {
 
     return
       count == 0 ?
-      Double.NaN : statistics.getSum(m_timedTestsIndex) / (double)count;
+      Double.NaN :
+      statistics.getSum(m_timedTestsIndex) / (count * m_unitsPerMillisecond);
   }
 }
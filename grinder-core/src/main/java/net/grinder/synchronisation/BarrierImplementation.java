@@ -23,18 +23,23 @@ package net.grinder.synchronisation;
 
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import net.grinder.common.UncheckedInterruptedException;
 import net.grinder.communication.CommunicationException;
 import net.grinder.script.Barrier;
 import net.grinder.script.CancelledBarrierException;
 import net.grinder.synchronisation.messages.BarrierIdentity;
-import net.grinder.util.thread.Condition;
 
 
 /**
  * Barrier implementation.
  *
+ * <p>Waits use a {@link Lock} rather than an object monitor so that waiting
+ * virtual threads do not pin their carrier threads.</p>
+ *
  * @author Philip Aston
  */
 public final class BarrierImplementation
@@ -42,7 +47,8 @@ public final class BarrierImplementation
 
   private final BarrierGroup m_barrierGroup;
   private final BarrierIdentity.Factory m_identityFactory;
-  private final Condition m_condition = new Condition();
+  private final Lock m_lock = new ReentrantLock();
+  private final Condition m_condition = m_lock.newCondition();
 
   private enum State {
     Idle {
@@ -103,10 +109,10 @@ public final class BarrierImplementation
     }
   }
 
-  // Guarded by m_condition.
+  // Guarded by m_lock.
   private State m_state = State.Idle;
 
-  // Guarded by m_condition.
+  // Guarded by m_lock.
   private BarrierIdentity m_identity;
 
   /**
@@ -135,7 +141,7 @@ public final class BarrierImplementation
 
   private void changeState(State newState) {
     m_state = newState;
-    m_condition.notifyAll();
+    m_condition.signalAll();
   }
 
   // I hate Java. When can we have closures?
@@ -143,7 +149,9 @@ public final class BarrierImplementation
     public boolean await()
       throws CancelledBarrierException, CommunicationException {
 
-      synchronized (m_condition) {
+      m_lock.lock();
+
+      try {
         m_state.beginWait(BarrierImplementation.this);
 
         m_identity = m_identityFactory.next();
@@ -157,6 +165,9 @@ public final class BarrierImplementation
 
         return m_state.awoken(BarrierImplementation.this);
       }
+      finally {
+        m_lock.unlock();
+      }
     }
 
     /**
@@ -169,7 +180,7 @@ public final class BarrierImplementation
     @Override public boolean doWait() throws CommunicationException {
 
       try {
-        m_condition.wait();
+        m_condition.await();
       }
       catch (InterruptedException e) {
         cancel();
@@ -183,24 +194,20 @@ public final class BarrierImplementation
   private class TimedWaiter extends Waiter {
     private long m_time;
 
-    public TimedWaiter(long timeMillis) {
-      m_time = timeMillis;
+    public TimedWaiter(long timeNanos) {
+      m_time = timeNanos;
     }
 
     @Override public boolean doWait() throws CommunicationException {
-      final long start = System.currentTimeMillis();
-
       try {
-        m_condition.wait(m_time);
+        m_time = m_condition.awaitNanos(m_time);
       }
       catch (InterruptedException e) {
         cancel();
         throw new UncheckedInterruptedException(e);
       }
 
-      m_time -= System.currentTimeMillis() - start;
-
-      return m_time < 1;
+      return m_time <= 0;
     }
   }
 
@@ -218,7 +225,7 @@ public final class BarrierImplementation
   @Override public boolean await(long timeout, TimeUnit unit)
     throws CancelledBarrierException, CommunicationException {
 
-    return new TimedWaiter(Math.max(1, unit.toMillis(timeout))).await();
+    return new TimedWaiter(Math.max(1, unit.toNanos(timeout))).await();
   }
 
   /**
@@ -234,20 +241,30 @@ public final class BarrierImplementation
    * {@inheritDoc}
    */
   @Override public void awaken(Set<BarrierIdentity> waiters) {
-    synchronized (m_condition) {
+    m_lock.lock();
+
+    try {
       if (waiters.contains(m_identity)) {
         m_state.awaken(BarrierImplementation.this);
       }
     }
+    finally {
+      m_lock.unlock();
+    }
   }
 
   /**
    * {@inheritDoc}
    */
   @Override public void cancel() throws CommunicationException {
-    synchronized (m_condition) {
+    m_lock.lock();
+
+    try {
       m_state.cancel(this);
     }
+    finally {
+      m_lock.unlock();
+    }
   }
 
   /**
@@ -21,13 +21,14 @@
 
 package net.grinder.util;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import net.grinder.common.Closer;
 import net.grinder.common.GrinderException;
@@ -37,18 +38,44 @@ import net.grinder.common.UncheckedInterruptedException;
 /**
  * Pairing of relative filename and file contents.
  *
+ * <p>A <code>FileContents</code> can hold a single chunk of a file, so that
+ * large files can be distributed without holding the whole file in memory.
+ * Chunks are read from, and written to, their position in the file.</p>
+ *
+ * <p>A chunk can be labelled with a digest of the content of the whole
+ * file. A chunk can also be a patch, which changes part of an existing
+ * copy of the file with a known digest, rather than replacing it.</p>
+ *
  * @author Philip Aston
  */
 public final class FileContents implements Serializable {
 
-  private static final long serialVersionUID = -3140708892260600117L;
+  private static final long serialVersionUID = 3L;
+
+  /**
+   * The largest chunk that the console sends, or that agents serve to each
+   * other.
+   */
+  public static final int MAXIMUM_CHUNK_SIZE = 1024 * 1024;
 
   /** @serial The file name. */
   private final File m_filename;
 
+  /** @serial The position of the data in the file. */
+  private final long m_offset;
+
+  /** @serial The length of the file when the data was read. */
+  private final long m_fileLength;
+
   /** @serial The file data. */
   private final byte[] m_contents;
 
+  /** @serial The digest of the file content, or null if unknown. */
+  private final String m_digest;
+
+  /** @serial The digest of the content to patch, or null. */
+  private final String m_baseDigest;
+
   /**
    * Constructor. Builds a FileContents from local file system.
    *
@@ -58,6 +85,48 @@ public final class FileContents implements Serializable {
    */
   public FileContents(File baseDirectory, File file)
     throws FileContentsException {
+    this(baseDirectory, file, 0, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Constructor. Builds a FileContents holding a chunk of a file from the
+   * local file system.
+   *
+   * @param baseDirectory Base directory used to resolve relative filenames.
+   * @param file Relative filename.
+   * @param offset The position of the chunk in the file.
+   * @param maximumLength The maximum number of bytes to read.
+   * @exception FileContentsException If an error occurs.
+   */
+  public FileContents(File baseDirectory,
+                      File file,
+                      long offset,
+                      int maximumLength)
+    throws FileContentsException {
+    this(baseDirectory, file, offset, maximumLength, null, null);
+  }
+
+  /**
+   * Constructor. Builds a FileContents holding a chunk of a file from the
+   * local file system, labelled with content digests.
+   *
+   * @param baseDirectory Base directory used to resolve relative filenames.
+   * @param file Relative filename.
+   * @param offset The position of the chunk in the file.
+   * @param maximumLength The maximum number of bytes to read.
+   * @param digest Digest of the content of the whole file, or
+   *  <code>null</code> if not known.
+   * @param baseDigest If not <code>null</code>, the chunk is a patch to a
+   *  copy of the file with this digest.
+   * @exception FileContentsException If an error occurs.
+   */
+  public FileContents(File baseDirectory,
+                      File file,
+                      long offset,
+                      int maximumLength,
+                      String digest,
+                      String baseDigest)
+    throws FileContentsException {
 
     if (file.isAbsolute()) {
       throw new FileContentsException(
@@ -65,34 +134,179 @@ public final class FileContents implements Serializable {
     }
 
     m_filename = file;
+    m_offset = offset;
+    m_digest = digest;
+    m_baseDigest = baseDigest;
 
     final File localFile = new File(baseDirectory, file.getPath());
 
-    final ByteArrayOutputStream byteOutputStream = new ByteArrayOutputStream();
+    RandomAccessFile randomAccessFile = null;
 
     try {
-      new StreamCopier(4096, true).copy(new FileInputStream(localFile),
-                                        byteOutputStream);
+      randomAccessFile = new RandomAccessFile(localFile, "r");
+      final FileChannel channel = randomAccessFile.getChannel();
+
+      m_fileLength = channel.size();
+
+      if (offset > m_fileLength) {
+        throw new FileContentsException(
+          "File '" + localFile + "' is shorter than " + offset + " bytes");
+      }
+
+      final ByteBuffer buffer =
+        ByteBuffer.allocate((int)Math.min(maximumLength,
+                                          m_fileLength - offset));
+
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, offset + buffer.position()) == -1) {
+          throw new FileContentsException(
+            "File '" + localFile + "' was truncated whilst being read");
+        }
+      }
+
+      m_contents = buffer.array();
     }
     catch (IOException e) {
       UncheckedInterruptedException.ioException(e);
       throw new FileContentsException(
         "Failed to read file: " + e.getMessage(), e);
     }
-
-    m_contents = byteOutputStream.toByteArray();
+    finally {
+      Closer.close(randomAccessFile);
+    }
   }
 
 
   /**
-   * Allow unit tests access to the relative file name.
+   * Constructor. Builds a FileContents from a chunk of data received from
+   * elsewhere, typically from another agent.
+   *
+   * @param file Relative filename.
+   * @param offset The position of the chunk in the file.
+   * @param fileLength The length of the whole file.
+   * @param contents The chunk.
+   * @param digest Digest of the content of the whole file, or
+   *  <code>null</code> if not known.
+   * @param baseDigest If not <code>null</code>, the chunk is a patch to a
+   *  copy of the file with this digest.
+   * @exception FileContentsException If an error occurs.
+   */
+  public FileContents(File file,
+                      long offset,
+                      long fileLength,
+                      byte[] contents,
+                      String digest,
+                      String baseDigest)
+    throws FileContentsException {
+
+    if (file.isAbsolute()) {
+      throw new FileContentsException(
+        "Original file name '" + file + "' is not relative");
+    }
+
+    if (offset < 0 || offset + contents.length > fileLength) {
+      throw new FileContentsException(
+        "Chunk at offset " + offset + " does not fit in '" + file + "'");
+    }
+
+    m_filename = file;
+    m_offset = offset;
+    m_fileLength = fileLength;
+    m_contents = contents;
+    m_digest = digest;
+    m_baseDigest = baseDigest;
+  }
+
+  /**
+   * Return the file name, relative to the distribution directory.
    *
    * @return The file name.
    */
-  File getFilename() {
+  public File getFilename() {
     return m_filename;
   }
 
+  /**
+   * Return the position of the contents in the file.
+   *
+   * @return The offset in bytes.
+   */
+  public long getOffset() {
+    return m_offset;
+  }
+
+  /**
+   * Return the length of this chunk.
+   *
+   * @return The length in bytes.
+   */
+  public int getLength() {
+    return m_contents.length;
+  }
+
+  /**
+   * Return the length of the whole file.
+   *
+   * @return The length in bytes.
+   */
+  public long getFileLength() {
+    return m_fileLength;
+  }
+
+  /**
+   * Return the digest of the content of the whole file.
+   *
+   * @return The digest, or <code>null</code> if not known.
+   */
+  public String getDigest() {
+    return m_digest;
+  }
+
+  /**
+   * Return the digest of the content that this chunk patches.
+   *
+   * @return The digest, or <code>null</code> if this chunk is not a patch.
+   */
+  public String getBaseDigest() {
+    return m_baseDigest;
+  }
+
+  /**
+   * Return a digest of the data held by this chunk. Used to check chunks
+   * received from elsewhere.
+   *
+   * @return The digest, as a hexadecimal string.
+   */
+  public String getChunkDigest() {
+    final MessageDigest messageDigest;
+
+    try {
+      messageDigest = MessageDigest.getInstance("SHA-1");
+    }
+    catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-1.
+      throw new AssertionError(e);
+    }
+
+    final StringBuilder result = new StringBuilder();
+
+    for (byte b : messageDigest.digest(m_contents)) {
+      result.append(Character.forDigit((b >> 4) & 0xF, 16));
+      result.append(Character.forDigit(b & 0xF, 16));
+    }
+
+    return result.toString();
+  }
+
+  /**
+   * Whether these contents run to the end of the file.
+   *
+   * @return <code>true</code> if and only if this is the last chunk.
+   */
+  public boolean isLastChunk() {
+    return m_offset + m_contents.length >= m_fileLength;
+  }
+
   /**
    * Allow unit tests access to the file contents.
    *
@@ -103,8 +317,11 @@ public final class FileContents implements Serializable {
   }
 
   /**
-   * Write the <code>FileContents</code> to the given directory,
-   * overwriting any existing content.
+   * Write the <code>FileContents</code> to the given directory. The first
+   * chunk of a file replaces any existing content unless it is a patch;
+   * other chunks are written at their offset, and must not leave a gap. It
+   * is up to the caller to check that a patch applies to the existing
+   * content.
    *
    * @param baseDirectory The base directory.
    * @exception FileContentsException If an error occurs.
@@ -115,11 +332,30 @@ public final class FileContents implements Serializable {
 
     localFile.getParentFile().mkdirs();
 
-    OutputStream outputStream = null;
+    RandomAccessFile randomAccessFile = null;
 
     try {
-      outputStream = new FileOutputStream(localFile);
-      outputStream.write(getContents());
+      randomAccessFile = new RandomAccessFile(localFile, "rw");
+      final FileChannel channel = randomAccessFile.getChannel();
+
+      if (m_offset == 0 && m_baseDigest == null) {
+        channel.truncate(0);
+      }
+      else if (m_offset > channel.size()) {
+        throw new FileContentsException(
+          "Missing data before offset " + m_offset + " of '" + localFile +
+          "'");
+      }
+
+      final ByteBuffer buffer = ByteBuffer.wrap(m_contents);
+
+      while (buffer.hasRemaining()) {
+        channel.write(buffer, m_offset + buffer.position());
+      }
+
+      if (isLastChunk()) {
+        channel.truncate(m_fileLength);
+      }
     }
     catch (IOException e) {
       UncheckedInterruptedException.ioException(e);
@@ -127,7 +363,7 @@ public final class FileContents implements Serializable {
         "Failed to create file: " + e.getMessage(), e);
     }
     finally {
-      Closer.close(outputStream);
+      Closer.close(randomAccessFile);
     }
   }
 
@@ -137,7 +373,13 @@ public final class FileContents implements Serializable {
    * @return The description.
    */
   public String toString() {
-    return "\"" + getFilename() + "\" (" + getContents().length + " bytes)";
+    if (m_offset == 0 && isLastChunk() && m_baseDigest == null) {
+      return "\"" + getFilename() + "\" (" + m_contents.length + " bytes)";
+    }
+
+    return "\"" + getFilename() + "\" (" + m_contents.length +
+           " bytes at offset " + m_offset + " of " + m_fileLength +
+           (m_baseDigest != null ? ", patch" : "") + ")";
   }
 
   /**
@@ -160,6 +160,11 @@ public class Serialiser {
    * Write a <code>double</code> to a stream in such a way it can be
    * read by {@link #readDouble}.
    *
+   * <p>The IEEE 754 representation is written low-order byte first using
+   * {@link #writeLong}, so that the trailing zero bytes of the mantissa are
+   * dropped. Zero takes one byte, and small integral values take three or
+   * four. The worst case takes nine bytes.</p>
+   *
    * @param output The stream.
    * @param l The value.
    * @throws IOException If the stream raises an error.
@@ -167,8 +172,7 @@ public class Serialiser {
   public final void writeDouble(DataOutput output, double l)
     throws IOException {
 
-    // One day we'll make this efficient again.
-    output.writeDouble(l);
+    writeLong(output, Long.reverseBytes(Double.doubleToRawLongBits(l)));
   }
 
   /**
@@ -180,6 +184,6 @@ public class Serialiser {
    */
   public final double readDouble(DataInput input) throws IOException {
 
-    return input.readDouble();
+    return Double.longBitsToDouble(Long.reverseBytes(readLong(input)));
   }
 }
@@ -73,6 +73,18 @@ public interface Sleeper extends TimeAuthority {
    */
   void sleepFlat(long maximumTime) throws Sleeper.ShutdownException;
 
+  /**
+   * Sleep until the given time. Unlike the other sleep methods, the time is
+   * not adjusted by the sleep time factor.
+   *
+   * @param time
+   *          The time to wake up, in nanoseconds since the Epoch. See
+   *          {@link TimeAuthority#getTimeInNanoseconds()}.
+   * @throws Sleeper.ShutdownException
+   *           If this {@code Sleeper} has been shutdown.
+   */
+  void sleepUntil(long time) throws Sleeper.ShutdownException;
+
   /**
    * Exception used to indicate that a Sleeper has been shutdown.
    */
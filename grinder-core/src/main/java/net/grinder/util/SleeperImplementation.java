@@ -25,10 +25,14 @@ import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 
-import net.grinder.util.thread.Condition;
+import net.grinder.common.UncheckedInterruptedException;
 
 
 /**
@@ -37,6 +41,9 @@ import net.grinder.util.thread.Condition;
  * <p>Several threads can safely use the same <code>Sleeper</code>.
  * </p>
  *
+ * <p>Waits use a {@link Lock} rather than an object monitor so that sleeping
+ * virtual threads do not pin their carrier threads.</p>
+ *
  * @author Philip Aston
  */
 public final class SleeperImplementation implements Sleeper {
@@ -49,7 +56,8 @@ public final class SleeperImplementation implements Sleeper {
   private final double m_factor;
   private final double m_limit9975Factor;
   private final Logger m_logger;
-  private final Condition m_condition = new Condition();
+  private final Lock m_lock = new ReentrantLock();
+  private final Condition m_condition = m_lock.newCondition();
 
   private boolean m_shutdown = false;
 
@@ -101,9 +109,14 @@ public final class SleeperImplementation implements Sleeper {
    */
   @Override public void shutdown() {
 
-    synchronized (m_condition) {
+    m_lock.lock();
+
+    try {
       m_shutdown = true;
-      m_condition.notifyAll();
+      m_condition.signalAll();
+    }
+    finally {
+      m_lock.unlock();
     }
   }
 
@@ -114,6 +127,13 @@ public final class SleeperImplementation implements Sleeper {
     return m_timeAuthority.getTimeInMilliseconds();
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override public long getTimeInNanoseconds() {
+    return m_timeAuthority.getTimeInNanoseconds();
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -152,6 +172,22 @@ public final class SleeperImplementation implements Sleeper {
     }
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void sleepUntil(long time) throws ShutdownException {
+
+    checkShutdown();
+
+    long remaining = time - m_timeAuthority.getTimeInNanoseconds();
+
+    while (remaining > 0) {
+      await(remaining);
+
+      remaining = time - m_timeAuthority.getTimeInNanoseconds();
+    }
+  }
+
   private void doSleep(long time) throws ShutdownException {
 
     final long factoredTime = (long)(time * m_factor);
@@ -165,22 +201,40 @@ public final class SleeperImplementation implements Sleeper {
       final long wakeUpTime = currentTime + factoredTime;
 
       while (currentTime < wakeUpTime) {
-        synchronized (m_condition) {
-          checkShutdown();
-          m_condition.waitNoInterrruptException(wakeUpTime - currentTime);
-        }
+        await(TimeUnit.MILLISECONDS.toNanos(wakeUpTime - currentTime));
 
         currentTime = m_timeAuthority.getTimeInMilliseconds();
       }
     }
   }
 
+  private void await(long nanoseconds) throws ShutdownException {
+
+    m_lock.lock();
+
+    try {
+      checkShutdown();
+      m_condition.awaitNanos(nanoseconds);
+    }
+    catch (InterruptedException e) {
+      throw new UncheckedInterruptedException(e);
+    }
+    finally {
+      m_lock.unlock();
+    }
+  }
+
   private void checkShutdown() throws ShutdownException {
 
-    synchronized (m_condition) {
+    m_lock.lock();
+
+    try {
       if (m_shutdown) {
         throw new ShutdownException("Shut down");
       }
     }
+    finally {
+      m_lock.unlock();
+    }
   }
 }
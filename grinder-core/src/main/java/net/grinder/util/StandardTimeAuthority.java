@@ -35,7 +35,7 @@ package net.grinder.util;
 public final class StandardTimeAuthority implements TimeAuthority {
 
   private final long m_epochOffset =
-    System.currentTimeMillis() - System.nanoTime() / 1000000;
+    System.currentTimeMillis() * 1000000 - System.nanoTime();
 
   /**
    * Return the current time in milliseconds.
@@ -43,7 +43,16 @@ public final class StandardTimeAuthority implements TimeAuthority {
    * @return The time. The base time is the Epoch.
    */
   public long getTimeInMilliseconds() {
-    return System.nanoTime() / 1000000 + m_epochOffset;
+    return getTimeInNanoseconds() / 1000000;
+  }
+
+  /**
+   * Return the current time in nanoseconds.
+   *
+   * @return The time. The base time is the Epoch.
+   */
+  public long getTimeInNanoseconds() {
+    return System.nanoTime() + m_epochOffset;
   }
 }
 
@@ -41,4 +41,17 @@ public interface TimeAuthority {
    * uses <code>System.nanoTime()</code>.
    */
   long getTimeInMilliseconds();
+
+  /**
+   * Return the current time in nanoseconds.
+   *
+   * <p>
+   * Successive calls are monotonic, so the difference between two values can
+   * be used to time intervals shorter than a millisecond.
+   * </p>
+   *
+   * @return The time. The base time is the Epoch, so the value is consistent
+   * with {@link #getTimeInMilliseconds()}.
+   */
+  long getTimeInNanoseconds();
 }
@@ -24,10 +24,12 @@ package net.grinder.common;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.Writer;
 import java.net.Socket;
@@ -163,6 +165,35 @@ public class TestCloser {
     }
   }
 
+  @Test public void testCloseRandomAccessFile() throws Exception {
+    Closer.close((RandomAccessFile)null);
+
+    final File file = File.createTempFile("testcloser", null);
+    file.deleteOnExit();
+
+    final RandomAccessFile randomAccessFile =
+      new RandomAccessFile(file, "r") {
+        public void close() throws IOException {
+          TestCloser.this.close();
+        }
+      };
+
+    Closer.close(randomAccessFile);
+
+    m_ioexception[0] = new IOException();
+    Closer.close(randomAccessFile);
+
+    m_ioexception[0] = new InterruptedIOException();
+
+    try {
+      Closer.close(randomAccessFile);
+      fail("Expected UncheckedInterruptedException");
+    }
+    catch (UncheckedInterruptedException e) {
+      assertSame(m_ioexception[0], e.getCause());
+    }
+  }
+
   @Test public void testCloser() throws Exception {
     Closer.close((Socket)null);
 
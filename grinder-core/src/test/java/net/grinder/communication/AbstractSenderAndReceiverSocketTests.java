@@ -46,9 +46,25 @@ public abstract class AbstractSenderAndReceiverSocketTests
     final int port = findFreePort();
 
     m_connectionType = ConnectionType.AGENT;
-    m_connector = new Connector("localhost", port, m_connectionType);
+    m_connector = new Connector("localhost",
+                                port,
+                                m_connectionType,
+                                createCodecRegistry());
     m_acceptor =
-        new Acceptor("localhost", port, 1, new StandardTimeAuthority());
+        new Acceptor("localhost",
+                     port,
+                     1,
+                     new StandardTimeAuthority(),
+                     createCodecRegistry());
+  }
+
+  /**
+   * Subclasses can override this to test the binary wire format.
+   *
+   * @return The codec registry, or {@code null} to use Java serialisation.
+   */
+  protected MessageCodecRegistry createCodecRegistry() {
+    return null;
   }
 
   @After public void stopAcceptor() throws Exception {
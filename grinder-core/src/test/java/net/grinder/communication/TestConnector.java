@@ -22,9 +22,12 @@
 package net.grinder.communication;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.fail;
 import static net.grinder.testutility.AssertUtilities.assertContains;
 import static net.grinder.testutility.AssertUtilities.assertNotEquals;
+import static net.grinder.testutility.SocketUtilities.findFreePort;
 
 import java.io.InputStream;
 import java.io.ObjectOutputStream;
@@ -33,6 +36,7 @@ import java.io.PipedOutputStream;
 import java.net.Socket;
 
 import net.grinder.testutility.IsolatedObjectFactory;
+import net.grinder.util.StandardTimeAuthority;
 
 import org.junit.Test;
 
@@ -132,6 +136,67 @@ public class TestConnector {
     }
   }
 
+  @Test public void testNegotiateWireFormat() throws Exception {
+    final int port = findFreePort();
+
+    final Acceptor acceptor =
+      new Acceptor("localhost", port, 1, new StandardTimeAuthority(),
+                   new MessageCodecRegistry());
+
+    final Acceptor serialisingAcceptor =
+      new Acceptor("localhost", 0, 1, new StandardTimeAuthority());
+
+    try {
+      final SocketWrapper binary =
+        new Connector("localhost", port, ConnectionType.AGENT,
+                      new MessageCodecRegistry())
+        .connectSocketWrapper(null);
+
+      assertEquals(WireFormat.BINARY_VERSION,
+                   binary.getWireFormat().getVersion());
+
+      final SocketWrapper serialised =
+        new Connector("localhost", port, ConnectionType.AGENT)
+        .connectSocketWrapper(null);
+
+      assertSame(WireFormat.SERIALISED, serialised.getWireFormat());
+
+      final SocketWrapper declined =
+        new Connector("localhost", serialisingAcceptor.getPort(),
+                      ConnectionType.AGENT, new MessageCodecRegistry())
+        .connectSocketWrapper(null);
+
+      assertSame(WireFormat.SERIALISED, declined.getWireFormat());
+
+      final Connector compressingConnector =
+        new Connector("localhost", port, ConnectionType.AGENT,
+                      new MessageCodecRegistry(), true);
+      final SocketWrapper compressed =
+        compressingConnector.connectSocketWrapper(null);
+
+      assertEquals(WireFormat.COMPRESSED_BINARY_VERSION,
+                   compressed.getWireFormat().getVersion());
+      assertEquals(0,
+                   compressingConnector.getCompressionStatistics()
+                   .getCompressedCount());
+      assertEquals(0,
+                   acceptor.getCompressionStatistics().getCompressedCount());
+      assertNull(new Connector("localhost", port, ConnectionType.AGENT,
+                               new MessageCodecRegistry())
+                 .getCompressionStatistics());
+      assertNull(serialisingAcceptor.getCompressionStatistics());
+
+      binary.close();
+      serialised.close();
+      declined.close();
+      compressed.close();
+    }
+    finally {
+      acceptor.shutdown();
+      serialisingAcceptor.shutdown();
+    }
+  }
+
   @Test public void testEquality() throws Exception {
     final Connector connector =
       new Connector("a", 1234, ConnectionType.WORKER);
@@ -182,6 +182,67 @@ public class TestFanOutServerSender {
     acceptor.shutdown();
   }
 
+  @Test public void testSendRoutedMessage() throws Exception {
+
+    final Acceptor acceptor = new Acceptor("localhost", 0, 1, m_timeAuthority);
+
+    final FanOutServerSender serverSender =
+      new FanOutServerSender(acceptor, ConnectionType.AGENT, 3);
+
+    final Connector connector =
+      new Connector(InetAddress.getByName(null).getHostName(),
+                    acceptor.getPort(),
+                    ConnectionType.AGENT);
+
+    final Socket relaySocket = connector.connect(new StubAddress("relay"));
+    final Socket agentSocket = connector.connect(new StubAddress("agent"));
+
+    final ResourcePool socketSet = acceptor.getSocketSet(ConnectionType.AGENT);
+
+    for (int i = 0; socketSet.countActive() != 2 && i < 10; ++i) {
+      Thread.sleep(i * i * 10);
+    }
+
+    final StubAddress relayedAddress = new StubAddress("relayed");
+
+    for (ResourcePool.Reservation reservation : socketSet.reserveAll()) {
+      final SocketWrapper socketWrapper =
+        (SocketWrapper)reservation.getResource();
+
+      if (new StubAddress("relay").equals(socketWrapper.getAddress())) {
+        socketWrapper.addRelayedAddress(relayedAddress);
+      }
+
+      reservation.free();
+    }
+
+    final SimpleMessage message1 = new SimpleMessage();
+    final SimpleMessage message2 = new SimpleMessage();
+    final SimpleMessage message3 = new SimpleMessage();
+
+    serverSender.send(relayedAddress, message1);
+    serverSender.send(new StubAddress("agent"), message2);
+    serverSender.send(message3);
+
+    final InputStream relayInput = relaySocket.getInputStream();
+    final RoutedMessage routedMessage = (RoutedMessage)readMessage(relayInput);
+    assertEquals(relayedAddress, routedMessage.getDestination());
+    assertEquals(message1, routedMessage.getMessage());
+    assertEquals(message3, readMessage(relayInput));
+    assertEquals(0, relayInput.available());
+
+    final InputStream agentInput = agentSocket.getInputStream();
+    assertEquals(message2, readMessage(agentInput));
+    assertEquals(message3, readMessage(agentInput));
+    assertEquals(0, agentInput.available());
+
+    relaySocket.close();
+    agentSocket.close();
+
+    serverSender.shutdown();
+    acceptor.shutdown();
+  }
+
   @Test public void testShutdown() throws Exception {
 
     final Acceptor acceptor = new Acceptor("localhost", 0, 1, m_timeAuthority);
@@ -21,7 +21,11 @@
 
 package net.grinder.communication;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 import java.io.StreamCorruptedException;
@@ -115,4 +119,74 @@ public class TestFanOutStreamSender extends TestCase {
       // Whatever.
     }
   }
+
+  public void testMessageIsSerialisedOnce() throws Exception {
+
+    final FanOutStreamSender serverSender = new FanOutStreamSender(3);
+
+    final ByteArrayOutputStream[] outputStreams = new ByteArrayOutputStream[5];
+
+    for (int i=0; i<outputStreams.length; ++i) {
+      outputStreams[i] = new ByteArrayOutputStream();
+      serverSender.add(outputStreams[i]);
+    }
+
+    final CountingMessage message = new CountingMessage();
+    serverSender.send(message);
+
+    // Sending blocks until the previous send has completed.
+    serverSender.send(new SimpleMessage());
+
+    assertEquals(1, CountingMessage.s_writes);
+
+    for (int i=0; i<outputStreams.length; ++i) {
+      final ObjectInputStream inputStream =
+        new ObjectInputStream(
+          new ByteArrayInputStream(outputStreams[i].toByteArray()));
+
+      assertTrue(inputStream.readObject() instanceof CountingMessage);
+    }
+
+    serverSender.shutdown();
+  }
+
+  public void testUnserialisableMessage() throws Exception {
+
+    final FanOutStreamSender serverSender = new FanOutStreamSender(3);
+
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    serverSender.add(outputStream);
+
+    final SimpleMessage message = new SimpleMessage();
+    message.setPayload(new Object());
+
+    try {
+      serverSender.send(message);
+      fail("Expected CommunicationException");
+    }
+    catch (CommunicationException e) {
+    }
+
+    // The stream is still usable.
+    final SimpleMessage message2 = new SimpleMessage();
+    serverSender.send(message2);
+    serverSender.shutdown();
+
+    final ObjectInputStream inputStream =
+      new ObjectInputStream(
+        new ByteArrayInputStream(outputStream.toByteArray()));
+
+    assertEquals(message2, inputStream.readObject());
+  }
+
+  private static final class CountingMessage implements Message {
+    private static final long serialVersionUID = 1L;
+
+    private static int s_writes;
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+      ++s_writes;
+      out.defaultWriteObject();
+    }
+  }
 }
@@ -26,9 +26,13 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import java.util.Arrays;
+
 import net.grinder.communication.MessageDispatchRegistry.AbstractBlockingHandler;
 import net.grinder.communication.MessageDispatchRegistry.AbstractHandler;
 import net.grinder.communication.MessageDispatchRegistry.BlockingHandler;
@@ -109,6 +113,79 @@ public class TestMessageDispatchSender {
     verifyNoMoreInteractions(m_handler, m_handler2, m_fallBackHandler);
   }
 
+  @Test public void testSendBatch() throws Exception {
+    final MessageDispatchSender messageDispatchSender =
+      new MessageDispatchSender();
+
+    messageDispatchSender.set(SimpleMessage.class, m_handler);
+    messageDispatchSender.addFallback(m_fallBackHandler);
+
+    final Message m1 = new SimpleMessage();
+    final Message m2 = new OtherMessage();
+    final Message m3 = new SimpleMessage();
+
+    final CommunicationException e = new CommunicationException("");
+    doThrow(e).when(m_handler).handle(m1);
+
+    try {
+      messageDispatchSender.send(
+        new MessageBatch(Arrays.<Message>asList(m1, m2, m3)));
+      fail("Expected CommunicationException");
+    }
+    catch (CommunicationException e2) {
+      assertSame(e, e2);
+    }
+
+    // The failure doesn't prevent later messages being dispatched.
+    verify(m_handler).handle(m1);
+    verify(m_fallBackHandler).handle(m2);
+    verify(m_handler).handle(m3);
+
+    verifyNoMoreInteractions(m_handler, m_fallBackHandler);
+  }
+
+  @Test public void testSendRelayed() throws Exception {
+    final MessageDispatchSender messageDispatchSender =
+      new MessageDispatchSender();
+
+    messageDispatchSender.set(SimpleMessage.class, m_handler);
+
+    final Message m1 = new SimpleMessage();
+
+    messageDispatchSender.send(new RelayedMessage(new StubAddress(), m1));
+
+    verify(m_handler).handle(m1);
+    verifyNoMoreInteractions(m_handler);
+  }
+
+  @Test public void testRelayedAddress() throws Exception {
+    final AddressAwareMessage addressAware = mock(AddressAwareMessage.class);
+    final Address origin = new StubAddress();
+
+    final RelayedMessage relayed =
+      new RelayedMessage(new StubAddress(),
+                         new RelayedMessage(origin, addressAware));
+
+    // The address of the relaying connection is ignored.
+    relayed.setAddress(new StubAddress());
+
+    verify(addressAware).setAddress(origin);
+    verifyNoMoreInteractions(addressAware);
+
+    new RelayedMessage(origin, new SimpleMessage())
+      .setAddress(new StubAddress());
+  }
+
+  @Test public void testBatchAddress() throws Exception {
+    final AddressAwareMessage addressAware = mock(AddressAwareMessage.class);
+    final Address address = new StubAddress();
+
+    new MessageBatch(Arrays.<Message>asList(new SimpleMessage(), addressAware))
+      .setAddress(address);
+
+    verify(addressAware).setAddress(address);
+  }
+
   @Test public void testWithMessageRequiringResponse() throws Exception {
     final MessageDispatchSender messageDispatchSender =
       new MessageDispatchSender();
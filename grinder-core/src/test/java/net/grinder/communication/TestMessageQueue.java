@@ -22,6 +22,7 @@
 package net.grinder.communication;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -195,6 +196,203 @@ public class TestMessageQueue {
     assertNull(m_queue.dequeue(false));
   }
 
+  @Test public void testDropOldest() throws Exception {
+    final MessageQueue queue =
+      new MessageQueue(false, 2, QueueOverflowPolicy.DROP_OLDEST);
+
+    final Message[] messages = {
+      new DroppableTestMessage(),
+      new DroppableTestMessage(),
+      new DroppableTestMessage(),
+    };
+
+    for (Message message : messages) {
+      assertTrue(queue.offer(message));
+    }
+
+    assertSame(messages[1], queue.dequeue(false));
+    assertSame(messages[2], queue.dequeue(false));
+    assertNull(queue.dequeue(false));
+
+    final QueueStatistics statistics = queue.getStatistics();
+    assertEquals(0, statistics.getDepth());
+    assertEquals(2, statistics.getMaximumDepth());
+    assertEquals(1, statistics.getDropped());
+    assertEquals(0, statistics.getBlocked());
+    assertEquals(2, statistics.getLatency().getCount());
+  }
+
+  @Test public void testDropOldestKeepsOtherMessages() throws Exception {
+    final MessageQueue queue =
+      new MessageQueue(false, 3, QueueOverflowPolicy.DROP_OLDEST);
+
+    final Message[] messages = {
+      new SimpleMessage(1),
+      new DroppableTestMessage(),
+      new SimpleMessage(2),
+      new SimpleMessage(3),
+      new SimpleMessage(4),
+    };
+
+    assertTrue(queue.offer(messages[0]));
+    assertTrue(queue.offer(messages[1]));
+    assertTrue(queue.offer(messages[2]));
+
+    // Only the droppable message can make way.
+    assertTrue(queue.offer(messages[3]));
+    assertFalse(queue.offer(messages[4]));
+
+    assertSame(messages[0], queue.dequeue(false));
+    assertSame(messages[2], queue.dequeue(false));
+    assertSame(messages[3], queue.dequeue(false));
+    assertNull(queue.dequeue(false));
+
+    final QueueStatistics statistics = queue.getStatistics();
+    assertEquals(1, statistics.getDropped());
+    assertEquals(1, statistics.getBlocked());
+  }
+
+  @Test public void testCoalesce() throws Exception {
+    final MessageQueue queue =
+      new MessageQueue(false, 2, QueueOverflowPolicy.COALESCE);
+
+    final CountingMessage counting1 = new CountingMessage();
+    final Message other = new SimpleMessage(1);
+    final CountingMessage counting2 = new CountingMessage();
+
+    queue.queue(counting1);
+    queue.queue(other);
+    queue.queue(counting2);
+
+    // The earlier message is merged into the later one.
+    assertSame(other, queue.dequeue(false));
+    assertSame(counting2, queue.dequeue(false));
+    assertEquals(2, counting2.getCount());
+    assertNull(queue.dequeue(false));
+
+    queue.queue(new SimpleMessage(2));
+    queue.queue(new SimpleMessage(3));
+
+    // Nothing to coalesce with, so the caller would have to wait.
+    assertTrue(!queue.offer(new CountingMessage()));
+    assertTrue(!queue.offer(new SimpleMessage(4)));
+
+    final QueueStatistics statistics = queue.getStatistics();
+    assertEquals(2, statistics.getDepth());
+    assertEquals(1, statistics.getCoalesced());
+    assertEquals(2, statistics.getBlocked());
+    assertEquals(0, statistics.getDropped());
+  }
+
+  @Test public void testCoalesceWithMostRecent() throws Exception {
+    final MessageQueue queue =
+      new MessageQueue(false, 3, QueueOverflowPolicy.COALESCE);
+
+    final CountingMessage counting1 = new CountingMessage();
+    final CountingMessage counting2 = new CountingMessage();
+    final Message other = new SimpleMessage(1);
+    final CountingMessage counting3 = new CountingMessage();
+    final CountingMessage counting4 = new CountingMessage();
+
+    queue.queue(counting1);
+    queue.queue(counting2);
+    queue.queue(other);
+    queue.queue(counting3);
+    queue.queue(counting4);
+
+    // Each new message absorbs the latest candidate; older ones stay put.
+    assertSame(counting1, queue.dequeue(false));
+    assertSame(other, queue.dequeue(false));
+    assertSame(counting4, queue.dequeue(false));
+    assertNull(queue.dequeue(false));
+
+    assertEquals(1, counting1.getCount());
+    assertEquals(3, counting4.getCount());
+    assertEquals(2, queue.getStatistics().getCoalesced());
+  }
+
+  @Test public void testBlock() throws Exception {
+    final MessageQueue queue =
+      new MessageQueue(false, 1, QueueOverflowPolicy.BLOCK);
+
+    final Message message1 = new SimpleMessage(1);
+    final Message message2 = new SimpleMessage(2);
+
+    queue.queue(message1);
+    assertTrue(!queue.offer(message2));
+
+    final Thread queuer = new Thread() {
+        public void run() {
+          try {
+            queue.queue(message2);
+          }
+          catch (ShutdownException e) {
+          }
+        }
+      };
+
+    queuer.start();
+
+    while (queue.getStatistics().getBlocked() < 2) {
+      Thread.sleep(10);
+    }
+
+    assertSame(message1, queue.dequeue(true));
+    assertSame(message2, queue.dequeue(true));
+
+    queuer.join();
+
+    // Shut down wakes waiting threads.
+    queue.queue(message1);
+
+    final Thread blockedQueuer = new Thread() {
+        public void run() {
+          try {
+            queue.queue(message2);
+            fail("Expected a ShutdownException");
+          }
+          catch (ShutdownException e) {
+          }
+        }
+      };
+
+    blockedQueuer.start();
+
+    while (queue.getStatistics().getBlocked() < 3) {
+      Thread.sleep(10);
+    }
+
+    queue.shutdown();
+    blockedQueuer.join();
+
+    try {
+      new MessageQueue(false, -1, QueueOverflowPolicy.BLOCK);
+      fail("Expected IllegalArgumentException");
+    }
+    catch (IllegalArgumentException e) {
+    }
+  }
+
+  private static final class DroppableTestMessage
+    implements DroppableMessage {
+  }
+
+  private static final class CountingMessage implements CoalescableMessage {
+    private int m_count = 1;
+
+    public boolean canCoalesce(Message earlier) {
+      return earlier instanceof CountingMessage;
+    }
+
+    public void coalesce(Message earlier) {
+      m_count += ((CountingMessage)earlier).m_count;
+    }
+
+    public int getCount() {
+      return m_count;
+    }
+  }
+
   private class DequeuerThread extends Thread {
 
     private List<Message> m_messages = new LinkedList<Message>();
@@ -133,6 +133,84 @@ public class TestQueuedSenderDecorator {
     assertSame(message4, messagesReceived3[0]);
   }
 
+  @Test public void testBatching() throws Exception {
+    final StubSender sender = new StubSender();
+
+    final QueuedSender queuedSender = new QueuedSenderDecorator(sender, 2);
+
+    final Message message1 = new SimpleMessage();
+    final Message message2 = new SimpleMessage();
+    final Message message3 = new SimpleMessage();
+
+    queuedSender.send(message1);
+    queuedSender.flush();
+
+    // A single message is sent as is.
+    final Message[] messagesReceived = sender.getMessagesReceived();
+    assertEquals(1, messagesReceived.length);
+    assertSame(message1, messagesReceived[0]);
+
+    queuedSender.flush();
+    assertEquals(0, sender.getMessagesReceived().length);
+
+    queuedSender.send(message1);
+    queuedSender.send(message2);
+    queuedSender.send(message3);
+    queuedSender.flush();
+
+    final Message[] messagesReceived2 = sender.getMessagesReceived();
+    assertEquals(2, messagesReceived2.length);
+
+    final List<Message> batch =
+      ((MessageBatch)messagesReceived2[0]).getMessages();
+    assertEquals(2, batch.size());
+    assertSame(message1, batch.get(0));
+    assertSame(message2, batch.get(1));
+    assertSame(message3, messagesReceived2[1]);
+
+    try {
+      new QueuedSenderDecorator(sender, 0);
+      fail("Expected IllegalArgumentException");
+    }
+    catch (IllegalArgumentException e) {
+    }
+  }
+
+  @Test public void testBoundedQueue() throws Exception {
+    final StubSender sender = new StubSender();
+
+    final QueuedSenderDecorator queuedSender =
+      new QueuedSenderDecorator(sender, 1, 2, QueueOverflowPolicy.BLOCK);
+
+    final Message message1 = new SimpleMessage();
+    final Message message2 = new SimpleMessage();
+    final Message message3 = new SimpleMessage();
+
+    queuedSender.send(message1);
+    queuedSender.send(message2);
+    assertEquals(0, sender.getMessagesReceived().length);
+
+    // The queue is full, so the sender flushes it.
+    queuedSender.send(message3);
+
+    final Message[] messagesReceived = sender.getMessagesReceived();
+    assertEquals(2, messagesReceived.length);
+    assertSame(message1, messagesReceived[0]);
+    assertSame(message2, messagesReceived[1]);
+
+    queuedSender.flush();
+
+    final Message[] messagesReceived2 = sender.getMessagesReceived();
+    assertEquals(1, messagesReceived2.length);
+    assertSame(message3, messagesReceived2[0]);
+
+    final QueueStatistics statistics = queuedSender.getQueueStatistics();
+    assertEquals(0, statistics.getDepth());
+    assertEquals(2, statistics.getMaximumDepth());
+    assertEquals(1, statistics.getBlocked());
+    assertEquals(3, statistics.getLatency().getCount());
+  }
+
   @Test public void testShutdown() throws Exception {
     final StubSender sender = new StubSender();
 
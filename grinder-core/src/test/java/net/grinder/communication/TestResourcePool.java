@@ -22,6 +22,7 @@
 package net.grinder.communication;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -283,6 +284,43 @@ public class TestResourcePool {
     verifyNoMoreInteractions(listener);
   }
 
+  @Test public void testReserve() throws Exception {
+
+    final ResourcePool resourcePool = new ResourcePoolImplementation();
+    assertEquals(0, resourcePool.getCurrentResources().size());
+
+    final MyResource resource1 = new MyResource();
+    final MyResource resource2 = new MyResource();
+
+    assertNull(resourcePool.reserve(resource1));
+
+    resourcePool.add(resource1);
+    resourcePool.add(resource2);
+
+    assertEquals(2, resourcePool.getCurrentResources().size());
+    assertTrue(resourcePool.getCurrentResources().contains(resource1));
+
+    final ResourcePool.Reservation reservation =
+      resourcePool.reserve(resource1);
+    assertSame(resource1, reservation.getResource());
+
+    // Already reserved.
+    assertNull(resourcePool.reserve(resource1));
+
+    final ResourcePool.Reservation reservation2 =
+      resourcePool.reserve(resource2);
+    assertSame(resource2, reservation2.getResource());
+    reservation2.free();
+
+    reservation.free();
+    assertNotNull(resourcePool.reserve(resource1));
+
+    reservation.close();
+    assertTrue(resource1.isClosed());
+    assertNull(resourcePool.reserve(resource1));
+    assertEquals(1, resourcePool.getCurrentResources().size());
+  }
+
   @Test public void testCountActive() throws Exception {
 
     final ResourcePool resourcePool = new ResourcePoolImplementation();
@@ -27,9 +27,11 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.util.concurrent.TimeUnit;
 
 import net.grinder.common.UncheckedInterruptedException;
 import net.grinder.testutility.IsolatedObjectFactory;
@@ -186,6 +188,50 @@ public class TestServerReceiver {
     acceptor.shutdown();
   }
 
+  @Test public void testWaitForMessageThatFailsToRead() throws Exception {
+
+    final Acceptor acceptor = new Acceptor("localhost", 0, 1, m_timeAuthority);
+
+    final ServerReceiver serverReceiver = new ServerReceiver();
+    serverReceiver.receiveFrom(
+      acceptor, new ConnectionType[] { ConnectionType.AGENT }, 3, 10, 123);
+
+    final Socket socket =
+      new Connector(InetAddress.getByName(null).getHostName(),
+                    acceptor.getPort(),
+                    ConnectionType.AGENT)
+      .connect();
+
+    final ResourcePool socketSet = acceptor.getSocketSet(ConnectionType.AGENT);
+
+    for (int i=0; socketSet.countActive() != 1 && i<10; ++i) {
+      Thread.sleep(i * i * 10);
+    }
+
+    final ObjectOutputStream objectStream =
+      new ObjectOutputStream(socket.getOutputStream());
+    objectStream.writeObject(new UnreadableMessage());
+    objectStream.flush();
+
+    try {
+      serverReceiver.waitForMessage();
+      fail("Expected CommunicationException");
+    }
+    catch (CommunicationException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+
+    // The connection is closed, rather than being read again.
+    for (int i=0; socketSet.countActive() != 0 && i<10; ++i) {
+      Thread.sleep(i * i * 10);
+    }
+
+    assertEquals(0, socketSet.countActive());
+
+    serverReceiver.shutdown();
+    acceptor.shutdown();
+  }
+
   @Test public void testShutdown() throws Exception {
 
     final Acceptor acceptor = new Acceptor("localhost", 0, 1, m_timeAuthority);
@@ -339,4 +385,145 @@ public class TestServerReceiver {
     acceptor.shutdown();
     receiver.shutdown();
   }
+
+  @Test public void testReceiveLatency() throws Exception {
+    final Acceptor acceptor = new Acceptor("localhost", 0, 1, m_timeAuthority);
+
+    final ServerReceiver serverReceiver = new ServerReceiver();
+    assertEquals(0, serverReceiver.getReceiveLatency().getCount());
+
+    serverReceiver.receiveFrom(
+      acceptor, new ConnectionType[] { ConnectionType.AGENT }, 2, 10, 10000);
+
+    final Socket socket =
+      new Connector(InetAddress.getByName(null).getHostName(),
+                    acceptor.getPort(),
+                    ConnectionType.AGENT)
+      .connect();
+
+    final ResourcePool socketSet = acceptor.getSocketSet(ConnectionType.AGENT);
+
+    for (int i=0; socketSet.countActive() != 1 && i<10; ++i) {
+      Thread.sleep(i * i * 10);
+    }
+
+    // Allow the receiver to register the new connection.
+    Thread.sleep(50);
+
+    final StreamSender sender = new StreamSender(socket.getOutputStream());
+
+    for (int i = 0; i < 3; ++i) {
+      sender.send(new SimpleMessage());
+      assertNotNull(serverReceiver.waitForMessage());
+    }
+
+    // One sample per wake up. A worker may find that a later message has
+    // arrived whilst it is still reading.
+    final LatencyStatistics latency = serverReceiver.getReceiveLatency();
+    assertTrue(latency.getCount() > 0);
+    assertTrue(latency.getCount() <= 3);
+    assertTrue(latency.getMaximum(TimeUnit.NANOSECONDS) > 0);
+    assertTrue(latency.getMean(TimeUnit.NANOSECONDS) <=
+               latency.getMaximum(TimeUnit.NANOSECONDS));
+
+    serverReceiver.shutdown();
+    acceptor.shutdown();
+  }
+
+  @Test public void testPeerCloses() throws Exception {
+    final Acceptor acceptor = new Acceptor("localhost", 0, 1, m_timeAuthority);
+
+    final ServerReceiver serverReceiver = new ServerReceiver();
+
+    // Long time out, so only an end of stream can close the connection.
+    serverReceiver.receiveFrom(
+      acceptor, new ConnectionType[] { ConnectionType.AGENT }, 2, 10, 100000);
+
+    final Socket socket =
+      new Connector(InetAddress.getByName(null).getHostName(),
+                    acceptor.getPort(),
+                    ConnectionType.AGENT)
+      .connect();
+
+    final ResourcePool socketSet = acceptor.getSocketSet(ConnectionType.AGENT);
+
+    for (int i=0; socketSet.countActive() != 1 && i<10; ++i) {
+      Thread.sleep(i * i * 10);
+    }
+
+    assertEquals(1, socketSet.countActive());
+
+    // Close without sending a CloseCommunicationMessage.
+    socket.close();
+
+    for (int i=0; socketSet.countActive() != 0 && i<10; ++i) {
+      Thread.sleep(i * i * 10);
+    }
+
+    assertEquals(0, socketSet.countActive());
+
+    serverReceiver.shutdown();
+    acceptor.shutdown();
+  }
+
+  @Test public void testRelay() throws Exception {
+    final Acceptor acceptor =
+      new Acceptor("localhost", 0, 1, m_timeAuthority,
+                   new MessageCodecRegistry());
+
+    final ServerReceiver serverReceiver = new ServerReceiver(true);
+
+    serverReceiver.receiveFrom(
+      acceptor, new ConnectionType[] { ConnectionType.WORKER }, 2, 10, 10000);
+
+    final Address address = new StubAddress();
+    final Address otherAddress = new StubAddress();
+
+    final QueuedSender sender =
+      new QueuedSenderDecorator(
+        ClientSender.connect(
+          new Connector(InetAddress.getByName(null).getHostName(),
+                        acceptor.getPort(),
+                        ConnectionType.WORKER,
+                        new MessageCodecRegistry()),
+          address),
+        10);
+
+    final SimpleMessage message1 = new SimpleMessage();
+    final SimpleMessage message2 = new SimpleMessage();
+    final SimpleMessage message3 = new SimpleMessage();
+
+    sender.send(message1);
+    sender.send(new RelayedMessage(otherAddress, message2));
+    sender.flush();
+    sender.send(message3);
+    sender.flush();
+
+    // The batch is unpacked.
+    final RelayedMessage received1 =
+      (RelayedMessage) serverReceiver.waitForMessage();
+    assertEquals(address, received1.getOrigin());
+    assertEquals(message1, received1.getMessage());
+
+    // Messages that have already been relayed keep their origin.
+    final RelayedMessage received2 =
+      (RelayedMessage) serverReceiver.waitForMessage();
+    assertEquals(otherAddress, received2.getOrigin());
+    assertEquals(message2, received2.getMessage());
+
+    final RelayedMessage received3 =
+      (RelayedMessage) serverReceiver.waitForMessage();
+    assertEquals(address, received3.getOrigin());
+    assertEquals(message3, received3.getMessage());
+
+    sender.shutdown();
+    serverReceiver.shutdown();
+    acceptor.shutdown();
+  }
+
+  private static final class UnreadableMessage implements Message {
+    private void readObject(ObjectInputStream in) {
+      throw new IllegalStateException("Can't read me");
+    }
+  }
 }
@@ -0,0 +1,190 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.communication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link SocketChannelStreams}.
+ *
+ * @author Philip Aston
+ */
+public class TestSocketChannelStreams {
+
+  private final List<SocketChannel> m_channels = new ArrayList<SocketChannel>();
+
+  private ServerSocketChannel m_serverChannel;
+
+  @Before public void setUp() throws Exception {
+    m_serverChannel = ServerSocketChannel.open();
+    m_serverChannel.socket().bind(new InetSocketAddress("localhost", 0));
+  }
+
+  @After public void tearDown() throws Exception {
+    for (SocketChannel channel : m_channels) {
+      channel.close();
+    }
+
+    m_serverChannel.close();
+  }
+
+  /**
+   * Returns a pair of connected channels. The first is non-blocking.
+   */
+  private SocketChannel[] connect() throws IOException {
+    final SocketChannel client =
+      SocketChannel.open(m_serverChannel.socket().getLocalSocketAddress());
+    final SocketChannel server = m_serverChannel.accept();
+
+    client.configureBlocking(false);
+
+    m_channels.add(client);
+    m_channels.add(server);
+
+    return new SocketChannel[] { client, server };
+  }
+
+  private static void writeLater(final SocketChannel channel,
+                                 final int b,
+                                 final long delay) {
+    new Thread() {
+      public void run() {
+        try {
+          Thread.sleep(delay);
+          channel.write(ByteBuffer.wrap(new byte[] { (byte) b }));
+        }
+        catch (Exception e) {
+          e.printStackTrace();
+        }
+      }
+    }.start();
+  }
+
+  @Test public void testReadWaitsForData() throws Exception {
+    final SocketChannel[] channels = connect();
+
+    final SocketChannelStreams.Input input =
+      new SocketChannelStreams.Input(channels[0]);
+
+    assertEquals(0, input.available());
+
+    writeLater(channels[1], 99, 50);
+
+    assertEquals(99, input.read());
+
+    input.close();
+    assertFalse(channels[0].isOpen());
+  }
+
+  @Test public void testCloseWhileWaiting() throws Exception {
+    final SocketChannel[] channels = connect();
+
+    final SocketChannelStreams.Input input =
+      new SocketChannelStreams.Input(channels[0]);
+
+    new Thread() {
+      public void run() {
+        try {
+          Thread.sleep(50);
+          input.close();
+        }
+        catch (Exception e) {
+          e.printStackTrace();
+        }
+      }
+    }.start();
+
+    final long start = System.currentTimeMillis();
+
+    try {
+      input.read();
+      fail("Expected IOException");
+    }
+    catch (IOException e) {
+    }
+
+    assertTrue(System.currentTimeMillis() - start <
+               SocketChannelStreams.WAIT_TIME * 4);
+  }
+
+  @Test public void testFileDescriptorsAreBounded() throws Exception {
+    final OperatingSystemMXBean operatingSystemMXBean =
+      ManagementFactory.getOperatingSystemMXBean();
+
+    assumeTrue(operatingSystemMXBean instanceof
+               com.sun.management.UnixOperatingSystemMXBean);
+
+    final com.sun.management.UnixOperatingSystemMXBean unixMXBean =
+      (com.sun.management.UnixOperatingSystemMXBean) operatingSystemMXBean;
+
+    final int numberOfConnections = 50;
+
+    final List<SocketChannel[]> connections = new ArrayList<SocketChannel[]>();
+
+    for (int i = 0; i < numberOfConnections; ++i) {
+      connections.add(connect());
+    }
+
+    // Warm up the selector pool.
+    final SocketChannel[] first = connections.get(0);
+    writeLater(first[1], 1, 10);
+    assertEquals(1, new SocketChannelStreams.Input(first[0]).read());
+
+    final long before = unixMXBean.getOpenFileDescriptorCount();
+
+    // Each stream has to wait for its data.
+    for (SocketChannel[] connection : connections) {
+      final SocketChannelStreams.Input input =
+        new SocketChannelStreams.Input(connection[0]);
+
+      writeLater(connection[1], 2, 10);
+      assertEquals(2, input.read());
+    }
+
+    final long after = unixMXBean.getOpenFileDescriptorCount();
+
+    // A selector uses a few descriptors. Allow some for the JVM.
+    assertTrue("Opened " + (after - before) + " descriptors",
+               after - before <
+               SocketChannelStreams.MAXIMUM_IDLE_SELECTORS * 3 + 10);
+  }
+}
@@ -0,0 +1,469 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.communication;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link WireFormat}.
+ *
+ * @author Philip Aston
+ */
+public class TestWireFormat {
+
+  private static final class NumberMessage implements Message {
+    private static final long serialVersionUID = 1L;
+
+    private final long m_number;
+
+    public NumberMessage(long number) {
+      m_number = number;
+    }
+
+    public long getNumber() {
+      return m_number;
+    }
+  }
+
+  private static MessageCodecRegistry createRegistry() {
+    final MessageCodecRegistry result = new MessageCodecRegistry();
+
+    result.register(MessageCodecRegistry.FIRST_TYPE,
+                    NumberMessage.class,
+                    new MessageCodec<NumberMessage>() {
+      public void write(NumberMessage message, DataOutput out)
+        throws IOException {
+        out.writeLong(message.getNumber());
+      }
+
+      public NumberMessage read(DataInput in) throws IOException {
+        return new NumberMessage(in.readLong());
+      }
+    });
+
+    return result;
+  }
+
+  @Test public void testForVersion() throws Exception {
+    assertSame(WireFormat.SERIALISED, WireFormat.forVersion(0, null));
+    assertSame(WireFormat.SERIALISED,
+               WireFormat.forVersion(0, createRegistry()));
+
+    assertEquals(WireFormat.BINARY_VERSION,
+                 WireFormat.forVersion(WireFormat.BINARY_VERSION,
+                                       createRegistry()).getVersion());
+
+    try {
+      WireFormat.forVersion(WireFormat.BINARY_VERSION, null);
+      fail("Expected CommunicationException");
+    }
+    catch (CommunicationException e) {
+    }
+
+    try {
+      WireFormat.forVersion(99, createRegistry());
+      fail("Expected CommunicationException");
+    }
+    catch (CommunicationException e) {
+    }
+  }
+
+  @Test public void testBinaryRoundTrip() throws Exception {
+    final WireFormat wireFormat =
+      WireFormat.forVersion(WireFormat.BINARY_VERSION, createRegistry());
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    final SimpleMessage simpleMessage = new SimpleMessage();
+
+    wireFormat.write(new NumberMessage(-123456789L), out);
+    wireFormat.write(simpleMessage, out);
+    wireFormat.write(new KeepAliveMessage(), out);
+    wireFormat.write(new CloseCommunicationMessage(), out);
+
+    final InputStream in = new ByteArrayInputStream(out.toByteArray());
+
+    assertEquals(-123456789L,
+                 ((NumberMessage)wireFormat.read(in)).getNumber());
+    assertEquals(simpleMessage, wireFormat.read(in));
+    assertTrue(wireFormat.read(in) instanceof KeepAliveMessage);
+    assertTrue(wireFormat.read(in) instanceof CloseCommunicationMessage);
+    assertEquals(0, in.available());
+
+    try {
+      wireFormat.read(in);
+      fail("Expected EOFException");
+    }
+    catch (EOFException e) {
+    }
+  }
+
+  @Test public void testBatchRoundTrip() throws Exception {
+    final MessageCodecRegistry registry = createRegistry();
+
+    final WireFormat[] wireFormats = {
+      WireFormat.SERIALISED,
+      WireFormat.forVersion(WireFormat.BINARY_VERSION, registry),
+    };
+
+    final SimpleMessage simpleMessage = new SimpleMessage();
+
+    final MessageBatch batch =
+      new MessageBatch(Arrays.<Message>asList(
+        new NumberMessage(7),
+        simpleMessage,
+        new MessageBatch(Arrays.<Message>asList(new NumberMessage(8))),
+        new NumberMessage(9)));
+
+    for (WireFormat wireFormat : wireFormats) {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      wireFormat.write(batch, out);
+      wireFormat.write(new MessageBatch(new ArrayList<Message>()), out);
+
+      assertArrayEquals(out.toByteArray(),
+                        concatenate(wireFormat.encode(batch),
+                                    wireFormat.encode(
+                                      new MessageBatch(
+                                        new ArrayList<Message>()))));
+
+      final InputStream in = new ByteArrayInputStream(out.toByteArray());
+
+      final List<Message> messages =
+        ((MessageBatch)wireFormat.read(in)).getMessages();
+
+      assertEquals(4, messages.size());
+      assertEquals(7, ((NumberMessage)messages.get(0)).getNumber());
+      assertEquals(simpleMessage, messages.get(1));
+      final List<Message> nested =
+        ((MessageBatch)messages.get(2)).getMessages();
+      assertEquals(1, nested.size());
+      assertEquals(8, ((NumberMessage)nested.get(0)).getNumber());
+      assertEquals(9, ((NumberMessage)messages.get(3)).getNumber());
+
+      assertEquals(0,
+                   ((MessageBatch)wireFormat.read(in)).getMessages().size());
+      assertEquals(0, in.available());
+    }
+
+    // Batching saves the per-frame header, nothing more.
+    final WireFormat binary = wireFormats[1];
+    final ByteArrayOutputStream separate = new ByteArrayOutputStream();
+    binary.write(new NumberMessage(1), separate);
+    binary.write(new NumberMessage(2), separate);
+
+    assertEquals(4 + 1 + 4 + separate.size(),
+                 binary.encode(new MessageBatch(Arrays.<Message>asList(
+                   new NumberMessage(1), new NumberMessage(2)))).length);
+  }
+
+  private static byte[] concatenate(byte[] a, byte[] b) {
+    final byte[] result = new byte[a.length + b.length];
+    System.arraycopy(a, 0, result, 0, a.length);
+    System.arraycopy(b, 0, result, a.length, b.length);
+    return result;
+  }
+
+  @Test public void testCompression() throws Exception {
+    final MessageCodecRegistry registry = createRegistry();
+    final Compression compression = new Compression(100);
+
+    final WireFormat wireFormat =
+      WireFormat.forVersion(WireFormat.COMPRESSED_BINARY_VERSION,
+                            registry,
+                            compression);
+
+    assertEquals(WireFormat.COMPRESSED_BINARY_VERSION,
+                 wireFormat.getVersion());
+
+    final WireFormat uncompressed =
+      WireFormat.forVersion(WireFormat.BINARY_VERSION, registry);
+
+    final SimpleMessage large = new SimpleMessage(1000);
+    final SimpleMessage random = new SimpleMessage(0);
+    final byte[] randomBytes = new byte[1000];
+    new Random().nextBytes(randomBytes);
+    random.setPayload(randomBytes);
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    wireFormat.write(large, out);
+    wireFormat.write(new NumberMessage(10), out);
+    wireFormat.write(random, out);
+    wireFormat.write(new MessageBatch(Arrays.<Message>asList(large, large)),
+                     out);
+
+    final InputStream in = new ByteArrayInputStream(out.toByteArray());
+
+    assertEquals(large, wireFormat.read(in));
+    assertEquals(10, ((NumberMessage)wireFormat.read(in)).getNumber());
+    assertEquals(random, wireFormat.read(in));
+    assertEquals(2,
+                 ((MessageBatch)wireFormat.read(in)).getMessages().size());
+    assertEquals(0, in.available());
+
+    // The small message is not compressed, nor the random message which
+    // doesn't compress.
+    final CompressionStatistics statistics = compression.getStatistics();
+    assertEquals(3, statistics.getCompressedCount());
+    assertEquals(2, statistics.getDecompressedCount());
+    assertTrue(statistics.getRatio() < 1);
+    assertTrue(statistics.getCompressedBytes() <
+               statistics.getUncompressedBytes());
+    assertTrue(statistics.toString().contains("compressed=3"));
+
+    // Compression is not supported unless the caller supplies it.
+    try {
+      WireFormat.forVersion(WireFormat.COMPRESSED_BINARY_VERSION, registry);
+      fail("Expected CommunicationException");
+    }
+    catch (CommunicationException e) {
+    }
+
+    assertTrue(wireFormat.encode(large).length <
+               uncompressed.encode(large).length / 2);
+
+    // Frames can be shared between connections that compress, whatever
+    // instance they use.
+    assertFalse(wireFormat.equals(uncompressed));
+    final WireFormat other =
+      WireFormat.forVersion(WireFormat.COMPRESSED_BINARY_VERSION,
+                            registry,
+                            new Compression(100));
+    assertEquals(wireFormat, other);
+    assertEquals(wireFormat.hashCode(), other.hashCode());
+    assertEquals(large, other.read(
+      new ByteArrayInputStream(wireFormat.encode(large))));
+  }
+
+  @Test public void testCompressionTotals() throws Exception {
+    final Compression.Totals totals = new Compression.Totals();
+    final Compression compression1 = new Compression(10, totals);
+    final Compression compression2 = new Compression(10, totals);
+
+    final byte[] data = new byte[100];
+    final byte[] compressed = compression1.compress(data, 0, data.length);
+    compression2.compress(data, 0, data.length);
+    compression2.decompress(compressed, 0, compressed.length, data.length);
+    assertNull(compression1.compress(data, 0, 5));
+
+    final CompressionStatistics statistics = totals.getStatistics();
+    assertEquals(2, statistics.getCompressedCount());
+    assertEquals(200, statistics.getUncompressedBytes());
+    assertEquals(2 * compressed.length, statistics.getCompressedBytes());
+    assertEquals(1, statistics.getDecompressedCount());
+    assertEquals(statistics.toString(),
+                 compression1.getStatistics().toString());
+  }
+
+  @Test public void testBadCompressedFrame() throws Exception {
+    final WireFormat wireFormat =
+      WireFormat.forVersion(WireFormat.COMPRESSED_BINARY_VERSION,
+                            createRegistry(),
+                            new Compression(10));
+
+    final byte[] bytes = wireFormat.encode(new SimpleMessage(100));
+
+    // Corrupt the compressed data.
+    bytes[bytes.length - 5] ^= 0xff;
+
+    try {
+      wireFormat.read(new ByteArrayInputStream(bytes));
+      fail("Expected StreamCorruptedException");
+    }
+    catch (StreamCorruptedException e) {
+    }
+
+    // The header gives the wrong uncompressed length.
+    final byte[] wrongLength = wireFormat.encode(new SimpleMessage(100));
+    ++wrongLength[8];
+
+    try {
+      wireFormat.read(new ByteArrayInputStream(wrongLength));
+      fail("Expected StreamCorruptedException");
+    }
+    catch (StreamCorruptedException e) {
+    }
+
+    // The header gives a huge uncompressed length. Rejected before the
+    // buffer is allocated.
+    final byte[] hugeLength = wireFormat.encode(new SimpleMessage(100));
+    hugeLength[5] = 0x7f;
+
+    try {
+      wireFormat.read(new ByteArrayInputStream(hugeLength));
+      fail("Expected StreamCorruptedException");
+    }
+    catch (StreamCorruptedException e) {
+    }
+
+    // Compressed frames are not understood by the uncompressed format.
+    try {
+      WireFormat.forVersion(WireFormat.BINARY_VERSION, createRegistry())
+        .read(new ByteArrayInputStream(
+          wireFormat.encode(new SimpleMessage(100))));
+      fail("Expected StreamCorruptedException");
+    }
+    catch (StreamCorruptedException e) {
+    }
+  }
+
+  @Test public void testBinaryIsCompact() throws Exception {
+    final WireFormat wireFormat =
+      WireFormat.forVersion(WireFormat.BINARY_VERSION, createRegistry());
+
+    final ByteArrayOutputStream binary = new ByteArrayOutputStream();
+    wireFormat.write(new NumberMessage(1), binary);
+
+    // Header, type, long.
+    assertEquals(4 + 1 + 8, binary.size());
+
+    final ByteArrayOutputStream serialised = new ByteArrayOutputStream();
+    WireFormat.SERIALISED.write(new NumberMessage(1), serialised);
+
+    assertTrue(serialised.size() > 5 * binary.size());
+  }
+
+  @Test public void testEncode() throws Exception {
+    final MessageCodecRegistry registry = createRegistry();
+
+    final WireFormat[] wireFormats = {
+      WireFormat.SERIALISED,
+      WireFormat.forVersion(WireFormat.BINARY_VERSION, registry),
+    };
+
+    final Message[] messages = { new NumberMessage(99), new SimpleMessage() };
+
+    for (WireFormat wireFormat : wireFormats) {
+      for (Message message : messages) {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        wireFormat.write(message, written);
+
+        assertArrayEquals(written.toByteArray(), wireFormat.encode(message));
+      }
+    }
+
+    // Binary formats that share a registry can share encodings.
+    assertEquals(wireFormats[1],
+                 WireFormat.forVersion(WireFormat.BINARY_VERSION, registry));
+    assertEquals(wireFormats[1].hashCode(),
+                 WireFormat.forVersion(WireFormat.BINARY_VERSION, registry)
+                 .hashCode());
+    assertFalse(wireFormats[1].equals(
+      WireFormat.forVersion(WireFormat.BINARY_VERSION, createRegistry())));
+    assertFalse(wireFormats[1].equals(WireFormat.SERIALISED));
+  }
+
+  @Test public void testBadFrames() throws Exception {
+    final WireFormat wireFormat =
+      WireFormat.forVersion(WireFormat.BINARY_VERSION, createRegistry());
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    wireFormat.write(new NumberMessage(1), out);
+    final byte[] bytes = out.toByteArray();
+
+    // Type not registered at the receiver.
+    try {
+      WireFormat.forVersion(WireFormat.BINARY_VERSION,
+                            new MessageCodecRegistry())
+        .read(new ByteArrayInputStream(bytes));
+      fail("Expected StreamCorruptedException");
+    }
+    catch (StreamCorruptedException e) {
+    }
+
+    // Truncated.
+    try {
+      wireFormat.read(new ByteArrayInputStream(bytes, 0, bytes.length - 1));
+      fail("Expected EOFException");
+    }
+    catch (EOFException e) {
+    }
+
+    // Bad length.
+    try {
+      wireFormat.read(new ByteArrayInputStream(new byte[] { -1, 0, 0, 0 }));
+      fail("Expected StreamCorruptedException");
+    }
+    catch (StreamCorruptedException e) {
+    }
+
+    // Too long. Rejected before the frame is allocated.
+    try {
+      wireFormat.read(
+        new ByteArrayInputStream(new byte[] { 0x7f, -1, -1, -1, 0 }));
+      fail("Expected StreamCorruptedException");
+    }
+    catch (StreamCorruptedException e) {
+    }
+  }
+
+  @Test public void testRegistry() throws Exception {
+    final MessageCodecRegistry registry = createRegistry();
+
+    assertSame(null, registry.getCodec(SimpleMessage.class));
+    assertTrue(registry.getCodec(NumberMessage.class) != null);
+
+    final MessageCodec<SimpleMessage> codec =
+      new MessageCodec<SimpleMessage>() {
+        public void write(SimpleMessage message, DataOutput out) { }
+
+        public SimpleMessage read(DataInput in) {
+          return new SimpleMessage();
+        }
+      };
+
+    for (int type : new int[] { 1, MessageCodecRegistry.FIRST_TYPE - 1,
+                                MessageCodecRegistry.FIRST_TYPE, 256, }) {
+      try {
+        registry.register(type, SimpleMessage.class, codec);
+        fail("Expected IllegalArgumentException");
+      }
+      catch (IllegalArgumentException e) {
+      }
+    }
+
+    registry.register(255, SimpleMessage.class, codec);
+    assertSame(codec, registry.getCodec(SimpleMessage.class));
+  }
+}
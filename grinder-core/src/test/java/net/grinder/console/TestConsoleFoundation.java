@@ -38,6 +38,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Timer;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -231,9 +232,15 @@ public class TestConsoleFoundation extends AbstractJUnit4FileTestCase {
                                           m_handlerCaptor.capture());
 
     final TestStatisticsMap delta = new TestStatisticsMap();
-    m_handlerCaptor.getValue().handle(new ReportStatisticsMessage(delta));
+    final TestStatisticsMap converted = new TestStatisticsMap();
+    when(sampleModelViews.toConsoleTimeUnit(delta, TimeUnit.MICROSECONDS))
+      .thenReturn(converted);
+
+    m_handlerCaptor.getValue().handle(
+      new ReportStatisticsMessage(delta, TimeUnit.MICROSECONDS));
 
-    verify(sampleModel).addTestReport(delta);
+    verify(sampleModelViews).toConsoleTimeUnit(delta, TimeUnit.MICROSECONDS);
+    verify(sampleModel).addTestReport(converted);
 
     verify(m_messageDispatchRegistry).set(
       eq(RegisterExpressionViewMessage.class), m_handlerCaptor.capture());
@@ -124,6 +124,8 @@ public class TestConsoleConnectionFactory {
 
     assertEquals(ConnectionType.CONSOLE_CLIENT, objectInputStream.readObject());
     assertNull(objectInputStream.readObject());
+    // Console clients use Java serialisation.
+    assertEquals(0, objectInputStream.readInt());
     assertEquals(0, socketInput.available());
 
     final Runnable keepAlive = m_runnableCaptor.getValue();
@@ -45,6 +45,7 @@ public class TestProcessReportDescriptionFactory extends TestCase {
     new StubResources<String>(
       new HashMap<String, String>() { {
         put("processTable.threads.label", "strings");
+        put("processTable.queue.label", "line");
         put("processTable.agentProcess.label", "AG");
         put("processTable.workerProcess.label", "WK");
         put("processState.started.label", "hot to trot");
@@ -149,15 +150,30 @@ public class TestProcessReportDescriptionFactory extends TestCase {
     workerProcessReportStubFactory.setResult(
       "getState", ProcessReport.State.RUNNING);
     workerProcessReportStubFactory.setResult(
-      "getNumberOfRunningThreads", new Short((short) 10));
+      "getNumberOfRunningThreads", new Integer(10));
     workerProcessReportStubFactory.setResult(
-      "getMaximumNumberOfThreads", new Short((short) 21));
+      "getMaximumNumberOfThreads", new Integer(21));
+    workerProcessReportStubFactory.setResult(
+      "getMessageQueueDepth", new Integer(0));
+    workerProcessReportStubFactory.setResult(
+      "getMessageQueueLatency", new Long(0));
 
     final ProcessDescription description2 =
       processReportDescriptionFactory.create(workerProcessReport);
 
     assertEquals("rolling (10/21 strings)", description2.getState());
 
+    workerProcessReportStubFactory.setResult(
+      "getMessageQueueDepth", new Integer(7));
+    workerProcessReportStubFactory.setResult(
+      "getMessageQueueLatency", new Long(250));
+
+    final ProcessDescription description2a =
+      processReportDescriptionFactory.create(workerProcessReport);
+
+    assertEquals("rolling (10/21 strings, line 7, 250 ms)",
+                 description2a.getState());
+
     workerProcessReportStubFactory.setResult(
       "getState", ProcessReport.State.STARTED);
 
@@ -21,8 +21,12 @@
 
 package net.grinder.console.common.processidentity;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import net.grinder.common.processidentity.AgentIdentity;
 import net.grinder.messages.agent.CacheHighWaterMark;
+import net.grinder.messages.agent.ReceivedFile;
 import net.grinder.messages.console.AgentAddress;
 import net.grinder.messages.console.AgentAndCacheReport;
 
@@ -32,6 +36,9 @@ public final class StubAgentProcessReport implements AgentAndCacheReport {
   private final AgentAddress m_agentAddress;
   private final State m_state;
   private CacheHighWaterMark m_cacheHighWaterMark = null;
+  private String m_peerFileServer = null;
+  private final List<ReceivedFile> m_receivedFiles =
+    new ArrayList<ReceivedFile>();
 
   public StubAgentProcessReport(AgentIdentity agentIdentity, State running) {
     m_agentAddress = new AgentAddress(agentIdentity);
@@ -57,4 +64,20 @@ public final class StubAgentProcessReport implements AgentAndCacheReport {
   public void setCacheHighWaterMark(CacheHighWaterMark highWaterMark) {
     m_cacheHighWaterMark = highWaterMark;
   }
+
+  public String getPeerFileServer() {
+    return m_peerFileServer;
+  }
+
+  public void setPeerFileServer(String peerFileServer) {
+    m_peerFileServer = peerFileServer;
+  }
+
+  public List<ReceivedFile> getReceivedFiles() {
+    return m_receivedFiles;
+  }
+
+  public void addReceivedFile(ReceivedFile receivedFile) {
+    m_receivedFiles.add(receivedFile);
+  }
 }
@@ -25,6 +25,7 @@ import static net.grinder.testutility.FileUtilities.createRandomFile;
 import static net.grinder.testutility.SocketUtilities.findFreePort;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
@@ -49,8 +50,12 @@ import net.grinder.common.processidentity.AgentIdentity;
 import net.grinder.common.processidentity.ProcessReport;
 import net.grinder.common.processidentity.ProcessReport.State;
 import net.grinder.communication.Address;
+import net.grinder.communication.ClientSender;
 import net.grinder.communication.CommunicationException;
+import net.grinder.communication.CompressionStatistics;
 import net.grinder.communication.ConnectionType;
+import net.grinder.communication.Connector;
+import net.grinder.communication.LatencyStatistics;
 import net.grinder.communication.Message;
 import net.grinder.communication.MessageDispatchRegistry.Handler;
 import net.grinder.communication.SendToEveryoneAddress;
@@ -73,8 +78,10 @@ import net.grinder.messages.agent.StopGrinderMessage;
 import net.grinder.messages.agent.StubCacheHighWaterMark;
 import net.grinder.messages.console.AgentAddress;
 import net.grinder.messages.console.AgentProcessReportMessage;
+import net.grinder.messages.console.ConsoleMessageCodecs;
 import net.grinder.messages.console.WorkerAddress;
 import net.grinder.messages.console.WorkerProcessReportMessage;
+import net.grinder.statistics.StatisticsServicesImplementation;
 import net.grinder.testutility.AbstractJUnit4FileTestCase;
 import net.grinder.testutility.StubTimer;
 import net.grinder.util.FileContents;
@@ -87,6 +94,7 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
+import org.slf4j.Logger;
 
 
 /**
@@ -427,8 +435,8 @@ public class TestConsoleCommunicationImplementation
 
     final WorkerProcessReportMessage message =
       new WorkerProcessReportMessage(State.STARTED,
-                                     (short)0,
-                                     (short)0);
+                                     0,
+                                     0);
 
     final Socket workerSocket =
       new StubConnector(InetAddress.getByName(null).getHostName(),
@@ -458,6 +466,85 @@ public class TestConsoleCommunicationImplementation
     verifyNoMoreInteractions(m_messageHandler);
   }
 
+  @Test public void testStatisticsLogging() throws Exception {
+    // Replace the communication created by setUp(), which doesn't log.
+    m_consoleCommunication.shutdown();
+
+    final Logger logger = mock(Logger.class);
+
+    m_consoleCommunication =
+      new ConsoleCommunicationImplementation(s_resources,
+                                             m_properties,
+                                             m_errorHandler,
+                                             m_timeAuthority,
+                                             m_timer,
+                                             logger);
+
+    m_consoleCommunication.getMessageDispatchRegistry()
+      .addFallback(m_messageHandler);
+
+    m_processMessagesThread.start();
+
+    final TimerTask statisticsTask =
+      m_timer.getTaskByPeriod(
+        ConsoleCommunicationImplementation.STATISTICS_LOG_INTERVAL);
+
+    // Nothing received, nothing logged.
+    statisticsTask.run();
+    verifyNoMoreInteractions(logger);
+
+    final Socket workerSocket =
+      new StubConnector(InetAddress.getByName(null).getHostName(),
+                        m_properties.getConsolePort(),
+                        ConnectionType.WORKER)
+      .connect(new WorkerAddress(
+        new StubAgentIdentity("agent").createWorkerIdentity()));
+
+    sendMessage(workerSocket, new MyMessage());
+
+    verify(m_messageHandler, timeout(10000)).handle(isA(MyMessage.class));
+
+    // Data that arrives before the connection is registered with the
+    // receiver's selector is not timed. Let the connection go quiet, then
+    // send another message.
+    Thread.sleep(200);
+
+    sendMessage(workerSocket, new MyMessage());
+
+    verify(m_messageHandler, timeout(10000).times(2))
+      .handle(isA(MyMessage.class));
+
+    statisticsTask.run();
+    verify(logger).info(eq("Receive latency: {}"),
+                        isA(LatencyStatistics.class));
+
+    statisticsTask.run();
+    verifyNoMoreInteractions(logger);
+
+    final ClientSender compressingSender =
+      ClientSender.connect(
+        new Connector(InetAddress.getByName(null).getHostName(),
+                      m_properties.getConsolePort(),
+                      ConnectionType.WORKER,
+                      ConsoleMessageCodecs.createRegistry(
+                        StatisticsServicesImplementation.getInstance()
+                        .getStatisticsSetFactory()),
+                      true),
+        new WorkerAddress(
+          new StubAgentIdentity("agent").createWorkerIdentity()));
+
+    compressingSender.send(new MyLargeMessage());
+
+    verify(m_messageHandler, timeout(10000))
+      .handle(isA(MyLargeMessage.class));
+
+    statisticsTask.run();
+    verify(logger).info(eq("Compression: {}"),
+                        isA(CompressionStatistics.class));
+
+    compressingSender.shutdown();
+  }
+
   @Test public void testSendExceptions() throws Exception {
     // Need a thread to be attempting to process messages or
     // ConsoleCommunicationImplementation.reset() will not complete.
@@ -586,6 +673,13 @@ public class TestConsoleCommunicationImplementation
     private static final long serialVersionUID = 1L;
   }
 
+  private static final class MyLargeMessage implements Message {
+    private static final long serialVersionUID = 1L;
+
+    @SuppressWarnings("unused")
+    private final byte[] m_data = new byte[10000];
+  }
+
   private final class ProcessMessagesThread extends Thread {
     public ProcessMessagesThread() {
       super("Process messages");
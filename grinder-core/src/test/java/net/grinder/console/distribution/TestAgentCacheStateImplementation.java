@@ -24,9 +24,11 @@ package net.grinder.console.distribution;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import net.grinder.common.processidentity.ProcessReport;
+import net.grinder.communication.Address;
 import net.grinder.console.common.processidentity.StubAgentProcessReport;
 import net.grinder.console.communication.ProcessControl;
 import net.grinder.console.communication.StubProcessReports;
@@ -35,6 +37,7 @@ import net.grinder.console.communication.ProcessControl.ProcessReports;
 import net.grinder.console.distribution.AgentSet.OutOfDateException;
 import net.grinder.engine.agent.StubAgentIdentity;
 import net.grinder.messages.agent.CacheHighWaterMark;
+import net.grinder.messages.agent.ReceivedFile;
 import net.grinder.messages.console.AgentAddress;
 import net.grinder.testutility.AbstractFileTestCase;
 import net.grinder.testutility.RandomStubFactory;
@@ -279,4 +282,156 @@ public class TestAgentCacheStateImplementation extends AbstractFileTestCase {
       cacheState.getAgentSet().getAddressOfOutOfDateAgents(1000).includes(
         new AgentAddress(agentIdentity1)));
   }
+
+  public void testAgentSetGetAddressOfAgentsBetween() throws Exception {
+    final UpdateableAgentCacheState cacheState =
+      new AgentCacheStateImplementation(
+        m_processControl, m_directory, m_pattern);
+
+    final Listener processListener =
+      (Listener) m_processControlStubFactory.assertSuccess(
+        "addProcessStatusListener", Listener.class).getParameters()[0];
+    m_processControlStubFactory.assertNoMoreCalls();
+
+    assertNull(cacheState.getAgentSet().getAddressOfAgentsBetween(
+                 Long.MIN_VALUE, Long.MAX_VALUE));
+
+    final StubAgentIdentity agentIdentity1 = new StubAgentIdentity("agent1");
+    final StubAgentProcessReport agentReport1 =
+      new StubAgentProcessReport(agentIdentity1, ProcessReport.State.RUNNING);
+
+    processListener.update(new ProcessReports[] {
+      new StubProcessReports(agentReport1, null),
+    });
+
+    // An agent with a cache for other parameters has the earliest time.
+    assertTrue(
+      cacheState.getAgentSet().getAddressOfAgentsBetween(Long.MIN_VALUE, 100)
+      .includes(new AgentAddress(agentIdentity1)));
+    assertNull(
+      cacheState.getAgentSet().getAddressOfAgentsBetween(0, 100));
+
+    agentReport1.setCacheHighWaterMark(
+      cacheState.getCacheParameters().createHighWaterMark(1000));
+
+    processListener.update(new ProcessReports[] {
+      new StubProcessReports(agentReport1, null),
+    });
+
+    assertNull(
+      cacheState.getAgentSet().getAddressOfAgentsBetween(Long.MIN_VALUE, 1000));
+    assertTrue(
+      cacheState.getAgentSet().getAddressOfAgentsBetween(1000, 1001)
+      .includes(new AgentAddress(agentIdentity1)));
+    assertNull(
+      cacheState.getAgentSet().getAddressOfAgentsBetween(1001, 2000));
+  }
+
+  public void testAgentSetGetPeerFileServersBetween() throws Exception {
+    final UpdateableAgentCacheState cacheState =
+      new AgentCacheStateImplementation(
+        m_processControl, m_directory, m_pattern);
+
+    final Listener processListener =
+      (Listener) m_processControlStubFactory.assertSuccess(
+        "addProcessStatusListener", Listener.class).getParameters()[0];
+    m_processControlStubFactory.assertNoMoreCalls();
+
+    final StubAgentIdentity agentIdentity1 = new StubAgentIdentity("agent1");
+    final StubAgentProcessReport agentReport1 =
+      new StubAgentProcessReport(agentIdentity1, ProcessReport.State.RUNNING);
+    agentReport1.setPeerFileServer("host1:1");
+
+    final StubAgentIdentity agentIdentity2 = new StubAgentIdentity("agent2");
+    final StubAgentProcessReport agentReport2 =
+      new StubAgentProcessReport(agentIdentity2, ProcessReport.State.RUNNING);
+
+    final StubAgentIdentity agentIdentity3 = new StubAgentIdentity("agent3");
+    final StubAgentProcessReport agentReport3 =
+      new StubAgentProcessReport(agentIdentity3, ProcessReport.State.RUNNING);
+    agentReport3.setPeerFileServer("host3:3");
+    agentReport3.setCacheHighWaterMark(
+      cacheState.getCacheParameters().createHighWaterMark(1000));
+
+    processListener.update(new ProcessReports[] {
+      new StubProcessReports(agentReport1, null),
+      new StubProcessReports(agentReport2, null),
+      new StubProcessReports(agentReport3, null),
+    });
+
+    // Agents without a peer file server are not included.
+    final Map<Address, String> all =
+      cacheState.getAgentSet().getPeerFileServersBetween(Long.MIN_VALUE,
+                                                         Long.MAX_VALUE);
+    assertEquals(2, all.size());
+    assertEquals("host1:1", all.get(new AgentAddress(agentIdentity1)));
+    assertEquals("host3:3", all.get(new AgentAddress(agentIdentity3)));
+
+    final Map<Address, String> early =
+      cacheState.getAgentSet().getPeerFileServersBetween(Long.MIN_VALUE, 1000);
+    assertEquals(1, early.size());
+    assertEquals("host1:1", early.get(new AgentAddress(agentIdentity1)));
+
+    assertEquals(0,
+      cacheState.getAgentSet().getPeerFileServersBetween(1001, 2000).size());
+  }
+
+  public void testAgentSetGetReceivedBytesBetween() throws Exception {
+    final UpdateableAgentCacheState cacheState =
+      new AgentCacheStateImplementation(
+        m_processControl, m_directory, m_pattern);
+
+    final Listener processListener =
+      (Listener) m_processControlStubFactory.assertSuccess(
+        "addProcessStatusListener", Listener.class).getParameters()[0];
+    m_processControlStubFactory.assertNoMoreCalls();
+
+    final File file = new File("file");
+
+    // An agent with a cache for other parameters. Its cache will be
+    // cleared, so it can't resume.
+    final StubAgentIdentity agentIdentity1 = new StubAgentIdentity("agent1");
+    final StubAgentProcessReport agentReport1 =
+      new StubAgentProcessReport(agentIdentity1, ProcessReport.State.RUNNING);
+    agentReport1.addReceivedFile(new ReceivedFile(file, "v1", 100));
+
+    final StubAgentIdentity agentIdentity2 = new StubAgentIdentity("agent2");
+    final StubAgentProcessReport agentReport2 =
+      new StubAgentProcessReport(agentIdentity2, ProcessReport.State.RUNNING);
+    agentReport2.setCacheHighWaterMark(
+      cacheState.getCacheParameters().createHighWaterMark(Long.MIN_VALUE));
+    agentReport2.addReceivedFile(new ReceivedFile(new File("other"), "v1", 5));
+    agentReport2.addReceivedFile(new ReceivedFile(file, "v1", 200));
+
+    final StubAgentIdentity agentIdentity3 = new StubAgentIdentity("agent3");
+    final StubAgentProcessReport agentReport3 =
+      new StubAgentProcessReport(agentIdentity3, ProcessReport.State.RUNNING);
+    agentReport3.setCacheHighWaterMark(
+      cacheState.getCacheParameters().createHighWaterMark(1000));
+    agentReport3.addReceivedFile(new ReceivedFile(file, "v0", 300));
+
+    processListener.update(new ProcessReports[] {
+      new StubProcessReports(agentReport1, null),
+      new StubProcessReports(agentReport2, null),
+      new StubProcessReports(agentReport3, null),
+    });
+
+    final Map<Address, Long> all =
+      cacheState.getAgentSet().getReceivedBytesBetween(
+        file, "v1", Long.MIN_VALUE, Long.MAX_VALUE);
+    assertEquals(3, all.size());
+    assertEquals(new Long(0), all.get(new AgentAddress(agentIdentity1)));
+    assertEquals(new Long(200), all.get(new AgentAddress(agentIdentity2)));
+    assertEquals(new Long(0), all.get(new AgentAddress(agentIdentity3)));
+
+    final Map<Address, Long> early =
+      cacheState.getAgentSet().getReceivedBytesBetween(
+        file, "v1", Long.MIN_VALUE, 1000);
+    assertEquals(2, early.size());
+    assertNull(early.get(new AgentAddress(agentIdentity3)));
+
+    assertEquals(0,
+      cacheState.getAgentSet().getReceivedBytesBetween(
+        file, "v1", 1001, 2000).size());
+  }
 }
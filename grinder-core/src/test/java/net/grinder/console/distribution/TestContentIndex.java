@@ -0,0 +1,126 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.console.distribution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import net.grinder.testutility.AbstractJUnit4FileTestCase;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link ContentIndex}.
+ *
+ * @author Philip Aston
+ */
+public class TestContentIndex extends AbstractJUnit4FileTestCase {
+
+  private static final int BLOCK_SIZE = ContentIndex.BLOCK_SIZE;
+
+  private final ContentIndex m_index = new ContentIndex();
+
+  private File writeFile(byte[] contents, long time) throws Exception {
+    final File file = new File(getDirectory(), "file");
+    final OutputStream out = new FileOutputStream(file);
+    out.write(contents);
+    out.close();
+    file.setLastModified(time);
+    return file;
+  }
+
+  @Test public void testNewFile() throws Exception {
+    final File file = writeFile(new byte[100], 10000);
+
+    final ContentIndex.Entry entry = m_index.get(file);
+
+    assertEquals(100, entry.getLength());
+    assertEquals(10000, entry.getLastModified());
+    assertEquals(10000, entry.getContentTime());
+    assertNull(entry.getPrevious());
+
+    // Unchanged files are not read again.
+    assertSame(entry, m_index.get(file));
+
+    assertEquals(
+      entry.getDigest(),
+      new ContentIndex().get(writeFile(new byte[100], 20000)).getDigest());
+
+    final ContentIndex.Entry empty =
+      new ContentIndex().get(writeFile(new byte[0], 20000));
+    assertEquals(0, empty.getLength());
+    assertFalse(empty.getDigest().equals(entry.getDigest()));
+  }
+
+  @Test public void testTouchedFile() throws Exception {
+    final File file = writeFile(new byte[100], 10000);
+    final ContentIndex.Entry entry = m_index.get(file);
+
+    file.setLastModified(20000);
+
+    final ContentIndex.Entry touched = m_index.get(file);
+
+    assertEquals(entry.getDigest(), touched.getDigest());
+    assertEquals(20000, touched.getLastModified());
+    assertEquals(10000, touched.getContentTime());
+    assertNull(touched.getPrevious());
+  }
+
+  @Test public void testChangedFile() throws Exception {
+    final byte[] contents = new byte[BLOCK_SIZE * 3];
+    final File file = writeFile(contents, 10000);
+    final ContentIndex.Entry entry1 = m_index.get(file);
+
+    contents[BLOCK_SIZE * 2 + 5] = 1;
+    writeFile(contents, 20000);
+    final ContentIndex.Entry entry2 = m_index.get(file);
+
+    assertFalse(entry1.getDigest().equals(entry2.getDigest()));
+    assertEquals(20000, entry2.getContentTime());
+    assertEquals(entry1.getDigest(), entry2.getPrevious().getDigest());
+    assertEquals(10000, entry2.getPrevious().getContentTime());
+
+    assertEquals(Arrays.asList((long) BLOCK_SIZE * 2),
+                 entry2.changedBlocks(entry1));
+
+    // Only one previous version is kept.
+    final byte[] longer = Arrays.copyOf(contents, BLOCK_SIZE * 4 + 1);
+    writeFile(longer, 30000);
+    final ContentIndex.Entry entry3 = m_index.get(file);
+
+    assertEquals(entry2.getDigest(), entry3.getPrevious().getDigest());
+    assertNull(entry3.getPrevious().getPrevious());
+
+    assertEquals(Arrays.asList((long) BLOCK_SIZE * 3, (long) BLOCK_SIZE * 4),
+                 entry3.changedBlocks(entry2));
+    assertEquals(Collections.emptyList(), entry2.changedBlocks(entry3));
+  }
+}
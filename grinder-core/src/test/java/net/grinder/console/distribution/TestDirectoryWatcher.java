@@ -0,0 +1,170 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.console.distribution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import net.grinder.testutility.AbstractJUnit4FileTestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link DirectoryWatcher}.
+ *
+ * @author Philip Aston
+ */
+public class TestDirectoryWatcher extends AbstractJUnit4FileTestCase {
+
+  private final FileFilter m_filter =
+    new FileDistributionImplementation.FixedPatternFileFilter(
+      -1, Pattern.compile("^.*~$"));
+
+  private final CollectingListener m_listener = new CollectingListener();
+
+  private DirectoryWatcher m_watcher;
+
+  @Before public void setUp() throws Exception {
+    m_watcher = new DirectoryWatcher(getDirectory(), m_filter, m_listener);
+  }
+
+  @After public void tearDown() {
+    m_watcher.close();
+  }
+
+  @Test public void testPoll() throws Exception {
+    m_watcher.poll();
+    assertEquals(0, m_listener.getFiles().size());
+
+    final File file1 = new File(getDirectory(), "file1");
+    assertTrue(file1.createNewFile());
+
+    final File ignored = new File(getDirectory(), "file1~");
+    assertTrue(ignored.createNewFile());
+
+    pollUntilNotified(file1);
+    assertTrue(m_listener.getFiles().contains(getDirectory()));
+    assertFalse(m_listener.getFiles().contains(ignored));
+
+    m_listener.clear();
+
+    final File directory = new File(getDirectory(), "directory");
+    assertTrue(directory.mkdir());
+    pollUntilNotified(directory);
+
+    // New directories are watched.
+    final File file2 = new File(directory, "file2");
+    final FileOutputStream out = new FileOutputStream(file2);
+    out.write(1);
+    out.close();
+    pollUntilNotified(file2);
+
+    m_listener.clear();
+
+    assertTrue(file1.delete());
+    pollUntilNotified(file1);
+
+    assertFalse(m_listener.isEventsLost());
+
+    m_watcher.close();
+    m_listener.clear();
+
+    assertTrue(file1.createNewFile());
+    m_watcher.poll();
+    assertEquals(0, m_listener.getFiles().size());
+  }
+
+  @Test public void testThread() throws Exception {
+    m_watcher.start();
+
+    final File file = new File(getDirectory(), "file");
+    assertTrue(file.createNewFile());
+
+    synchronized (m_listener) {
+      final long end = System.currentTimeMillis() + 10000;
+
+      while (!m_listener.getFiles().contains(file)) {
+        final long remaining = end - System.currentTimeMillis();
+
+        if (remaining <= 0) {
+          fail("Not notified of " + file);
+        }
+
+        m_listener.wait(remaining);
+      }
+    }
+  }
+
+  private void pollUntilNotified(File file) throws Exception {
+    final long end = System.currentTimeMillis() + 10000;
+
+    while (!m_listener.getFiles().contains(file)) {
+      if (System.currentTimeMillis() > end) {
+        fail("Not notified of " + file);
+      }
+
+      Thread.sleep(10);
+      m_watcher.poll();
+    }
+  }
+
+  private static final class CollectingListener
+    implements DirectoryWatcher.Listener {
+
+    private final Set<File> m_files = new HashSet<File>();
+    private boolean m_eventsLost;
+
+    public synchronized void filesChanged(Set<File> files) {
+      m_files.addAll(files);
+      notifyAll();
+    }
+
+    public synchronized void eventsLost() {
+      m_eventsLost = true;
+    }
+
+    public synchronized Set<File> getFiles() {
+      return new HashSet<File>(m_files);
+    }
+
+    public synchronized boolean isEventsLost() {
+      return m_eventsLost;
+    }
+
+    public synchronized void clear() {
+      m_files.clear();
+      m_eventsLost = false;
+    }
+  }
+}
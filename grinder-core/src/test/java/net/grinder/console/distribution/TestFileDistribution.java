@@ -23,6 +23,9 @@ package net.grinder.console.distribution;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import net.grinder.console.communication.DistributionControl;
@@ -240,6 +243,83 @@ public class TestFileDistribution extends AbstractFileTestCase {
     FileUtilities.setCanAccess(subdirectory.getFile(), true);
   }
 
+  public void testWatchDistributionFiles() throws Exception {
+    final RandomStubFactory<DistributionControl>
+      distributionControlStubFactory =
+        RandomStubFactory.create(DistributionControl.class);
+
+    final UpdateableAgentCacheStateStubFactory
+      agentCacheStateStubFactory =
+        new UpdateableAgentCacheStateStubFactory();
+
+    final Directory directory = new Directory(getDirectory());
+    agentCacheStateStubFactory.override_setDirectory(null, directory);
+    agentCacheStateStubFactory.override_setFileFilterPattern(
+      null, m_matchIgnoredPattern);
+
+    final FileDistributionImplementation fileDistribution =
+      new FileDistributionImplementation(
+        distributionControlStubFactory.getStub(),
+        agentCacheStateStubFactory.getStub());
+
+    final WaitingFileChangedListener listener =
+      new WaitingFileChangedListener();
+    fileDistribution.addFileChangedListener(listener);
+
+    fileDistribution.setWatchDistributionFiles(true);
+
+    // The first scan walks the directory, and starts watching it.
+    fileDistribution.scanDistributionFiles();
+    listener.waitFor(directory.getFile());
+
+    agentCacheStateStubFactory.resetOutOfDate();
+
+    // Changes are processed as they happen, without a scan.
+    final File file1 = new File(getDirectory(), "file1");
+    assertTrue(file1.createNewFile());
+    listener.waitFor(file1);
+
+    assertEquals(file1.lastModified(),
+                 agentCacheStateStubFactory.getEarliestOutOfDateTime());
+
+    // Scanning processes any pending changes.
+    fileDistribution.scanDistributionFiles();
+
+    fileDistribution.setWatchDistributionFiles(false);
+
+    final File file2 = new File(getDirectory(), "file2");
+    assertTrue(file2.createNewFile());
+    assertTrue(file2.setLastModified(file1.lastModified() + 5000));
+
+    fileDistribution.scanDistributionFiles();
+    listener.waitFor(file2);
+  }
+
+  private static final class WaitingFileChangedListener
+    implements FileChangedListener {
+
+    private final Set<File> m_files = new HashSet<File>();
+
+    public synchronized void filesChanged(File[] files) {
+      m_files.addAll(Arrays.asList(files));
+      notifyAll();
+    }
+
+    public synchronized void waitFor(File file) throws InterruptedException {
+      final long end = System.currentTimeMillis() + 10000;
+
+      while (!m_files.contains(file)) {
+        final long remaining = end - System.currentTimeMillis();
+
+        if (remaining <= 0) {
+          fail("Not notified of " + file);
+        }
+
+        wait(remaining);
+      }
+    }
+  }
+
   public static class UpdateableAgentCacheStateStubFactory
     extends RandomStubFactory<UpdateableAgentCacheState> {
 
@@ -24,12 +24,23 @@ package net.grinder.console.distribution;
 import static net.grinder.testutility.FileUtilities.createRandomFile;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import net.grinder.communication.Address;
 import net.grinder.console.communication.DistributionControl;
 import net.grinder.messages.agent.CacheHighWaterMark;
 import net.grinder.testutility.AbstractFileTestCase;
+import net.grinder.testutility.CallData;
 import net.grinder.testutility.RandomStubFactory;
+import net.grinder.util.Directory;
 import net.grinder.util.FileContents;
 
 /**
@@ -46,10 +57,12 @@ public class TestFileDistributionHandlerImplementation
   private final DistributionControl m_distributionControl =
     m_distributionControlStubFactory.getStub();
 
-  private final RandomStubFactory<AgentSet> m_agentSetStubFactory =
-    RandomStubFactory.create(AgentSet.class);
+  private final AgentSetStubFactory m_agentSetStubFactory =
+    new AgentSetStubFactory();
   private final AgentSet m_agentSet = m_agentSetStubFactory.getStub();
 
+  private final ContentIndex m_contentIndex = new ContentIndex();
+
   private final CacheParameters m_cacheParameters =
     new CacheParametersImplementation(null, null);
 
@@ -61,6 +74,8 @@ public class TestFileDistributionHandlerImplementation
   protected void setUp() throws Exception {
     super.setUp();
 
+    m_agentSetStubFactory.addAgent(-1);
+
     for (int i = 0; i < m_files.length; ++i) {
       createRandomFile(new File(getDirectory(), m_files[i].getPath()));
     }
@@ -73,7 +88,8 @@ public class TestFileDistributionHandlerImplementation
         getDirectory(),
         m_files,
         m_distributionControl,
-        m_agentSet);
+        m_agentSet,
+        m_contentIndex);
 
     m_distributionControlStubFactory.assertNoMoreCalls();
 
@@ -86,6 +102,10 @@ public class TestFileDistributionHandlerImplementation
     m_distributionControlStubFactory.assertSuccess(
       "clearFileCaches", Address.class);
 
+    m_distributionControlStubFactory.assertSuccess(
+
+      "setHighWaterMark", Address.class, CacheHighWaterMark.class);
+
     m_agentSetStubFactory.assertSuccess(
       "getAddressOfOutOfDateAgents", new Long(0));
 
@@ -93,12 +113,6 @@ public class TestFileDistributionHandlerImplementation
                                                  Address.class,
                                                  FileContents.class);
 
-    m_agentSetStubFactory.assertSuccess(
-      "getAddressOfOutOfDateAgents",
-      new Long(new File(getDirectory(), m_files[0].getPath()).lastModified()));
-
-    m_agentSetStubFactory.assertNoMoreCalls();
-
     final FileDistributionHandler.Result result1 =
       fileDistributionHandler.sendNextFile();
 
@@ -109,12 +123,6 @@ public class TestFileDistributionHandlerImplementation
                                                  Address.class,
                                                  FileContents.class);
 
-    m_agentSetStubFactory.assertSuccess(
-      "getAddressOfOutOfDateAgents",
-      new Long(new File(getDirectory(), m_files[1].getPath()).lastModified()));
-
-    m_agentSetStubFactory.assertNoMoreCalls();
-
     final FileDistributionHandler.Result result2 =
       fileDistributionHandler.sendNextFile();
 
@@ -124,9 +132,43 @@ public class TestFileDistributionHandlerImplementation
       "setHighWaterMark", Address.class, CacheHighWaterMark.class);
     m_distributionControlStubFactory.assertNoMoreCalls();
 
+    // Files are read ahead, so the agents for each file are checked before
+    // the file is sent.
+    m_agentSetStubFactory.assertSuccess(
+      "getAddressOfAgentsBetween",
+      Long.MIN_VALUE,
+      new File(getDirectory(), m_files[0].getPath()).lastModified());
+    m_agentSetStubFactory.assertSuccess(
+      "getPeerFileServersBetween",
+      Long.MIN_VALUE,
+      new File(getDirectory(), m_files[0].getPath()).lastModified());
+    m_agentSetStubFactory.assertSuccess(
+      "getReceivedBytesBetween",
+      m_files[0],
+      digest(m_files[0]),
+      Long.MIN_VALUE,
+      new File(getDirectory(), m_files[0].getPath()).lastModified());
+
+    m_agentSetStubFactory.assertSuccess(
+      "getAddressOfAgentsBetween",
+      Long.MIN_VALUE,
+      new File(getDirectory(), m_files[1].getPath()).lastModified());
+    m_agentSetStubFactory.assertSuccess(
+      "getPeerFileServersBetween",
+      Long.MIN_VALUE,
+      new File(getDirectory(), m_files[1].getPath()).lastModified());
+    m_agentSetStubFactory.assertSuccess(
+      "getReceivedBytesBetween",
+      m_files[1],
+      digest(m_files[1]),
+      Long.MIN_VALUE,
+      new File(getDirectory(), m_files[1].getPath()).lastModified());
+
     m_agentSetStubFactory.assertSuccess("getAddressOfAllAgents");
 
     m_agentSetStubFactory.assertNoMoreCalls();
+
+    assertNull(fileDistributionHandler.sendNextFile());
   }
 
   public void testOutOfDateHandler() throws Exception {
@@ -137,13 +179,592 @@ public class TestFileDistributionHandlerImplementation
         getDirectory(),
         m_files,
         m_distributionControl,
-        m_agentSet);
+        m_agentSet,
+        m_contentIndex);
 
-    assertNotNull(fileDistributionHandler.sendNextFile());
-
-    m_agentSetStubFactory.setThrows("getAddressOfOutOfDateAgents",
+    m_agentSetStubFactory.setThrows("getAddressOfAgentsBetween",
                                     new AgentSet.OutOfDateException());
 
     assertNull(fileDistributionHandler.sendNextFile());
+    assertNull(fileDistributionHandler.sendNextFile());
+
+    m_distributionControlStubFactory.assertSuccess(
+      "clearFileCaches", Address.class);
+
+    m_distributionControlStubFactory.assertSuccess(
+
+      "setHighWaterMark", Address.class, CacheHighWaterMark.class);
+    m_distributionControlStubFactory.assertNoMoreCalls();
+  }
+
+  public void testReaderFailure() throws Exception {
+    final RuntimeException exception = new RuntimeException();
+    m_agentSetStubFactory.setThrows("getAddressOfAgentsBetween", exception);
+
+    final FileDistributionHandlerImplementation fileDistributionHandler =
+      new FileDistributionHandlerImplementation(
+        m_cacheParameters,
+        getDirectory(),
+        m_files,
+        m_distributionControl,
+        m_agentSet,
+        m_contentIndex);
+
+    try {
+      fileDistributionHandler.sendNextFile();
+      fail("Expected RuntimeException");
+    }
+    catch (RuntimeException e) {
+      assertSame(exception, e);
+    }
+
+    assertNull(fileDistributionHandler.sendNextFile());
+
+    final Error error = new AssertionError();
+    m_agentSetStubFactory.setThrows("getAddressOfAgentsBetween", error);
+
+    final FileDistributionHandlerImplementation fileDistributionHandler2 =
+      new FileDistributionHandlerImplementation(
+        m_cacheParameters,
+        getDirectory(),
+        m_files,
+        m_distributionControl,
+        m_agentSet,
+        m_contentIndex);
+
+    try {
+      fileDistributionHandler2.sendNextFile();
+      fail("Expected Error");
+    }
+    catch (Error e) {
+      assertSame(error, e);
+    }
+  }
+
+  public void testChunkedFiles() throws Exception {
+    final OutputStream out =
+      new FileOutputStream(new File(getDirectory(), m_files[0].getPath()));
+    out.write(new byte[2500]);
+    out.close();
+
+    final FileDistributionHandlerImplementation fileDistributionHandler =
+      new FileDistributionHandlerImplementation(
+        m_cacheParameters,
+        getDirectory(),
+        m_files,
+        m_distributionControl,
+        m_agentSet,
+        m_contentIndex,
+        1000);
+
+    int lastProgress = 0;
+
+    for (int i = 0; i < 3; ++i) {
+      final FileDistributionHandler.Result result =
+        fileDistributionHandler.sendNextFile();
+
+      assertEquals("a", result.getFileName());
+      assertTrue(result.getProgressInCents() >= lastProgress);
+      lastProgress = result.getProgressInCents();
+
+      if (i == 0) {
+        m_distributionControlStubFactory.assertSuccess(
+          "clearFileCaches", Address.class);
+        m_distributionControlStubFactory.assertSuccess(
+          "setHighWaterMark", Address.class, CacheHighWaterMark.class);
+      }
+
+      final FileContents fileContents =
+        (FileContents)
+        m_distributionControlStubFactory.assertSuccess("sendFile",
+                                                       Address.class,
+                                                       FileContents.class)
+        .getParameters()[1];
+
+      assertEquals(i * 1000L, fileContents.getOffset());
+    }
+
+    assertEquals(50, lastProgress);
+
+    // Agents are only checked once per file.
+    m_agentSetStubFactory.assertSuccess(
+      "getAddressOfOutOfDateAgents", new Long(0));
+    m_agentSetStubFactory.assertSuccess(
+      "getAddressOfAgentsBetween",
+      Long.MIN_VALUE,
+      new File(getDirectory(), m_files[0].getPath()).lastModified());
+    m_agentSetStubFactory.assertSuccess(
+      "getPeerFileServersBetween",
+      Long.MIN_VALUE,
+      new File(getDirectory(), m_files[0].getPath()).lastModified());
+    m_agentSetStubFactory.assertSuccess(
+      "getReceivedBytesBetween",
+      m_files[0],
+      digest(m_files[0]),
+      Long.MIN_VALUE,
+      new File(getDirectory(), m_files[0].getPath()).lastModified());
+
+    assertEquals("b", fileDistributionHandler.sendNextFile().getFileName());
+
+    m_agentSetStubFactory.assertSuccess(
+      "getAddressOfAgentsBetween",
+      Long.MIN_VALUE,
+      new File(getDirectory(), m_files[1].getPath()).lastModified());
+    m_agentSetStubFactory.assertSuccess(
+      "getPeerFileServersBetween",
+      Long.MIN_VALUE,
+      new File(getDirectory(), m_files[1].getPath()).lastModified());
+    m_agentSetStubFactory.assertSuccess(
+      "getReceivedBytesBetween",
+      m_files[1],
+      digest(m_files[1]),
+      Long.MIN_VALUE,
+      new File(getDirectory(), m_files[1].getPath()).lastModified());
+    m_agentSetStubFactory.assertNoMoreCalls();
+  }
+
+  public void testThroughput() throws Exception {
+    final FileDistributionHandlerImplementation fileDistributionHandler =
+      new FileDistributionHandlerImplementation(
+        m_cacheParameters,
+        getDirectory(),
+        m_files,
+        m_distributionControl,
+        m_agentSet,
+        m_contentIndex);
+
+    long expectedBytes = 0;
+
+    for (int i = 0; i < m_files.length; ++i) {
+      final FileDistributionHandler.Result result =
+        fileDistributionHandler.sendNextFile();
+
+      expectedBytes += new File(getDirectory(), m_files[i].getPath()).length();
+
+      assertEquals(expectedBytes, result.getBytesSent());
+      assertTrue(result.getBytesPerSecond() >= 0);
+      assertTrue(result.getFileBytesPerSecond() >= 0);
+    }
+
+    assertNull(fileDistributionHandler.sendNextFile());
+  }
+
+  public void testCancel() throws Exception {
+    final OutputStream out =
+      new FileOutputStream(new File(getDirectory(), m_files[0].getPath()));
+    out.write(new byte[10000]);
+    out.close();
+
+    final FileDistributionHandlerImplementation fileDistributionHandler =
+      new FileDistributionHandlerImplementation(
+        m_cacheParameters,
+        getDirectory(),
+        m_files,
+        m_distributionControl,
+        m_agentSet,
+        m_contentIndex,
+        100);
+
+    assertEquals("a", fileDistributionHandler.sendNextFile().getFileName());
+
+    fileDistributionHandler.cancel();
+
+    assertNull(fileDistributionHandler.sendNextFile());
+
+    m_distributionControlStubFactory.assertSuccess(
+      "clearFileCaches", Address.class);
+
+    m_distributionControlStubFactory.assertSuccess(
+
+      "setHighWaterMark", Address.class, CacheHighWaterMark.class);
+    m_distributionControlStubFactory.assertSuccess("sendFile",
+                                                   Address.class,
+                                                   FileContents.class);
+    m_distributionControlStubFactory.assertNoMoreCalls();
+  }
+
+  public void testTouchedFileIsNotSent() throws Exception {
+    final File file = new File(getDirectory(), m_files[0].getPath());
+    file.setLastModified(10000);
+
+    assertEquals(1, distribute(m_files[0]).size());
+
+    file.setLastModified(20000);
+
+    m_agentSetStubFactory.clearAgents();
+    m_agentSetStubFactory.addAgent(10000);
+
+    assertEquals(0, distribute(m_files[0]).size());
+  }
+
+  public void testPatches() throws Exception {
+    final int blockSize = ContentIndex.BLOCK_SIZE;
+    final File file = new File(getDirectory(), m_files[0].getPath());
+    final byte[] original = new byte[blockSize * 3 + 100];
+    original[0] = 1;
+    writeFile(file, original, 10000);
+
+    distribute(m_files[0]);
+
+    final Directory agentDirectory =
+      new Directory(new File(getDirectory(), "agent"));
+    final Directory newAgentDirectory =
+      new Directory(new File(getDirectory(), "newagent"));
+    new FileContents(getDirectory(), m_files[0]).create(agentDirectory);
+
+    // Change the second block, and shorten the file.
+    final byte[] changed = new byte[blockSize * 3 + 10];
+    changed[0] = 1;
+    changed[blockSize + 1] = 2;
+    writeFile(file, changed, 20000);
+
+    m_agentSetStubFactory.clearAgents();
+    m_agentSetStubFactory.addAgent(10000);
+    m_agentSetStubFactory.addAgent(5000);
+
+    final List<Object[]> sent = distribute(m_files[0]);
+    assertEquals(3, sent.size());
+
+    // The whole file for the agent without the previous version.
+    final FileContents full = (FileContents) sent.get(0)[1];
+    assertEquals(0, full.getOffset());
+    assertTrue(full.isLastChunk());
+    assertNull(full.getBaseDigest());
+    assertNotNull(full.getDigest());
+    assertEquals(Arrays.asList(5000L), sent.get(0)[0]);
+    full.create(newAgentDirectory);
+
+    // A patch for the agent with the previous version.
+    final FileContents patch0 = (FileContents) sent.get(1)[1];
+    assertEquals(blockSize, patch0.getOffset());
+    assertFalse(patch0.isLastChunk());
+
+    final FileContents patch1 = (FileContents) sent.get(2)[1];
+    assertEquals(blockSize * 3, patch1.getOffset());
+    assertTrue(patch1.isLastChunk());
+
+    for (int i = 1; i < 3; ++i) {
+      final FileContents patch = (FileContents) sent.get(i)[1];
+      assertEquals(Arrays.asList(10000L), sent.get(i)[0]);
+      assertNotNull(patch.getBaseDigest());
+      assertFalse(patch.getBaseDigest().equals(full.getDigest()));
+      assertEquals(full.getDigest(), patch.getDigest());
+      patch.create(agentDirectory);
+    }
+
+    assertContents(changed, newAgentDirectory.getFile(m_files[0]));
+    assertContents(changed, agentDirectory.getFile(m_files[0]));
+
+    // Truncating at a block boundary needs only an empty patch.
+    final byte[] truncated = Arrays.copyOf(changed, blockSize * 3);
+    writeFile(file, truncated, 30000);
+
+    m_agentSetStubFactory.clearAgents();
+    m_agentSetStubFactory.addAgent(20000);
+
+    final List<Object[]> sent2 = distribute(m_files[0]);
+    assertEquals(1, sent2.size());
+
+    final FileContents patch2 = (FileContents) sent2.get(0)[1];
+    assertEquals(truncated.length, patch2.getOffset());
+    assertEquals(full.getDigest(), patch2.getBaseDigest());
+    patch2.create(agentDirectory);
+
+    assertContents(truncated, agentDirectory.getFile(m_files[0]));
+  }
+
+  public void testPeers() throws Exception {
+    final OutputStream out =
+      new FileOutputStream(new File(getDirectory(), m_files[0].getPath()));
+    out.write(new byte[2500]);
+    out.close();
+
+    m_agentSetStubFactory.addPeer(-2, "peer2:1");
+    m_agentSetStubFactory.addPeer(-3, "peer3:1");
+
+    final FileDistributionHandlerImplementation fileDistributionHandler =
+      new FileDistributionHandlerImplementation(
+        m_cacheParameters,
+        getDirectory(),
+        new File[] { m_files[0] },
+        m_distributionControl,
+        m_agentSet,
+        m_contentIndex,
+        1000);
+
+    while (fileDistributionHandler.sendNextFile() != null) {
+      // Keep going.
+    }
+
+    m_distributionControlStubFactory.assertSuccess(
+      "clearFileCaches", Address.class);
+
+    m_distributionControlStubFactory.assertSuccess(
+
+      "setHighWaterMark", Address.class, CacheHighWaterMark.class);
+
+    // The peers take turns to seed the chunks. Agents that are not peers
+    // receive every chunk from the console.
+    for (int i = 0; i < 3; ++i) {
+      final long seed = i % 2 == 0 ? -2 : -3;
+      final long fetcher = i % 2 == 0 ? -3 : -2;
+
+      final Object[] sendParameters =
+        m_distributionControlStubFactory.assertSuccess("sendFile",
+                                                       Address.class,
+                                                       FileContents.class)
+        .getParameters();
+
+      final Address sendAddress = (Address) sendParameters[0];
+      assertTrue(sendAddress.includes(agentAddress(-1)));
+      assertTrue(sendAddress.includes(agentAddress(seed)));
+      assertFalse(sendAddress.includes(agentAddress(fetcher)));
+
+      final FileContents fileContents = (FileContents) sendParameters[1];
+      assertEquals(i * 1000L, fileContents.getOffset());
+
+      final Object[] fetchParameters =
+        m_distributionControlStubFactory.assertSuccess("fetchFile",
+                                                       Address.class,
+                                                       FileContents.class,
+                                                       List.class)
+        .getParameters();
+
+      final Address fetchAddress = (Address) fetchParameters[0];
+      assertFalse(fetchAddress.includes(agentAddress(-1)));
+      assertFalse(fetchAddress.includes(agentAddress(seed)));
+      assertTrue(fetchAddress.includes(agentAddress(fetcher)));
+
+      assertSame(fileContents, fetchParameters[1]);
+      assertEquals(Collections.singletonList("peer" + -seed + ":1"),
+                   fetchParameters[2]);
+    }
+
+    m_distributionControlStubFactory.assertSuccess(
+      "setHighWaterMark", Address.class, CacheHighWaterMark.class);
+    m_distributionControlStubFactory.assertNoMoreCalls();
+
+    // Small files are sent directly.
+    m_agentSetStubFactory.clearAgents();
+    m_agentSetStubFactory.addAgent(-1);
+    m_agentSetStubFactory.addPeer(-2, "peer2:1");
+    m_agentSetStubFactory.addPeer(-3, "peer3:1");
+
+    writeFile(new File(getDirectory(), m_files[0].getPath()),
+              new byte[10],
+              System.currentTimeMillis() + 10000);
+
+    final List<Object[]> sent = distribute(m_files[0]);
+    assertEquals(1, sent.size());
+    assertTrue(((Address) sent.get(0)[0]).includes(agentAddress(-2)));
+  }
+
+  public void testResume() throws Exception {
+    final OutputStream out =
+      new FileOutputStream(new File(getDirectory(), m_files[0].getPath()));
+    out.write(new byte[2500]);
+    out.close();
+
+    // -1 has nothing, -2 and -4 have part of the file, and -3 has all of it.
+    m_agentSetStubFactory.addAgent(-2);
+    m_agentSetStubFactory.setReceived(-2, 1000);
+    m_agentSetStubFactory.addAgent(-3);
+    m_agentSetStubFactory.setReceived(-3, 2500);
+    m_agentSetStubFactory.addAgent(-4);
+    m_agentSetStubFactory.setReceived(-4, 1500);
+
+    final List<Object[]> sent = distribute(m_files[0], 1000);
+
+    final long[][] expected = {
+      // offset, agent.
+      { 0, -1 },
+      { 1000, -1 },
+      { 2000, -1 },
+      { 1000, -2 },
+      { 2000, -2 },
+      { 1500, -4 },
+    };
+
+    assertEquals(expected.length, sent.size());
+
+    for (int i = 0; i < expected.length; ++i) {
+      final Address address = (Address) sent.get(i)[0];
+      final FileContents fileContents = (FileContents) sent.get(i)[1];
+
+      assertEquals(expected[i][0], fileContents.getOffset());
+
+      for (long agent = -1; agent >= -4; --agent) {
+        assertEquals(agent == expected[i][1],
+                     address.includes(agentAddress(agent)));
+      }
+    }
+
+    // If every agent can resume, nothing is sent from the start.
+    m_agentSetStubFactory.setReceived(-1, 2000);
+
+    final List<Object[]> sent2 = distribute(m_files[0], 1000);
+    final long[] expectedOffsets = { 1000, 2000, 1500, 2000 };
+    assertEquals(expectedOffsets.length, sent2.size());
+
+    for (int i = 0; i < expectedOffsets.length; ++i) {
+      assertEquals(expectedOffsets[i],
+                   ((FileContents) sent2.get(i)[1]).getOffset());
+    }
+
+    assertTrue(((Address) sent2.get(3)[0]).includes(agentAddress(-1)));
+  }
+
+  private List<Object[]> distribute(File file) throws Exception {
+    return distribute(file, FileDistributionHandlerImplementation.CHUNK_SIZE);
+  }
+
+  private List<Object[]> distribute(File file, int chunkSize)
+    throws Exception {
+    final FileDistributionHandlerImplementation fileDistributionHandler =
+      new FileDistributionHandlerImplementation(
+        m_cacheParameters,
+        getDirectory(),
+        new File[] { file },
+        m_distributionControl,
+        m_agentSet,
+        m_contentIndex,
+        chunkSize);
+
+    m_distributionControlStubFactory.resetCallHistory();
+
+    while (fileDistributionHandler.sendNextFile() != null) {
+      // Keep going.
+    }
+
+    final List<Object[]> result = new ArrayList<Object[]>();
+
+    while (m_distributionControlStubFactory.peekFirst() != null) {
+      final CallData callData = m_distributionControlStubFactory.peekFirst();
+
+      m_distributionControlStubFactory.assertSuccess(
+        callData.getMethodName(), callData.getParameterTypes());
+
+      if (callData.getMethodName().equals("sendFile")) {
+        result.add(callData.getParameters());
+      }
+    }
+
+    return result;
+  }
+
+  private String digest(File file) throws Exception {
+    return m_contentIndex.get(new File(getDirectory(), file.getPath()))
+      .getDigest();
+  }
+
+  private static void writeFile(File file, byte[] contents, long time)
+    throws Exception {
+    final OutputStream out = new FileOutputStream(file);
+    out.write(contents);
+    out.close();
+    file.setLastModified(time);
+  }
+
+  private static void assertContents(byte[] expected, File file)
+    throws Exception {
+    final RandomAccessFile in = new RandomAccessFile(file, "r");
+    final byte[] actual = new byte[(int) in.length()];
+    in.readFully(actual);
+    in.close();
+
+    assertTrue(Arrays.equals(expected, actual));
+  }
+
+  /**
+   * Models agents with given cache high water marks. Addresses are lists of
+   * the matching times.
+   */
+  public static final class AgentSetStubFactory
+    extends RandomStubFactory<AgentSet> {
+
+    private final List<Long> m_agentTimes = new ArrayList<Long>();
+    private final Map<Long, String> m_peers = new LinkedHashMap<Long, String>();
+    private final Map<Long, Long> m_received = new LinkedHashMap<Long, Long>();
+
+    public AgentSetStubFactory() {
+      super(AgentSet.class);
+    }
+
+    public void addAgent(long time) {
+      m_agentTimes.add(time);
+    }
+
+    public void addPeer(long time, String peerFileServer) {
+      addAgent(time);
+      m_peers.put(time, peerFileServer);
+    }
+
+    public void setReceived(long time, long bytes) {
+      m_received.put(time, bytes);
+    }
+
+    public void clearAgents() {
+      m_agentTimes.clear();
+      m_peers.clear();
+      m_received.clear();
+    }
+
+    public Address override_getAddressOfAgentsBetween(Object proxy,
+                                                      long baseTime,
+                                                      long time) {
+      final List<Long> result = new TimesAddress();
+
+      for (Long agentTime : m_agentTimes) {
+        if (agentTime >= baseTime && agentTime < time) {
+          result.add(agentTime);
+        }
+      }
+
+      return result.isEmpty() ? null : (Address) result;
+    }
+
+    public Map<Address, String> override_getPeerFileServersBetween(
+      Object proxy, long baseTime, long time) {
+
+      final Map<Address, String> result = new LinkedHashMap<Address, String>();
+
+      for (Map.Entry<Long, String> peer : m_peers.entrySet()) {
+        if (peer.getKey() >= baseTime && peer.getKey() < time) {
+          result.put(agentAddress(peer.getKey()), peer.getValue());
+        }
+      }
+
+      return result;
+    }
+
+    public Map<Address, Long> override_getReceivedBytesBetween(
+      Object proxy, File file, String digest, long baseTime, long time) {
+
+      final Map<Address, Long> result = new LinkedHashMap<Address, Long>();
+
+      for (Long agentTime : m_agentTimes) {
+        if (agentTime >= baseTime && agentTime < time) {
+          final Long received = m_received.get(agentTime);
+          result.put(agentAddress(agentTime), received != null ? received : 0);
+        }
+      }
+
+      return result;
+    }
+  }
+
+  private static Address agentAddress(long time) {
+    final TimesAddress result = new TimesAddress();
+    result.add(time);
+    return result;
+  }
+
+  private static final class TimesAddress
+    extends ArrayList<Long> implements Address {
+
+    public boolean includes(Address address) {
+      return address instanceof TimesAddress &&
+             containsAll((TimesAddress) address);
+    }
   }
 }
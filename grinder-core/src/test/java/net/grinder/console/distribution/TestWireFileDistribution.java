@@ -83,6 +83,8 @@ public class TestWireFileDistribution extends AbstractJUnit4FileTestCase {
                              consoleProperties,
                              timer);
 
+    verify(fileDistribution).setWatchDistributionFiles(false);
+
     assertEquals(6000, timer.getLastDelay());
     assertEquals(6000, timer.getLastPeriod());
 
@@ -107,6 +109,9 @@ public class TestWireFileDistribution extends AbstractJUnit4FileTestCase {
     verify(fileDistribution).setDirectory(directoryCaptor.capture());
     assertSame(directory, directoryCaptor.getValue());
 
+    consoleProperties.setWatchDistributionFiles(true);
+    verify(fileDistribution).setWatchDistributionFiles(true);
+
     consoleProperties.setConsolePort(999);
 
     verifyNoMoreInteractions(fileDistribution);
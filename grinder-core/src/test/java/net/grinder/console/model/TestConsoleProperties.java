@@ -490,6 +490,21 @@ public class TestConsoleProperties extends AbstractJUnit4FileTestCase {
     }.doTest();
   }
 
+  @Test public void testWatchDistributionFiles() throws Exception {
+    new TestBooleanTemplate(
+      ConsoleProperties.WATCH_DISTRIBUTION_FILES_PROPERTY) {
+
+      protected boolean get(ConsoleProperties properties) {
+        return properties.getWatchDistributionFiles();
+      }
+
+      protected void set(ConsoleProperties properties, boolean b) {
+        properties.setWatchDistributionFiles(b);
+      }
+
+    }.doTest();
+  }
+
   @Test public void testScanDistributionFilesPeriod() throws Exception {
 
     new TestIntTemplate(
@@ -662,6 +677,8 @@ public class TestConsoleProperties extends AbstractJUnit4FileTestCase {
       p2.getDistributionFileFilterPattern().pattern());
     assertEquals(p1.getScanDistributionFilesPeriod(),
       p2.getScanDistributionFilesPeriod());
+    assertEquals(p1.getWatchDistributionFiles(),
+      p2.getWatchDistributionFiles());
     assertEquals(p1.getLookAndFeel(), p2.getLookAndFeel());
     assertEquals(p1.getSaveTotalsWithResults(), p2.getSaveTotalsWithResults());
   }
@@ -685,6 +702,7 @@ public class TestConsoleProperties extends AbstractJUnit4FileTestCase {
     p2.setAndSaveDistributionDirectory(new Directory(new File("bah")));
     p2.setDistributionFileFilterExpression(".*");
     p2.setScanDistributionFilesPeriod(100);
+    p2.setWatchDistributionFiles(true);
     p2.setLookAndFeel("something");
     p2.setExternalEditorCommand(new File("bah"));
     p2.setExternalEditorArguments("foo");
@@ -712,6 +730,8 @@ public class TestConsoleProperties extends AbstractJUnit4FileTestCase {
       p2.getDistributionFileFilterPattern());
     assertTrue(p1.getScanDistributionFilesPeriod() !=
       p2.getScanDistributionFilesPeriod());
+    assertTrue(p1.getWatchDistributionFiles() !=
+      p2.getWatchDistributionFiles());
     AssertUtilities.assertNotEquals(p1.getLookAndFeel(), p2.getLookAndFeel());
     AssertUtilities.assertNotEquals(p1.getExternalEditorCommand(),
                                     p2.getExternalEditorCommand());
@@ -742,6 +762,8 @@ public class TestConsoleProperties extends AbstractJUnit4FileTestCase {
                  p2.getDistributionFileFilterPattern().pattern());
     assertEquals(p1.getScanDistributionFilesPeriod(),
                  p2.getScanDistributionFilesPeriod());
+    assertTrue(p1.getWatchDistributionFiles() ==
+      p2.getWatchDistributionFiles());
     assertEquals(p1.getLookAndFeel(), p2.getLookAndFeel());
     assertEquals(p1.getExternalEditorCommand(), p2.getExternalEditorCommand());
     assertEquals(p1.getExternalEditorArguments(),
@@ -26,12 +26,18 @@ import java.text.NumberFormat;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
+import net.grinder.common.StubTest;
 import net.grinder.console.model.SampleModelViews.Listener;
 import net.grinder.statistics.ExpressionView;
+import net.grinder.statistics.StatisticsIndexMap.LongSampleIndex;
 import net.grinder.statistics.StatisticsServices;
 import net.grinder.statistics.StatisticsServicesImplementation;
+import net.grinder.statistics.StatisticsServicesTestFactory;
+import net.grinder.statistics.StatisticsSet;
 import net.grinder.statistics.StatisticsView;
+import net.grinder.statistics.TestStatisticsMap;
 import net.grinder.statistics.TestStatisticsQueries;
 import net.grinder.testutility.AbstractFileTestCase;
 import net.grinder.testutility.RandomStubFactory;
@@ -72,6 +78,8 @@ public class TestSampleModelViewsImplementation extends AbstractFileTestCase {
         m_model);
 
     m_modelStubFactory.assertSuccess("getPeakTPSExpression");
+    m_modelStubFactory.assertSuccess("addModelListener",
+                                     SampleModel.Listener.class);
 
     final Set<ExpressionView> cumulativeViewSet =
       expressionViewsSet(sampleModelViews.getCumulativeStatisticsView());
@@ -155,6 +163,119 @@ public class TestSampleModelViewsImplementation extends AbstractFileTestCase {
     listenerStubFactory.assertNoMoreCalls();
   }
 
+  public void testSetTimeUnit() throws Exception {
+    final StatisticsServices statisticsServices =
+      StatisticsServicesTestFactory.createTestInstance();
+
+    final SampleModelViews sampleModelViews =
+      new SampleModelViewsImplementation(
+        m_consoleProperties,
+        statisticsServices,
+        m_model);
+
+    final Set<ExpressionView> millisecondViews =
+      new HashSet<ExpressionView>(Arrays.asList(
+        statisticsServices.getSummaryStatisticsView().getExpressionViews()));
+
+    final RandomStubFactory<Listener> listenerStubFactory =
+      RandomStubFactory.create(Listener.class);
+    sampleModelViews.addListener(listenerStubFactory.getStub());
+
+    final ExpressionView expressionView =
+      statisticsServices.getStatisticExpressionFactory().createExpressionView(
+        "My view", "userLong0", false);
+
+    sampleModelViews.registerStatisticExpression(expressionView);
+    listenerStubFactory.assertSuccess("newStatisticExpression", expressionView);
+
+    sampleModelViews.setTimeUnit(TimeUnit.MILLISECONDS);
+    listenerStubFactory.assertNoMoreCalls();
+
+    sampleModelViews.setTimeUnit(TimeUnit.MICROSECONDS);
+    assertEquals(TimeUnit.MICROSECONDS, statisticsServices.getTimeUnit());
+    listenerStubFactory.assertSuccess("resetStatisticsViews");
+    listenerStubFactory.assertSuccess("newStatisticExpression", expressionView);
+    listenerStubFactory.assertNoMoreCalls();
+
+    final Set<ExpressionView> cumulativeViewSet =
+      expressionViewsSet(sampleModelViews.getCumulativeStatisticsView());
+
+    assertTrue(cumulativeViewSet.containsAll(Arrays.asList(
+      statisticsServices.getSummaryStatisticsView().getExpressionViews())));
+    assertTrue(cumulativeViewSet.contains(expressionView));
+
+    for (ExpressionView view : millisecondViews) {
+      if (view.getDisplayName().endsWith("(ms)")) {
+        assertFalse(cumulativeViewSet.contains(view));
+      }
+    }
+
+    assertSame(statisticsServices.getTestStatisticsQueries(),
+               sampleModelViews.getTestStatisticsQueries());
+  }
+
+  public void testToConsoleTimeUnit() throws Exception {
+    final StatisticsServices statisticsServices =
+      StatisticsServicesTestFactory.createTestInstance();
+
+    final LongSampleIndex timedTests =
+      statisticsServices.getStatisticsIndexMap()
+      .getLongSampleIndex("timedTests");
+
+    final SampleModelViews sampleModelViews =
+      new SampleModelViewsImplementation(
+        m_consoleProperties,
+        statisticsServices,
+        m_model);
+
+    m_modelStubFactory.assertSuccess("getPeakTPSExpression");
+    final SampleModel.Listener modelListener =
+      (SampleModel.Listener)
+      m_modelStubFactory.assertSuccess("addModelListener",
+                                       SampleModel.Listener.class)
+      .getParameters()[0];
+
+    // The first report sets the unit.
+    final StatisticsSet statistics1 =
+      statisticsServices.getStatisticsSetFactory().create();
+    statistics1.addSample(timedTests, 5);
+    final TestStatisticsMap report1 = createReport(statistics1);
+
+    assertSame(report1,
+               sampleModelViews.toConsoleTimeUnit(report1,
+                                                  TimeUnit.MICROSECONDS));
+    assertEquals(TimeUnit.MICROSECONDS, statisticsServices.getTimeUnit());
+    assertEquals(5, statistics1.getSum(timedTests));
+
+    // Later reports are converted.
+    final StatisticsSet statistics2 =
+      statisticsServices.getStatisticsSetFactory().create();
+    statistics2.addSample(timedTests, 3);
+
+    sampleModelViews.toConsoleTimeUnit(createReport(statistics2),
+                                       TimeUnit.MILLISECONDS);
+    assertEquals(TimeUnit.MICROSECONDS, statisticsServices.getTimeUnit());
+    assertEquals(3000, statistics2.getSum(timedTests));
+
+    // Until the tests are reset.
+    modelListener.resetTests();
+
+    final StatisticsSet statistics3 =
+      statisticsServices.getStatisticsSetFactory().create();
+    statistics3.addSample(timedTests, 7);
+
+    sampleModelViews.toConsoleTimeUnit(createReport(statistics3),
+                                       TimeUnit.MILLISECONDS);
+    assertEquals(TimeUnit.MILLISECONDS, statisticsServices.getTimeUnit());
+    assertEquals(7, statistics3.getSum(timedTests));
+  }
+
+  private static TestStatisticsMap createReport(StatisticsSet statistics) {
+    final TestStatisticsMap result = new TestStatisticsMap();
+    result.put(new StubTest(1, ""), statistics);
+    return result;
+  }
+
   public void testNumberFormat() throws Exception {
 
     final SampleModelViews sampleModelViews =
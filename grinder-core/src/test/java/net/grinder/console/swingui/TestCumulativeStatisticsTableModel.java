@@ -139,7 +139,7 @@ public class TestCumulativeStatisticsTableModel extends AbstractFileTestCase {
     assertSame(m_sampleModel, model.getModel());
     assertSame(m_sampleModelViews, model.getModelViews());
 
-    assertEquals(7, model.getColumnCount());
+    assertEquals(11, model.getColumnCount());
     assertEquals(1, model.getRowCount());
     assertEquals(0, model.getLastModelTestIndex().getNumberOfTests());
 
@@ -152,7 +152,8 @@ public class TestCumulativeStatisticsTableModel extends AbstractFileTestCase {
     assertEquals("0 tests", "0", model.getValueAt(0, 2));
     assertEquals("Mean time NaN", "", model.getValueAt(0, 4));
     assertEquals("SD is 0", "0.0", model.getValueAt(0, 5));
-    assertEquals("?", model.getValueAt(0, 10));
+    assertEquals("Percentile NaN", "", model.getValueAt(0, 7));
+    assertEquals("?", model.getValueAt(0, 14));
 
     assertTrue(model.isBold(0, 1));
     assertTrue(model.isBold(0, 2));
@@ -177,7 +178,8 @@ public class TestCumulativeStatisticsTableModel extends AbstractFileTestCase {
 
     model.write(writer, "::", "**");
 
-    assertEquals("Test Column::Test Description Column::Tests::Errors::Mean Test Time (ms)::Test Time Standard Deviation (ms)::TPS::**Total Label::::0::0::::0.0::::**",
+    assertEquals("Test Column::Test Description Column::Tests::Errors::Mean Test Time (ms)::Test Time Standard Deviation (ms)::TPS"+
+                 "::50th Percentile Test Time (ms)::90th Percentile Test Time (ms)::99th Percentile Test Time (ms)::99.9th Percentile Test Time (ms)::**Total Label::::0::0::::0.0::::::::::::**",
                  writer.toString());
   }
 
@@ -192,7 +194,8 @@ public class TestCumulativeStatisticsTableModel extends AbstractFileTestCase {
 
     model.writeWithoutTotals(writer, "::", "**");
 
-    assertEquals("Test Column::Test Description Column::Tests::Errors::Mean Test Time (ms)::Test Time Standard Deviation (ms)::TPS::**",
+    assertEquals("Test Column::Test Description Column::Tests::Errors::Mean Test Time (ms)::Test Time Standard Deviation (ms)::TPS"+
+                 "::50th Percentile Test Time (ms)::90th Percentile Test Time (ms)::99th Percentile Test Time (ms)::99.9th Percentile Test Time (ms)::**",
                  writer.toString());
   }
 
@@ -206,19 +209,19 @@ public class TestCumulativeStatisticsTableModel extends AbstractFileTestCase {
     m_resources.put("statistic.Errors", "Blah");
     m_resources.put("statistic.Mean_Test_Time_(ms)", "meantime");
 
-    assertEquals(7, model.getColumnCount());
+    assertEquals(11, model.getColumnCount());
 
     model.addColumns(m_statisticsServices.getSummaryStatisticsView());
 
     // Adding same columns again is a no-op.
-    assertEquals(7, model.getColumnCount());
+    assertEquals(11, model.getColumnCount());
     assertEquals("Tests", model.getColumnName(2));
     assertEquals("Errors", model.getColumnName(3));
     assertEquals("Mean Test Time (ms)", model.getColumnName(4));
 
     model.addColumns(m_statisticsServices.getDetailStatisticsView());
 
-    assertEquals(8, model.getColumnCount());
+    assertEquals(12, model.getColumnCount());
     assertEquals("Test time", model.getColumnName(2));
     assertEquals("Blah", model.getColumnName(4));
     assertEquals("meantime", model.getColumnName(5));
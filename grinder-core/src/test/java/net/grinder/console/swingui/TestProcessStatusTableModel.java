@@ -52,6 +52,7 @@ public class TestProcessStatusTableModel extends TestCase {
         put("processTable.stateColumn.label", "STATE");
         put("processTable.processes.label", "workers");
         put("processTable.threads.label", "threads");
+        put("processTable.queue.label", "queue");
         put("processState.connected.label", "connected");
         put("processState.disconnected.label", "disconnected");
         put("processState.finished.label", "finished");
@@ -63,6 +63,7 @@ public class TestTextUI {
       put("finished.text", "done");
       put("noConnectedAgents.text", "no agents!");
       put("processTable.threads.label", "strings");
+      put("processTable.queue.label", "queue");
       put("processTable.agentProcess.label", "AG");
       put("processTable.workerProcess.label", "WK");
       put("processState.started.label", "hot to trot");
@@ -24,8 +24,10 @@ package net.grinder.engine.agent;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 
+import net.grinder.communication.Message;
 import net.grinder.communication.StreamReceiver;
 import net.grinder.engine.messages.InitialiseGrinderMessage;
+import net.grinder.engine.messages.PrepareWorkerMessage;
 
 
 
@@ -40,12 +42,22 @@ public class ReadMessageEchoClass {
 
     final StreamReceiver receiver = new StreamReceiver(System.in);
 
-    final InitialiseGrinderMessage message =
-      (InitialiseGrinderMessage)receiver.waitForMessage();
-
-    // Echo the initialisation message, followed by the arguments.
     final ObjectOutput objectOutput = new ObjectOutputStream(System.out);
-    objectOutput.writeObject(message);
+
+    final Message message = receiver.waitForMessage();
+
+    // Echo any prepare message, the initialisation message, followed by
+    // the arguments.
+    if (message instanceof PrepareWorkerMessage) {
+      objectOutput.writeObject(message);
+      objectOutput.writeObject(
+        (InitialiseGrinderMessage)receiver.waitForMessage());
+    }
+    else {
+      objectOutput.writeObject((InitialiseGrinderMessage)message);
+    }
+
+    objectOutput.flush();
 
     for (int i=0; i<arguments.length; ++i) {
       System.out.print(arguments[i]);
@@ -36,6 +36,8 @@ import static org.mockito.Mockito.verifyNoMoreInteractions;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 
 import net.grinder.communication.CommunicationException;
@@ -46,6 +48,8 @@ import net.grinder.messages.agent.CacheHighWaterMark;
 import net.grinder.messages.agent.ClearCacheMessage;
 import net.grinder.messages.agent.DistributeFileMessage;
 import net.grinder.messages.agent.DistributionCacheCheckpointMessage;
+import net.grinder.messages.agent.FetchFileMessage;
+import net.grinder.messages.agent.ReceivedFile;
 import net.grinder.messages.agent.StubCacheHighWaterMark;
 import net.grinder.testutility.AbstractJUnit4FileTestCase;
 import net.grinder.testutility.FileUtilities;
@@ -292,4 +296,373 @@ public class TestFileStore extends AbstractJUnit4FileTestCase {
 
     assertEquals(cacheHighWaterMark, fileStore.getCacheHighWaterMark());
   }
+
+  @Test public void testPatches() throws Exception {
+    final Logger logger = mock(Logger.class);
+    final FileStore fileStore = new FileStore(getDirectory(), logger);
+
+    final MessageDispatchSender messageDispatcher = new MessageDispatchSender();
+    fileStore.registerMessageHandlers(messageDispatcher);
+
+    final File sourceDirectory = new File(getDirectory(), "source");
+    assertTrue(sourceDirectory.mkdirs());
+
+    final File file = new File("file");
+    final File sourceFile = new File(sourceDirectory, file.getPath());
+    final byte[] bytes = new byte[500];
+    s_random.nextBytes(bytes);
+    final OutputStream outputStream = new FileOutputStream(sourceFile);
+    outputStream.write(bytes);
+    outputStream.close();
+
+    final CacheHighWaterMark cacheHighWaterMark =
+      new StubCacheHighWaterMark("", 123);
+
+    messageDispatcher.send(
+      new DistributeFileMessage(
+        new FileContents(sourceDirectory, file, 0, 1000, "v1", null)));
+    messageDispatcher.send(
+      new DistributeFileMessage(
+        new FileContents(sourceDirectory, file, 100, 100, "v2", "v1")));
+    messageDispatcher.send(
+      new DistributeFileMessage(
+        new FileContents(sourceDirectory, file, 500, 100, "v2", "v1")));
+    messageDispatcher.send(
+      new DistributionCacheCheckpointMessage(cacheHighWaterMark));
+
+    assertEquals(cacheHighWaterMark, fileStore.getCacheHighWaterMark());
+    verify(logger).info(contains("Updating file store"),
+                        isA(FileContents.class));
+    verify(logger, times(2)).debug(contains("Updating file store"),
+                                   isA(FileContents.class));
+
+    // Patch for content we don't have.
+    messageDispatcher.send(
+      new DistributeFileMessage(
+        new FileContents(sourceDirectory, file, 0, 100, "v3", "v1")));
+
+    verify(logger).warn(contains("Ignoring patch"), isA(File.class));
+    assertEquals(-1, fileStore.getCacheHighWaterMark().getTime());
+
+    // Our cache stays out of date until cleared.
+    messageDispatcher.send(
+      new DistributionCacheCheckpointMessage(cacheHighWaterMark));
+    assertEquals(-1, fileStore.getCacheHighWaterMark().getTime());
+
+    messageDispatcher.send(new ClearCacheMessage());
+    messageDispatcher.send(
+      new DistributionCacheCheckpointMessage(cacheHighWaterMark));
+    assertEquals(cacheHighWaterMark, fileStore.getCacheHighWaterMark());
+
+    // Clearing the cache forgets the digests.
+    messageDispatcher.send(
+      new DistributeFileMessage(
+        new FileContents(sourceDirectory, file, 100, 100, "v3", "v2")));
+    verify(logger, times(2)).warn(contains("Ignoring patch"),
+                                  isA(File.class));
+  }
+
+  @Test public void testReceivedFiles() throws Exception {
+    final Logger logger = mock(Logger.class);
+    final FileStore fileStore = new FileStore(getDirectory(), logger);
+
+    final MessageDispatchSender messageDispatcher = new MessageDispatchSender();
+    fileStore.registerMessageHandlers(messageDispatcher);
+
+    final File sourceDirectory = new File(getDirectory(), "source");
+    assertTrue(sourceDirectory.mkdirs());
+
+    final File file = new File("file");
+    final File sourceFile = new File(sourceDirectory, file.getPath());
+    final byte[] bytes = new byte[500];
+    s_random.nextBytes(bytes);
+    final OutputStream outputStream = new FileOutputStream(sourceFile);
+    outputStream.write(bytes);
+    outputStream.close();
+
+    assertEquals(0, fileStore.getReceivedFiles().size());
+
+    messageDispatcher.send(
+      new DistributeFileMessage(
+        new FileContents(sourceDirectory, file, 0, 200, "v1", null)));
+
+    final ReceivedFile received = fileStore.getReceivedFiles().get(0);
+    assertEquals(file, received.getFilename());
+    assertEquals("v1", received.getDigest());
+    assertEquals(200, received.getLength());
+
+    // A resumed distribution may resend chunks we have.
+    messageDispatcher.send(
+      new DistributeFileMessage(
+        new FileContents(sourceDirectory, file, 100, 100, "v1", null)));
+    assertEquals(200, fileStore.getReceivedFiles().get(0).getLength());
+
+    messageDispatcher.send(
+      new DistributeFileMessage(
+        new FileContents(sourceDirectory, file, 200, 300, "v1", null)));
+    assertEquals(500, fileStore.getReceivedFiles().get(0).getLength());
+
+    final CacheHighWaterMark cacheHighWaterMark =
+      new StubCacheHighWaterMark("", 123);
+
+    messageDispatcher.send(
+      new DistributionCacheCheckpointMessage(cacheHighWaterMark));
+    assertEquals(0, fileStore.getReceivedFiles().size());
+    assertEquals(cacheHighWaterMark, fileStore.getCacheHighWaterMark());
+
+    // The rest of a version we don't have.
+    messageDispatcher.send(
+      new DistributeFileMessage(
+        new FileContents(sourceDirectory, file, 0, 200, "v2", null)));
+    messageDispatcher.send(
+      new DistributeFileMessage(
+        new FileContents(sourceDirectory, file, 200, 300, "v3", null)));
+
+    verify(logger).warn(contains("missing earlier content"),
+                        isA(FileContents.class));
+    assertEquals(-1, fileStore.getCacheHighWaterMark().getTime());
+    assertEquals(200, fileStore.getReceivedFiles().get(0).getLength());
+
+    // Patches change the content.
+    messageDispatcher.send(new ClearCacheMessage());
+    messageDispatcher.send(
+      new DistributeFileMessage(
+        new FileContents(sourceDirectory, file, 0, 500, "v1", null)));
+    messageDispatcher.send(
+      new DistributeFileMessage(
+        new FileContents(sourceDirectory, file, 100, 100, "v2", "v1")));
+    assertEquals(0, fileStore.getReceivedFiles().size());
+
+    // Clearing the cache forgets what we have received.
+    messageDispatcher.send(
+      new DistributeFileMessage(
+        new FileContents(sourceDirectory, file, 0, 200, "v1", null)));
+    messageDispatcher.send(new ClearCacheMessage());
+    assertEquals(0, fileStore.getReceivedFiles().size());
+  }
+
+  @Test public void testManifest() throws Exception {
+    final Logger logger = mock(Logger.class);
+    final File storeDirectory = new File(getDirectory(), "store");
+
+    final FileStore fileStore = new FileStore(storeDirectory, logger);
+    final MessageDispatchSender messageDispatcher = new MessageDispatchSender();
+    fileStore.registerMessageHandlers(messageDispatcher);
+
+    final File file = new File("file");
+    final OutputStream outputStream =
+      new FileOutputStream(new File(getDirectory(), file.getPath()));
+    outputStream.write(new byte[500]);
+    outputStream.close();
+
+    final CacheHighWaterMark cacheHighWaterMark =
+      new StubCacheHighWaterMark("", 123);
+
+    messageDispatcher.send(
+      new DistributeFileMessage(
+        new FileContents(getDirectory(), file, 0, 1000, "v1", null)));
+    messageDispatcher.send(
+      new DistributionCacheCheckpointMessage(cacheHighWaterMark));
+
+    final File manifestFile = new File(storeDirectory, "manifest.ser");
+    assertTrue(manifestFile.exists());
+
+    // A new store restores the cache state.
+    final Logger logger2 = mock(Logger.class);
+    final FileStore fileStore2 = new FileStore(storeDirectory, logger2);
+    verify(logger2).info(contains("Restored"));
+    assertEquals(cacheHighWaterMark, fileStore2.getCacheHighWaterMark());
+
+    // ...and the content digests, so patches can be applied.
+    final MessageDispatchSender messageDispatcher2 =
+      new MessageDispatchSender();
+    fileStore2.registerMessageHandlers(messageDispatcher2);
+
+    messageDispatcher2.send(
+      new DistributeFileMessage(
+        new FileContents(getDirectory(), file, 100, 1000, "v2", "v1")));
+    verify(logger2).debug(contains("Updating file store"),
+                          isA(FileContents.class));
+    verifyNoMoreInteractions(logger2);
+
+    // The manifest is removed whilst the cache changes.
+    assertFalse(manifestFile.exists());
+    assertEquals(-1,
+      new FileStore(storeDirectory, logger2).getCacheHighWaterMark().getTime());
+
+    messageDispatcher2.send(
+      new DistributionCacheCheckpointMessage(cacheHighWaterMark));
+    assertTrue(manifestFile.exists());
+
+    // A manifest is ignored if files are missing.
+    assertTrue(new File(storeDirectory, "incoming/file").delete());
+    final Logger logger3 = mock(Logger.class);
+    assertEquals(-1,
+      new FileStore(storeDirectory, logger3).getCacheHighWaterMark().getTime());
+    verify(logger3).warn(contains("missing"), isA(File.class));
+
+    // A corrupt manifest is ignored.
+    final OutputStream manifestStream = new FileOutputStream(manifestFile);
+    manifestStream.write(new byte[10]);
+    manifestStream.close();
+
+    final Logger logger4 = mock(Logger.class);
+    assertEquals(-1,
+      new FileStore(storeDirectory, logger4).getCacheHighWaterMark().getTime());
+    verify(logger4).warn(contains("unreadable"), isA(Exception.class));
+
+    // Clearing the cache removes the manifest.
+    messageDispatcher2.send(new ClearCacheMessage());
+    assertFalse(manifestFile.exists());
+  }
+
+  @Test public void testFetch() throws Exception {
+    final Logger logger = mock(Logger.class);
+
+    final File file = new File("file");
+    final byte[] bytes = new byte[3000];
+    s_random.nextBytes(bytes);
+    final OutputStream outputStream =
+      new FileOutputStream(new File(getDirectory(), file.getPath()));
+    outputStream.write(bytes);
+    outputStream.close();
+
+    final FileStore seed =
+      new FileStore(new File(getDirectory(), "seed"), logger);
+    final MessageDispatchSender seedDispatcher = new MessageDispatchSender();
+    seed.registerMessageHandlers(seedDispatcher);
+
+    final PeerFileServer server =
+      new PeerFileServer(seed, "127.0.0.1", 0, logger);
+
+    try {
+      final FileStore fileStore =
+        new FileStore(new File(getDirectory(), "store"),
+                      logger,
+                      new PeerFileClient(logger, 300));
+      final MessageDispatchSender messageDispatcher =
+        new MessageDispatchSender();
+      fileStore.registerMessageHandlers(messageDispatcher);
+
+      final List<String> peers =
+        Collections.singletonList(server.getAddress());
+
+      for (int offset = 0; offset < bytes.length; offset += 1000) {
+        final FileContents chunk =
+          new FileContents(getDirectory(), file, offset, 1000, "v1", null);
+
+        seedDispatcher.send(new DistributeFileMessage(chunk));
+        messageDispatcher.send(new FetchFileMessage(chunk, peers));
+      }
+
+      final CacheHighWaterMark cacheHighWaterMark =
+        new StubCacheHighWaterMark("", 123);
+      messageDispatcher.send(
+        new DistributionCacheCheckpointMessage(cacheHighWaterMark));
+      fileStore.waitForUpdates();
+      assertEquals(cacheHighWaterMark, fileStore.getCacheHighWaterMark());
+
+      assertEquals(
+        new FileContents(getDirectory(), file).getChunkDigest(),
+        new FileContents(fileStore.getDirectory().getFile(), file)
+        .getChunkDigest());
+
+      // The digest was recorded, so patches apply.
+      messageDispatcher.send(
+        new DistributeFileMessage(
+          new FileContents(getDirectory(), file, 1000, 1000, "v2", "v1")));
+      messageDispatcher.send(
+        new DistributionCacheCheckpointMessage(cacheHighWaterMark));
+      assertEquals(cacheHighWaterMark, fileStore.getCacheHighWaterMark());
+
+      // If the fetch fails, the cache is out of date until cleared.
+      final FileContents missing =
+        new FileContents(getDirectory(), file, 0, 1000, "v3", null);
+      seedDispatcher.send(new ClearCacheMessage());
+
+      messageDispatcher.send(new FetchFileMessage(missing, peers));
+      fileStore.waitForUpdates();
+      verify(logger).warn(contains("Could not fetch"));
+      assertEquals(-1, fileStore.getCacheHighWaterMark().getTime());
+
+      messageDispatcher.send(
+        new DistributionCacheCheckpointMessage(cacheHighWaterMark));
+      assertEquals(-1, fileStore.getCacheHighWaterMark().getTime());
+
+      messageDispatcher.send(new ClearCacheMessage());
+      messageDispatcher.send(
+        new DistributionCacheCheckpointMessage(cacheHighWaterMark));
+      assertEquals(cacheHighWaterMark, fileStore.getCacheHighWaterMark());
+    }
+    finally {
+      server.shutdown();
+    }
+  }
+
+  @Test public void testFetchDoesNotBlock() throws Exception {
+    final Logger logger = mock(Logger.class);
+
+    final File file = new File("file");
+    final OutputStream outputStream =
+      new FileOutputStream(new File(getDirectory(), file.getPath()));
+    final byte[] bytes = new byte[2000];
+    s_random.nextBytes(bytes);
+    outputStream.write(bytes);
+    outputStream.close();
+
+    final FileStore seed =
+      new FileStore(new File(getDirectory(), "seed"), logger);
+    final MessageDispatchSender seedDispatcher = new MessageDispatchSender();
+    seed.registerMessageHandlers(seedDispatcher);
+
+    final PeerFileServer server =
+      new PeerFileServer(seed, "127.0.0.1", 0, logger);
+
+    try {
+      final FileStore fileStore =
+        new FileStore(new File(getDirectory(), "store"),
+                      logger,
+                      new PeerFileClient(logger, 10000));
+      final MessageDispatchSender messageDispatcher =
+        new MessageDispatchSender();
+      fileStore.registerMessageHandlers(messageDispatcher);
+
+      final FileContents first =
+        new FileContents(getDirectory(), file, 0, 1000, "v1", null);
+      final FileContents second =
+        new FileContents(getDirectory(), file, 1000, 1000, "v1", null);
+
+      // The seed doesn't have the first chunk yet, so the fetch waits. The
+      // dispatcher doesn't.
+      messageDispatcher.send(
+        new FetchFileMessage(first,
+                             Collections.singletonList(server.getAddress())));
+
+      // Later updates are applied after the fetch.
+      messageDispatcher.send(new DistributeFileMessage(second));
+
+      final CacheHighWaterMark cacheHighWaterMark =
+        new StubCacheHighWaterMark("", 123);
+      messageDispatcher.send(
+        new DistributionCacheCheckpointMessage(cacheHighWaterMark));
+
+      assertEquals(-1, fileStore.getCacheHighWaterMark().getTime());
+
+      seedDispatcher.send(new DistributeFileMessage(first));
+
+      fileStore.waitForUpdates();
+
+      assertEquals(cacheHighWaterMark, fileStore.getCacheHighWaterMark());
+
+      assertEquals(
+        new FileContents(getDirectory(), file).getChunkDigest(),
+        new FileContents(fileStore.getDirectory().getFile(), file)
+        .getChunkDigest());
+
+      fileStore.shutdown();
+    }
+    finally {
+      server.shutdown();
+    }
+  }
 }
@@ -0,0 +1,250 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.agent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import net.grinder.communication.MessageDispatchSender;
+import net.grinder.messages.agent.ClearCacheMessage;
+import net.grinder.messages.agent.DistributeFileMessage;
+import net.grinder.messages.agent.FetchFileMessage;
+import net.grinder.testutility.AbstractJUnit4FileTestCase;
+import net.grinder.util.Directory;
+import net.grinder.util.FileContents;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+
+/**
+ * Unit tests for {@link PeerFileServer} and {@link PeerFileClient}.
+ *
+ * @author Philip Aston
+ */
+public class TestPeerFileServer extends AbstractJUnit4FileTestCase {
+
+  private static final Random s_random = new Random();
+
+  private final Logger m_logger = mock(Logger.class);
+
+  private File m_source;
+  private FileStore m_served;
+  private final MessageDispatchSender m_servedDispatcher =
+    new MessageDispatchSender();
+  private PeerFileServer m_server;
+
+  @Before public void setUp() throws Exception {
+    m_source = new File(getDirectory(), "source");
+    m_source.mkdir();
+
+    m_served = new FileStore(new File(getDirectory(), "served"), m_logger);
+    m_served.registerMessageHandlers(m_servedDispatcher);
+
+    m_server = new PeerFileServer(m_served, "127.0.0.1", 0, m_logger);
+  }
+
+  @After public void tearDown() {
+    m_server.shutdown();
+  }
+
+  private byte[] writeFile(File directory, String name, int length)
+    throws IOException {
+    final byte[] bytes = new byte[length];
+    s_random.nextBytes(bytes);
+
+    final OutputStream out = new FileOutputStream(new File(directory, name));
+    out.write(bytes);
+    out.close();
+
+    return bytes;
+  }
+
+  private FileContents chunk(String name, long offset, int length)
+    throws Exception {
+    return new FileContents(
+      m_source, new File(name), offset, length, "d", null);
+  }
+
+  /**
+   * The console sends the served store a chunk.
+   */
+  private void distribute(String name, long offset, int length)
+    throws Exception {
+    m_servedDispatcher.send(
+      new DistributeFileMessage(chunk(name, offset, length)));
+  }
+
+  private FetchFileMessage fetchMessage(String name, long offset, int length)
+    throws Exception {
+    return new FetchFileMessage(
+      chunk(name, offset, length),
+      Collections.singletonList(m_server.getAddress()));
+  }
+
+  @Test public void testFetch() throws Exception {
+    assertTrue(m_server.getAddress().startsWith("127.0.0.1:"));
+
+    final byte[] bytes = writeFile(m_source, "file", 1000);
+
+    for (int offset = 0; offset < 1000; offset += 300) {
+      distribute("file", offset, 300);
+    }
+
+    final PeerFileClient client = new PeerFileClient(m_logger, 1000);
+
+    final FileContents fetched = client.fetch(fetchMessage("file", 300, 300));
+
+    assertEquals(new File("file"), fetched.getFilename());
+    assertEquals(300, fetched.getOffset());
+    assertEquals(300, fetched.getLength());
+    assertEquals(1000, fetched.getFileLength());
+    assertEquals("d", fetched.getDigest());
+
+    final byte[] expected = new byte[300];
+    System.arraycopy(bytes, 300, expected, 0, expected.length);
+    assertEquals(
+      new FileContents(new File("file"), 300, 1000, expected, null, null)
+      .getChunkDigest(),
+      fetched.getChunkDigest());
+
+    assertEquals(100, client.fetch(fetchMessage("file", 900, 100)).getLength());
+  }
+
+  @Test public void testDefaultAddress() throws Exception {
+    final PeerFileServer server =
+      new PeerFileServer(m_served, null, 0, m_logger);
+
+    try {
+      assertTrue(server.getAddress().startsWith(
+        InetAddress.getLocalHost().getHostAddress() + ":"));
+    }
+    finally {
+      server.shutdown();
+    }
+  }
+
+  @Test public void testFetchWaitsForPeer() throws Exception {
+    writeFile(m_source, "late", 500);
+
+    final Thread writer = new Thread() {
+        public void run() {
+          try {
+            Thread.sleep(300);
+            distribute("late", 0, 500);
+          }
+          catch (Exception e) {
+            e.printStackTrace();
+          }
+        }
+      };
+
+    writer.start();
+
+    final PeerFileClient client = new PeerFileClient(m_logger, 10000);
+    final FileContents fetched = client.fetch(fetchMessage("late", 0, 500));
+    assertEquals(500, fetched.getLength());
+
+    writer.join();
+  }
+
+  @Test public void testFetchFailures() throws Exception {
+    writeFile(m_source, "file", 1000);
+
+    final PeerFileClient client = new PeerFileClient(m_logger, 300);
+
+    // The server only serves chunks it has been sent.
+    new FileContents(m_source, new File("file")).create(
+      new Directory(
+        new File(getDirectory(), "served/incoming")));
+
+    try {
+      client.fetch(fetchMessage("file", 0, 1000));
+      fail("Expected IOException");
+    }
+    catch (IOException e) {
+    }
+
+    distribute("file", 0, 1000);
+    client.fetch(fetchMessage("file", 0, 1000));
+
+    // The file has been changed since.
+    final FetchFileMessage oldMessage = fetchMessage("file", 0, 1000);
+    writeFile(m_source, "file", 1000);
+    distribute("file", 0, 1000);
+
+    try {
+      client.fetch(oldMessage);
+      fail("Expected IOException");
+    }
+    catch (IOException e) {
+    }
+
+    client.fetch(fetchMessage("file", 0, 1000));
+
+    // The cache has been cleared.
+    m_servedDispatcher.send(new ClearCacheMessage());
+    new FileContents(m_source, new File("file")).create(
+      new Directory(
+        new File(getDirectory(), "served/incoming")));
+
+    try {
+      client.fetch(fetchMessage("file", 0, 1000));
+      fail("Expected IOException");
+    }
+    catch (IOException e) {
+    }
+
+    // Bad peers.
+    distribute("file", 0, 1000);
+
+    final FetchFileMessage message =
+      new FetchFileMessage(
+        chunk("file", 0, 1000),
+        Arrays.asList("nocolon", "127.0.0.1:bad", m_server.getAddress()));
+
+    assertEquals(1000, client.fetch(message).getLength());
+
+    // Nothing to connect to.
+    m_server.shutdown();
+
+    try {
+      client.fetch(fetchMessage("file", 0, 1000));
+      fail("Expected IOException");
+    }
+    catch (IOException e) {
+    }
+  }
+}
@@ -22,6 +22,8 @@
 package net.grinder.engine.agent;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -253,6 +255,90 @@ public class TestProcessWorker {
     childProcess.waitFor();
   }
 
+  @Test public void testAttach() throws Exception {
+    final CommandLine commandLine =
+      new MyCommandLine("java",
+                        "-classpath",
+                        s_testClasspath,
+                        EchoClass.class.getName(),
+                        "blah");
+
+    final ProcessWorker childProcess = new ProcessWorker(commandLine);
+
+    assertNull(childProcess.getIdentity());
+    assertTrue(childProcess.isRunning());
+
+    childProcess.attach(m_agentIdentity.createWorkerIdentity(),
+                        m_outputStream,
+                        m_errorStream);
+
+    final PrintWriter out =
+      new PrintWriter(childProcess.getCommunicationStream());
+    out.print(EchoClass.ECHO_ARGUMENTS);
+    out.print('\n');
+    out.close();
+
+    childProcess.waitFor();
+
+    assertFalse(childProcess.isRunning());
+    assertEquals("blah", new String(m_outputStream.toByteArray()));
+    assertEquals("", new String(m_errorStream.toByteArray()));
+    assertEquals("test-0", childProcess.getIdentity().getName());
+  }
+
+  @Test public void testUnattachedOutputIsRead() throws Exception {
+    // Enough output at start up to fill the pipe.
+    final CommandLine commandLine =
+      new MyCommandLine("java",
+                        "-XX:+PrintFlagsFinal",
+                        "-verbose:class",
+                        "-classpath",
+                        s_testClasspath,
+                        EchoClass.class.getName(),
+                        "blah");
+
+    final ProcessWorker childProcess = new ProcessWorker(commandLine);
+
+    final PrintWriter out =
+      new PrintWriter(childProcess.getCommunicationStream());
+    out.print(EchoClass.ECHO_ARGUMENTS);
+    out.print('\n');
+    out.close();
+
+    // The process can finish before it is attached.
+    for (int i = 0; childProcess.isRunning() && i < 100; ++i) {
+      Thread.sleep(100);
+    }
+
+    assertFalse(childProcess.isRunning());
+
+    childProcess.attach(m_agentIdentity.createWorkerIdentity(),
+                        m_outputStream,
+                        m_errorStream);
+
+    childProcess.waitFor();
+
+    // The start of the output is kept, the rest discarded.
+    assertEquals(ProcessWorker.UNATTACHED_OUTPUT_LIMIT,
+                 m_outputStream.size());
+  }
+
+  @Test public void testWaitForUnattached() throws Exception {
+    final CommandLine commandLine =
+      new MyCommandLine("java",
+                        "-classpath",
+                        s_testClasspath,
+                        EchoClass.class.getName());
+
+    final ProcessWorker childProcess = new ProcessWorker(commandLine);
+
+    childProcess.destroy();
+
+    childProcess.waitFor();
+
+    assertFalse(childProcess.isRunning());
+  }
+
   private static final class WriteData implements Runnable {
     private final OutputStream m_outputStream;
 
@@ -24,6 +24,7 @@ package net.grinder.engine.agent;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -42,10 +43,12 @@ import net.grinder.engine.agent.AgentIdentityImplementation.WorkerIdentityImplem
 import net.grinder.engine.common.EngineException;
 import net.grinder.engine.common.ScriptLocation;
 import net.grinder.engine.messages.InitialiseGrinderMessage;
+import net.grinder.engine.messages.PrepareWorkerMessage;
 import net.grinder.engine.process.WorkerProcessEntryPoint;
 import net.grinder.util.Directory;
 
 import org.junit.Test;
+import org.slf4j.Logger;
 
 
 /**
@@ -125,6 +128,83 @@ public class TestProcessWorkerFactory {
     fanOutStreamSender.shutdown();
   }
 
+  @Test public void testCreateFromPool() throws Exception {
+    final GrinderProperties grinderProperties = new GrinderProperties();
+    grinderProperties.setProperty("grinder.jvm.classpath", s_testClasspath);
+
+    final FanOutStreamSender fanOutStreamSender = new FanOutStreamSender(1);
+
+    final WorkerProcessCommandLine commandLine =
+      new WorkerProcessCommandLine(
+        grinderProperties, new Properties(), "", new Directory());
+
+    final List<String> commandList = commandLine.getCommandList();
+
+    commandList.set(
+      commandList.indexOf(WorkerProcessEntryPoint.class.getName()),
+      ReadMessageEchoClass.class.getName());
+
+    final ScriptLocation script =
+      new ScriptLocation(new Directory(new File(".")), new File("a"));
+
+    final ProcessWorkerPool pool = new ProcessWorkerPool(mock(Logger.class));
+    pool.configure(1, commandLine, script, grinderProperties, null);
+    pool.replenish();
+
+    final ProcessWorkerFactory processWorkerFactory =
+      new ProcessWorkerFactory(commandLine,
+                               new AgentIdentityImplementation(
+                                 getClass().getName()),
+                               fanOutStreamSender,
+                               false,
+                               script,
+                               grinderProperties,
+                               pool);
+
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    final ByteArrayOutputStream errorStream = new ByteArrayOutputStream();
+
+    final Worker worker =
+      processWorkerFactory.create(outputStream, errorStream);
+
+    assertEquals(0, pool.getNumberOfIdleWorkers());
+    assertTrue(worker.getIdentity().getName().endsWith("-0"));
+
+    // The pool is empty, so the next worker is started afresh.
+    final ByteArrayOutputStream outputStream2 = new ByteArrayOutputStream();
+
+    final Worker worker2 =
+      processWorkerFactory.create(outputStream2, errorStream);
+
+    worker.waitFor();
+    worker2.waitFor();
+
+    assertEquals("", new String(errorStream.toByteArray()));
+
+    final ObjectInputStream output =
+      new ObjectInputStream(
+        new ByteArrayInputStream(outputStream.toByteArray()));
+
+    final PrepareWorkerMessage prepareMessage =
+      (PrepareWorkerMessage)output.readObject();
+    assertEquals(script, prepareMessage.getScript());
+
+    final InitialiseGrinderMessage initialiseMessage =
+      (InitialiseGrinderMessage)output.readObject();
+    assertEquals(worker.getIdentity(), initialiseMessage.getWorkerIdentity());
+
+    final ObjectInputStream output2 =
+      new ObjectInputStream(
+        new ByteArrayInputStream(outputStream2.toByteArray()));
+
+    final InitialiseGrinderMessage initialiseMessage2 =
+      (InitialiseGrinderMessage)output2.readObject();
+    assertEquals(worker2.getIdentity(),
+                 initialiseMessage2.getWorkerIdentity());
+
+    fanOutStreamSender.shutdown();
+  }
+
   @Test public void testBadWorker() throws Exception {
     // Test a dusty code path through AbstractWorkerFactory where
     // the Worker communication stream doesn't work.
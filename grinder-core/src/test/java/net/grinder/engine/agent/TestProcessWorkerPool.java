@@ -0,0 +1,241 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.agent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+
+import net.grinder.common.GrinderProperties;
+import net.grinder.common.processidentity.WorkerIdentity;
+import net.grinder.communication.StreamSender;
+import net.grinder.engine.common.EngineException;
+import net.grinder.engine.common.ScriptLocation;
+import net.grinder.engine.messages.InitialiseGrinderMessage;
+import net.grinder.engine.messages.PrepareWorkerMessage;
+import net.grinder.messages.agent.StubCacheHighWaterMark;
+import net.grinder.util.Directory;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+
+
+/**
+ * Unit tests for {@link ProcessWorkerPool}.
+ *
+ * @author Philip Aston
+ */
+public class TestProcessWorkerPool {
+
+  private static final String s_testClasspath =
+    System.getProperty("java.class.path");
+
+  private final Logger m_logger = mock(Logger.class);
+
+  private final CommandLine m_commandLine =
+    new MyCommandLine("java",
+                      "-classpath",
+                      s_testClasspath,
+                      ReadMessageEchoClass.class.getName());
+
+  private final ScriptLocation m_script;
+
+  public TestProcessWorkerPool() throws Exception {
+    m_script = new ScriptLocation(new Directory(new File(".")), new File("a"));
+  }
+
+  @Test public void testTakeAndAttach() throws Exception {
+    final ProcessWorkerPool pool = new ProcessWorkerPool(m_logger);
+
+    assertNull(pool.take());
+
+    final GrinderProperties properties = new GrinderProperties();
+    properties.setProperty("foo", "bah");
+
+    pool.configure(2, m_commandLine, m_script, properties, null);
+    assertEquals(0, pool.getNumberOfIdleWorkers());
+
+    pool.replenish();
+    assertEquals(2, pool.getNumberOfIdleWorkers());
+
+    final ProcessWorker worker = pool.take();
+    assertEquals(1, pool.getNumberOfIdleWorkers());
+
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    final ByteArrayOutputStream errorStream = new ByteArrayOutputStream();
+
+    final WorkerIdentity workerIdentity =
+      new StubAgentIdentity("test").createWorkerIdentity();
+
+    worker.attach(workerIdentity, outputStream, errorStream);
+
+    new StreamSender(worker.getCommunicationStream()).send(
+      new InitialiseGrinderMessage(
+        workerIdentity, workerIdentity, false, m_script, properties));
+
+    worker.waitFor();
+
+    assertEquals("", new String(errorStream.toByteArray()));
+
+    final ObjectInputStream echoed =
+      new ObjectInputStream(
+        new ByteArrayInputStream(outputStream.toByteArray()));
+
+    final PrepareWorkerMessage prepareMessage =
+      (PrepareWorkerMessage)echoed.readObject();
+    assertEquals(m_script, prepareMessage.getScript());
+    assertEquals(properties, prepareMessage.getProperties());
+
+    final InitialiseGrinderMessage initialiseMessage =
+      (InitialiseGrinderMessage)echoed.readObject();
+    assertEquals(workerIdentity, initialiseMessage.getWorkerIdentity());
+
+    pool.shutdown();
+  }
+
+  @Test public void testConfigure() throws Exception {
+    final ProcessWorkerPool pool = new ProcessWorkerPool(m_logger);
+
+    final GrinderProperties properties = new GrinderProperties();
+    properties.setProperty("foo", "bah");
+
+    pool.configure(3, m_commandLine, m_script, properties, null);
+    pool.replenish();
+    assertEquals(3, pool.getNumberOfIdleWorkers());
+
+    // Equal configuration, different instances.
+    final GrinderProperties properties2 = new GrinderProperties();
+    properties2.setProperty("foo", "bah");
+
+    pool.configure(3,
+                   new MyCommandLine(m_commandLine.getCommandList().toArray(
+                     new String[0])),
+                   new ScriptLocation(new Directory(new File(".")),
+                                      new File("a")),
+                   properties2,
+                   null);
+    assertEquals(3, pool.getNumberOfIdleWorkers());
+
+    // Smaller pool.
+    pool.configure(1, m_commandLine, m_script, properties2, null);
+    assertEquals(1, pool.getNumberOfIdleWorkers());
+
+    // Changed properties.
+    properties2.setProperty("foo", "blah");
+    pool.configure(1, m_commandLine, m_script, (GrinderProperties)
+                   properties2.clone(), null);
+    assertEquals(0, pool.getNumberOfIdleWorkers());
+
+    pool.replenish();
+    assertEquals(1, pool.getNumberOfIdleWorkers());
+
+    // Changed script.
+    pool.configure(1,
+                   m_commandLine,
+                   new ScriptLocation(new Directory(new File(".")),
+                                      new File("b")),
+                   properties2,
+                   null);
+    assertEquals(0, pool.getNumberOfIdleWorkers());
+
+    pool.replenish();
+    assertEquals(1, pool.getNumberOfIdleWorkers());
+
+    // The file store is used.
+    final ScriptLocation scriptB =
+      new ScriptLocation(new Directory(new File(".")), new File("b"));
+
+    pool.configure(1,
+                   m_commandLine,
+                   scriptB,
+                   properties2,
+                   new StubCacheHighWaterMark("cache", 100));
+    assertEquals(0, pool.getNumberOfIdleWorkers());
+
+    pool.replenish();
+    assertEquals(1, pool.getNumberOfIdleWorkers());
+
+    // Unchanged file store.
+    pool.configure(1,
+                   m_commandLine,
+                   scriptB,
+                   properties2,
+                   new StubCacheHighWaterMark("cache", 100));
+    assertEquals(1, pool.getNumberOfIdleWorkers());
+
+    // Files distributed.
+    pool.configure(1,
+                   m_commandLine,
+                   scriptB,
+                   properties2,
+                   new StubCacheHighWaterMark("cache", 200));
+    assertEquals(0, pool.getNumberOfIdleWorkers());
+    verify(m_logger, times(2)).info(contains("file store changed"), eq(1));
+
+    pool.replenish();
+    assertEquals(1, pool.getNumberOfIdleWorkers());
+
+    // Different cache.
+    pool.configure(1,
+                   m_commandLine,
+                   scriptB,
+                   properties2,
+                   new StubCacheHighWaterMark("other", 200));
+    assertEquals(0, pool.getNumberOfIdleWorkers());
+
+    pool.replenish();
+    assertEquals(1, pool.getNumberOfIdleWorkers());
+
+    pool.shutdown();
+    assertEquals(0, pool.getNumberOfIdleWorkers());
+
+    pool.replenish();
+    assertEquals(0, pool.getNumberOfIdleWorkers());
+    assertNull(pool.take());
+  }
+
+  @Test public void testBadCommandLine() throws Exception {
+    final ProcessWorkerPool pool = new ProcessWorkerPool(m_logger);
+
+    pool.configure(2,
+                   new MyCommandLine("No such process blah blah blah"),
+                   m_script,
+                   new GrinderProperties(),
+                   null);
+
+    pool.replenish();
+
+    assertEquals(0, pool.getNumberOfIdleWorkers());
+    verify(m_logger).warn(contains("failed to start"),
+                          isA(EngineException.class));
+  }
+}
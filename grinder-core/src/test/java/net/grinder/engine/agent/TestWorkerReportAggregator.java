@@ -0,0 +1,211 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.agent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import java.util.List;
+import java.util.Timer;
+import java.util.concurrent.TimeUnit;
+
+import net.grinder.common.GrinderProperties;
+import net.grinder.common.StubTest;
+import net.grinder.common.Test;
+import net.grinder.common.processidentity.ProcessReport;
+import net.grinder.communication.ClientSender;
+import net.grinder.communication.ConnectionType;
+import net.grinder.communication.Message;
+import net.grinder.communication.RelayedMessage;
+import net.grinder.communication.Sender;
+import net.grinder.engine.common.ConnectorFactory;
+import net.grinder.messages.console.ReportStatisticsMessage;
+import net.grinder.messages.console.WorkerAddress;
+import net.grinder.messages.console.WorkerProcessReportMessage;
+import net.grinder.statistics.StatisticsIndexMap;
+import net.grinder.statistics.StatisticsServices;
+import net.grinder.statistics.StatisticsServicesImplementation;
+import net.grinder.statistics.StatisticsSet;
+import net.grinder.statistics.TestStatisticsMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.slf4j.Logger;
+
+
+/**
+ * Unit tests for {@link WorkerReportAggregator}.
+ *
+ * @author Philip Aston
+ */
+public class TestWorkerReportAggregator {
+
+  @Mock private Sender m_consoleSender;
+  @Mock private Logger m_logger;
+
+  private final Timer m_timer = new Timer(true);
+
+  private final StatisticsServices m_statisticsServices =
+    StatisticsServicesImplementation.getInstance();
+
+  private final StatisticsIndexMap.LongIndex m_index =
+    m_statisticsServices.getStatisticsIndexMap().getLongIndex("userLong0");
+
+  private final Test m_test1 = new StubTest(1, "");
+  private final Test m_test2 = new StubTest(2, "");
+
+  @Before public void setUp() {
+    MockitoAnnotations.initMocks(this);
+  }
+
+  @After public void tearDown() {
+    m_timer.cancel();
+  }
+
+  private ReportStatisticsMessage createReport(long value1, long value2) {
+    final TestStatisticsMap map =
+      new TestStatisticsMap(m_statisticsServices.getStatisticsSetFactory());
+
+    for (Object[] testAndValue : new Object[][] { { m_test1, value1 },
+                                                  { m_test2, value2 }, }) {
+      final long value = (Long)testAndValue[1];
+
+      if (value != 0) {
+        final StatisticsSet statistics =
+          m_statisticsServices.getStatisticsSetFactory().create();
+        statistics.addValue(m_index, value);
+        map.put((Test)testAndValue[0], statistics);
+      }
+    }
+
+    return new ReportStatisticsMessage(map, TimeUnit.MICROSECONDS);
+  }
+
+  @org.junit.Test public void testAggregation() throws Exception {
+    final WorkerReportAggregator aggregator =
+      new WorkerReportAggregator(m_consoleSender, m_timer, 100000, m_logger);
+
+    final GrinderProperties properties = new GrinderProperties();
+    properties.setProperty(GrinderProperties.CONSOLE_HOST, "unknown.host");
+    properties.setBoolean("grinder.consoleCompression", true);
+
+    aggregator.configureWorkerProperties(properties);
+
+    assertEquals("127.0.0.1",
+                 properties.getProperty(GrinderProperties.CONSOLE_HOST));
+    assertTrue(!properties.getBoolean("grinder.consoleCompression", true));
+
+    final WorkerAddress workerAddress =
+      new WorkerAddress(
+        new StubAgentIdentity("agent").createWorkerIdentity());
+
+    final ClientSender worker =
+      ClientSender.connect(
+        new ConnectorFactory(ConnectionType.WORKER).create(properties),
+        workerAddress);
+
+    worker.send(createReport(10, 0));
+    worker.send(createReport(5, 3));
+
+    final WorkerProcessReportMessage status =
+      new WorkerProcessReportMessage(ProcessReport.State.RUNNING, 1, 2);
+    worker.send(status);
+
+    // The status is relayed straight away, on behalf of the worker.
+    verify(m_consoleSender, timeout(5000)).send(isA(RelayedMessage.class));
+
+    // Reports are combined.
+    aggregator.report();
+
+    final ArgumentCaptor<Message> captor =
+      ArgumentCaptor.forClass(Message.class);
+    verify(m_consoleSender, times(2)).send(captor.capture());
+
+    final RelayedMessage relayed = (RelayedMessage)captor.getAllValues().get(0);
+    assertEquals(workerAddress, relayed.getOrigin());
+    assertTrue(relayed.getMessage() instanceof WorkerProcessReportMessage);
+
+    final ReportStatisticsMessage report =
+      (ReportStatisticsMessage)captor.getAllValues().get(1);
+    assertSame(TimeUnit.MICROSECONDS, report.getTimeUnit());
+
+    final TestStatisticsMap expected = createReport(15, 3).getStatisticsDelta();
+    assertEquals(expected, report.getStatisticsDelta());
+
+    // Nothing more to report.
+    aggregator.report();
+
+    worker.shutdown();
+    aggregator.shutdown();
+
+    verifyNoMoreInteractions(m_consoleSender);
+  }
+
+  @org.junit.Test public void testReportsWithDifferentTimeUnits()
+    throws Exception {
+
+    final WorkerReportAggregator aggregator =
+      new WorkerReportAggregator(m_consoleSender, m_timer, 100000, m_logger);
+
+    final GrinderProperties properties = new GrinderProperties();
+    aggregator.configureWorkerProperties(properties);
+
+    final ClientSender worker =
+      ClientSender.connect(
+        new ConnectorFactory(ConnectionType.WORKER).create(properties),
+        new WorkerAddress(
+          new StubAgentIdentity("agent").createWorkerIdentity()));
+
+    final ReportStatisticsMessage milliseconds =
+      new ReportStatisticsMessage(createReport(1, 1).getStatisticsDelta());
+
+    worker.send(createReport(1, 0));
+    worker.send(milliseconds);
+    worker.shutdown();
+
+    // The first report is sent as soon as the second arrives.
+    verify(m_consoleSender, timeout(5000))
+      .send(isA(ReportStatisticsMessage.class));
+
+    // The second is sent when we shut down.
+    aggregator.shutdown();
+
+    final ArgumentCaptor<Message> captor =
+      ArgumentCaptor.forClass(Message.class);
+    verify(m_consoleSender, timeout(5000).times(2)).send(captor.capture());
+
+    final List<Message> reports = captor.getAllValues();
+    assertSame(TimeUnit.MICROSECONDS,
+               ((ReportStatisticsMessage)reports.get(0)).getTimeUnit());
+    assertSame(TimeUnit.MILLISECONDS,
+               ((ReportStatisticsMessage)reports.get(1)).getTimeUnit());
+  }
+}
@@ -73,4 +73,22 @@ public class TestWorkerMessages extends AbstractFileTestCase {
     assertTrue(another.getReportToConsole());
     assertEquals(script, another.getScript());
   }
+
+  public void testPrepareWorkerMessage() throws Exception {
+
+    final ScriptLocation script =
+      new ScriptLocation(new Directory(new File("d:/foo/bah")),
+                         new File("/foo"));
+
+    final GrinderProperties properties = new GrinderProperties();
+    properties.setProperty("foo", "bah");
+
+    final PrepareWorkerMessage original =
+      new PrepareWorkerMessage(script, properties);
+
+    final PrepareWorkerMessage received = Serializer.serialize(original);
+
+    assertEquals(script, received.getScript());
+    assertEquals(properties, received.getProperties());
+  }
 }
@@ -0,0 +1,81 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import net.grinder.util.TimeAuthority;
+import net.grinder.util.TimeAuthorityStubFactory;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link ArrivalSchedule}.
+ *
+ * @author Philip Aston
+ */
+public class TestArrivalSchedule {
+
+  private final TimeAuthorityStubFactory m_timeAuthorityStubFactory =
+    new TimeAuthorityStubFactory();
+  private final TimeAuthority m_timeAuthority =
+    m_timeAuthorityStubFactory.getStub();
+
+  @Test public void testSchedule() throws Exception {
+    final ArrivalSchedule schedule = new ArrivalSchedule(m_timeAuthority, 4);
+
+    assertEquals(250000000, schedule.getInterval());
+
+    m_timeAuthorityStubFactory.nextTime(1000);
+    assertEquals(1000000000, schedule.nextArrival());
+    assertEquals(1250000000, schedule.nextArrival());
+    assertEquals(1500000000, schedule.nextArrival());
+
+    m_timeAuthorityStubFactory.assertSuccess("getTimeInNanoseconds");
+    m_timeAuthorityStubFactory.assertNoMoreCalls();
+
+    assertFalse(schedule.isLate(1000000000, 1000000000));
+    assertFalse(schedule.isLate(1000000000, 1250000000));
+    assertTrue(schedule.isLate(1000000000, 1250000001));
+  }
+
+  @Test public void testHighRate() throws Exception {
+    final ArrivalSchedule schedule =
+      new ArrivalSchedule(m_timeAuthority, 1e12);
+
+    assertEquals(1, schedule.getInterval());
+  }
+
+  @Test public void testBadRate() throws Exception {
+    for (double rate : new double[] { 0, -1, Double.NaN }) {
+      try {
+        new ArrivalSchedule(m_timeAuthority, rate);
+        fail("Expected IllegalArgumentException");
+      }
+      catch (IllegalArgumentException e) {
+      }
+    }
+  }
+}
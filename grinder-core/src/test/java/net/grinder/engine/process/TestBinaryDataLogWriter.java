@@ -0,0 +1,282 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.engine.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import net.grinder.common.StubTest;
+import net.grinder.statistics.ExpressionView;
+import net.grinder.statistics.StatisticsIndexMap;
+import net.grinder.statistics.StatisticsServices;
+import net.grinder.statistics.StatisticsServicesTestFactory;
+import net.grinder.statistics.StatisticsSet;
+import net.grinder.testutility.AbstractJUnit4FileTestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.slf4j.Logger;
+
+
+/**
+ * Unit tests for {@link BinaryDataLogWriter} and
+ * {@link BinaryDataLogConverter}.
+ *
+ * @author Philip Aston
+ */
+public class TestBinaryDataLogWriter extends AbstractJUnit4FileTestCase {
+
+  @Mock private Logger m_logger;
+  @Mock private Logger m_textDataLogger;
+
+  private final net.grinder.common.Test m_test1 = new StubTest(1, "T1");
+  private final net.grinder.common.Test m_test3 = new StubTest(3, "T3");
+
+  private final StatisticsServices m_statisticsServices =
+    StatisticsServicesTestFactory.createTestInstance();
+
+  private ExpressionView[] m_expressionViews;
+  private StatisticsSet m_statistics;
+  private File m_file;
+
+  @Before public void setUp() throws Exception {
+    MockitoAnnotations.initMocks(this);
+
+    when(m_textDataLogger.isInfoEnabled()).thenReturn(true);
+
+    m_statisticsServices.getDetailStatisticsView().add(
+      m_statisticsServices.getStatisticExpressionFactory()
+      .createExpressionView("foo", "userDouble0", false));
+
+    m_expressionViews =
+      m_statisticsServices.getDetailStatisticsView().getExpressionViews();
+
+    final StatisticsIndexMap indexMap =
+      m_statisticsServices.getStatisticsIndexMap();
+
+    m_statistics = m_statisticsServices.getStatisticsSetFactory().create();
+    m_statistics.addSample(indexMap.getLongSampleIndex("timedTests"), 99);
+    m_statistics.addValue(indexMap.getDoubleIndex("userDouble0"), 1.5);
+
+    m_file = new File(getDirectory(), "data.bin");
+  }
+
+  @Test public void testConvertsToTextFormat() throws Exception {
+    final BinaryDataLogWriter writer =
+      new BinaryDataLogWriter(m_file, m_expressionViews, m_logger);
+
+    final BinaryDataLogWriter.ThreadWriter threadWriter1 =
+      writer.createThreadWriter(1);
+    final BinaryDataLogWriter.ThreadWriter threadWriter2 =
+      writer.createThreadWriter(2);
+
+    final ThreadDataLogger textLogger1 =
+      new ThreadDataLogger(m_textDataLogger, m_expressionViews, 1);
+    final ThreadDataLogger textLogger2 =
+      new ThreadDataLogger(m_textDataLogger, m_expressionViews, 2);
+
+    threadWriter1.report(10, m_test1, 123L, m_statistics);
+    textLogger1.report(10, m_test1, 123L, m_statistics);
+
+    threadWriter2.report(0, m_test3, 124L, m_statistics);
+    textLogger2.report(0, m_test3, 124L, m_statistics);
+
+    m_statistics.reset();
+
+    threadWriter1.report(11, m_test3, -1L, m_statistics);
+    textLogger1.report(11, m_test3, -1L, m_statistics);
+
+    writer.close();
+
+    final ArgumentCaptor<String> textLines =
+      ArgumentCaptor.forClass(String.class);
+    verify(m_textDataLogger, times(3))
+      .info(textLines.capture(), any(DataLogArguments.class));
+
+    final List<String> lines = convert();
+
+    assertEquals(4, lines.size());
+    assertEquals(
+      "Thread, Run, Test, Start time (ms since Epoch), Test time, Errors, foo",
+      lines.get(0));
+    final List<String> records = lines.subList(1, 4);
+    final List<String> expected = textLines.getAllValues();
+
+    // Records are batched per thread, so only the order of each thread's
+    // records is preserved.
+    assertEquals(new HashSet<String>(expected), new HashSet<String>(records));
+    assertTrue(records.indexOf(expected.get(0)) <
+               records.indexOf(expected.get(2)));
+    assertEquals("1, 10, 1, 123, 99, 0, 1.5", lines.get(1));
+  }
+
+  @Test public void testManyThreads() throws Exception {
+    final BinaryDataLogWriter writer =
+      new BinaryDataLogWriter(m_file, m_expressionViews, m_logger);
+
+    final int numberOfThreads = 8;
+    final int reportsPerThread = 20000;
+
+    final Thread[] threads = new Thread[numberOfThreads];
+
+    for (int i = 0; i < numberOfThreads; ++i) {
+      final BinaryDataLogWriter.ThreadWriter threadWriter =
+        writer.createThreadWriter(i);
+
+      threads[i] = new Thread() {
+        public void run() {
+          for (int j = 0; j < reportsPerThread; ++j) {
+            threadWriter.report(j, m_test1, j, m_statistics);
+          }
+        }
+      };
+
+      threads[i].start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    writer.close();
+
+    // Reports after close are discarded.
+    writer.createThreadWriter(99).report(0, m_test1, 0, m_statistics);
+    writer.close();
+
+    final List<String> lines = convert();
+
+    assertEquals(numberOfThreads * reportsPerThread + 1, lines.size());
+
+    final int[] lastRun = new int[numberOfThreads];
+
+    for (String line : lines.subList(1, lines.size())) {
+      final String[] fields = line.split(", ");
+      final int thread = Integer.parseInt(fields[0]);
+      final int run = Integer.parseInt(fields[1]);
+
+      // Each thread's records are in order.
+      assertEquals(lastRun[thread]++, run);
+    }
+  }
+
+  @Test public void testPartialBufferIsWrittenInBackground()
+    throws Exception {
+
+    final BinaryDataLogWriter writer =
+      new BinaryDataLogWriter(m_file, m_expressionViews, m_logger);
+
+    final long headerLength = m_file.length();
+
+    writer.createThreadWriter(1).report(1, m_test1, 1, m_statistics);
+
+    for (int i = 0; i < 100 && m_file.length() == headerLength; ++i) {
+      Thread.sleep(50);
+    }
+
+    assertTrue(m_file.length() > headerLength);
+
+    writer.close();
+  }
+
+  @Test public void testConverterRejectsOtherFiles() throws Exception {
+    try {
+      BinaryDataLogConverter.convert(
+        new ByteArrayInputStream("Thread, Run, Test".getBytes()),
+        new StringWriter());
+      fail("Expected IOException");
+    }
+    catch (IOException e) {
+    }
+  }
+
+  @Test public void testConverterTruncatedLog() throws Exception {
+    final BinaryDataLogWriter writer =
+      new BinaryDataLogWriter(m_file, m_expressionViews, m_logger);
+    writer.createThreadWriter(1).report(1, m_test1, 1, m_statistics);
+    writer.close();
+
+    final byte[] bytes = new byte[(int) m_file.length() - 1];
+    final InputStream in = new FileInputStream(m_file);
+
+    try {
+      assertEquals(bytes.length, in.read(bytes));
+    }
+    finally {
+      in.close();
+    }
+
+    try {
+      BinaryDataLogConverter.convert(new ByteArrayInputStream(bytes),
+                                     new StringWriter());
+      fail("Expected EOFException");
+    }
+    catch (EOFException e) {
+    }
+  }
+
+  private List<String> convert() throws IOException {
+    final StringWriter text = new StringWriter();
+    final InputStream in = new FileInputStream(m_file);
+
+    try {
+      BinaryDataLogConverter.convert(in, text);
+    }
+    finally {
+      in.close();
+    }
+
+    final BufferedReader reader =
+      new BufferedReader(new StringReader(text.toString()));
+    final List<String> result = new ArrayList<String>();
+
+    String line;
+
+    while ((line = reader.readLine()) != null) {
+      result.add(line);
+    }
+
+    return result;
+  }
+}
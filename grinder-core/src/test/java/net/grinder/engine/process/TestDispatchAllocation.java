@@ -0,0 +1,147 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.process;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+import net.grinder.common.GrinderProperties;
+import net.grinder.common.StubTest;
+import net.grinder.statistics.StatisticsServices;
+import net.grinder.statistics.StatisticsServicesImplementation;
+import net.grinder.testutility.AbstractJUnit4FileTestCase;
+import net.grinder.util.StandardTimeAuthority;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.helpers.NOPLogger;
+
+
+/**
+ * Regression test that checks that a steady state test dispatch does not
+ * allocate, with the data log disabled or written in binary format.
+ *
+ * <p>
+ * The text data log still allocates the formatted line and the logging
+ * event for each record, because the SLF4J API requires a {@code String}
+ * message.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+public class TestDispatchAllocation extends AbstractJUnit4FileTestCase {
+
+  private static final int WARM_UP_DISPATCHES = 50000;
+  private static final int MEASURED_DISPATCHES = 10000;
+
+  private final StatisticsServices m_statisticsServices =
+    StatisticsServicesImplementation.getInstance();
+
+  private com.sun.management.ThreadMXBean m_allocationMXBean;
+
+  @Before public void setUp() {
+    final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+
+    m_allocationMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+
+    assumeTrue(m_allocationMXBean.isThreadAllocatedMemorySupported());
+    m_allocationMXBean.setThreadAllocatedMemoryEnabled(true);
+  }
+
+  @Test public void testSteadyStateDispatchDoesNotAllocate() throws Exception {
+    // The data log is disabled, so nothing is formatted.
+    assertDispatchDoesNotAllocate(
+      new ThreadContextImplementation(new GrinderProperties(),
+                                      m_statisticsServices,
+                                      1,
+                                      NOPLogger.NOP_LOGGER));
+  }
+
+  @Test public void testDispatchWithBinaryDataLogDoesNotAllocate()
+    throws Exception {
+
+    final BinaryDataLogWriter writer =
+      new BinaryDataLogWriter(
+        new File(getDirectory(), "data.bin"),
+        m_statisticsServices.getDetailStatisticsView().getExpressionViews(),
+        NOPLogger.NOP_LOGGER);
+
+    try {
+      assertDispatchDoesNotAllocate(
+        new ThreadContextImplementation(new GrinderProperties(),
+                                        m_statisticsServices,
+                                        1,
+                                        NOPLogger.NOP_LOGGER,
+                                        writer));
+    }
+    finally {
+      writer.close();
+    }
+  }
+
+  private void assertDispatchDoesNotAllocate(ThreadContext threadContext)
+    throws Exception {
+
+    final StubThreadContextLocator threadContextLocator =
+      new StubThreadContextLocator();
+    threadContextLocator.set(threadContext);
+
+    final TestData testData =
+      new TestData(threadContextLocator,
+                   m_statisticsServices.getStatisticsSetFactory(),
+                   new TestStatisticsHelperImplementation(
+                     m_statisticsServices.getStatisticsIndexMap()),
+                   new StandardTimeAuthority(),
+                   TimeUnit.MILLISECONDS,
+                   null,
+                   new StubTest(1, "test"));
+
+    for (int i = 0; i < WARM_UP_DISPATCHES; ++i) {
+      testData.start();
+      testData.end(true);
+    }
+
+    final long threadID = Thread.currentThread().getId();
+    final long before = m_allocationMXBean.getThreadAllocatedBytes(threadID);
+
+    for (int i = 0; i < MEASURED_DISPATCHES; ++i) {
+      testData.start();
+      testData.end(true);
+    }
+
+    final long allocated =
+      m_allocationMXBean.getThreadAllocatedBytes(threadID) - before;
+
+    // Allow a little slack for the measurement itself.
+    assertTrue("Dispatches allocated " + allocated + " bytes",
+               allocated < MEASURED_DISPATCHES);
+
+    testData.collectStatistics();
+  }
+}
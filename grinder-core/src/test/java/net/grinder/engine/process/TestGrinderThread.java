@@ -21,6 +21,7 @@
 
 package net.grinder.engine.process;
 
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -73,7 +74,8 @@ public class TestGrinderThread extends AbstractJUnit4FileTestCase {
                       m_processLifeCycleListener,
                       m_properties,
                       m_sleeper,
-                      m_workerRunnableFactory);
+                      m_workerRunnableFactory,
+                      null);
 
     verify(m_workerThreadSynchronisation).threadCreated();
 
@@ -91,7 +93,8 @@ public class TestGrinderThread extends AbstractJUnit4FileTestCase {
                         m_processLifeCycleListener,
                         m_properties,
                         m_sleeper,
-                        m_workerRunnableFactory);
+                        m_workerRunnableFactory,
+                        null);
 
     verify(m_processLifeCycleListener).threadCreated(m_threadContext);
 
@@ -125,7 +128,8 @@ public class TestGrinderThread extends AbstractJUnit4FileTestCase {
                         m_processLifeCycleListener,
                         m_properties,
                         m_sleeper,
-                        m_workerRunnableFactory);
+                        m_workerRunnableFactory,
+                        null);
 
     m_properties.setInt("grinder.runs", 2);
     m_properties.setLong("grinder.initialSleepTime", 100);
@@ -158,7 +162,8 @@ public class TestGrinderThread extends AbstractJUnit4FileTestCase {
                         m_processLifeCycleListener,
                         m_properties,
                         m_sleeper,
-                        m_workerRunnableFactory);
+                        m_workerRunnableFactory,
+                        null);
 
     m_properties.setInt("grinder.runs", 0);
 
@@ -195,7 +200,8 @@ public class TestGrinderThread extends AbstractJUnit4FileTestCase {
                         m_processLifeCycleListener,
                         m_properties,
                         m_sleeper,
-                        m_workerRunnableFactory);
+                        m_workerRunnableFactory,
+                        null);
 
     doThrow(new MyScriptEngineException("whatever"))
       .when(m_workerRunnable).run();
@@ -227,7 +233,8 @@ public class TestGrinderThread extends AbstractJUnit4FileTestCase {
                         m_processLifeCycleListener,
                         m_properties,
                         m_sleeper,
-                        m_workerRunnableFactory);
+                        m_workerRunnableFactory,
+                        null);
 
     when(m_workerRunnableFactory.create())
       .thenThrow(new MyScriptEngineException("blah"));
@@ -252,7 +259,8 @@ public class TestGrinderThread extends AbstractJUnit4FileTestCase {
                         m_processLifeCycleListener,
                         m_properties,
                         m_sleeper,
-                        m_workerRunnableFactory);
+                        m_workerRunnableFactory,
+                        null);
 
     when(m_workerRunnableFactory.create())
       .thenThrow(new EngineException("blah"));
@@ -269,6 +277,67 @@ public class TestGrinderThread extends AbstractJUnit4FileTestCase {
     //                                 contains("blah")));
   }
 
+  @Test public void testArrivalSchedule() throws Exception {
+
+    final ArrivalSchedule arrivalSchedule =
+      new ArrivalSchedule(m_sleeper, 10);
+
+    when(m_sleeper.getTimeInNanoseconds())
+      .thenReturn(1000000000L,  // Schedule start.
+                  1000000000L,  // First run started on time.
+                  1350000000L); // Second run started late.
+
+    final GrinderThread grinderThread =
+      new GrinderThread(m_logger,
+                        m_threadContext,
+                        m_workerThreadSynchronisation,
+                        m_processLifeCycleListener,
+                        m_properties,
+                        m_sleeper,
+                        m_workerRunnableFactory,
+                        arrivalSchedule);
+
+    m_properties.setInt("grinder.runs", 2);
+
+    grinderThread.run();
+
+    verify(m_sleeper).sleepUntil(1000000000L);
+    verify(m_sleeper).sleepUntil(1100000000L);
+
+    verify(m_threadContext).setStartCorrection(0L, false);
+    verify(m_threadContext).setStartCorrection(250000000L, true);
+
+    verify(m_workerRunnable, times(2)).run();
+  }
+
+  @Test public void testArrivalScheduleShutdown() throws Exception {
+
+    final ArrivalSchedule arrivalSchedule =
+      new ArrivalSchedule(m_sleeper, 10);
+
+    doThrow(new Sleeper.ShutdownException("bye"))
+      .when(m_sleeper).sleepUntil(anyLong());
+
+    final GrinderThread grinderThread =
+      new GrinderThread(m_logger,
+                        m_threadContext,
+                        m_workerThreadSynchronisation,
+                        m_processLifeCycleListener,
+                        m_properties,
+                        m_sleeper,
+                        m_workerRunnableFactory,
+                        arrivalSchedule);
+
+    m_properties.setInt("grinder.runs", 0);
+
+    grinderThread.run();
+
+    verify(m_workerRunnable, never()).run();
+    verify(m_workerRunnable).shutdown();
+    verify(m_threadContext).fireEndThreadEvent();
+    verify(m_workerThreadSynchronisation).threadFinished();
+  }
+
   private static final class MyScriptEngineException
     extends ScriptExecutionException {
     public MyScriptEngineException(Throwable t) {
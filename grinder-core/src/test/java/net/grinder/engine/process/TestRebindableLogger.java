@@ -0,0 +1,101 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.withSettings;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.grinder.testutility.RandomObjectFactory;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.listeners.InvocationListener;
+import org.mockito.listeners.MethodInvocationReport;
+import org.slf4j.Logger;
+import org.slf4j.Marker;
+
+
+/**
+ * Unit tests for {@code RebindableLogger}.
+ *
+ * @author Philip Aston
+ */
+public class TestRebindableLogger {
+
+  @Test public void testDelegateMethodsTakingNoMarker() throws Exception {
+
+    final List<InvocationOnMock> invocations =
+      new ArrayList<InvocationOnMock>();
+
+    final InvocationListener listeners = new InvocationListener() {
+      public void reportInvocation(MethodInvocationReport report) {
+        invocations.add((InvocationOnMock) report.getInvocation());
+      }
+    };
+
+    final Logger original = mock(Logger.class);
+
+    final Logger delegate =
+      mock(Logger.class, withSettings().invocationListeners(listeners));
+
+    final RebindableLogger logger = new RebindableLogger(original);
+    logger.setDelegate(delegate);
+
+    for (Method m : Logger.class.getDeclaredMethods()) {
+      final Class<?>[] parameterTypes = m.getParameterTypes();
+
+      if (parameterTypes.length > 0 && parameterTypes[0].equals(Marker.class)) {
+        continue;
+      }
+
+      final RandomObjectFactory randomObjectFactory = new RandomObjectFactory();
+
+      final List<Object> parameters = new ArrayList<Object>();
+
+      for (Class<?> type : parameterTypes) {
+        parameters.add(randomObjectFactory.generateParameter(type));
+      }
+
+      m.invoke(logger, parameters.toArray());
+
+      final InvocationOnMock invocation = invocations.remove(0);
+
+      assertEquals(m, invocation.getMethod());
+
+      int i = 0;
+
+      for (Object p : parameters) {
+        assertSame(p, invocation.getArguments()[i++]);
+      }
+    }
+
+    assertEquals(0, invocations.size());
+    verifyNoMoreInteractions(original);
+  }
+}
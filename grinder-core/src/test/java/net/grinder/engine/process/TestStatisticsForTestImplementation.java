@@ -127,5 +127,15 @@ public class TestStatisticsForTestImplementation extends TestCase {
     }
 
     assertEquals(10, statisticsForTest.getLong("userLong0"));
+
+    // Reset for reuse.
+    statisticsForTest.reset();
+
+    assertSame(statisticsSet, statisticsForTest.getStatistics());
+    assertEquals(0, statisticsForTest.getLong("userLong0"));
+    assertEquals(123, statisticsForTest.getTime());
+
+    statisticsForTest.setLong("userLong0", 123);
+    assertEquals(123, statisticsForTest.getLong("userLong0"));
   }
 }
@@ -55,7 +55,7 @@ public class TestStopWatchImplementation extends TestCase {
 
     stopWatch.start();
 
-    timeAuthorityStubFactory.assertSuccess("getTimeInMilliseconds");
+    timeAuthorityStubFactory.assertSuccess("getTimeInNanoseconds");
     timeAuthorityStubFactory.assertNoMoreCalls();
 
     try {
@@ -95,9 +95,9 @@ public class TestStopWatchImplementation extends TestCase {
 
     stopWatch.stop();
 
-    assertEquals(1000, stopWatch.getTime());
+    assertEquals(1000000000, stopWatch.getTime());
 
-    timeAuthorityStubFactory.assertSuccess("getTimeInMilliseconds");
+    timeAuthorityStubFactory.assertSuccess("getTimeInNanoseconds");
     timeAuthorityStubFactory.assertNoMoreCalls();
 
     stopWatch.reset();
@@ -111,6 +111,12 @@ public class TestStopWatchImplementation extends TestCase {
     stopWatch.start();
     timeAuthorityStubFactory.nextTime(5000);
     stopWatch.stop();
-    assertEquals(2000, stopWatch.getTime());
+    assertEquals(2000000000, stopWatch.getTime());
+
+    stopWatch.reset();
+    stopWatch.start();
+    timeAuthorityStubFactory.nextTimeInNanoseconds(5000000123L);
+    stopWatch.stop();
+    assertEquals(123, stopWatch.getTime());
   }
 }
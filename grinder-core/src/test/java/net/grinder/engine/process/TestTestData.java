@@ -21,8 +21,16 @@
 
 package net.grinder.engine.process;
 
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.TimeUnit;
+
 import junit.framework.TestCase;
 
+import net.grinder.common.GrinderProperties;
 import net.grinder.common.Test;
 import net.grinder.common.StubTest;
 import net.grinder.engine.common.EngineException;
@@ -38,6 +46,9 @@ import net.grinder.testutility.AssertUtilities;
 import net.grinder.testutility.RandomStubFactory;
 import net.grinder.testutility.Time;
 import net.grinder.util.StandardTimeAuthority;
+import net.grinder.util.TimeAuthorityStubFactory;
+
+import org.slf4j.Logger;
 
 
 /**
@@ -83,12 +94,18 @@ public class TestTestData extends TestCase {
   private final StandardTimeAuthority m_timeAuthority =
     new StandardTimeAuthority();
 
+  @Override protected void setUp() throws Exception {
+    super.setUp();
+    m_threadContextStubFactory.setResult("takeStartCorrection", 0L);
+  }
+
   public void testCreateProxy() throws Exception {
     final Test test1 = new StubTest(1, "test1");
 
     final TestData testData =
       new TestData(null, m_statisticsSetFactory, null,
-                   m_timeAuthority, m_instrumenter, test1);
+                   m_timeAuthority, TimeUnit.MILLISECONDS, m_instrumenter,
+                   test1);
 
     final Object original = new Object();
 
@@ -107,6 +124,7 @@ public class TestTestData extends TestCase {
                    m_statisticsSetFactory,
                    m_testStatisticsHelper,
                    m_timeAuthority,
+                   TimeUnit.MILLISECONDS,
                    m_instrumenter,
                    test1);
 
@@ -131,6 +149,7 @@ public class TestTestData extends TestCase {
     final DispatchContext dispatchContext =
       (DispatchContext) m_threadContextStubFactory.assertSuccess(
       "pushDispatchContext", DispatchContext.class).getParameters()[0];
+    m_threadContextStubFactory.assertSuccess("takeStartCorrection");
     m_threadContextStubFactory.assertNoMoreCalls();
 
     testData.end(true);
@@ -158,6 +177,7 @@ public class TestTestData extends TestCase {
 
     m_threadContextStubFactory.assertSuccess(
       "pushDispatchContext", DispatchContext.class);
+    m_threadContextStubFactory.assertSuccess("takeStartCorrection");
     m_threadContextStubFactory.assertNoMoreCalls();
 
     testData.start();
@@ -234,8 +254,14 @@ public class TestTestData extends TestCase {
     m_testStatisticsHelperStubFactory.assertSuccess(
       "getSuccess", dispatcherStatistics);
 
-    m_testStatisticsHelperStubFactory.assertSuccess(
-      "incrementErrors", statistics);
+    // Errors are recorded against the thread's statistics, which are later
+    // collected into the test statistics.
+    final StatisticsSet threadStatistics =
+      (StatisticsSet)
+      m_testStatisticsHelperStubFactory.assertSuccess(
+        "incrementErrors", StatisticsSet.class).getParameters()[0];
+    assertNotSame(statistics, threadStatistics);
+    assertNotSame(dispatcherStatistics, threadStatistics);
 
     m_testStatisticsHelperStubFactory.assertNoMoreCalls();
   }
@@ -253,6 +279,7 @@ public class TestTestData extends TestCase {
                    m_statisticsSetFactory,
                    testStatisticsHelper,
                    m_timeAuthority,
+                   TimeUnit.MILLISECONDS,
                    m_instrumenter,
                    test1);
 
@@ -271,6 +298,7 @@ public class TestTestData extends TestCase {
       (DispatchContext)
       m_threadContextStubFactory.assertSuccess(
         "pushDispatchContext", DispatchContext.class).getParameters()[0];
+    m_threadContextStubFactory.assertSuccess("takeStartCorrection");
     m_threadContextStubFactory.assertNoMoreCalls();
 
     testData.end(true);
@@ -304,7 +332,7 @@ public class TestTestData extends TestCase {
       public void add(StopWatch watch) { }
 
       public long getTime() throws StopWatchRunningException {
-        return 1000;
+        return 1000000000;
       }
       public boolean isRunning() {
         return false;
@@ -328,6 +356,11 @@ public class TestTestData extends TestCase {
     catch (DispatchStateException e) {
     }
 
+    // The thread's statistics are not added to the test statistics until
+    // they are collected.
+    assertEquals(0, statistics.getCount(s_timedTestsIndex));
+    testData.collectStatistics();
+
     // report() will have updated the statistics with a single,
     // successful, timed test.
     assertEquals(1, statistics.getCount(s_timedTestsIndex));
@@ -367,12 +400,223 @@ public class TestTestData extends TestCase {
     assertTrue(statistics.isComposite());
   }
 
+  public void testStatisticsForLastTestAreNotReused() throws Exception {
+    final TestData testData =
+      new TestData(m_threadContextLocator,
+                   m_statisticsSetFactory,
+                   new TestStatisticsHelperImplementation(
+                     StatisticsServicesImplementation.getInstance()
+                     .getStatisticsIndexMap()),
+                   m_timeAuthority,
+                   TimeUnit.MILLISECONDS,
+                   m_instrumenter,
+                   new StubTest(1, "test1"));
+
+    final ThreadContext threadContext =
+      new ThreadContextImplementation(
+        new GrinderProperties(),
+        StatisticsServicesImplementation.getInstance(),
+        1,
+        mock(Logger.class));
+
+    m_threadContextLocator.set(threadContext);
+
+    testData.start();
+    threadContext.getStatisticsForCurrentTest().setSuccess(false);
+    testData.end(true);
+
+    final StatisticsForTest lastTest =
+      threadContext.getStatisticsForLastTest();
+    assertFalse(lastTest.getSuccess());
+
+    // The script holds on to lastTest across two more dispatches.
+    testData.start();
+    final StatisticsForTest second =
+      threadContext.getStatisticsForCurrentTest();
+    assertNotSame(lastTest, second);
+    testData.end(true);
+
+    testData.start();
+    // The new instance is reused, since the script didn't ask for it.
+    assertSame(second, threadContext.getStatisticsForCurrentTest());
+    testData.end(true);
+
+    assertFalse(lastTest.getSuccess());
+    assertTrue(threadContext.getStatisticsForLastTest().getSuccess());
+
+    try {
+      lastTest.setSuccess(true);
+      fail("Expected InvalidContextException");
+    }
+    catch (InvalidContextException e) {
+    }
+  }
+
+  public void testDispatchWithMicrosecondTimeUnit() throws Exception {
+    final Test test1 = new StubTest(1, "test1");
+
+    final TimeAuthorityStubFactory timeAuthorityStubFactory =
+      new TimeAuthorityStubFactory();
+
+    final DispatchResultReporter resultReporter =
+      mock(DispatchResultReporter.class);
+    m_threadContextStubFactory.setResult("getDispatchResultReporter",
+                                         resultReporter);
+
+    final TestStatisticsHelper testStatisticsHelper =
+      new TestStatisticsHelperImplementation(
+        StatisticsServicesImplementation.getInstance().getStatisticsIndexMap());
+
+    final TestData testData =
+      new TestData(m_threadContextLocator,
+                   m_statisticsSetFactory,
+                   testStatisticsHelper,
+                   timeAuthorityStubFactory.getStub(),
+                   TimeUnit.MICROSECONDS,
+                   m_instrumenter,
+                   test1);
+
+    m_threadContextLocator.set(m_threadContext);
+
+    timeAuthorityStubFactory.nextTimeInNanoseconds(2000123456L);
+    testData.start();
+
+    m_threadContextStubFactory.assertSuccess("getDispatchResultReporter");
+    final DispatchContext dispatchContext =
+      (DispatchContext)
+      m_threadContextStubFactory.assertSuccess(
+        "pushDispatchContext", DispatchContext.class).getParameters()[0];
+
+    timeAuthorityStubFactory.nextTimeInNanoseconds(2000223456L);
+    dispatchContext.getPauseTimer().start();
+    timeAuthorityStubFactory.nextTimeInNanoseconds(2000473456L);
+    dispatchContext.getPauseTimer().stop();
+
+    timeAuthorityStubFactory.nextTimeInNanoseconds(2001123999L);
+    testData.end(true);
+
+    // 1000543 ns, less 250000 ns paused.
+    assertEquals(750, dispatchContext.getElapsedTime());
+
+    dispatchContext.report();
+
+    // Start time is always reported in milliseconds.
+    verify(resultReporter).report(eq(test1),
+                                  eq(2000L),
+                                  isA(StatisticsSet.class));
+
+    testData.collectStatistics();
+    final StatisticsSet statistics = testData.getTestStatistics();
+    assertEquals(1, statistics.getCount(s_timedTestsIndex));
+    assertEquals(750, statistics.getSum(s_timedTestsIndex));
+  }
+
+  public void testDispatchWithStartCorrection() throws Exception {
+    final Test test1 = new StubTest(1, "test1");
+
+    final TimeAuthorityStubFactory timeAuthorityStubFactory =
+      new TimeAuthorityStubFactory();
+
+    m_threadContextStubFactory.setResult("getDispatchResultReporter",
+                                         mock(DispatchResultReporter.class));
+    m_threadContextStubFactory.setResult("takeStartCorrection",
+                                         500000000L);
+    m_threadContextStubFactory.setResult("isLateStart", Boolean.TRUE);
+
+    final StatisticsIndexMap indexMap =
+      StatisticsServicesImplementation.getInstance().getStatisticsIndexMap();
+
+    final TestData testData =
+      new TestData(m_threadContextLocator,
+                   m_statisticsSetFactory,
+                   new TestStatisticsHelperImplementation(indexMap),
+                   timeAuthorityStubFactory.getStub(),
+                   TimeUnit.MILLISECONDS,
+                   m_instrumenter,
+                   test1);
+
+    m_threadContextLocator.set(m_threadContext);
+
+    timeAuthorityStubFactory.nextTime(1500);
+    testData.start();
+
+    m_threadContextStubFactory.assertSuccess("getDispatchResultReporter");
+    final DispatchContext dispatchContext =
+      (DispatchContext)
+      m_threadContextStubFactory.assertSuccess(
+        "pushDispatchContext", DispatchContext.class).getParameters()[0];
+
+    timeAuthorityStubFactory.nextTime(1600);
+    testData.end(true);
+
+    // The run started 500 ms late, which is charged to the first test.
+    assertEquals(600, dispatchContext.getElapsedTime());
+
+    dispatchContext.report();
+
+    testData.collectStatistics();
+    final StatisticsSet statistics = testData.getTestStatistics();
+    assertEquals(600, statistics.getSum(s_timedTestsIndex));
+    assertEquals(1, statistics.getValue(indexMap.getLongIndex("lateStarts")));
+  }
+
+  public void testDispatchOnScheduleAfterScriptWork() throws Exception {
+    final Test test1 = new StubTest(1, "test1");
+
+    final TimeAuthorityStubFactory timeAuthorityStubFactory =
+      new TimeAuthorityStubFactory();
+
+    m_threadContextStubFactory.setResult("getDispatchResultReporter",
+                                         mock(DispatchResultReporter.class));
+    m_threadContextStubFactory.setResult("takeStartCorrection", 0L);
+    m_threadContextStubFactory.setResult("isLateStart", Boolean.FALSE);
+
+    final StatisticsIndexMap indexMap =
+      StatisticsServicesImplementation.getInstance().getStatisticsIndexMap();
+
+    final TestData testData =
+      new TestData(m_threadContextLocator,
+                   m_statisticsSetFactory,
+                   new TestStatisticsHelperImplementation(indexMap),
+                   timeAuthorityStubFactory.getStub(),
+                   TimeUnit.MILLISECONDS,
+                   m_instrumenter,
+                   test1);
+
+    m_threadContextLocator.set(m_threadContext);
+
+    // The run started on time at 1000 ms, then the script spent 500 ms
+    // before dispatching the test.
+    timeAuthorityStubFactory.nextTime(1500);
+    testData.start();
+
+    m_threadContextStubFactory.assertSuccess("getDispatchResultReporter");
+    final DispatchContext dispatchContext =
+      (DispatchContext)
+      m_threadContextStubFactory.assertSuccess(
+        "pushDispatchContext", DispatchContext.class).getParameters()[0];
+
+    timeAuthorityStubFactory.nextTime(1600);
+    testData.end(true);
+
+    // The script's work is not charged to the test.
+    assertEquals(100, dispatchContext.getElapsedTime());
+
+    dispatchContext.report();
+
+    testData.collectStatistics();
+    final StatisticsSet statistics = testData.getTestStatistics();
+    assertEquals(100, statistics.getSum(s_timedTestsIndex));
+    assertEquals(0, statistics.getValue(indexMap.getLongIndex("lateStarts")));
+  }
+
   public void testDispatchForBug1593169() throws Exception {
     final TestData testData =
       new TestData(m_threadContextLocator,
                    m_statisticsSetFactory,
                    m_testStatisticsHelper,
                    m_timeAuthority,
+                   TimeUnit.MILLISECONDS,
                    m_instrumenter,
                    new StubTest(1, "test1"));
 
@@ -21,13 +21,17 @@
 
 package net.grinder.engine.process;
 
+import java.util.concurrent.TimeUnit;
+
 import junit.framework.TestCase;
 
 import net.grinder.common.StubTest;
 import net.grinder.common.Test;
 import net.grinder.scriptengine.Instrumenter;
+import net.grinder.statistics.StatisticsIndexMap.LongIndex;
 import net.grinder.statistics.StatisticsServicesImplementation;
 import net.grinder.statistics.StatisticsSetFactory;
+import net.grinder.statistics.TestStatisticsMap;
 import net.grinder.testutility.RandomStubFactory;
 import net.grinder.util.TimeAuthority;
 import net.grinder.util.TimeAuthorityStubFactory;
@@ -63,7 +67,7 @@ public class TestTestRegistry extends TestCase {
     final TestRegistryImplementation testRegistryImplementation =
       new TestRegistryImplementation(
         threadContextLocator, statisticsSetFactory, m_testStatisticsHelper,
-        m_timeAuthority);
+        m_timeAuthority, TimeUnit.MILLISECONDS);
 
     assertNotNull(testRegistryImplementation.getTestStatisticsMap());
 
@@ -80,7 +84,7 @@ public class TestTestRegistry extends TestCase {
     final TestRegistryImplementation testRegistryImplementation =
       new TestRegistryImplementation(
         threadContextLocator, statisticsSetFactory, m_testStatisticsHelper,
-        m_timeAuthority);
+        m_timeAuthority, TimeUnit.MILLISECONDS);
 
     assertNull(testRegistryImplementation.getNewTests());
 
@@ -117,4 +121,44 @@ public class TestTestRegistry extends TestCase {
     m_testStatisticsHelperStubFactory.assertNoMoreCalls();
     m_timeAuthorityStubFactory.assertNoMoreCalls();
   }
+
+  public void testResetTestStatistics() throws Exception {
+    final StatisticsSetFactory statisticsSetFactory =
+      StatisticsServicesImplementation.getInstance().getStatisticsSetFactory();
+
+    final TestRegistryImplementation testRegistryImplementation =
+      new TestRegistryImplementation(
+        new StubThreadContextLocator(), statisticsSetFactory,
+        m_testStatisticsHelper, m_timeAuthority, TimeUnit.MILLISECONDS);
+
+    final RandomStubFactory<Instrumenter> instrumenterStubFactory =
+      RandomStubFactory.create(Instrumenter.class);
+    testRegistryImplementation.setInstrumenter(
+      instrumenterStubFactory.getStub());
+
+    assertEquals(0, testRegistryImplementation.resetTestStatistics().size());
+
+    final Test test1 = new StubTest(1, "Test 1");
+    final Test test2 = new StubTest(2, "Test 2");
+
+    final TestData testData1 =
+      (TestData) testRegistryImplementation.register(test1);
+    testRegistryImplementation.register(test2);
+
+    final LongIndex errorsIndex =
+      StatisticsServicesImplementation.getInstance().getStatisticsIndexMap()
+      .getLongIndex("errors");
+
+    testData1.getTestStatistics().addValue(errorsIndex, 3);
+
+    final TestStatisticsMap sample =
+      testRegistryImplementation.resetTestStatistics();
+
+    assertEquals(1, sample.size());
+    assertTrue(testData1.getTestStatistics().isZero());
+    assertEquals(0, testRegistryImplementation.resetTestStatistics().size());
+
+    m_testStatisticsHelperStubFactory.assertNoMoreCalls();
+    m_timeAuthorityStubFactory.assertNoMoreCalls();
+  }
 }
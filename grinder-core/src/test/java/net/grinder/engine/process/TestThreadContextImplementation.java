@@ -37,6 +37,11 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.StringWriter;
+
 import net.grinder.common.GrinderProperties;
 import net.grinder.common.SSLContextFactory;
 import net.grinder.common.StubTest;
@@ -92,6 +97,8 @@ public class TestThreadContextImplementation {
 
   @Test public void testDispatchResultReporter() throws Exception {
 
+    when(m_dataLogger.isInfoEnabled()).thenReturn(true);
+
     final ThreadContext threadContext =
       new ThreadContextImplementation(m_properties,
                                       m_statisticsServices,
@@ -113,6 +120,52 @@ public class TestThreadContextImplementation {
                               isA(DataLogArguments.class));
   }
 
+  @Test public void testBinaryDispatchResultReporter() throws Exception {
+
+    final File file = File.createTempFile("data", ".bin");
+    file.deleteOnExit();
+
+    final BinaryDataLogWriter binaryDataLogWriter =
+      new BinaryDataLogWriter(
+        file,
+        m_statisticsServices.getDetailStatisticsView().getExpressionViews(),
+        m_dataLogger);
+
+    final ThreadContext threadContext =
+      new ThreadContextImplementation(m_properties,
+                                      m_statisticsServices,
+                                      1,
+                                      m_dataLogger,
+                                      binaryDataLogWriter);
+
+    final DispatchResultReporter dispatchResultReporter =
+      threadContext.getDispatchResultReporter();
+
+    final net.grinder.common.Test test = new StubTest(22, "test");
+
+    final StatisticsSet statistics =
+      m_statisticsServices.getStatisticsSetFactory().create();
+
+    dispatchResultReporter.report(test, 123456, statistics);
+
+    binaryDataLogWriter.close();
+
+    final StringWriter text = new StringWriter();
+    final FileInputStream in = new FileInputStream(file);
+
+    try {
+      assertEquals(1, BinaryDataLogConverter.convert(in, text));
+    }
+    finally {
+      in.close();
+    }
+
+    assertTrue(text.toString().contains("1, -1, 22, 123456"));
+
+    verifyNoMoreInteractions(m_dataLogger);
+    assertTrue(file.delete());
+  }
+
   @Test public void testNullDispatchResultReporter() throws Exception {
 
     when(m_properties.getProperty("grinder.logData")).thenReturn("false");
@@ -25,6 +25,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
 import net.grinder.common.StubTest;
 import net.grinder.statistics.StatisticsIndexMap;
 import net.grinder.statistics.StatisticsServices;
@@ -63,6 +65,8 @@ public class TestThreadDataLogger {
   @Before public void setUp() {
     MockitoAnnotations.initMocks(this);
 
+    when(m_dataLogger.isInfoEnabled()).thenReturn(true);
+
     final StatisticsIndexMap indexMap =
       m_statisticsServices.getStatisticsIndexMap();
 
@@ -102,6 +106,10 @@ public class TestThreadDataLogger {
     verify(m_dataLogger).info(eq("33, 10, 1, 125, 99, 0"),
                               m_argumentCaptor.capture());
 
+    // Arguments are reused.
+    assertSame(arguments, m_argumentCaptor.getValue());
+    assertEquals(125L, arguments.getTimeSinceExecutionStart());
+
     ThreadDataLogger.report(11, m_test3, 300L, statistics);
 
     verify(m_dataLogger).info(eq("33, 11, 3, 300, 99, 0"),
@@ -139,4 +147,22 @@ public class TestThreadDataLogger {
     verify(m_dataLogger).info(eq("33, 11, 3, 530, 5, 0, 1.5"),
                               m_argumentCaptor.capture());
   }
+
+  @Test public void testReportDisabled() throws Exception {
+    when(m_dataLogger.isInfoEnabled()).thenReturn(false);
+
+    final ThreadDataLogger threadDataLogger =
+      new ThreadDataLogger(
+          m_dataLogger,
+          m_statisticsServices.getDetailStatisticsView().getExpressionViews(),
+          33);
+
+    final StatisticsSet statistics =
+      m_statisticsServices.getStatisticsSetFactory().create();
+
+    threadDataLogger.report(10, m_test1, 123L, statistics);
+
+    verify(m_dataLogger).isInfoEnabled();
+    verifyNoMoreInteractions(m_dataLogger);
+  }
 }
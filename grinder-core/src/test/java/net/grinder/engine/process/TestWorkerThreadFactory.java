@@ -0,0 +1,103 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import net.grinder.engine.common.EngineException;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link WorkerThreadFactory}.
+ *
+ * @author Philip Aston
+ */
+public class TestWorkerThreadFactory {
+
+  private static boolean virtualThreadsSupported() {
+    try {
+      Thread.class.getMethod("ofVirtual");
+      return true;
+    }
+    catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  private static void assertRuns(Thread t) throws Exception {
+    assertEquals(Thread.State.NEW, t.getState());
+    t.start();
+    t.join();
+    assertEquals(Thread.State.TERMINATED, t.getState());
+  }
+
+  @Test public void testPlatformThreads() throws Exception {
+    final WorkerThreadFactory factory = new WorkerThreadFactory(false);
+    assertFalse(factory.isVirtual());
+
+    final boolean[] ran = { false };
+
+    final Thread t = factory.create(new Runnable() {
+        public void run() { ran[0] = true; }
+      },
+      "thread 9");
+
+    assertEquals("thread 9", t.getName());
+    assertTrue(t.isDaemon());
+
+    assertRuns(t);
+    assertTrue(ran[0]);
+  }
+
+  @Test public void testVirtualThreads() throws Exception {
+    if (!virtualThreadsSupported()) {
+      try {
+        new WorkerThreadFactory(true);
+        fail("Expected EngineException");
+      }
+      catch (EngineException e) {
+      }
+
+      return;
+    }
+
+    final WorkerThreadFactory factory = new WorkerThreadFactory(true);
+    assertTrue(factory.isVirtual());
+
+    final boolean[] ran = { false };
+
+    final Thread t = factory.create(new Runnable() {
+        public void run() { ran[0] = true; }
+      },
+      "thread 10");
+
+    assertEquals("thread 10", t.getName());
+    assertTrue(t.isDaemon());
+
+    assertRuns(t);
+    assertTrue(ran[0]);
+  }
+}
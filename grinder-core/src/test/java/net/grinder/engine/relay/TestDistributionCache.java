@@ -0,0 +1,453 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.relay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.grinder.common.processidentity.ProcessReport;
+import net.grinder.communication.CommunicationException;
+import net.grinder.communication.Message;
+import net.grinder.communication.Sender;
+import net.grinder.messages.agent.CacheHighWaterMark;
+import net.grinder.messages.agent.ClearCacheMessage;
+import net.grinder.messages.agent.DistributeFileMessage;
+import net.grinder.messages.agent.DistributionCacheCheckpointMessage;
+import net.grinder.messages.agent.FetchFileMessage;
+import net.grinder.messages.agent.StubCacheHighWaterMark;
+import net.grinder.messages.console.AgentProcessReportMessage;
+import net.grinder.testutility.AbstractJUnit4FileTestCase;
+import net.grinder.util.Directory;
+import net.grinder.util.FileContents;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+
+/**
+ * Unit tests for {@link DistributionCache}.
+ *
+ * @author Philip Aston
+ */
+public class TestDistributionCache extends AbstractJUnit4FileTestCase {
+
+  private File m_cacheDirectory;
+  private DistributionCache m_cache;
+
+  @Before public void setUp() throws Exception {
+    m_cacheDirectory = new File(getDirectory(), "cache");
+    m_cache =
+      new DistributionCache(new Directory(m_cacheDirectory),
+                            mock(Logger.class));
+  }
+
+  private DistributeFileMessage createFile(String name, String contents)
+    throws Exception {
+
+    final FileWriter writer = new FileWriter(new File(getDirectory(), name));
+    writer.write(contents);
+    writer.close();
+
+    return new DistributeFileMessage(
+      new FileContents(getDirectory(), new File(name)));
+  }
+
+  private static AgentProcessReportMessage createReport(
+    ProcessReport.State state, CacheHighWaterMark highWaterMark) {
+    return new AgentProcessReportMessage(state, highWaterMark);
+  }
+
+  private List<Message> update(ProcessReport.State state,
+                               CacheHighWaterMark highWaterMark)
+    throws Exception {
+
+    final CollectingSender sender = new CollectingSender();
+
+    final CacheHighWaterMark checkpoint =
+      m_cache.update(createReport(state, highWaterMark), sender);
+
+    if (checkpoint == null) {
+      assertEquals(0, sender.getMessages().size());
+    }
+    else {
+      final List<Message> messages = sender.getMessages();
+      assertSame(checkpoint,
+                 ((DistributionCacheCheckpointMessage)
+                  messages.get(messages.size() - 1)).getCacheHighWaterMark());
+    }
+
+    return sender.getMessages();
+  }
+
+  private static void assertSameChunk(DistributeFileMessage expected,
+                                      Message actual) {
+    final FileContents expectedContents = expected.getFileContents();
+    final FileContents actualContents =
+      ((DistributeFileMessage)actual).getFileContents();
+
+    assertEquals(expectedContents.getFilename(),
+                 actualContents.getFilename());
+    assertEquals(expectedContents.getOffset(), actualContents.getOffset());
+    assertEquals(expectedContents.getFileLength(),
+                 actualContents.getFileLength());
+    assertEquals(expectedContents.getDigest(), actualContents.getDigest());
+    assertEquals(expectedContents.getBaseDigest(),
+                 actualContents.getBaseDigest());
+    assertEquals(expectedContents.getChunkDigest(),
+                 actualContents.getChunkDigest());
+  }
+
+  private int numberOfCachedChunks() {
+    return m_cacheDirectory.list().length;
+  }
+
+  @Test public void testIncompleteCache() throws Exception {
+    final CacheHighWaterMark highWaterMark =
+      new StubCacheHighWaterMark("cache", 10);
+
+    m_cache.observe(createFile("a", "a"));
+    m_cache.observe(new DistributionCacheCheckpointMessage(highWaterMark));
+
+    assertEquals(0,
+      update(ProcessReport.State.STARTED,
+             new StubCacheHighWaterMark("cache", 5)).size());
+    assertEquals(0, numberOfCachedChunks());
+  }
+
+  @Test public void testExistingContentDeleted() throws Exception {
+    m_cacheDirectory.mkdirs();
+    new File(m_cacheDirectory, "0.chunk").createNewFile();
+
+    new DistributionCache(new Directory(m_cacheDirectory),
+                          mock(Logger.class));
+
+    assertEquals(0, numberOfCachedChunks());
+  }
+
+  @Test public void testUpdate() throws Exception {
+    final CacheHighWaterMark highWaterMark =
+      new StubCacheHighWaterMark("cache", 10);
+
+    final DistributeFileMessage a1 = createFile("a", "one");
+    final DistributeFileMessage b = createFile("b", "two");
+    final DistributeFileMessage a2 = createFile("a", "three");
+
+    m_cache.observe(createFile("c", "discarded"));
+    m_cache.observe(new ClearCacheMessage());
+
+    // No checkpoint yet.
+    assertEquals(0,
+      update(ProcessReport.State.STARTED,
+             new StubCacheHighWaterMark("cache", 5)).size());
+
+    m_cache.observe(a1);
+    m_cache.observe(b);
+    m_cache.observe(a2);
+    m_cache.observe(new DistributionCacheCheckpointMessage(highWaterMark));
+
+    // The chunks are held on disk, and the replaced version is deleted.
+    assertEquals(2, numberOfCachedChunks());
+
+    final List<Message> messages =
+      update(ProcessReport.State.STARTED,
+             new StubCacheHighWaterMark("cache", 5));
+
+    assertEquals(4, messages.size());
+    assertTrue(messages.get(0) instanceof ClearCacheMessage);
+    assertSameChunk(b, messages.get(1));
+    assertSameChunk(a2, messages.get(2));
+
+    assertEquals(4,
+      update(ProcessReport.State.STARTED,
+             new StubCacheHighWaterMark("another cache", 20)).size());
+
+    // Up to date.
+    assertEquals(0,
+      update(ProcessReport.State.STARTED,
+             new StubCacheHighWaterMark("cache", 10)).size());
+
+    // Agents that have not just connected are left alone.
+    assertEquals(0,
+      update(ProcessReport.State.RUNNING,
+             new StubCacheHighWaterMark("cache", 5)).size());
+
+    // A new clear invalidates the checkpoint.
+    m_cache.observe(new ClearCacheMessage());
+
+    assertEquals(0,
+      update(ProcessReport.State.STARTED,
+             new StubCacheHighWaterMark("cache", 5)).size());
+    assertEquals(0, numberOfCachedChunks());
+  }
+
+  @Test public void testChunks() throws Exception {
+    final CacheHighWaterMark highWaterMark =
+      new StubCacheHighWaterMark("cache", 10);
+
+    createFile("a", "abcde");
+
+    final DistributeFileMessage chunk1 =
+      new DistributeFileMessage(
+        new FileContents(getDirectory(), new File("a"), 0, 3));
+    final DistributeFileMessage chunk2 =
+      new DistributeFileMessage(
+        new FileContents(getDirectory(), new File("a"), 3, 3));
+
+    m_cache.observe(new ClearCacheMessage());
+    m_cache.observe(chunk1);
+    m_cache.observe(chunk2);
+    m_cache.observe(new DistributionCacheCheckpointMessage(highWaterMark));
+
+    final List<Message> messages =
+      update(ProcessReport.State.STARTED,
+             new StubCacheHighWaterMark("cache", 5));
+
+    assertEquals(4, messages.size());
+    assertSameChunk(chunk1, messages.get(1));
+    assertSameChunk(chunk2, messages.get(2));
+
+    // A chunk resent to an agent that is resuming is ignored.
+    m_cache.observe(chunk2);
+
+    assertEquals(4,
+      update(ProcessReport.State.STARTED,
+             new StubCacheHighWaterMark("cache", 5)).size());
+    assertEquals(2, numberOfCachedChunks());
+
+    // A new first chunk replaces the old version.
+    m_cache.observe(chunk1);
+
+    assertEquals(3,
+      update(ProcessReport.State.STARTED,
+             new StubCacheHighWaterMark("cache", 5)).size());
+    assertEquals(1, numberOfCachedChunks());
+  }
+
+  @Test public void testChunkWithNoStart() throws Exception {
+    createFile("a", "abcde");
+
+    final DistributeFileMessage chunk1 =
+      new DistributeFileMessage(
+        new FileContents(getDirectory(), new File("a"), 0, 3, "v1", null));
+    final DistributeFileMessage chunk2 =
+      new DistributeFileMessage(
+        new FileContents(getDirectory(), new File("a"), 3, 3, "v1", null));
+    final DistributeFileMessage otherVersion =
+      new DistributeFileMessage(
+        new FileContents(getDirectory(), new File("a"), 3, 3, "v2", null));
+
+    m_cache.observe(new ClearCacheMessage());
+    m_cache.observe(chunk1);
+
+    // The rest of a version of the file we don't have. We can no longer
+    // bring agents up to date.
+    m_cache.observe(otherVersion);
+    m_cache.observe(
+      new DistributionCacheCheckpointMessage(
+        new StubCacheHighWaterMark("cache", 10)));
+
+    assertEquals(0,
+      update(ProcessReport.State.STARTED,
+             new StubCacheHighWaterMark("cache", 5)).size());
+    assertEquals(0, numberOfCachedChunks());
+
+    m_cache.observe(new ClearCacheMessage());
+    m_cache.observe(chunk2);
+    m_cache.observe(
+      new DistributionCacheCheckpointMessage(
+        new StubCacheHighWaterMark("cache", 10)));
+
+    assertEquals(0,
+      update(ProcessReport.State.STARTED,
+             new StubCacheHighWaterMark("cache", 5)).size());
+  }
+
+  @Test public void testPatches() throws Exception {
+    final CacheHighWaterMark highWaterMark =
+      new StubCacheHighWaterMark("cache", 10);
+
+    createFile("a", "abcde");
+
+    final DistributeFileMessage version1 =
+      new DistributeFileMessage(
+        new FileContents(getDirectory(), new File("a"), 0, 10, "v1", null));
+    final DistributeFileMessage patch =
+      new DistributeFileMessage(
+        new FileContents(getDirectory(), new File("a"), 3, 10, "v2", "v1"));
+    final DistributeFileMessage version2 =
+      new DistributeFileMessage(
+        new FileContents(getDirectory(), new File("a"), 0, 10, "v2", null));
+
+    m_cache.observe(new ClearCacheMessage());
+
+    // A patch to a file we don't hold is ignored.
+    m_cache.observe(patch);
+
+    m_cache.observe(version1);
+    m_cache.observe(patch);
+    m_cache.observe(new DistributionCacheCheckpointMessage(highWaterMark));
+
+    final List<Message> messages =
+      update(ProcessReport.State.STARTED,
+             new StubCacheHighWaterMark("cache", 5));
+
+    assertEquals(4, messages.size());
+    assertSameChunk(version1, messages.get(1));
+    assertSameChunk(patch, messages.get(2));
+
+    // A patch to a version we've replaced is ignored.
+    m_cache.observe(version2);
+    m_cache.observe(patch);
+
+    final List<Message> messages2 =
+      update(ProcessReport.State.STARTED,
+             new StubCacheHighWaterMark("cache", 5));
+
+    assertEquals(3, messages2.size());
+    assertSameChunk(version2, messages2.get(1));
+  }
+
+  @Test public void testFetchedFiles() throws Exception {
+    final CacheHighWaterMark highWaterMark =
+      new StubCacheHighWaterMark("cache", 10);
+
+    final DistributeFileMessage a = createFile("a", "one");
+
+    m_cache.observe(new ClearCacheMessage());
+    m_cache.observe(a);
+
+    // Agents fetch chunks from each other, so the cache doesn't see them.
+    m_cache.observe(
+      new FetchFileMessage(a.getFileContents(),
+                           Collections.singletonList("peer:1")));
+    m_cache.observe(new DistributionCacheCheckpointMessage(highWaterMark));
+
+    assertEquals(0,
+      update(ProcessReport.State.STARTED,
+             new StubCacheHighWaterMark("cache", 5)).size());
+    assertEquals(0, numberOfCachedChunks());
+
+    // The next clear makes the cache complete again.
+    m_cache.observe(new ClearCacheMessage());
+    m_cache.observe(a);
+    m_cache.observe(new DistributionCacheCheckpointMessage(highWaterMark));
+
+    assertEquals(3,
+      update(ProcessReport.State.STARTED,
+             new StubCacheHighWaterMark("cache", 5)).size());
+  }
+
+  @Test public void testReplayWhileFilesChange() throws Exception {
+    final CacheHighWaterMark highWaterMark =
+      new StubCacheHighWaterMark("cache", 10);
+
+    final DistributeFileMessage a1 = createFile("a", "one");
+    final DistributeFileMessage b = createFile("b", "two");
+    final DistributeFileMessage a2 = createFile("a", "three");
+
+    m_cache.observe(new ClearCacheMessage());
+    m_cache.observe(a1);
+    m_cache.observe(b);
+    m_cache.observe(new DistributionCacheCheckpointMessage(highWaterMark));
+
+    final CollectingSender sender = new CollectingSender() {
+        @Override public void send(Message message)
+          throws CommunicationException {
+          super.send(message);
+
+          // The console replaces a file while the replay is going.
+          if (getMessages().size() == 1) {
+            m_cache.observe(a2);
+          }
+        }
+      };
+
+    assertSame(highWaterMark,
+               m_cache.update(
+                 createReport(ProcessReport.State.STARTED,
+                              new StubCacheHighWaterMark("cache", 5)),
+                 sender));
+
+    // The replay sees the files as they were when it started.
+    final List<Message> messages = sender.getMessages();
+    assertEquals(4, messages.size());
+    assertSameChunk(a1, messages.get(1));
+    assertSameChunk(b, messages.get(2));
+
+    // The replaced chunk is deleted once the replay has finished.
+    assertEquals(2, numberOfCachedChunks());
+  }
+
+  @Test public void testUnreadableChunk() throws Exception {
+    final CacheHighWaterMark highWaterMark =
+      new StubCacheHighWaterMark("cache", 10);
+
+    m_cache.observe(new ClearCacheMessage());
+    m_cache.observe(createFile("a", "one"));
+    m_cache.observe(new DistributionCacheCheckpointMessage(highWaterMark));
+
+    for (File chunk : m_cacheDirectory.listFiles()) {
+      assertTrue(chunk.delete());
+    }
+
+    final CollectingSender sender = new CollectingSender();
+
+    try {
+      m_cache.update(
+        createReport(ProcessReport.State.STARTED,
+                     new StubCacheHighWaterMark("cache", 5)),
+        sender);
+      fail("Expected CommunicationException");
+    }
+    catch (CommunicationException e) {
+    }
+
+    // The agent is not sent the checkpoint.
+    assertEquals(1, sender.getMessages().size());
+    assertTrue(sender.getMessages().get(0) instanceof ClearCacheMessage);
+  }
+
+  private static class CollectingSender implements Sender {
+    private final List<Message> m_messages = new ArrayList<Message>();
+
+    public void send(Message message) throws CommunicationException {
+      m_messages.add(message);
+    }
+
+    public void shutdown() {
+    }
+
+    public List<Message> getMessages() {
+      return m_messages;
+    }
+  }
+}
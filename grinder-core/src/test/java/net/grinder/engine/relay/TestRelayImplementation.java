@@ -0,0 +1,364 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.relay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.grinder.common.GrinderProperties;
+import net.grinder.common.StubTest;
+import net.grinder.common.Test;
+import net.grinder.common.processidentity.ProcessReport;
+import net.grinder.communication.Acceptor;
+import net.grinder.communication.Address;
+import net.grinder.communication.ClientReceiver;
+import net.grinder.communication.ClientSender;
+import net.grinder.communication.ConnectionType;
+import net.grinder.communication.FanOutServerSender;
+import net.grinder.communication.Message;
+import net.grinder.communication.RelayedMessage;
+import net.grinder.communication.ServerReceiver;
+import net.grinder.communication.SimpleMessage;
+import net.grinder.engine.agent.StubAgentIdentity;
+import net.grinder.engine.common.ConnectorFactory;
+import net.grinder.messages.agent.CacheHighWaterMark;
+import net.grinder.messages.agent.ClearCacheMessage;
+import net.grinder.messages.agent.DistributeFileMessage;
+import net.grinder.messages.agent.DistributionCacheCheckpointMessage;
+import net.grinder.messages.agent.StubCacheHighWaterMark;
+import net.grinder.messages.console.AgentAddress;
+import net.grinder.messages.console.AgentProcessReportMessage;
+import net.grinder.messages.console.ConsoleMessageCodecs;
+import net.grinder.messages.console.ReportStatisticsMessage;
+import net.grinder.messages.console.WorkerAddress;
+import net.grinder.statistics.StatisticsIndexMap;
+import net.grinder.statistics.StatisticsServices;
+import net.grinder.statistics.StatisticsServicesImplementation;
+import net.grinder.statistics.StatisticsSet;
+import net.grinder.statistics.TestStatisticsMap;
+import net.grinder.testutility.AbstractJUnit4FileTestCase;
+import net.grinder.util.FileContents;
+import net.grinder.util.StandardTimeAuthority;
+
+import org.junit.After;
+import org.junit.Before;
+import org.slf4j.Logger;
+
+
+/**
+ * Unit tests for {@link RelayImplementation}.
+ *
+ * <p>Runs a stand-in console, two relays, and several agents on the local
+ * host. The second relay connects to the first.</p>
+ *
+ * @author Philip Aston
+ */
+public class TestRelayImplementation extends AbstractJUnit4FileTestCase {
+
+  private final StatisticsServices m_statisticsServices =
+    StatisticsServicesImplementation.getInstance();
+
+  private final StatisticsIndexMap.LongIndex m_index =
+    m_statisticsServices.getStatisticsIndexMap().getLongIndex("userLong0");
+
+  private final Test m_test = new StubTest(1, "");
+
+  private final List<ClientReceiver> m_agents =
+    new ArrayList<ClientReceiver>();
+
+  private Acceptor m_acceptor;
+  private ServerReceiver m_consoleReceiver;
+  private FanOutServerSender m_consoleSender;
+  private RelayImplementation m_relay1;
+  private RelayImplementation m_relay2;
+
+  @Before public void setUp() throws Exception {
+    m_acceptor = new Acceptor("localhost",
+                              0,
+                              1,
+                              new StandardTimeAuthority(),
+                              ConsoleMessageCodecs.createRegistry(
+                                m_statisticsServices
+                                .getStatisticsSetFactory()));
+
+    m_consoleReceiver = new ServerReceiver();
+    m_consoleReceiver.receiveFrom(m_acceptor,
+                                  new ConnectionType[] {
+                                    ConnectionType.AGENT,
+                                    ConnectionType.WORKER,
+                                  },
+                                  2,
+                                  10,
+                                  30000);
+
+    m_consoleSender =
+      new FanOutServerSender(m_acceptor, ConnectionType.AGENT, 2);
+
+    m_relay1 =
+      new RelayImplementation(createProperties(m_acceptor.getPort(), "1"),
+                              mock(Logger.class));
+
+    m_relay2 =
+      new RelayImplementation(createProperties(m_relay1.getPort(), "2"),
+                              mock(Logger.class));
+  }
+
+  @After public void shutdown() throws Exception {
+    for (ClientReceiver agent : m_agents) {
+      agent.shutdown();
+    }
+
+    m_relay2.shutdown();
+    m_relay1.shutdown();
+
+    m_consoleSender.shutdown();
+    m_consoleReceiver.shutdown();
+    m_acceptor.shutdown();
+  }
+
+  private GrinderProperties createProperties(int consolePort,
+                                             String cacheName)
+    throws IOException {
+    final GrinderProperties properties = new GrinderProperties();
+    properties.setProperty(GrinderProperties.CONSOLE_HOST, "localhost");
+    properties.setInt(GrinderProperties.CONSOLE_PORT, consolePort);
+    properties.setProperty("grinder.relay.host", "localhost");
+    properties.setInt("grinder.relay.port", 0);
+    properties.setInt("grinder.reportToConsole.interval", 20);
+    properties.setFile("grinder.relay.cacheDirectory",
+                       new File(getDirectory(), "cache-" + cacheName));
+    return properties;
+  }
+
+  private ClientReceiver connect(RelayImplementation relay,
+                                 ConnectionType type,
+                                 Address address)
+    throws Exception {
+
+    final ClientReceiver receiver =
+      ClientReceiver.connect(
+        new ConnectorFactory(type)
+        .create(createProperties(relay.getPort(), "agent")),
+        address);
+
+    m_agents.add(receiver);
+
+    return receiver;
+  }
+
+  private AgentAddress createAgentAddress(String name) {
+    return new AgentAddress(new StubAgentIdentity(name));
+  }
+
+  private static AgentProcessReportMessage createAgentReport(
+    CacheHighWaterMark highWaterMark) {
+    return new AgentProcessReportMessage(ProcessReport.State.STARTED,
+                                         highWaterMark);
+  }
+
+  private ReportStatisticsMessage createStatisticsReport(long value) {
+    final TestStatisticsMap map =
+      new TestStatisticsMap(m_statisticsServices.getStatisticsSetFactory());
+
+    final StatisticsSet statistics =
+      m_statisticsServices.getStatisticsSetFactory().create();
+    statistics.addValue(m_index, value);
+    map.put(m_test, statistics);
+
+    return new ReportStatisticsMessage(map);
+  }
+
+  /**
+   * Read agent process reports from the console receiver.
+   */
+  private Map<AgentAddress, AgentProcessReportMessage> receiveAgentReports(
+    int n) throws Exception {
+
+    final Map<AgentAddress, AgentProcessReportMessage> result =
+      new HashMap<AgentAddress, AgentProcessReportMessage>();
+
+    while (result.size() < n) {
+      final RelayedMessage relayed =
+        (RelayedMessage)m_consoleReceiver.waitForMessage();
+
+      final AgentProcessReportMessage report =
+        (AgentProcessReportMessage)relayed.getMessage();
+
+      result.put(report.getProcessAddress(), report);
+    }
+
+    return result;
+  }
+
+  @org.junit.Test public void testRouting() throws Exception {
+    final AgentAddress address1 = createAgentAddress("agent1");
+    final AgentAddress address2 = createAgentAddress("agent2");
+
+    final ClientReceiver agent1 =
+      connect(m_relay1, ConnectionType.AGENT, address1);
+    final ClientReceiver agent2 =
+      connect(m_relay2, ConnectionType.AGENT, address2);
+
+    final CacheHighWaterMark highWaterMark =
+      new StubCacheHighWaterMark("cache", 1);
+
+    ClientSender.connect(agent1).send(createAgentReport(highWaterMark));
+    ClientSender.connect(agent2).send(createAgentReport(highWaterMark));
+
+    // The console sees the reports as coming from the agents.
+    final Map<AgentAddress, AgentProcessReportMessage> reports =
+      receiveAgentReports(2);
+    assertTrue(reports.containsKey(address1));
+    assertTrue(reports.containsKey(address2));
+
+    final SimpleMessage message1 = new SimpleMessage();
+    final SimpleMessage message2 = new SimpleMessage();
+
+    m_consoleSender.send(address2, message1);
+    m_consoleSender.send(message2);
+
+    assertEquals(message1, agent2.waitForMessage());
+    assertEquals(message2, agent2.waitForMessage());
+
+    // Agent 1 only receives the message for everyone.
+    assertEquals(message2, agent1.waitForMessage());
+  }
+
+  @org.junit.Test public void testStatisticsAggregation() throws Exception {
+    final AgentAddress agentAddress = createAgentAddress("agent");
+
+    final ClientSender agent =
+      ClientSender.connect(connect(m_relay1, ConnectionType.AGENT,
+                                   agentAddress));
+
+    final ClientSender worker =
+      ClientSender.connect(
+        connect(m_relay2,
+                ConnectionType.WORKER,
+                new WorkerAddress(
+                  new StubAgentIdentity("agent2").createWorkerIdentity())));
+
+    agent.send(createStatisticsReport(1));
+    worker.send(createStatisticsReport(2));
+    worker.send(createStatisticsReport(3));
+
+    long total = 0;
+
+    while (total < 6) {
+      final Message message = m_consoleReceiver.waitForMessage();
+
+      // Reports reach the console merged, rather than relayed.
+      final TestStatisticsMap statistics =
+        ((ReportStatisticsMessage)message).getStatisticsDelta();
+
+      total += statistics.nonCompositeStatisticsTotals().getValue(m_index);
+    }
+
+    assertEquals(6, total);
+  }
+
+  @org.junit.Test public void testDistributionCache() throws Exception {
+    final AgentAddress address1 = createAgentAddress("agent1");
+    final AgentAddress address2 = createAgentAddress("agent2");
+
+    final ClientReceiver agent1 =
+      connect(m_relay2, ConnectionType.AGENT, address1);
+
+    final CacheHighWaterMark oldHighWaterMark =
+      new StubCacheHighWaterMark("cache", 1);
+
+    ClientSender.connect(agent1).send(createAgentReport(oldHighWaterMark));
+    receiveAgentReports(1);
+
+    final File file = new File(getDirectory(), "file");
+    final FileWriter writer = new FileWriter(file);
+    writer.write("contents");
+    writer.close();
+
+    final CacheHighWaterMark highWaterMark =
+      new StubCacheHighWaterMark("cache", 2);
+
+    m_consoleSender.send(address1, new ClearCacheMessage());
+    m_consoleSender.send(
+      address1,
+      new DistributeFileMessage(
+        new FileContents(getDirectory(), new File("file"))));
+    m_consoleSender.send(
+      address1, new DistributionCacheCheckpointMessage(highWaterMark));
+
+    assertTrue(agent1.waitForMessage() instanceof ClearCacheMessage);
+    assertTrue(agent1.waitForMessage() instanceof DistributeFileMessage);
+    assertTrue(
+      agent1.waitForMessage() instanceof DistributionCacheCheckpointMessage);
+
+    // A new agent is updated by the relay it connects to, and the console
+    // is told its cache will be up to date.
+    final ClientReceiver agent2 =
+      connect(m_relay2, ConnectionType.AGENT, address2);
+
+    ClientSender.connect(agent2).send(createAgentReport(oldHighWaterMark));
+
+    assertTrue(agent2.waitForMessage() instanceof ClearCacheMessage);
+
+    final DistributeFileMessage distributeFileMessage =
+      (DistributeFileMessage)agent2.waitForMessage();
+    assertEquals(new File("file"),
+                 distributeFileMessage.getFileContents().getFilename());
+
+    assertEquals(highWaterMark,
+                 ((DistributionCacheCheckpointMessage)agent2.waitForMessage())
+                 .getCacheHighWaterMark());
+
+    final AgentProcessReportMessage report =
+      receiveAgentReports(1).get(address2);
+    assertEquals(highWaterMark, report.getCacheHighWaterMark());
+
+    // The first relay didn't also update the agent.
+    final SimpleMessage message = new SimpleMessage();
+    m_consoleSender.send(message);
+    assertEquals(message, agent2.waitForMessage());
+  }
+
+  @org.junit.Test public void testConsoleCloses() throws Exception {
+    final ClientReceiver agent =
+      connect(m_relay2, ConnectionType.AGENT, createAgentAddress("agent"));
+
+    m_consoleSender.shutdown();
+    m_relay1.run();
+    m_relay1.shutdown();
+    m_relay2.run();
+    m_relay2.shutdown();
+
+    // The agent sees the connection close.
+    assertNull(agent.waitForMessage());
+  }
+}
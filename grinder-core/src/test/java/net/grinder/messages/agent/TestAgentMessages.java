@@ -22,6 +22,8 @@
 package net.grinder.messages.agent;
 
 import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
 
 import net.grinder.common.GrinderProperties;
 import net.grinder.testutility.AbstractFileTestCase;
@@ -70,6 +72,28 @@ public class TestAgentMessages extends AbstractFileTestCase {
                  received.getFileContents().toString());
   }
 
+  @Test public void testFetchFileMessage() throws Exception {
+    final File file = new File("test");
+    final FileWriter writer = new FileWriter(new File(getDirectory(), "test"));
+    writer.write("Hello world");
+    writer.close();
+
+    final FileContents fileContents =
+      new FileContents(getDirectory(), file, 6, 5, "digest", null);
+
+    final FetchFileMessage received =
+      Serializer.serialize(
+        new FetchFileMessage(fileContents, Arrays.asList("a:1", "b:2")));
+
+    assertEquals(file, received.getFilename());
+    assertEquals(6, received.getOffset());
+    assertEquals(5, received.getLength());
+    assertEquals(11, received.getFileLength());
+    assertEquals("digest", received.getDigest());
+    assertEquals(fileContents.getChunkDigest(), received.getChunkDigest());
+    assertEquals(Arrays.asList("a:1", "b:2"), received.getPeers());
+  }
+
   @Test public void testClearCacheMessage() throws Exception {
     Serializer.serialize(new ClearCacheMessage());
   }
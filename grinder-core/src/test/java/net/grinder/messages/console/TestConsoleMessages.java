@@ -22,26 +22,42 @@
 package net.grinder.messages.console;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
 
+import net.grinder.common.StubTest;
 import net.grinder.common.processidentity.WorkerIdentity;
 import net.grinder.common.processidentity.ProcessReport.State;
 import net.grinder.communication.Address;
 import net.grinder.communication.CommunicationException;
+import net.grinder.communication.Message;
+import net.grinder.communication.MessageCodec;
+import net.grinder.communication.MessageCodecRegistry;
 import net.grinder.engine.agent.StubAgentIdentity;
 import net.grinder.messages.agent.CacheHighWaterMark;
+import net.grinder.messages.agent.ReceivedFile;
 import net.grinder.messages.agent.StubCacheHighWaterMark;
 import net.grinder.statistics.ExpressionView;
 import net.grinder.statistics.StatisticExpressionFactory;
+import net.grinder.statistics.StatisticsIndexMap;
+import net.grinder.statistics.StatisticsServices;
 import net.grinder.statistics.StatisticsServicesImplementation;
+import net.grinder.statistics.StatisticsSet;
 import net.grinder.statistics.StatisticsSetFactory;
 import net.grinder.statistics.TestStatisticsMap;
 import net.grinder.testutility.Serializer;
@@ -135,6 +151,66 @@ public class TestConsoleMessages {
     final ReportStatisticsMessage received = Serializer.serialize(original);
 
     assertEquals(original.getStatisticsDelta(), received.getStatisticsDelta());
+    assertEquals(TimeUnit.MILLISECONDS, received.getTimeUnit());
+
+    final ReportStatisticsMessage received2 =
+      Serializer.serialize(
+        new ReportStatisticsMessage(statisticsDelta, TimeUnit.NANOSECONDS));
+
+    assertEquals(TimeUnit.NANOSECONDS, received2.getTimeUnit());
+  }
+
+  @Test public void testCoalesceReportStatisticsMessage() throws Exception {
+
+    final StatisticsServices statisticsServices =
+      StatisticsServicesImplementation.getInstance();
+    final StatisticsSetFactory statisticsSetFactory =
+      statisticsServices.getStatisticsSetFactory();
+    final StatisticsIndexMap.LongIndex errors =
+      statisticsServices.getStatisticsIndexMap().getLongIndex("errors");
+
+    final TestStatisticsMap delta1 =
+      new TestStatisticsMap(statisticsSetFactory);
+    final StatisticsSet statistics1 = statisticsSetFactory.create();
+    statistics1.setValue(errors, 1);
+    delta1.put(new StubTest(1, "one"), statistics1);
+
+    final TestStatisticsMap delta2 =
+      new TestStatisticsMap(statisticsSetFactory);
+    final StatisticsSet statistics2 = statisticsSetFactory.create();
+    statistics2.setValue(errors, 2);
+    delta2.put(new StubTest(1, "one"), statistics2);
+    final StatisticsSet statistics3 = statisticsSetFactory.create();
+    statistics3.setValue(errors, 3);
+    delta2.put(new StubTest(2, "two"), statistics3);
+
+    final ReportStatisticsMessage earlier =
+      new ReportStatisticsMessage(delta1);
+    final ReportStatisticsMessage later =
+      new ReportStatisticsMessage(delta2);
+
+    assertTrue(later.canCoalesce(earlier));
+    assertFalse(later.canCoalesce(
+      new ReportStatisticsMessage(delta1, TimeUnit.NANOSECONDS)));
+    assertFalse(later.canCoalesce(new WorkerProcessReportMessage(
+      State.RUNNING, 1, 1)));
+
+    later.coalesce(earlier);
+
+    final TestStatisticsMap expected =
+      new TestStatisticsMap(statisticsSetFactory);
+    final StatisticsSet expected1 = statisticsSetFactory.create();
+    expected1.setValue(errors, 3);
+    expected.put(new StubTest(1, "one"), expected1);
+    expected.put(new StubTest(2, "two"), statistics3);
+
+    assertEquals(expected, later.getStatisticsDelta());
+
+    final WorkerProcessReportMessage report =
+      new WorkerProcessReportMessage(State.FINISHED, 0, 1);
+    assertTrue(report.canCoalesce(
+      new WorkerProcessReportMessage(State.RUNNING, 1, 1)));
+    assertFalse(report.canCoalesce(earlier));
   }
 
   @Test public void testWorkerReportMessage() throws Exception {
@@ -144,7 +220,7 @@ public class TestConsoleMessages {
     final WorkerIdentity workerIdentity = agentIdentity.createWorkerIdentity();
 
     final WorkerProcessReportMessage original =
-      new WorkerProcessReportMessage(State.RUNNING, (short)2, (short)3);
+      new WorkerProcessReportMessage(State.RUNNING, 2, 3, 4, 5);
 
     final WorkerAddress address = new WorkerAddress(workerIdentity);
     original.setAddress(address);
@@ -162,12 +238,14 @@ public class TestConsoleMessages {
     assertEquals(State.RUNNING, received.getState());
     assertEquals(2, received.getNumberOfRunningThreads());
     assertEquals(3, received.getMaximumNumberOfThreads());
+    assertEquals(4, received.getMessageQueueDepth());
+    assertEquals(5, received.getMessageQueueLatency());
   }
 
   @Test public void testWorkerReportMessageBadAddress() throws Exception {
 
     final WorkerProcessReportMessage message =
-      new WorkerProcessReportMessage(State.RUNNING, (short)2, (short)3);
+      new WorkerProcessReportMessage(State.RUNNING, 2, 3);
 
     final Address badAddress =
       new AgentAddress(new StubAgentIdentity("Agent"));
@@ -205,6 +283,30 @@ public class TestConsoleMessages {
     assertEquals(address, original.getProcessAddress());
     assertEquals(State.RUNNING, received.getState());
     assertEquals(cacheHighWaterMark, received.getCacheHighWaterMark());
+    assertNull(received.getPeerFileServer());
+
+    final AgentProcessReportMessage withPeerFileServer =
+      Serializer.serialize(
+        new AgentProcessReportMessage(State.RUNNING,
+                                      cacheHighWaterMark,
+                                      "host:123"));
+    assertEquals("host:123", withPeerFileServer.getPeerFileServer());
+    assertEquals(0, withPeerFileServer.getReceivedFiles().size());
+
+    final AgentProcessReportMessage withReceivedFiles =
+      Serializer.serialize(
+        new AgentProcessReportMessage(
+          State.RUNNING,
+          cacheHighWaterMark,
+          null,
+          Collections.singletonList(
+            new ReceivedFile(new File("file"), "digest", 123))));
+
+    final ReceivedFile receivedFile =
+      withReceivedFiles.getReceivedFiles().get(0);
+    assertEquals(new File("file"), receivedFile.getFilename());
+    assertEquals("digest", receivedFile.getDigest());
+    assertEquals(123, receivedFile.getLength());
   }
 
   @Test public void testAgentReportMessageBadAddress() throws Exception {
@@ -222,4 +324,61 @@ public class TestConsoleMessages {
     catch (CommunicationException e) {
     }
   }
+
+  @Test public void testCodecs() throws Exception {
+    final StatisticsSetFactory statisticsSetFactory =
+      StatisticsServicesImplementation.getInstance().getStatisticsSetFactory();
+
+    final MessageCodecRegistry registry =
+      ConsoleMessageCodecs.createRegistry(statisticsSetFactory);
+
+    final StatisticsIndexMap indexMap =
+      StatisticsServicesImplementation.getInstance().getStatisticsIndexMap();
+
+    final StatisticsSet statistics = statisticsSetFactory.create();
+    statistics.addValue(indexMap.getLongIndex("untimedTests"), 3);
+    statistics.addSample(indexMap.getLongSampleIndex("timedTests"), 99);
+
+    final TestStatisticsMap statisticsDelta =
+      new TestStatisticsMap(statisticsSetFactory);
+    statisticsDelta.put(new StubTest(7, "seven"), statistics);
+
+    final ReportStatisticsMessage report =
+      encodeAndDecode(
+        registry.getCodec(ReportStatisticsMessage.class),
+        new ReportStatisticsMessage(statisticsDelta, TimeUnit.MICROSECONDS));
+
+    assertEquals(statisticsDelta, report.getStatisticsDelta());
+    assertEquals(TimeUnit.MICROSECONDS, report.getTimeUnit());
+
+    final WorkerProcessReportMessage workerReport =
+      encodeAndDecode(
+        registry.getCodec(WorkerProcessReportMessage.class),
+        new WorkerProcessReportMessage(State.FINISHED, 2, 3, 4, 5));
+
+    assertEquals(State.FINISHED, workerReport.getState());
+    assertEquals(2, workerReport.getNumberOfRunningThreads());
+    assertEquals(3, workerReport.getMaximumNumberOfThreads());
+    assertEquals(4, workerReport.getMessageQueueDepth());
+    assertEquals(5, workerReport.getMessageQueueLatency());
+
+    try {
+      registry.getCodec(WorkerProcessReportMessage.class).read(
+        new DataInputStream(new ByteArrayInputStream(new byte[] { 99 })));
+      fail("Expected IOException");
+    }
+    catch (IOException e) {
+    }
+  }
+
+  private static <T extends Message> T encodeAndDecode(MessageCodec<T> codec,
+                                                       T message)
+    throws IOException {
+
+    final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+    codec.write(message, new DataOutputStream(byteStream));
+
+    return codec.read(
+      new DataInputStream(new ByteArrayInputStream(byteStream.toByteArray())));
+  }
 }
@@ -22,6 +22,8 @@
 
 package net.grinder.statistics;
 
+import java.util.concurrent.TimeUnit;
+
 import net.grinder.statistics.StatisticExpressionFactoryImplementation.ParseContext.ParseException;
 import net.grinder.testutility.RandomStubFactory;
 import junit.framework.TestCase;
@@ -65,6 +67,72 @@ public class TestCommonStatisticsViews extends TestCase {
     assertTrue(summaryExpressionViews.length > 0);
   }
 
+  public void testTimeUnits() throws Exception {
+    final StatisticsIndexMap statisticsIndexMap = new StatisticsIndexMap();
+    final StatisticExpressionFactory statisticExpressionFactory =
+      new StatisticExpressionFactoryImplementation(statisticsIndexMap);
+
+    final CommonStatisticsViews commonStatisticsViews =
+      new CommonStatisticsViews(statisticExpressionFactory);
+
+    assertSame(commonStatisticsViews.getSummaryStatisticsView(),
+               commonStatisticsViews.getSummaryStatisticsView(
+                 TimeUnit.MILLISECONDS));
+    assertSame(commonStatisticsViews.getDetailStatisticsView(),
+               commonStatisticsViews.getDetailStatisticsView(
+                 TimeUnit.MILLISECONDS));
+
+    assertEquals("Test time",
+                 commonStatisticsViews.getDetailStatisticsView()
+                 .getExpressionViews()[0].getDisplayName());
+    assertEquals("Test time (us)",
+                 commonStatisticsViews.getDetailStatisticsView(
+                   TimeUnit.MICROSECONDS)
+                 .getExpressionViews()[0].getDisplayName());
+    assertEquals("Test time (ns)",
+                 commonStatisticsViews.getDetailStatisticsView(
+                   TimeUnit.NANOSECONDS)
+                 .getExpressionViews()[0].getDisplayName());
+
+    assertNull(commonStatisticsViews.getSummaryStatisticsView(
+                 TimeUnit.SECONDS));
+    assertTrue(CommonStatisticsViews.isSupported(TimeUnit.NANOSECONDS));
+    assertFalse(CommonStatisticsViews.isSupported(TimeUnit.SECONDS));
+
+    final StatisticsIndexMap.LongSampleIndex timedTestsIndex =
+      statisticsIndexMap.getLongSampleIndex("timedTests");
+
+    final StatisticsSet milliseconds =
+      new StatisticsSetImplementation(statisticsIndexMap);
+    milliseconds.addSample(timedTestsIndex, 10);
+    milliseconds.addSample(timedTestsIndex, 20);
+
+    final StatisticsSet microseconds =
+      new StatisticsSetImplementation(statisticsIndexMap);
+    microseconds.addSample(timedTestsIndex, 10000);
+    microseconds.addSample(timedTestsIndex, 20000);
+
+    final ExpressionView[] msViews =
+      commonStatisticsViews.getSummaryStatisticsView().getExpressionViews();
+    final ExpressionView[] usViews =
+      commonStatisticsViews.getSummaryStatisticsView(TimeUnit.MICROSECONDS)
+      .getExpressionViews();
+
+    assertEquals(msViews.length, usViews.length);
+
+    for (int i = 0; i < msViews.length; ++i) {
+      assertEquals(msViews[i].getDisplayName(), usViews[i].getDisplayName());
+
+      if (msViews[i].getDisplayName().startsWith("Mean") ||
+          msViews[i].getDisplayName().contains("Deviation")) {
+        assertEquals(
+          msViews[i].getExpression().getDoubleValue(milliseconds),
+          usViews[i].getExpression().getDoubleValue(microseconds),
+          0.0001);
+      }
+    }
+  }
+
   public void testGetViewsWithBrokenStatisticsExpressionFactory()
     throws Exception {
     final RandomStubFactory<StatisticExpressionFactory>
@@ -0,0 +1,73 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.statistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link LogarithmicHistogram}.
+ *
+ * @author Philip Aston
+ */
+public class TestLogarithmicHistogram {
+
+  @Test public void testSmallValuesAreExact() {
+    for (int i = 0; i < 2 * LogarithmicHistogram.SUB_BUCKETS; ++i) {
+      final int bucket = LogarithmicHistogram.bucket(i);
+      assertEquals(i, LogarithmicHistogram.lowerBound(bucket));
+      assertEquals(i, LogarithmicHistogram.upperBound(bucket));
+      assertEquals(i, LogarithmicHistogram.representativeValue(bucket));
+    }
+  }
+
+  @Test public void testBucketsAreContiguous() {
+    long expectedLowerBound = 0;
+
+    for (int b = 0; b < LogarithmicHistogram.NUMBER_OF_BUCKETS; ++b) {
+      final long lower = LogarithmicHistogram.lowerBound(b);
+      final long upper = LogarithmicHistogram.upperBound(b);
+
+      assertEquals(expectedLowerBound, lower);
+      assertTrue(upper >= lower);
+      assertEquals(b, LogarithmicHistogram.bucket(lower));
+      assertEquals(b, LogarithmicHistogram.bucket(upper));
+
+      // Relative bucket width is bounded.
+      assertTrue(upper - lower <= lower / LogarithmicHistogram.SUB_BUCKETS);
+
+      expectedLowerBound = upper + 1;
+    }
+
+    assertEquals(LogarithmicHistogram.MAXIMUM_VALUE + 1, expectedLowerBound);
+  }
+
+  @Test public void testOutOfRangeValues() {
+    assertEquals(0, LogarithmicHistogram.bucket(-1));
+    assertEquals(0, LogarithmicHistogram.bucket(Long.MIN_VALUE));
+    assertEquals(LogarithmicHistogram.NUMBER_OF_BUCKETS - 1,
+                 LogarithmicHistogram.bucket(Long.MAX_VALUE));
+  }
+}
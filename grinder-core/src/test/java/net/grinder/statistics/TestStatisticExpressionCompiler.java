@@ -0,0 +1,255 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.statistics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Unit tests for {@link StatisticExpressionCompiler}.
+ *
+ * @author Philip Aston
+ */
+public class TestStatisticExpressionCompiler extends TestCase {
+
+  private static final String[] EXPRESSIONS = {
+    "0",
+    "-3",
+    "2.5",
+    "userLong0",
+    "userDouble0",
+    "period",
+    "(+)",
+    "(*)",
+    "(+ userLong0 userLong1 -7)",
+    "(+ userLong0 userDouble0)",
+    "(+ 0.5 userLong0)",
+    "(- userLong0)",
+    "(- userDouble1)",
+    "(- userLong0 userLong1 userLong2)",
+    "(- userDouble0 userLong1)",
+    "(- userLong0 userDouble1 userLong2)",
+    "(* userLong0 userLong1 3)",
+    "(* userLong0 userDouble0)",
+    "(* 1000000000 userLong0 userLong1 userLong2)",
+    "(/ userLong0 userLong1)",
+    "(/ userDouble0 0)",
+    "(/ 0 0)",
+    "(sqrt userLong3)",
+    "(sqrt (- userDouble2))",
+    "(sum timedTests)",
+    "(count timedTests)",
+    "(variance timedTests)",
+    "(sum userDoubleSample)",
+    "(count userDoubleSample)",
+    "(variance userDoubleSample)",
+    "(percentile 0 timedTests)",
+    "(percentile 50 timedTests)",
+    "(percentile 99.9 timedTests)",
+    "(/ (sum timedTests) (count timedTests))",
+    "(* 1000 (/ (+ (count timedTests) untimedTests) period))",
+    "(sqrt (variance timedTests))",
+  };
+
+  private final Random m_random = new Random(1234);
+
+  private StatisticsIndexMap m_indexMap;
+  private StatisticExpressionFactory m_factory;
+
+  protected void setUp() throws Exception {
+    m_indexMap = new StatisticsIndexMap();
+    m_indexMap.createDoubleSampleIndex(
+      "userDoubleSample",
+      m_indexMap.getDoubleIndex("userDouble4"),
+      m_indexMap.getLongIndex("userLong4"),
+      m_indexMap.getDoubleIndex("peakTPS"));
+    m_factory = new StatisticExpressionFactoryImplementation(m_indexMap);
+  }
+
+  public void testSameResultsAsInterpreted() throws Exception {
+    final StatisticExpression[] expressions =
+      new StatisticExpression[EXPRESSIONS.length];
+
+    for (int i = 0; i < EXPRESSIONS.length; ++i) {
+      expressions[i] = m_factory.createExpression(EXPRESSIONS[i]);
+    }
+
+    for (int n = 0; n < 100; ++n) {
+      final StatisticsSetImplementation statistics = createStatistics(n);
+
+      // The compiled expressions delegate to the interpreted expressions
+      // for other StatisticsSet implementations.
+      final StatisticsSet other = delegatingStatisticsSet(statistics);
+
+      for (int i = 0; i < expressions.length; ++i) {
+        final String message = EXPRESSIONS[i] + " for " + statistics;
+
+        assertEquals(message,
+                     expressions[i].getLongValue(other),
+                     expressions[i].getLongValue(statistics));
+
+        assertEquals(
+          message,
+          Double.doubleToLongBits(expressions[i].getDoubleValue(other)),
+          Double.doubleToLongBits(expressions[i].getDoubleValue(statistics)));
+      }
+    }
+  }
+
+  public void testIsDouble() throws Exception {
+    assertFalse(m_factory.createExpression("(+ 1 userLong0)").isDouble());
+    assertTrue(m_factory.createExpression("(+ 1 userDouble0)").isDouble());
+    assertFalse(m_factory.createExpression("(- userDouble0 1)").isDouble());
+    assertTrue(m_factory.createExpression("(/ 1 1)").isDouble());
+    assertTrue(
+      m_factory.createExpression("(percentile 50 timedTests)").isDouble());
+  }
+
+  public void testCachesClasses() throws Exception {
+    final StatisticExpressionCompiler compiler =
+      new StatisticExpressionCompiler();
+
+    final StatisticExpression interpreted =
+      m_factory.createPrimitive(m_indexMap.getLongIndex("userLong0"));
+
+    compiler.compile("userLong0", interpreted);
+    assertEquals(1, compiler.getNumberOfCompiledClasses());
+
+    compiler.compile("userLong0", interpreted);
+    assertEquals(1, compiler.getNumberOfCompiledClasses());
+
+    compiler.compile("(+ userLong0)", interpreted);
+    assertEquals(2, compiler.getNumberOfCompiledClasses());
+  }
+
+  public void testCompilesParsedTree() throws Exception {
+    final StatisticExpressionCompiler compiler =
+      new StatisticExpressionCompiler();
+
+    final StatisticExpression interpreted =
+      m_factory.createSum(new StatisticExpression[] {
+        m_factory.createPrimitive(m_indexMap.getLongIndex("userLong0")),
+        m_factory.createConstant(2),
+      });
+
+    // The string is only the cache key; the code comes from the tree.
+    final StatisticExpression compiled =
+      compiler.compile("anything", interpreted);
+
+    assertNotSame(interpreted, compiled);
+    assertFalse(compiled.isDouble());
+
+    final StatisticsSetImplementation statistics =
+      new StatisticsSetImplementation(m_indexMap);
+    statistics.setValue(m_indexMap.getLongIndex("userLong0"), 5);
+
+    assertEquals(7, compiled.getLongValue(statistics));
+  }
+
+  public void testFallsBackForOtherExpressions() throws Exception {
+    final StatisticExpressionCompiler compiler =
+      new StatisticExpressionCompiler();
+
+    final StatisticExpression other = new StatisticExpression() {
+      public double getDoubleValue(StatisticsSet statisticsSet) {
+        return 1;
+      }
+
+      public long getLongValue(StatisticsSet statisticsSet) {
+        return 1;
+      }
+
+      public boolean isDouble() {
+        return false;
+      }
+    };
+
+    final StatisticExpression interpreted =
+      m_factory.createNegation(other);
+
+    assertSame(interpreted, compiler.compile("(- other)", interpreted));
+    assertEquals(0, compiler.getNumberOfCompiledClasses());
+  }
+
+  private StatisticsSetImplementation createStatistics(int n) {
+    final StatisticsSetImplementation result =
+      new StatisticsSetImplementation(m_indexMap);
+
+    if (n == 0) {
+      // All zero.
+      return result;
+    }
+
+    // userLong4 and userDouble4 are used by userDoubleSample.
+    for (int i = 0; i < 4; ++i) {
+      result.setValue(m_indexMap.getLongIndex("userLong" + i),
+                      m_random.nextInt(2000) - 1000);
+      result.setValue(m_indexMap.getDoubleIndex("userDouble" + i),
+                      m_random.nextGaussian() * 1000);
+    }
+
+    if (n % 2 == 0) {
+      result.setValue(m_indexMap.getLongIndex("period"),
+                      m_random.nextInt(10000));
+    }
+
+    final int samples = m_random.nextInt(20);
+
+    for (int i = 0; i < samples; ++i) {
+      result.addSample(m_indexMap.getLongSampleIndex("timedTests"),
+                       m_random.nextInt(100000));
+      result.addSample(m_indexMap.getDoubleSampleIndex("userDoubleSample"),
+                       m_random.nextDouble());
+    }
+
+    result.setValue(m_indexMap.getLongIndex("untimedTests"),
+                    m_random.nextInt(100));
+
+    return result;
+  }
+
+  private static StatisticsSet delegatingStatisticsSet(
+    final StatisticsSet delegate) {
+
+    return (StatisticsSet) Proxy.newProxyInstance(
+      TestStatisticExpressionCompiler.class.getClassLoader(),
+      new Class<?>[] { StatisticsSet.class },
+      new InvocationHandler() {
+        public Object invoke(Object proxy, Method method, Object[] args)
+          throws Throwable {
+          try {
+            return method.invoke(delegate, args);
+          }
+          catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+        }
+      });
+  }
+}
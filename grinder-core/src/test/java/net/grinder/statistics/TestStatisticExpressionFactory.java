@@ -425,6 +425,36 @@ public class TestStatisticExpressionFactory extends TestCase {
     }
   }
 
+  public void testPercentile() throws Exception {
+    assertTrue(Double.isNaN(
+      m_factory.createExpression("(percentile 50 timedTests)")
+      .getDoubleValue(m_statistics)));
+
+    for (int i = 0; i < 10; ++i) {
+      m_statistics.addSample(m_indexMap.getLongSampleIndex("timedTests"), i);
+    }
+
+    myAssertEquals(4, m_factory.createExpression("(percentile 50 timedTests)"));
+    myAssertEquals(9,
+                   m_factory.createExpression("(percentile 99.9 timedTests)"));
+
+    final String[] invalid = {
+      "(percentile 50 userLong0)",
+      "(percentile foo timedTests)",
+      "(percentile 101 timedTests)",
+      "(percentile 50)",
+    };
+
+    for (String expression : invalid) {
+      try {
+        m_factory.createExpression(expression);
+        fail("Expected ParseException");
+      }
+      catch (StatisticExpressionFactoryImplementation.ParseContext.ParseException e) {
+      }
+    }
+  }
+
   public void testDoubleSample() throws Exception {
     try {
       final StatisticsIndexMap.DoubleIndex sumIndex =
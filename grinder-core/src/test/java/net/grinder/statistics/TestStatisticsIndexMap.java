@@ -114,7 +114,8 @@ public class TestStatisticsIndexMap extends TestCase {
     assertEquals(6, map.getNumberOfLongs());
     assertEquals(4, map.getNumberOfDoubles());
     assertEquals(2, map.getNumberOfTransientLongs());
-    assertEquals(0, map.getDoubleSampleIndicies().size());
+    assertEquals(0, map.getDoubleSampleIndicies().length);
+    assertEquals(2, map.getLongSampleIndicies().length);
 
     final ExpectedIndices expectedLongs =
         new ExpectedIndices(0, 1, 2, 3, 4, 5);
@@ -135,6 +136,15 @@ public class TestStatisticsIndexMap extends TestCase {
     expectedLongs.remove(ls2.getSumIndex().getValue());
     expectedDoubles.remove(ls2.getVarianceIndex().getValue());
 
+    final boolean[] isVarianceIndex = map.getVarianceIndicies();
+    assertEquals(4, isVarianceIndex.length);
+
+    for (int i = 0; i < isVarianceIndex.length; ++i) {
+      assertEquals(i == ls1.getVarianceIndex().getValue() ||
+                   i == ls2.getVarianceIndex().getValue(),
+                   isVarianceIndex[i]);
+    }
+
     expectedTransientLongs.remove(map.getLongIndex("t1").getValue());
     expectedTransientLongs.remove(map.getLongIndex("t2").getValue());
     expectedDoubles.remove(map.getDoubleIndex("d1").getValue());
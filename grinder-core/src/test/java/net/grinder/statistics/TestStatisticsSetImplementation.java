@@ -26,10 +26,13 @@ import static java.util.Arrays.asList;
 import static net.grinder.testutility.AssertUtilities.assertNotEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.Random;
@@ -335,6 +338,121 @@ public class TestStatisticsSetImplementation {
     assertDoublesEqual(0, rawStatistics1.getVariance(longSampleIndex));
   }
 
+  @Test public void testHistogram() throws Exception {
+    final StatisticsIndexMap.LongSampleIndex longSampleIndex =
+      m_indexMap.getLongSampleIndex("timedTests");
+
+    final StatisticsIndexMap.HistogramIndex histogramIndex =
+      m_indexMap.getHistogramIndex("timedTests");
+
+    final StatisticsSet statistics0 =
+      new StatisticsSetImplementation(m_indexMap);
+
+    assertEquals(0, statistics0.getPercentile(histogramIndex, 50));
+
+    for (int i = 1; i <= 100; ++i) {
+      statistics0.addSample(longSampleIndex, i);
+    }
+
+    assertEquals(1, statistics0.getPercentile(histogramIndex, 0));
+    assertPercentile(50, statistics0.getPercentile(histogramIndex, 50));
+    assertPercentile(90, statistics0.getPercentile(histogramIndex, 90));
+    assertPercentile(99, statistics0.getPercentile(histogramIndex, 99));
+    assertPercentile(100, statistics0.getPercentile(histogramIndex, 100));
+
+    final StatisticsSet statistics1 =
+      new StatisticsSetImplementation(m_indexMap);
+
+    for (int i = 0; i < 900; ++i) {
+      statistics1.addSample(longSampleIndex, 10000);
+    }
+
+    statistics0.add(statistics1);
+
+    assertPercentile(100, statistics0.getPercentile(histogramIndex, 10));
+    assertPercentile(10000, statistics0.getPercentile(histogramIndex, 11));
+    assertPercentile(10000, statistics0.getPercentile(histogramIndex, 99.9));
+
+    statistics0.reset(longSampleIndex);
+    assertEquals(0, statistics0.getPercentile(histogramIndex, 50));
+  }
+
+  private static void assertPercentile(long expected, long actual) {
+    assertTrue("Expected " + expected + " but got " + actual,
+               Math.abs(expected - actual) <=
+               expected / LogarithmicHistogram.SUB_BUCKETS);
+  }
+
+  @Test public void testHistogramSerialisation() throws Exception {
+    final StatisticsIndexMap.LongSampleIndex longSampleIndex =
+      m_indexMap.getLongSampleIndex("timedTests");
+
+    final StatisticsSetImplementation original =
+      new StatisticsSetImplementation(m_indexMap);
+
+    original.addSample(longSampleIndex, 3);
+    original.addSample(longSampleIndex, 3);
+    original.addSample(longSampleIndex, 123456);
+    original.addSample(longSampleIndex, Long.MAX_VALUE);
+
+    final ByteArrayOutputStream byteOutputStream = new ByteArrayOutputStream();
+    final ObjectOutputStream objectOutputStream =
+      new ObjectOutputStream(byteOutputStream);
+
+    final Serialiser serialiser = new Serialiser();
+
+    original.writeExternal(objectOutputStream, serialiser);
+    objectOutputStream.close();
+
+    final ObjectInputStream objectInputStream = new ObjectInputStream(
+      new ByteArrayInputStream(byteOutputStream.toByteArray()));
+
+    final StatisticsSetImplementation received =
+      new StatisticsSetImplementation(m_indexMap,
+                                      objectInputStream,
+                                      serialiser);
+
+    assertEquals(original, received);
+  }
+
+  @Test public void testCorruptHistogramSerialisation() throws Exception {
+    final int numberOfBuckets =
+      m_indexMap.getHistogramIndex("timedTests").getNumberOfBuckets();
+
+    final long[] badBuckets = { -1, numberOfBuckets, 1L << 32 };
+
+    for (long bucket : badBuckets) {
+      final ByteArrayOutputStream byteOutputStream =
+        new ByteArrayOutputStream();
+      final ObjectOutputStream objectOutputStream =
+        new ObjectOutputStream(byteOutputStream);
+
+      final Serialiser serialiser = new Serialiser();
+
+      for (int i = 0; i < m_indexMap.getNumberOfNonHistogramLongs(); ++i) {
+        serialiser.writeLong(objectOutputStream, 0);
+      }
+
+      // One occupied bucket.
+      serialiser.writeLong(objectOutputStream, 1);
+      serialiser.writeLong(objectOutputStream, bucket);
+      serialiser.writeLong(objectOutputStream, 1);
+      objectOutputStream.close();
+
+      final ObjectInputStream objectInputStream = new ObjectInputStream(
+        new ByteArrayInputStream(byteOutputStream.toByteArray()));
+
+      try {
+        new StatisticsSetImplementation(m_indexMap,
+                                        objectInputStream,
+                                        serialiser);
+        fail("Expected IOException for bucket " + bucket);
+      }
+      catch (IOException e) {
+      }
+    }
+  }
+
   @Test public void testDoubleSampleReadAndWrite() throws Exception {
     try {
       final StatisticsIndexMap.DoubleIndex sumIndex = m_indexMap
@@ -505,6 +623,23 @@ public class TestStatisticsSetImplementation {
     assertTrue(rawStatistics.toString().indexOf("composite = true") >= 0);
   }
 
+  @Test public void testHistogramSlots() throws Exception {
+
+    final StatisticsIndexMap statisticsIndexMap2 =
+      new StatisticsIndexMap(asList("a"),
+                             asList("b"),
+                             asList("c", "d"),
+                             asList("timedTests", "other"),
+                             asList("timedTests"));
+
+    assertEquals(5, statisticsIndexMap2.getNumberOfNonHistogramLongs());
+    assertEquals(5 + LogarithmicHistogram.NUMBER_OF_BUCKETS,
+                 statisticsIndexMap2.getNumberOfLongs());
+    assertEquals(5,
+      statisticsIndexMap2.getHistogramIndex("timedTests").getFirstBucket());
+    assertNull(statisticsIndexMap2.getHistogramIndex("other"));
+  }
+
   @Test public void testToString2() throws Exception {
 
     final StatisticsIndexMap statisticsIndexMap2 =
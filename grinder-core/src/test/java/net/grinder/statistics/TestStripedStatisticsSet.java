@@ -0,0 +1,160 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.statistics;
+
+import junit.framework.TestCase;
+
+import net.grinder.statistics.StatisticsIndexMap.LongIndex;
+import net.grinder.statistics.StatisticsIndexMap.LongSampleIndex;
+
+
+/**
+ * Unit tests for {@link StripedStatisticsSet}.
+ *
+ * @author Philip Aston
+ */
+public class TestStripedStatisticsSet extends TestCase {
+
+  private final StatisticsServices m_statisticsServices =
+    StatisticsServicesImplementation.getInstance();
+
+  private final StatisticsSetFactory m_factory =
+    m_statisticsServices.getStatisticsSetFactory();
+
+  private final StatisticsIndexMap m_indexMap =
+    m_statisticsServices.getStatisticsIndexMap();
+
+  private final LongSampleIndex m_timedTestsIndex =
+    m_indexMap.getLongSampleIndex("timedTests");
+
+  private final LongIndex m_errorsIndex = m_indexMap.getLongIndex("errors");
+
+  public void testNumberOfStripes() throws Exception {
+    assertEquals(1, new StripedStatisticsSet(m_factory, 1).getNumberOfStripes());
+    assertEquals(2, new StripedStatisticsSet(m_factory, 2).getNumberOfStripes());
+    assertEquals(4, new StripedStatisticsSet(m_factory, 3).getNumberOfStripes());
+    assertEquals(8, new StripedStatisticsSet(m_factory, 8).getNumberOfStripes());
+
+    try {
+      new StripedStatisticsSet(m_factory, 0);
+      fail("Expected IllegalArgumentException");
+    }
+    catch (IllegalArgumentException e) {
+    }
+
+    final StripedStatisticsSet striped = m_factory.createStriped();
+    assertTrue(striped.getNumberOfStripes() >=
+               Math.min(2 * Runtime.getRuntime().availableProcessors(),
+                        StatisticsSetFactory.MAXIMUM_NUMBER_OF_STRIPES));
+    assertTrue(striped.getNumberOfStripes() <=
+               StatisticsSetFactory.MAXIMUM_NUMBER_OF_STRIPES);
+  }
+
+  public void testGetStripe() throws Exception {
+    final StripedStatisticsSet striped = new StripedStatisticsSet(m_factory, 4);
+    assertEquals(0, striped.getNumberOfCreatedStripes());
+
+    final StatisticsSet stripe = striped.getStripe();
+    assertTrue(stripe instanceof StatisticsSetImplementation);
+    assertSame(stripe, striped.getStripe());
+    assertEquals(1, striped.getNumberOfCreatedStripes());
+  }
+
+  public void testDrainTo() throws Exception {
+    final StripedStatisticsSet striped = new StripedStatisticsSet(m_factory, 4);
+
+    final StatisticsSet target = m_factory.create();
+    striped.drainTo(target);
+    assertTrue(target.isZero());
+
+    striped.getStripe().addSample(m_timedTestsIndex, 10);
+    striped.getStripe().addValue(m_errorsIndex, 2);
+
+    striped.drainTo(target);
+    assertEquals(1, target.getCount(m_timedTestsIndex));
+    assertEquals(10, target.getSum(m_timedTestsIndex));
+    assertEquals(2, target.getValue(m_errorsIndex));
+    assertTrue(striped.getStripe().isZero());
+
+    striped.drainTo(target);
+    assertEquals(1, target.getCount(m_timedTestsIndex));
+  }
+
+  public void testManyThreads() throws Exception {
+    final StripedStatisticsSet striped = new StripedStatisticsSet(m_factory, 4);
+    final StatisticsSet expected = m_factory.create();
+
+    final int numberOfThreads = 10;
+    final int samplesPerThread = 1000;
+
+    final Thread[] threads = new Thread[numberOfThreads];
+
+    for (int i = 0; i < numberOfThreads; ++i) {
+      final int n = i;
+
+      threads[i] = new Thread() {
+        public void run() {
+          final StatisticsSet stripe = striped.getStripe();
+
+          for (int j = 0; j < samplesPerThread; ++j) {
+            stripe.addSample(m_timedTestsIndex, n * j);
+          }
+        }
+      };
+
+      for (int j = 0; j < samplesPerThread; ++j) {
+        expected.addSample(m_timedTestsIndex, n * j);
+      }
+    }
+
+    final StatisticsSet target = m_factory.create();
+
+    for (int i = 0; i < numberOfThreads; ++i) {
+      threads[i].start();
+    }
+
+    // Drain concurrently with the updates.
+    striped.drainTo(target);
+
+    for (int i = 0; i < numberOfThreads; ++i) {
+      threads[i].join();
+    }
+
+    striped.drainTo(target);
+
+    assertEquals(expected.getCount(m_timedTestsIndex),
+                 target.getCount(m_timedTestsIndex));
+    assertEquals(expected.getSum(m_timedTestsIndex),
+                 target.getSum(m_timedTestsIndex));
+    assertEquals(expected.getVariance(m_timedTestsIndex),
+                 target.getVariance(m_timedTestsIndex),
+                 expected.getVariance(m_timedTestsIndex) * 1e-9);
+
+    for (double percentile : new double[] { 50, 99 }) {
+      assertEquals(
+        expected.getPercentile(m_timedTestsIndex.getHistogramIndex(),
+                               percentile),
+        target.getPercentile(m_timedTestsIndex.getHistogramIndex(),
+                             percentile));
+    }
+  }
+}
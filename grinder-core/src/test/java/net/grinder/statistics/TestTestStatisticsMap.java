@@ -23,10 +23,13 @@ package net.grinder.statistics;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import junit.framework.TestCase;
 import net.grinder.common.StubTest;
@@ -234,6 +237,44 @@ public class TestTestStatisticsMap extends TestCase {
     }
   }
 
+  public void testWriteAndRead() throws Exception {
+
+    final StatisticsSetFactory factory =
+      m_statisticsServices.getStatisticsSetFactory();
+
+    final TestStatisticsMap original = new TestStatisticsMap(factory);
+
+    final int[] numbers = { -5, 0, 1, 1000, 1001, Integer.MAX_VALUE };
+
+    for (int number : numbers) {
+      original.put(new StubTest(number, ""), m_statistics0);
+    }
+
+    final ByteArrayOutputStream byteOutputStream = new ByteArrayOutputStream();
+    original.write(new DataOutputStream(byteOutputStream));
+
+    final TestStatisticsMap received = new TestStatisticsMap(factory);
+    received.read(
+      new DataInputStream(
+        new ByteArrayInputStream(byteOutputStream.toByteArray())));
+
+    assertEquals(original, received);
+
+    // Most of a sparse sample is zero, which we expect to cost a byte a
+    // value.
+    final TestStatisticsMap single = new TestStatisticsMap(factory);
+    single.put(m_test2, m_statistics0);
+
+    final ByteArrayOutputStream singleBytes = new ByteArrayOutputStream();
+    single.write(new DataOutputStream(singleBytes));
+
+    final StatisticsIndexMap indexMap =
+      m_statisticsServices.getStatisticsIndexMap();
+
+    assertTrue(singleBytes.size() <
+               3 + indexMap.getNumberOfLongs() + indexMap.getNumberOfDoubles());
+  }
+
   public void testTotalsMethods() throws Exception {
     final TestStatisticsMap map =
       new TestStatisticsMap(m_statisticsServices.getStatisticsSetFactory());
@@ -251,6 +292,45 @@ public class TestTestStatisticsMap extends TestCase {
     assertEquals(20, nonCompositeTotals.getValue(m_index));
   }
 
+  public void testConvertTimes() throws Exception {
+    final TestStatisticsMap map =
+      new TestStatisticsMap(m_statisticsServices.getStatisticsSetFactory());
+
+    final StatisticsIndexMap.LongSampleIndex timedTests =
+      m_statisticsServices.getStatisticsIndexMap()
+      .getLongSampleIndex("timedTests");
+    final StatisticsIndexMap.HistogramIndex histogram =
+      timedTests.getHistogramIndex();
+
+    final StatisticsSetImplementation statistics =
+      (StatisticsSetImplementation)m_statistics1;
+    statistics.addSample(timedTests, 3);
+    statistics.addSample(timedTests, 1000);
+    final double variance = statistics.getVariance(timedTests);
+
+    map.put(m_test0, statistics);
+    map.put(m_test1, m_statistics0);
+
+    map.convertTimes(timedTests, TimeUnit.MILLISECONDS, TimeUnit.MILLISECONDS);
+    assertEquals(1003, statistics.getSum(timedTests));
+
+    map.convertTimes(timedTests, TimeUnit.MILLISECONDS, TimeUnit.MICROSECONDS);
+    assertEquals(2, statistics.getCount(timedTests));
+    assertEquals(1003000, statistics.getSum(timedTests));
+    assertEquals(variance * 1e6, statistics.getVariance(timedTests), 1e-3);
+    assertEquals(3000, statistics.getPercentile(histogram, 50), 3000 / 8);
+    assertEquals(1000000,
+                 statistics.getPercentile(histogram, 100),
+                 1000000 / 8);
+    assertEquals(10, m_statistics0.getValue(m_index));
+
+    map.convertTimes(timedTests, TimeUnit.MICROSECONDS, TimeUnit.MILLISECONDS);
+    assertEquals(1003, statistics.getSum(timedTests));
+    assertEquals(variance, statistics.getVariance(timedTests), 1e-9);
+    assertEquals(3, statistics.getPercentile(histogram, 50));
+    assertEquals(1000, statistics.getPercentile(histogram, 100), 1000 / 8);
+  }
+
   public void testSynchronisation() throws Exception {
     final TestStatisticsMap map =
       new TestStatisticsMap(m_statisticsServices.getStatisticsSetFactory());
@@ -120,4 +120,180 @@ public class TestFileContents extends AbstractFileTestCase {
                                         fileContents2.getContents());
     }
   }
+
+  public void testChunks() throws Exception {
+    final File relativePath = new File("chunked");
+    final File fullPath = new File(getDirectory(), relativePath.getPath());
+
+    final OutputStream outputStream = new FileOutputStream(fullPath);
+    final byte[] bytes = new byte[1000];
+    s_random.nextBytes(bytes);
+    outputStream.write(bytes);
+    outputStream.close();
+
+    final File outputDirectory = new File(getDirectory(), "output");
+    outputDirectory.mkdir();
+    final Directory directory = new Directory(outputDirectory);
+
+    // Leave some stale data for the first chunk to replace.
+    final OutputStream staleStream =
+      new FileOutputStream(directory.getFile(relativePath));
+    staleStream.write(new byte[2000]);
+    staleStream.close();
+
+    final int[] offsets = { 0, 400, 800 };
+
+    for (int i = 0; i < offsets.length; ++i) {
+      final FileContents chunk =
+        new FileContents(getDirectory(), relativePath, offsets[i], 400);
+
+      assertEquals(offsets[i], chunk.getOffset());
+      assertEquals(1000, chunk.getFileLength());
+      assertEquals(i == offsets.length - 1, chunk.isLastChunk());
+      assertEquals(i == offsets.length - 1 ? 200 : 400,
+                   chunk.getContents().length);
+
+      final String s = chunk.toString();
+      assertTrue(s.indexOf("offset " + offsets[i]) >= 0);
+
+      Serializer.serialize(chunk).create(directory);
+
+      // Resending a chunk is harmless.
+      chunk.create(directory);
+    }
+
+    AssertUtilities.assertArraysEqual(
+      bytes,
+      new FileContents(outputDirectory, relativePath).getContents());
+
+    try {
+      new FileContents(getDirectory(), relativePath, 1001, 400);
+      fail("Expected FileContentsException");
+    }
+    catch (FileContents.FileContentsException e) {
+    }
+
+    final FileContents lateChunk =
+      new FileContents(getDirectory(), relativePath, 800, 400);
+
+    new FileContents(getDirectory(), relativePath, 0, 400).create(directory);
+
+    try {
+      lateChunk.create(directory);
+      fail("Expected FileContentsException");
+    }
+    catch (FileContents.FileContentsException e) {
+    }
+  }
+
+  public void testPatch() throws Exception {
+    final File relativePath = new File("patched");
+    final File fullPath = new File(getDirectory(), relativePath.getPath());
+
+    final byte[] bytes = new byte[1000];
+    s_random.nextBytes(bytes);
+    final OutputStream outputStream = new FileOutputStream(fullPath);
+    outputStream.write(bytes);
+    outputStream.close();
+
+    final File outputDirectory = new File(getDirectory(), "output");
+    outputDirectory.mkdir();
+    final Directory directory = new Directory(outputDirectory);
+
+    // The existing copy differs in the middle, and is longer.
+    final byte[] existing = new byte[1200];
+    System.arraycopy(bytes, 0, existing, 0, bytes.length);
+    existing[500] = (byte) ~bytes[500];
+    final OutputStream existingStream =
+      new FileOutputStream(directory.getFile(relativePath));
+    existingStream.write(existing);
+    existingStream.close();
+
+    final FileContents patch =
+      new FileContents(getDirectory(), relativePath, 400, 200, "new", "old");
+
+    assertEquals("new", patch.getDigest());
+    assertEquals("old", patch.getBaseDigest());
+    assertFalse(patch.isLastChunk());
+    assertTrue(patch.toString().indexOf("patch") >= 0);
+
+    // A patch at the start of the file doesn't truncate.
+    new FileContents(getDirectory(), relativePath, 0, 10, "new", "old")
+      .create(directory);
+    assertEquals(1200, directory.getFile(relativePath).length());
+
+    Serializer.serialize(patch).create(directory);
+
+    // An empty patch at the end truncates.
+    new FileContents(getDirectory(), relativePath, 1000, 10, "new", "old")
+      .create(directory);
+
+    AssertUtilities.assertArraysEqual(
+      bytes,
+      new FileContents(outputDirectory, relativePath).getContents());
+
+    final FileContents plain = new FileContents(getDirectory(), relativePath);
+    assertNull(plain.getDigest());
+    assertNull(plain.getBaseDigest());
+  }
+
+  public void testReceivedChunk() throws Exception {
+    final File relativePath = new File("received");
+    final File fullPath = new File(getDirectory(), relativePath.getPath());
+
+    final byte[] bytes = new byte[1000];
+    s_random.nextBytes(bytes);
+    final OutputStream outputStream = new FileOutputStream(fullPath);
+    outputStream.write(bytes);
+    outputStream.close();
+
+    final FileContents original =
+      new FileContents(getDirectory(), relativePath, 600, 400, "d", null);
+
+    final byte[] chunk = new byte[400];
+    System.arraycopy(bytes, 600, chunk, 0, chunk.length);
+
+    final FileContents received =
+      new FileContents(relativePath, 600, 1000, chunk, "d", null);
+
+    assertEquals(original.getChunkDigest(), received.getChunkDigest());
+    assertEquals(40, received.getChunkDigest().length());
+    assertEquals(400, received.getLength());
+    assertEquals(600, received.getOffset());
+    assertEquals("d", received.getDigest());
+    assertTrue(received.isLastChunk());
+
+    final byte[] corrupt = chunk.clone();
+    corrupt[0] = (byte) ~corrupt[0];
+
+    assertFalse(original.getChunkDigest().equals(
+      new FileContents(relativePath, 600, 1000, corrupt, "d", null)
+      .getChunkDigest()));
+
+    final File outputDirectory = new File(getDirectory(), "output");
+    outputDirectory.mkdir();
+    final Directory directory = new Directory(outputDirectory);
+
+    new FileContents(getDirectory(), relativePath, 0, 600, "d", null)
+      .create(directory);
+    received.create(directory);
+
+    AssertUtilities.assertArraysEqual(
+      bytes,
+      new FileContents(outputDirectory, relativePath).getContents());
+
+    try {
+      new FileContents(fullPath, 0, 1000, corrupt, null, null);
+      fail("Expected FileContentsException");
+    }
+    catch (FileContents.FileContentsException e) {
+    }
+
+    try {
+      new FileContents(relativePath, 700, 1000, corrupt, null, null);
+      fail("Expected FileContentsException");
+    }
+    catch (FileContents.FileContentsException e) {
+    }
+  }
 }
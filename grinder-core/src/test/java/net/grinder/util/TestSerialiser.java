@@ -24,6 +24,8 @@ package net.grinder.util;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -167,4 +169,46 @@ public class TestSerialiser extends TestCase
 			 0.00001);
 	}
     }
+
+    public void testSmallDoubles() throws Exception
+    {
+	final ByteArrayOutputStream byteArrayOutputStream =
+	    new ByteArrayOutputStream();
+
+	final DataOutputStream dataOutputStream =
+	    new DataOutputStream(byteArrayOutputStream);
+
+	final double[] doubles = new double[1005];
+
+	final Serialiser serialiser = new Serialiser();
+
+	for (int i=0; i<doubles.length - 5; i++) {
+	    doubles[i] = i % 3 == 0 ? 0 : i;
+	}
+
+	doubles[1000] = -0.0;
+	doubles[1001] = Double.NaN;
+	doubles[1002] = Double.NEGATIVE_INFINITY;
+	doubles[1003] = Double.MIN_VALUE;
+	doubles[1004] = Double.MAX_VALUE;
+
+	for (int i=0; i<doubles.length; i++) {
+	    serialiser.writeDouble(dataOutputStream, doubles[i]);
+	}
+
+	dataOutputStream.close();
+
+	final byte[] bytes = byteArrayOutputStream.toByteArray();
+
+	assertTrue("We should compress", bytes.length < 4 * doubles.length);
+
+	final DataInputStream dataInputStream =
+	    new DataInputStream(new ByteArrayInputStream(bytes));
+
+	for (int i=0; i<doubles.length; i++) {
+	    assertEquals(Double.doubleToRawLongBits(doubles[i]),
+			 Double.doubleToRawLongBits(
+			     serialiser.readDouble(dataInputStream)));
+	}
+    }
 }
@@ -123,6 +123,35 @@ public class TestSleeper {
     assertTrue(sleep0.getTimeInMilliseconds() > t1);
   }
 
+  @Test public void testSleepUntil() throws Exception {
+    // The sleep time factor does not apply.
+    final Sleeper sleeper =
+      new SleeperImplementation(m_timeAuthority, null, 10, 0);
+
+    assertTrue(
+      new Time(50, 70) {
+        public void doIt() throws Exception  {
+          sleeper.sleepUntil(sleeper.getTimeInNanoseconds() + 50000000);
+        }
+      }.run());
+
+    assertTrue(
+      new Time(0, 10) {
+        public void doIt() throws Exception  {
+          sleeper.sleepUntil(sleeper.getTimeInNanoseconds() - 50000000);
+        }
+      }.run());
+
+    sleeper.shutdown();
+
+    try {
+      sleeper.sleepUntil(0);
+      fail("Expected ShutdownException");
+    }
+    catch (Sleeper.ShutdownException e) {
+    }
+  }
+
   @Test public void testSleepFlat() throws Exception {
     // Warm up Hot Spot.
     final Sleeper sleep0 =
@@ -0,0 +1,60 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.util;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link StandardTimeAuthority}.
+ *
+ * @author Philip Aston
+ */
+public class TestStandardTimeAuthority {
+
+  private final TimeAuthority m_timeAuthority = new StandardTimeAuthority();
+
+  @Test public void testMillisecondsAndNanosecondsAgree() throws Exception {
+    final long before = System.currentTimeMillis();
+    final long nanos = m_timeAuthority.getTimeInNanoseconds();
+    final long millis = m_timeAuthority.getTimeInMilliseconds();
+    final long after = System.currentTimeMillis();
+
+    assertTrue(millis >= nanos / 1000000);
+    assertTrue(millis - nanos / 1000000 <= after - before + 1);
+
+    // Allow for the granularity of currentTimeMillis().
+    assertTrue(Math.abs(millis - before) < 100);
+  }
+
+  @Test public void testNanosecondsAreMonotonic() throws Exception {
+    long last = m_timeAuthority.getTimeInNanoseconds();
+
+    for (int i = 0; i < 1000; ++i) {
+      final long now = m_timeAuthority.getTimeInNanoseconds();
+      assertTrue(now >= last);
+      last = now;
+    }
+  }
+}
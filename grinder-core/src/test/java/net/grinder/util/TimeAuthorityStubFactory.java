@@ -37,10 +37,18 @@ public class TimeAuthorityStubFactory extends RandomStubFactory<TimeAuthority> {
   private List<Long> m_nextTimes = new ArrayList<Long>();
 
   public void nextTime(long time) {
+    nextTimeInNanoseconds(time * 1000000);
+  }
+
+  public void nextTimeInNanoseconds(long time) {
     m_nextTimes.add(new Long(time));
   }
 
   public long override_getTimeInMilliseconds(Object proxy) {
+    return override_getTimeInNanoseconds(proxy) / 1000000;
+  }
+
+  public long override_getTimeInNanoseconds(Object proxy) {
 
     if (m_nextTimes.size() != 0) {
       m_lastTime = m_nextTimes.remove(0).longValue();
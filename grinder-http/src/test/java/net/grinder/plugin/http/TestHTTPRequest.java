@@ -1367,5 +1367,9 @@ public class TestHTTPRequest {
     public long getTimeInMilliseconds() {
       return m_times[++m_last];
     }
+
+    public long getTimeInNanoseconds() {
+      return getTimeInMilliseconds() * 1000000;
+    }
   }
 }